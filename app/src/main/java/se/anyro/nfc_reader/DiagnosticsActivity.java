@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import se.anyro.nfc_reader.inspect.TagIo;
+import se.anyro.nfc_reader.scan.TagProcessor;
+import android.app.Activity;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Shows the latency of each scan stage and the latency histograms and
+ * failure counts of all tag I/O since the app started, refreshed every
+ * second, and dumps them or the {@link ScanLog} buffer to a file.
+ */
+public class DiagnosticsActivity extends Activity {
+
+    private static final long REFRESH_MILLIS = 1000;
+
+    private final Handler mHandler = new Handler();
+    private TextView mText;
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mText.setText(getStatsText());
+            mHandler.postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.diagnostics);
+        mText = (TextView) findViewById(R.id.diagnostics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mHandler.post(mRefresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefresh);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_diagnostics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.menu_diagnostics_dump) {
+            dumpStats();
+            return true;
+        } else if (id == R.id.menu_diagnostics_dump_log) {
+            dumpLog();
+            return true;
+        } else if (id == R.id.menu_diagnostics_reset) {
+            TagProcessor.getLatency().reset();
+            TagIo.getStats().reset();
+            mText.setText(getStatsText());
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void dumpStats() {
+        new DumpTask(this, newDumpFile("diagnostics")) {
+            @Override
+            protected void write(Writer out) throws IOException {
+                out.write(getStatsText());
+            }
+        }.execute();
+    }
+
+    private void dumpLog() {
+        new DumpTask(this, newDumpFile("scan-log")) {
+            @Override
+            protected void write(Writer out) throws IOException {
+                ScanLog.getBuffer().dump(out);
+            }
+        }.execute();
+    }
+
+    private static String getStatsText() {
+        return "Scan stages, ms:\n" + TagProcessor.getLatency() + "\nTag I/O, ms:\n"
+                + TagIo.getStats();
+    }
+
+    /** Returns a new file in the app's external files directory. */
+    private File newDumpFile(String prefix) {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        return new File(dir, prefix + "-" + time + ".txt");
+    }
+
+    private abstract static class DumpTask extends AsyncTask<Void, Void, IOException> {
+
+        private final Context mContext;
+        private final File mOutput;
+
+        DumpTask(Context context, File output) {
+            mContext = context.getApplicationContext();
+            mOutput = output;
+        }
+
+        protected abstract void write(Writer out) throws IOException;
+
+        @Override
+        protected IOException doInBackground(Void... params) {
+            try {
+                Writer out = new OutputStreamWriter(new FileOutputStream(mOutput), "UTF-8");
+                try {
+                    write(out);
+                } finally {
+                    out.close();
+                }
+                return null;
+            } catch (IOException e) {
+                ScanLog.w(ScanLog.TAG, "Dump to {} failed", mOutput, e);
+                return e;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(IOException error) {
+            String message = error != null
+                    ? mContext.getString(R.string.diagnostics_dump_failed, error.getMessage())
+                    : mContext.getString(R.string.diagnostics_dump_done, mOutput.getPath());
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import se.anyro.nfc_reader.history.ScanExporter;
+import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.widget.Toast;
+
+/**
+ * Exports the scan journal to a file in the background, showing the
+ * progress in a dialog.
+ */
+class ExportTask extends AsyncTask<Void, Integer, Integer>
+        implements ScanExporter.ProgressListener {
+
+    private final Context mContext;
+    private final ProgressDialog mDialog;
+    private final File mJournal;
+    private final ScanExporter.Format mFormat;
+    private final File mOutput;
+    private IOException mError;
+
+    ExportTask(Activity activity, File journal, ScanExporter.Format format, File output) {
+        mContext = activity.getApplicationContext();
+        mJournal = journal;
+        mFormat = format;
+        mOutput = output;
+        mDialog = new ProgressDialog(activity);
+        mDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mDialog.setMessage(activity.getString(R.string.exporting));
+        mDialog.setCancelable(false);
+    }
+
+    @Override
+    protected void onPreExecute() {
+        mDialog.show();
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        try {
+            FileOutputStream out = new FileOutputStream(mOutput);
+            try {
+                return ScanExporter.export(mJournal, mFormat, out, this);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            ScanLog.w(ScanLog.TAG, "Export to {} failed", mOutput, e);
+            mError = e;
+            return 0;
+        }
+    }
+
+    @Override
+    public void onProgress(int exported, int total) {
+        publishProgress(exported, total);
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mDialog.setMax(values[1]);
+        mDialog.setProgress(values[0]);
+    }
+
+    @Override
+    protected void onPostExecute(Integer count) {
+        mDialog.dismiss();
+        String message = mError != null
+                ? mContext.getString(R.string.export_failed, mError.getMessage())
+                : mContext.getString(R.string.export_done, count, mOutput.getPath());
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+}
@@ -15,64 +15,118 @@
  */
 package se.anyro.nfc_reader;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import se.anyro.nfc_reader.ndef.NdefCodec;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
 import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.record.RecordParser;
 import se.anyro.nfc_reader.record.SmartPoster;
 import se.anyro.nfc_reader.record.TextRecord;
+import se.anyro.nfc_reader.record.UnknownRecord;
 import se.anyro.nfc_reader.record.UriRecord;
-import android.app.Activity;
-import android.nfc.NdefMessage;
-import android.nfc.NdefRecord;
-import android.util.Log;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.TextView;
 
 /**
  * Utility class for creating {@link ParsedNdefMessage}s.
+ *
+ * <p>Each record is dispatched to its parser on its TNF, then on its type
+ * bytes compared in place, so the lookup allocates nothing. Each record is
+ * parsed exactly once. Records without a registered parser, or which their
+ * parser rejects, become {@link UnknownRecord}s.
+ *
+ * <p>This class does not depend on Android, so it can run on any thread.
  */
 public class NdefMessageParser {
 
+    /** Parsers for records of one specific TNF and type. Indexed by TNF. */
+    private static final TypeParser[][] TYPE_PARSERS = new TypeParser[8][0];
+
+    /** Parsers for all records of a TNF, regardless of type. Indexed by TNF. */
+    private static final RecordParser[] TNF_PARSERS = new RecordParser[8];
+
+    static {
+        register(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_URI, new RecordParser() {
+            @Override
+            public ParsedNdefRecord tryParse(NdefRecordView record) {
+                return UriRecord.tryParse(record);
+            }
+        });
+        register(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_TEXT, new RecordParser() {
+            @Override
+            public ParsedNdefRecord tryParse(NdefRecordView record) {
+                return TextRecord.tryParse(record);
+            }
+        });
+        register(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_SMART_POSTER, new RecordParser() {
+            @Override
+            public ParsedNdefRecord tryParse(NdefRecordView record) {
+                return SmartPoster.tryParse(record);
+            }
+        });
+        TNF_PARSERS[NdefRecordView.TNF_ABSOLUTE_URI] = new RecordParser() {
+            @Override
+            public ParsedNdefRecord tryParse(NdefRecordView record) {
+                return UriRecord.tryParse(record);
+            }
+        };
+    }
+
     // Utility class
     private NdefMessageParser() {
 
     }
 
-    /** Parse an NdefMessage */
-    public static List<ParsedNdefRecord> parse(NdefMessage message) {
-        return getRecords(message.getRecords());
+    private static void register(short tnf, byte[] type, RecordParser parser) {
+        TypeParser[] parsers = TYPE_PARSERS[tnf];
+        TypeParser[] grown = new TypeParser[parsers.length + 1];
+        System.arraycopy(parsers, 0, grown, 0, parsers.length);
+        grown[parsers.length] = new TypeParser(type.clone(), parser);
+        TYPE_PARSERS[tnf] = grown;
     }
 
-    public static List<ParsedNdefRecord> getRecords(NdefRecord[] records) {
-        List<ParsedNdefRecord> elements = new ArrayList<ParsedNdefRecord>();
-        for (final NdefRecord record : records) {
-            if (UriRecord.isUri(record)) {
-                Log.i("ZYPP", "isUri");
-                elements.add(UriRecord.parse(record));
-            } else if (TextRecord.isText(record)) {
-                TextRecord parse = TextRecord.parse(record);
-                Log.i("ZYPP", "isText text: " + parse.getText());
-                elements.add(parse);
-            } else if (SmartPoster.isPoster(record)) {
-                Log.i("ZYPP", "isPoster");
-                elements.add(SmartPoster.parse(record));
-            } else {
-                Log.i("ZYPP", "other");
-            	elements.add(new ParsedNdefRecord() {
-					@Override
-					public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
-				        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
-				        text.setText(new String(record.getPayload()));
-                        Log.i("ZYPP", "other record.getPayload(): " + new String(record.getPayload()));
-				        return text;
-					}
-            		
-            	});
+    /** Returns the parser registered for the record's TNF and type, or {@code null}. */
+    private static RecordParser getParser(NdefRecordView record) {
+        int tnf = record.getTnf() & 0x07;
+        TypeParser[] parsers = TYPE_PARSERS[tnf];
+        for (int i = 0; i < parsers.length; i++) {
+            if (record.typeEquals(parsers[i].mType)) {
+                return parsers[i].mParser;
             }
         }
+        return TNF_PARSERS[tnf];
+    }
+
+    /** Parse an NDEF message in wire format, as from {@code NdefMessage.toByteArray()} */
+    public static List<ParsedNdefRecord> parse(byte[] message) throws NdefFormatException {
+        return parse(ByteBuffer.wrap(message));
+    }
+
+    /** Parse an NDEF message in wire format, without copying any record data */
+    public static List<ParsedNdefRecord> parse(ByteBuffer message) throws NdefFormatException {
+        return getRecords(NdefCodec.decode(message));
+    }
+
+    public static List<ParsedNdefRecord> getRecords(List<NdefRecordView> records) {
+        List<ParsedNdefRecord> elements = new ArrayList<ParsedNdefRecord>(records.size());
+        for (NdefRecordView record : records) {
+            RecordParser parser = getParser(record);
+            ParsedNdefRecord parsed = parser != null ? parser.tryParse(record) : null;
+            elements.add(parsed != null ? parsed : new UnknownRecord(record));
+        }
         return elements;
     }
+
+    /** A parser together with the exact record type it handles. */
+    private static final class TypeParser {
+        final byte[] mType;
+        final RecordParser mParser;
+
+        TypeParser(byte[] type, RecordParser parser) {
+            mType = type;
+            mParser = parser;
+        }
+    }
 }
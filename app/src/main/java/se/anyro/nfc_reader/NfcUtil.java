@@ -1,7 +1,6 @@
 package se.anyro.nfc_reader;
 
 import android.nfc.NfcAdapter;
-import android.util.Log;
 
 import java.lang.reflect.Method;
 
@@ -14,10 +13,10 @@ public class NfcUtil {
             enable.setAccessible(true);
             enable.invoke(adapter);
 
-            Log.d("ZYPP", "调用enable方法成功");
+            ScanLog.d(ScanLog.TAG, "调用enable方法成功");
         } catch (Exception e) {
             e.printStackTrace();
-            Log.d("ZYPP", "e: " + e.getMessage());
+            ScanLog.d(ScanLog.TAG, "e: {}", e.getMessage());
         }
     }
     public static void nfcDisable(NfcAdapter adapter) {
@@ -27,10 +26,10 @@ public class NfcUtil {
             enable.setAccessible(true);
             enable.invoke(adapter, false);
 
-            Log.d("ZYPP", "调用disable方法成功");
+            ScanLog.d(ScanLog.TAG, "调用disable方法成功");
         } catch (Exception e) {
             e.printStackTrace();
-            Log.d("ZYPP", "e: " + e.getMessage());
+            ScanLog.d(ScanLog.TAG, "e: {}", e.getMessage());
         }
     }
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import se.anyro.nfc_reader.inspect.TagWriter;
+import se.anyro.nfc_reader.provision.NdefTemplate;
+import se.anyro.nfc_reader.provision.Provisioner;
+import se.anyro.nfc_reader.provision.ProvisioningBatch;
+import se.anyro.nfc_reader.scan.ReaderModeConfig;
+import se.anyro.nfc_reader.scan.ReaderModeTagSource;
+import se.anyro.nfc_reader.scan.TagSource;
+import se.anyro.nfc_reader.tech.LatencyHistogram;
+import android.app.Activity;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.net.Uri;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.TextView;
+
+/**
+ * Encodes tags in a row from a template, e.g. a URL with a serial in it,
+ * or from the rows of a CSV file opened with the app. Each tag is written,
+ * read back and, if asked, locked, then the next serial is up; a tone
+ * tells the operator how it went. The statistics are refreshed twice a
+ * second rather than per tag, so the UI thread stays out of the way.
+ *
+ * <p>Tags are written on a thread of their own, one at a time. Where to
+ * resume is kept when provisioning stops, once the tag being written, if
+ * any, is done, so that its serial is not given out again.
+ */
+public class ProvisioningActivity extends Activity {
+
+    private static final String TAG = "Provisioning";
+
+    private static final long REFRESH_MILLIS = 500;
+    private static final int TONE_MILLIS = 150;
+    private static final int DEFAULT_COUNT = 1000;
+
+    private static final String PREF_TEMPLATE = "template";
+    private static final String PREF_SERIAL = "serial";
+    private static final String PREF_COUNT = "count";
+    private static final String PREF_LOCK = "lock";
+
+    private final Handler mHandler = new Handler();
+    /** Runs {@link Provisioner#provision}, one tag at a time. */
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private EditText mTemplate;
+    private EditText mSerial;
+    private EditText mCount;
+    private CheckBox mLock;
+    private Button mStart;
+    private TextView mStatus;
+    private TextView mStats;
+
+    private NfcAdapter mAdapter;
+    private ToneGenerator mTones;
+    private TagSource mTagSource;
+    private boolean mResumed;
+    /** The CSV file the app was opened with, or null. */
+    private Uri mCsv;
+    /** Set while provisioning. */
+    private volatile Provisioner mProvisioner;
+
+    private final TagSource.Callback mTagCallback = new TagSource.Callback() {
+        @Override
+        public void onTagDiscovered(final Tag tag) {
+            final Provisioner provisioner = mProvisioner;
+            if (provisioner == null) {
+                return;
+            }
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mProvisioner != provisioner) {
+                        // Stopped while the tag waited
+                        return;
+                    }
+                    int result = provisioner.provision(tag);
+                    if (result == Provisioner.RESULT_WRITTEN) {
+                        mTones.startTone(ToneGenerator.TONE_PROP_ACK, TONE_MILLIS);
+                    } else if (result == Provisioner.RESULT_UNVERIFIED) {
+                        mTones.startTone(ToneGenerator.TONE_PROP_PROMPT, TONE_MILLIS);
+                    } else if (result == Provisioner.RESULT_FAILED) {
+                        mTones.startTone(ToneGenerator.TONE_PROP_NACK, TONE_MILLIS);
+                    }
+                }
+            });
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            Provisioner provisioner = mProvisioner;
+            if (provisioner == null) {
+                return;
+            }
+            mStats.setText(getStatsText(provisioner));
+            if (provisioner.isDone()) {
+                stop();
+            } else {
+                mHandler.postDelayed(this, REFRESH_MILLIS);
+            }
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.provisioning);
+        mTemplate = (EditText) findViewById(R.id.provisioning_input);
+        mSerial = (EditText) findViewById(R.id.provisioning_serial);
+        mCount = (EditText) findViewById(R.id.provisioning_count);
+        mLock = (CheckBox) findViewById(R.id.provisioning_lock);
+        mStart = (Button) findViewById(R.id.provisioning_start);
+        mStatus = (TextView) findViewById(R.id.provisioning_status);
+        mStats = (TextView) findViewById(R.id.provisioning_stats);
+        mTones = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, ToneGenerator.MAX_VOLUME);
+
+        SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+        mTemplate.setText(prefs.getString(PREF_TEMPLATE, ""));
+        mSerial.setText(Long.toString(prefs.getLong(PREF_SERIAL, 1)));
+        mCount.setText(Integer.toString(prefs.getInt(PREF_COUNT, DEFAULT_COUNT)));
+        mLock.setChecked(prefs.getBoolean(PREF_LOCK, false));
+
+        Intent intent = getIntent();
+        if (Intent.ACTION_VIEW.equals(intent.getAction()) && intent.getData() != null) {
+            mCsv = intent.getData();
+            // The serial of a CSV row is its number
+            mSerial.setText("1");
+            mCount.setEnabled(false);
+            mStatus.setText(getString(R.string.provisioning_csv, mCsv.getLastPathSegment()));
+        }
+
+        mAdapter = NfcAdapter.getDefaultAdapter(this);
+        if (mAdapter == null || !ReaderModeTagSource.isSupported()) {
+            mStatus.setText(R.string.provisioning_unsupported);
+            mStart.setEnabled(false);
+        }
+        mStart.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (mProvisioner != null) {
+                    stop();
+                } else {
+                    start();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mResumed = true;
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mResumed = false;
+        stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mWriter.shutdown();
+        mTones.release();
+    }
+
+    private void start() {
+        try {
+            NdefTemplate template = NdefTemplate.parse(mTemplate.getText().toString(),
+                    Locale.getDefault().getLanguage());
+            long serial = Long.parseLong(mSerial.getText().toString().trim());
+            if (mCsv != null) {
+                mStatus.setText(R.string.provisioning_loading);
+                mStart.setEnabled(false);
+                new LoadTask(template, serial).execute();
+                return;
+            }
+            int count = Integer.parseInt(mCount.getText().toString().trim());
+            begin(ProvisioningBatch.counter(template, serial, count), serial);
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException
+            mStatus.setText(getString(R.string.provisioning_invalid, e.getMessage()));
+        }
+    }
+
+    private void begin(ProvisioningBatch batch, long serial) {
+        if (serial < batch.getFirstSerial() || serial > batch.getLastSerial()) {
+            throw new IllegalArgumentException("Serial " + serial + " not in "
+                    + batch.getFirstSerial() + ".." + batch.getLastSerial());
+        }
+        int flags = TagWriter.FLAG_VERIFY | (mLock.isChecked() ? TagWriter.FLAG_LOCK : 0);
+        mProvisioner = new Provisioner(batch, serial, flags);
+        mTagSource = new ReaderModeTagSource(mAdapter, ReaderModeConfig.DEFAULT);
+        mTagSource.start(this, mTagCallback);
+        setRunning(true);
+        mStatus.setText(getString(R.string.provisioning_ready, batch.size(),
+                batch.getMaxLength()));
+        ScanLog.i(TAG, "Provisioning {} tags from serial {}", batch.size(), serial);
+        mHandler.post(mRefresh);
+    }
+
+    /**
+     * Stops provisioning, if it is running, and keeps where to resume once
+     * the tag being written is done.
+     */
+    private void stop() {
+        final Provisioner provisioner = mProvisioner;
+        if (provisioner == null) {
+            return;
+        }
+        mTagSource.stop(this);
+        mTagSource = null;
+        mProvisioner = null;
+        mHandler.removeCallbacks(mRefresh);
+        // Not started again before the serial to resume from is known
+        mStart.setEnabled(false);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopped(provisioner);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Runs on the UI thread after the last {@link Provisioner#provision} returned. */
+    private void stopped(Provisioner provisioner) {
+        setRunning(false);
+        ProvisioningBatch batch = provisioner.getBatch();
+        long next = provisioner.getNextSerial();
+        mStats.setText(getStatsText(provisioner));
+        if (provisioner.isDone()) {
+            mStatus.setText(getString(R.string.provisioning_done, provisioner.getWritten()));
+            next = batch.isCsv() ? batch.getFirstSerial() : next;
+        } else {
+            mStatus.setText(R.string.provisioning_stopped);
+        }
+        mSerial.setText(Long.toString(next));
+        SharedPreferences.Editor editor = getPreferences(MODE_PRIVATE).edit();
+        editor.putString(PREF_TEMPLATE, mTemplate.getText().toString());
+        editor.putBoolean(PREF_LOCK, mLock.isChecked());
+        if (!batch.isCsv()) {
+            // The same count again when done, otherwise the rest
+            int count = (int) (provisioner.isDone() ? batch.size()
+                    : batch.getLastSerial() - next + 1);
+            mCount.setText(Integer.toString(count));
+            editor.putLong(PREF_SERIAL, next);
+            editor.putInt(PREF_COUNT, count);
+        }
+        editor.apply();
+        ScanLog.i(TAG, "Stopped at serial {}: {} written, {} failures", next,
+                provisioner.getWritten(), provisioner.getFailures());
+    }
+
+    private void setRunning(boolean running) {
+        mStart.setText(running ? R.string.provisioning_stop : R.string.provisioning_start);
+        mStart.setEnabled(true);
+        mTemplate.setEnabled(!running);
+        mSerial.setEnabled(!running);
+        mCount.setEnabled(!running && mCsv == null);
+        mLock.setEnabled(!running);
+        mStart.setKeepScreenOn(running);
+    }
+
+    private String getStatsText(Provisioner provisioner) {
+        ProvisioningBatch batch = provisioner.getBatch();
+        LatencyHistogram latency = provisioner.getLatency();
+        String text = getString(R.string.provisioning_stats,
+                Math.min(provisioner.getNextSerial(), batch.getLastSerial()),
+                batch.getLastSerial(), provisioner.getWritten(),
+                provisioner.getTagsPerMinute(), provisioner.getFailures(),
+                provisioner.getRepeats(), latency.getPercentileMicros(50) / 1000,
+                latency.getPercentileMicros(99) / 1000, provisioner.getUnverified());
+        String error = provisioner.getLastError();
+        return error != null
+                ? text + "\n" + getString(R.string.provisioning_last_error, error) : text;
+    }
+
+    /** Reads and encodes the CSV file off the UI thread, then begins. */
+    private class LoadTask extends AsyncTask<Void, Void, IOException> {
+
+        private final NdefTemplate mRowTemplate;
+        private final long mFirstSerial;
+        private ProvisioningBatch mBatch;
+
+        LoadTask(NdefTemplate template, long serial) {
+            mRowTemplate = template;
+            mFirstSerial = serial;
+        }
+
+        @Override
+        protected IOException doInBackground(Void... params) {
+            try {
+                InputStream in = getContentResolver().openInputStream(mCsv);
+                try {
+                    mBatch = ProvisioningBatch.csv(mRowTemplate,
+                            new InputStreamReader(in, "UTF-8"));
+                } finally {
+                    in.close();
+                }
+                return null;
+            } catch (IOException e) {
+                ScanLog.w(TAG, "Loading {} failed", mCsv, e);
+                return e;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(IOException error) {
+            mStart.setEnabled(true);
+            if (error != null) {
+                mStatus.setText(getString(R.string.provisioning_invalid, error.getMessage()));
+            } else if (mResumed) {
+                try {
+                    begin(mBatch, mFirstSerial);
+                } catch (IllegalArgumentException e) {
+                    mStatus.setText(getString(R.string.provisioning_invalid, e.getMessage()));
+                }
+            } else {
+                mStatus.setText(R.string.provisioning_stopped);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader;
+
+import se.anyro.nfc_reader.util.LogBuffer;
+import android.util.Log;
+
+/**
+ * Logging for the app. Entries go to a {@link LogBuffer} of the last ones,
+ * which the diagnostics screen dumps, and from a level on to logcat.
+ *
+ * <p>Formats take {@code {}} placeholders and are only formatted when an
+ * entry goes to logcat or is dumped, so a logged message costs a few
+ * stores. Other arguments than strings, boxed primitives and byte arrays
+ * are turned into strings when logged though, see {@link LogBuffer}.
+ * Debug logging on the scan path is also wrapped in
+ * {@code if (ScanLog.DEBUG)}, which is constant false in release builds,
+ * so javac drops it with its arguments.
+ */
+public class ScanLog {
+
+    public static final String TAG = "ZYPP";
+
+    /** False in release builds. */
+    public static final boolean DEBUG = BuildConfig.DEBUG;
+
+    private static final int CAPACITY = 512;
+
+    private static final LogBuffer sBuffer = new LogBuffer(CAPACITY);
+    private static volatile int sLevel = DEBUG ? Log.DEBUG : Log.INFO;
+    private static volatile int sLogcatLevel = DEBUG ? Log.DEBUG : Log.WARN;
+
+    // Utility class
+    private ScanLog() {
+
+    }
+
+    public static LogBuffer getBuffer() {
+        return sBuffer;
+    }
+
+    /** Sets the lowest level kept, one of the {@link Log} levels. */
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    /** Sets the lowest level also written to logcat. */
+    public static void setLogcatLevel(int level) {
+        sLogcatLevel = level;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= sLevel;
+    }
+
+    public static void d(String tag, String format) {
+        log(Log.DEBUG, tag, format, 0, null, null, null, null, null);
+    }
+
+    public static void d(String tag, String format, Object a0) {
+        log(Log.DEBUG, tag, format, 1, a0, null, null, null, null);
+    }
+
+    public static void d(String tag, String format, Object a0, Object a1) {
+        log(Log.DEBUG, tag, format, 2, a0, a1, null, null, null);
+    }
+
+    public static void d(String tag, String format, Object a0, Object a1, Object a2) {
+        log(Log.DEBUG, tag, format, 3, a0, a1, a2, null, null);
+    }
+
+    public static void d(String tag, String format, Object a0, Object a1, Object a2,
+            Object a3) {
+        log(Log.DEBUG, tag, format, 4, a0, a1, a2, a3, null);
+    }
+
+    public static void i(String tag, String format) {
+        log(Log.INFO, tag, format, 0, null, null, null, null, null);
+    }
+
+    public static void i(String tag, String format, Object a0) {
+        log(Log.INFO, tag, format, 1, a0, null, null, null, null);
+    }
+
+    public static void i(String tag, String format, Object a0, Object a1) {
+        log(Log.INFO, tag, format, 2, a0, a1, null, null, null);
+    }
+
+    public static void i(String tag, String format, Object a0, Object a1, Object a2) {
+        log(Log.INFO, tag, format, 3, a0, a1, a2, null, null);
+    }
+
+    public static void w(String tag, String format, Throwable error) {
+        log(Log.WARN, tag, format, 0, null, null, null, null, error);
+    }
+
+    public static void w(String tag, String format, Object a0) {
+        log(Log.WARN, tag, format, 1, a0, null, null, null, null);
+    }
+
+    public static void w(String tag, String format, Object a0, Throwable error) {
+        log(Log.WARN, tag, format, 1, a0, null, null, null, error);
+    }
+
+    private static void log(int level, String tag, String format, int argCount, Object a0,
+            Object a1, Object a2, Object a3, Throwable error) {
+        if (level < sLevel) {
+            return;
+        }
+        sBuffer.add(System.currentTimeMillis(), level, tag, format, argCount, a0, a1, a2, a3,
+                error);
+        if (level >= sLogcatLevel) {
+            StringBuilder sb = new StringBuilder();
+            LogBuffer.format(sb, format, new Object[] {a0, a1, a2, a3}, 0, argCount);
+            if (error != null) {
+                sb.append('\n').append(Log.getStackTraceString(error));
+            }
+            Log.println(level, tag, sb.toString());
+        }
+    }
+}
@@ -16,16 +16,28 @@
  */
 package se.anyro.nfc_reader;
 
+import java.io.File;
 import java.nio.charset.Charset;
-import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
-import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.history.ScanExporter;
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.render.ScanListAdapter;
+import se.anyro.nfc_reader.scan.FakeTagSource;
+import se.anyro.nfc_reader.scan.ReaderModeConfig;
+import se.anyro.nfc_reader.scan.ReaderModeTagSource;
+import se.anyro.nfc_reader.scan.RecentUidCache;
+import se.anyro.nfc_reader.scan.ScanHistory;
+import se.anyro.nfc_reader.scan.ScanRateMeter;
+import se.anyro.nfc_reader.scan.ScanResult;
+import se.anyro.nfc_reader.scan.TagInspector;
+import se.anyro.nfc_reader.scan.TagProcessor;
+import se.anyro.nfc_reader.scan.TagSource;
+import se.anyro.nfc_reader.session.SessionFile;
+import se.anyro.nfc_reader.util.UidCodec;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -38,34 +50,23 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.nfc.tech.IsoDep;
-import android.nfc.tech.MifareClassic;
-import android.nfc.tech.MifareUltralight;
 import android.nfc.tech.Ndef;
-import android.nfc.tech.NdefFormatable;
-import android.nfc.tech.NfcA;
-import android.nfc.tech.NfcB;
 import android.nfc.tech.NfcF;
-import android.nfc.tech.NfcV;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
-import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.Settings;
-import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.View;
-import android.widget.LinearLayout;
-import android.widget.TextView;
+import android.widget.ListView;
 import android.widget.Toast;
 
 /**
@@ -75,8 +76,41 @@ public class TagViewer extends Activity {
 
     public static final String TAG = "ZYPP";
 
-    private static final DateFormat TIME_FORMAT = SimpleDateFormat.getDateTimeInstance();
-    private LinearLayout mTagContent;
+    /**
+     * Launch extra (long): emit a fake tag every given number of milliseconds
+     * instead of reading real tags, e.g.
+     * {@code adb shell am start -n se.anyro.nfc_reader/.TagViewer --el se.anyro.nfc_reader.FAKE_TAG_INTERVAL 100}
+     */
+    public static final String EXTRA_FAKE_TAG_INTERVAL = "se.anyro.nfc_reader.FAKE_TAG_INTERVAL";
+
+    /**
+     * Launch extra (long): milliseconds during which a tag with the same UID
+     * is ignored after it was last seen. 0 shows every tag. Defaults to
+     * {@link #DEFAULT_DEDUP_WINDOW}.
+     */
+    public static final String EXTRA_DEDUP_WINDOW = "se.anyro.nfc_reader.DEDUP_WINDOW";
+
+    /**
+     * Launch extra (String): the {@link ProbeProfile} name, e.g. UID_ONLY
+     * when only the IDs are needed. Defaults to FULL.
+     */
+    public static final String EXTRA_PROBE_PROFILE = "se.anyro.nfc_reader.PROBE_PROFILE";
+
+    private static final long DEFAULT_DEDUP_WINDOW = 2000;
+    private static final int DEDUP_CAPACITY = 32;
+
+    private static final String PREF_CONTINUOUS_SCAN = "continuous_scan";
+
+    /** Scans shown in the list, older ones scroll out of it. */
+    private static final int SCAN_LIST_CAPACITY = 100;
+
+    /** Scans are persisted in this file in the app's files directory. */
+    private static final String JOURNAL_FILE = "scans.journal";
+
+    /** Scans whose IDs can be copied, about 30 bytes each. */
+    private static final int HISTORY_CAPACITY = 10000;
+
+    private ScanListAdapter mScanList;
 
     private NfcAdapter mAdapter;
     private PendingIntent mPendingIntent;
@@ -84,13 +118,54 @@ public class TagViewer extends Activity {
 
     private AlertDialog mDialog;
 
-    private List<Tag> mTags = new ArrayList<>();
+    /** Tags waiting in the processing queue beyond this are dropped, oldest first. */
+    private static final int PROCESSING_QUEUE_CAPACITY = 8;
+
+    private final ScanHistory mHistory = new ScanHistory(HISTORY_CAPACITY);
+
+    private TagProcessor mProcessor;
+
+    private File mJournalFile;
+
+    /** UIDs seen within the dedup window, or null when every tag is shown. */
+    private RecentUidCache mRecentUids;
+
+    /** Delivers tags in continuous scan mode, or null when using intent dispatch. */
+    private TagSource mTagSource;
+
+    private final ScanRateMeter mScanRate = new ScanRateMeter(32);
+
+    private final TagSource.Callback mTagCallback = new TagSource.Callback() {
+        @Override
+        public void onTagDiscovered(Tag tag) {
+            if (!isRepeat(tag)) {
+                mProcessor.submit(tag, getCachedNdefMessages(tag));
+            }
+        }
+    };
+
+    private final TagProcessor.Listener mResultListener = new TagProcessor.Listener() {
+        @Override
+        public void onScanResult(ScanResult result) {
+            mScanList.add(result);
+            mScanRate.record(System.currentTimeMillis());
+            if (ScanLog.DEBUG) {
+                ScanLog.d(TAG, "scans: {}, per minute: {}, dropped: {}", mScanRate.getTotal(),
+                        mScanRate.getScansPerMinute(), mProcessor.getDroppedCount());
+                if (mRecentUids != null) {
+                    ScanLog.d(TAG, "repeats ignored: {}, new: {}", mRecentUids.getHits(),
+                            mRecentUids.getMisses());
+                }
+                ScanLog.d(TAG, "inspectors: {}", mProcessor.getInspectors().getTimings());
+            }
+        }
+    };
 
 
     private BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            Log.d(TAG, "接收成功");
+            ScanLog.d(TAG, "接收成功");
             String action = intent.getAction();
             if (NfcAdapter.ACTION_ADAPTER_STATE_CHANGED.equals(action)) {
                 getStatus(intent.getIntExtra(NfcAdapter.EXTRA_ADAPTER_STATE, NfcAdapter.STATE_OFF));
@@ -103,7 +178,7 @@ public class TagViewer extends Activity {
             switch (state) {
                 case NfcAdapter.STATE_OFF:
                     msg.obj = "close";
-                    Log.i(TAG, "nfc state: " + state + ", str: " + msg.obj);
+                    ScanLog.i(TAG, "nfc state: {}, str: {}", state, msg.obj);
                     if (mAdapter != null) {
                         if (!mAdapter.isEnabled()) {
                             mHandler.postDelayed(new Runnable() {
@@ -113,29 +188,29 @@ public class TagViewer extends Activity {
                                 }
                             }, 1000L);
                         } else {
-                            Log.i("ZYPP", "nfc isEnabled true");
+                            ScanLog.i(TAG, "nfc isEnabled true");
                         }
                     } else {
-                        Log.i("ZYPP", "nfc mAdapter = null");
+                        ScanLog.i(TAG, "nfc mAdapter = null");
                     }
                     break;
                 case NfcAdapter.STATE_ON:
                     msg.obj = "open";
-                    Log.i(TAG, "nfc state: " + state + ", str: " + msg.obj);
+                    ScanLog.i(TAG, "nfc state: {}, str: {}", state, msg.obj);
                     if (mAdapter != null) {
-                        Log.i("ZYPP", "nfc isEnabled " + mAdapter.isEnabled());
+                        ScanLog.i(TAG, "nfc isEnabled {}", mAdapter.isEnabled());
                     } else {
-                        Log.i("ZYPP", "nfc mAdapter = null");
+                        ScanLog.i(TAG, "nfc mAdapter = null");
                     }
                     closeWirelessSettingsDialog();
                     break;
                 case NfcAdapter.STATE_TURNING_OFF:
                     msg.obj = "turning off";
-                    Log.i(TAG, "nfc state: " + state + ", str: " + msg.obj);
+                    ScanLog.i(TAG, "nfc state: {}, str: {}", state, msg.obj);
                     break;
                 case NfcAdapter.STATE_TURNING_ON:
                     msg.obj = "turning on";
-                    Log.i(TAG, "nfc state: " + state + ", str: " + msg.obj);
+                    ScanLog.i(TAG, "nfc state: {}, str: {}", state, msg.obj);
                     break;
             }
 
@@ -146,7 +221,19 @@ public class TagViewer extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.tag_viewer);
-        mTagContent = (LinearLayout) findViewById(R.id.list);
+        ListView list = (ListView) findViewById(R.id.list);
+        list.addFooterView(getLayoutInflater().inflate(R.layout.tag_intro, list, false), null,
+                false);
+        mScanList = new ScanListAdapter(this, SCAN_LIST_CAPACITY);
+        list.setAdapter(mScanList);
+        mJournalFile = new File(getFilesDir(), JOURNAL_FILE);
+        mProcessor = new TagProcessor(PROCESSING_QUEUE_CAPACITY,
+                TagProcessor.OverflowPolicy.DROP_OLDEST, mHistory, mJournalFile,
+                getProbeProfile(), mResultListener);
+        long dedupWindow = getIntent().getLongExtra(EXTRA_DEDUP_WINDOW, DEFAULT_DEDUP_WINDOW);
+        if (dedupWindow > 0) {
+            mRecentUids = new RecentUidCache(dedupWindow, DEDUP_CAPACITY);
+        }
         resolveIntent(getIntent());
 
         mDialog = new AlertDialog.Builder(this).setNeutralButton("Ok", null).create();
@@ -191,12 +278,37 @@ public class TagViewer extends Activity {
         return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_TEXT, new byte[0], data);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mProcessor != null) {
+            mProcessor.shutdown();
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
-        Log.i("ZYPP", "onResume");
+        ScanLog.i(TAG, "onResume");
+        startScanning();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        ScanLog.i(TAG, "onPause");
+        stopScanning();
+        mProcessor.sync();
+    }
+
+    private void startScanning() {
+        mTagSource = createTagSource();
+        if (mTagSource != null) {
+            mTagSource.start(this, mTagCallback);
+            return;
+        }
         if (mAdapter != null) {
-            Log.i("ZYPP", "onResume mAdapter isEnabled " + mAdapter.isEnabled());
+            ScanLog.i(TAG, "onResume mAdapter isEnabled {}", mAdapter.isEnabled());
             if (!mAdapter.isEnabled()) {
                 //showWirelessSettingsDialog();
             }
@@ -215,16 +327,55 @@ public class TagViewer extends Activity {
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        Log.i("ZYPP", "onPause");
-        if (mAdapter != null) {
+    private void stopScanning() {
+        if (mTagSource != null) {
+            mTagSource.stop(this);
+            mTagSource = null;
+        } else if (mAdapter != null) {
             mAdapter.disableForegroundDispatch(this);
             mAdapter.disableForegroundNdefPush(this);
         }
     }
 
+    /**
+     * Returns the source for continuous scanning, or null to use foreground
+     * intent dispatch.
+     */
+    private TagSource createTagSource() {
+        long fakeInterval = getIntent().getLongExtra(EXTRA_FAKE_TAG_INTERVAL, 0);
+        if (fakeInterval > 0) {
+            return new FakeTagSource(fakeInterval);
+        }
+        if (mAdapter != null && isContinuousScan() && ReaderModeTagSource.isSupported()) {
+            return new ReaderModeTagSource(mAdapter, ReaderModeConfig.DEFAULT);
+        }
+        return null;
+    }
+
+    private ProbeProfile getProbeProfile() {
+        String name = getIntent().getStringExtra(EXTRA_PROBE_PROFILE);
+        if (name != null) {
+            try {
+                return ProbeProfile.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                ScanLog.w(TAG, "Unknown probe profile {}", name);
+            }
+        }
+        return ProbeProfile.FULL;
+    }
+
+    private boolean isContinuousScan() {
+        return getPreferences(MODE_PRIVATE).getBoolean(PREF_CONTINUOUS_SCAN, false);
+    }
+
+    private void setContinuousScan(boolean enabled) {
+        SharedPreferences.Editor editor = getPreferences(MODE_PRIVATE).edit();
+        editor.putBoolean(PREF_CONTINUOUS_SCAN, enabled);
+        editor.apply();
+        stopScanning();
+        startScanning();
+    }
+
     private AlertDialog mAlertDialog = null;
     private void showWirelessSettingsDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
@@ -242,11 +393,11 @@ public class TagViewer extends Activity {
         });
         mAlertDialog = builder.create();
         mAlertDialog.show();
-        Log.i("ZYPP", "showWirelessSettingsDialog mAlertDialog: " + mAlertDialog);
+        ScanLog.i(TAG, "showWirelessSettingsDialog");
     }
 
     private void closeWirelessSettingsDialog() {
-        Log.i("ZYPP", "closeWirelessSettingsDialog mAlertDialog: " + mAlertDialog);
+        ScanLog.i(TAG, "closeWirelessSettingsDialog shown: {}", mAlertDialog != null);
         if (mAlertDialog != null) {
             mAlertDialog.dismiss();
         }
@@ -254,352 +405,114 @@ public class TagViewer extends Activity {
 
     private void resolveIntent(Intent intent) {
         String action = intent.getAction();
-        Log.i("ZYPP", "resolveIntent action: " + action);
+        if (ScanLog.DEBUG) {
+            ScanLog.d(TAG, "resolveIntent action: {}", action);
+        }
         if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(action)
                 || NfcAdapter.ACTION_TECH_DISCOVERED.equals(action)
                 || NfcAdapter.ACTION_NDEF_DISCOVERED.equals(action)) {
             // 从标签中解析出的一组 NDEF 消息。此 extra 对于 ACTION_NDEF_DISCOVERED Intent 而言是必需的。
             Parcelable[] rawMsgs = intent.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
-            NdefMessage[] msgs;
+            NdefMessage[] msgs = null;
             if (rawMsgs != null) {
-                Log.i("ZYPP", "resolveIntent rawMsgs size: " +rawMsgs.length);
+                if (ScanLog.DEBUG) {
+                    ScanLog.d(TAG, "resolveIntent rawMsgs size: {}", rawMsgs.length);
+                }
                 msgs = new NdefMessage[rawMsgs.length];
                 for (int i = 0; i < rawMsgs.length; i++) {
                     msgs[i] = (NdefMessage) rawMsgs[i];
                 }
-                buildTagViews(msgs);
             }
-            //else {
-                // Unknown tag type
-                byte[] empty = new byte[0];
-                byte[] id = intent.getByteArrayExtra(NfcAdapter.EXTRA_ID);
-                Tag tag = (Tag) intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
-                Log.i("ZYPP", "resolveIntent Tech id: " + toHex(tag.getId()) + ", TechList: " + Arrays.toString(tag.getTechList()));
-                byte[] payload = dumpTagData(tag).getBytes();
-                NdefRecord record = new NdefRecord(NdefRecord.TNF_UNKNOWN, empty, id, payload);
-                NdefMessage msg = new NdefMessage(new NdefRecord[]{record});
-                msgs = new NdefMessage[]{msg};
-                mTags.add(tag);
-            //}
-            // Setup the views
-            buildTagViews(msgs);
-
-            resetNfc();
-        }
-    }
-
-    private String dumpTagData(Tag tag) {
-        StringBuilder sb = new StringBuilder();
-        byte[] id = tag.getId();
-        sb.append("ID (hex): ").append(toHex(id)).append('\n');
-        sb.append("ID (reversed hex): ").append(toReversedHex(id)).append('\n');
-        sb.append("ID (dec): ").append(toDec(id)).append('\n');
-        sb.append("ID (reversed dec): ").append(toReversedDec(id)).append('\n');
-
-        String prefix = "android.nfc.tech.";
-        sb.append("Technologies: ");
-        for (String tech : tag.getTechList()) {
-            sb.append(tech.substring(prefix.length()));
-            sb.append(", ");
-        }
-        sb.delete(sb.length() - 2, sb.length());
-        for (String tech : tag.getTechList()) {
-            if (tech.equals(MifareClassic.class.getName())) {
-                sb.append('\n');
-                String type = "Unknown";
-                try {
-                    MifareClassic mifareTag;
-                    try {
-                        mifareTag = MifareClassic.get(tag);
-                    } catch (Exception e) {
-                        // Fix for Sony Xperia Z3/Z5 phones
-                        tag = cleanupTag(tag);
-                        mifareTag = MifareClassic.get(tag);
-                    }
-                    switch (mifareTag.getType()) {
-                        case MifareClassic.TYPE_CLASSIC:
-                            type = "Classic";
-                            break;
-                        case MifareClassic.TYPE_PLUS:
-                            type = "Plus";
-                            break;
-                        case MifareClassic.TYPE_PRO:
-                            type = "Pro";
-                            break;
-                    }
-                    sb.append("Mifare Classic type: ");
-                    sb.append(type);
-                    sb.append('\n');
-
-                    sb.append("Mifare size: ");
-                    sb.append(mifareTag.getSize() + " bytes");
-                    sb.append('\n');
-
-                    sb.append("Mifare sectors: ");
-                    sb.append(mifareTag.getSectorCount());
-                    sb.append('\n');
-
-                    sb.append("Mifare blocks: ");
-                    sb.append(mifareTag.getBlockCount());
-                } catch (Exception e) {
-                    sb.append("Mifare classic error: " + e.getMessage());
-                }
-            }
-
-            if (tech.equals(MifareUltralight.class.getName())) {
-                sb.append('\n');
-                MifareUltralight mifareUlTag = MifareUltralight.get(tag);
-                String type = "Unknown";
-                switch (mifareUlTag.getType()) {
-                    case MifareUltralight.TYPE_ULTRALIGHT:
-                        type = "Ultralight";
-                        break;
-                    case MifareUltralight.TYPE_ULTRALIGHT_C:
-                        type = "Ultralight C";
-                        break;
-                }
-                sb.append("Mifare Ultralight type: ");
-                sb.append(type);
-            }
-
-            if (tech.equals(Ndef.class.getName())) {
-                sb.append('\n');
-                Ndef ndefTag = Ndef.get(tag);
-                String type = new String(ndefTag.getType());
-                int maxSize = ndefTag.getMaxSize();
-                int curSize = ndefTag.getCachedNdefMessage().getByteArrayLength();
-                Log.i("ZYPP", "Ndef type: " + type + ", curSize: " + curSize + ", maxSize: " + maxSize);
-                sb.append("Ndef type: " + type + ", curSize: " + curSize + ", maxSize: " + maxSize);
+            Tag tag = (Tag) intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+            if (ScanLog.DEBUG) {
+                ScanLog.d(TAG, "resolveIntent Tech id: {}, TechList: {}", tag.getId(),
+                        Arrays.asList(tag.getTechList()));
             }
-
-            if (tech.equals(NdefFormatable.class.getName())) {
-                NdefFormatable ndefFormatableTag = NdefFormatable.get(tag);
-                Log.i("ZYPP", "NdefFormatable ndefFormatableTag: " + ndefFormatableTag);
-            }
-
-            if (tech.equals(NfcA.class.getName())) {
-                sb.append('\n');
-                NfcA nfcATag = NfcA.get(tag);
-                byte[] atqa = nfcATag.getAtqa();
-                Short sak = nfcATag.getSak();
-                int timeout = nfcATag.getTimeout();
-                int maxTransceiveLength = nfcATag.getMaxTransceiveLength();
-                Log.i("ZYPP", "NfcA ATQA: " + toHex(atqa) + ", SAK: " + sak + ", timeout: " + timeout + ", maxTransceiveLength: " + maxTransceiveLength);
-                sb.append("NfcA ATQA: " + toHex(atqa) + ", SAK: " + sak + ", timeout: " + timeout + ", maxTransceiveLength: " + maxTransceiveLength);
-            }
-
-            if (tech.equals(NfcB.class.getName())) {
-                NfcB nfcBTag = NfcB.get(tag);
-                byte[] applicationData = nfcBTag.getApplicationData();
-                byte[] protocolInfo = nfcBTag.getProtocolInfo();
-                int maxTransceiveLength = nfcBTag.getMaxTransceiveLength();
-                Log.i("ZYPP", "NfcB applicationData: " + toHex(applicationData) + ", protocolInfo: " + toHex(protocolInfo) + ", maxTransceiveLength: " + maxTransceiveLength);
+            if (!isRepeat(tag)) {
+                mProcessor.submit(tag, msgs);
             }
 
-            if (tech.equals(NfcF.class.getName())) {
-                NfcF nfcFTag = NfcF.get(tag);
-                byte[] manufacturer = nfcFTag.getManufacturer();
-                byte[] systemCode = nfcFTag.getSystemCode();
-                int timeout = nfcFTag.getTimeout();
-                int maxTransceiveLength = nfcFTag.getMaxTransceiveLength();
-                Log.i("ZYPP", "NfcF manufacturer: " + toHex(manufacturer) + ", systemCode: " + toHex(systemCode) + ", timeout: " + timeout + ", maxTransceiveLength: " + maxTransceiveLength);
-            }
-
-            if (tech.equals(NfcV.class.getName())) {
-                NfcV nfcVTag = NfcV.get(tag);
-                byte dsfId = nfcVTag.getDsfId();
-                byte responseFlags = nfcVTag.getResponseFlags();
-                int maxTransceiveLength = nfcVTag.getMaxTransceiveLength();
-                Log.i("ZYPP", "NfcV dsfId: " + dsfId + ", responseFlags: " + toHex(new byte[]{responseFlags}) + ", maxTransceiveLength: " + maxTransceiveLength);
-            }
-
-            if (tech.equals(IsoDep.class.getName())) {
-                IsoDep isoDepTag = IsoDep.get(tag);
-                byte[] hiLayerResponse = isoDepTag.getHiLayerResponse();
-                byte[] historicalBytes = isoDepTag.getHistoricalBytes();
-                int timeout = isoDepTag.getTimeout();
-                int maxTransceiveLength = isoDepTag.getMaxTransceiveLength();
-                Log.i("ZYPP", "IsoDep hiLayerResponse: " + toHex(hiLayerResponse) + ", historicalBytes: " + toHex(historicalBytes) + ", timeout: " + timeout + ", maxTransceiveLength: " + maxTransceiveLength);
-            }
+            resetNfc();
         }
+    }
 
-        return sb.toString();
+    /**
+     * Returns true if a tag with the same UID was seen within the dedup
+     * window, in which case it is counted but not processed again.
+     */
+    private boolean isRepeat(Tag tag) {
+        return mRecentUids != null && mRecentUids.seen(tag.getId(), SystemClock.elapsedRealtime());
     }
 
-    private Tag cleanupTag(Tag oTag) {
-        if (oTag == null)
+    /**
+     * Returns the NDEF message read when the tag was discovered, or null.
+     */
+    private static NdefMessage[] getCachedNdefMessages(Tag tag) {
+        Ndef ndef = Ndef.get(tag);
+        if (ndef == null) {
             return null;
-
-        String[] sTechList = oTag.getTechList();
-
-        Parcel oParcel = Parcel.obtain();
-        oTag.writeToParcel(oParcel, 0);
-        oParcel.setDataPosition(0);
-
-        int len = oParcel.readInt();
-        byte[] id = null;
-        if (len >= 0) {
-            id = new byte[len];
-            oParcel.readByteArray(id);
-        }
-        int[] oTechList = new int[oParcel.readInt()];
-        oParcel.readIntArray(oTechList);
-        Bundle[] oTechExtras = oParcel.createTypedArray(Bundle.CREATOR);
-        int serviceHandle = oParcel.readInt();
-        int isMock = oParcel.readInt();
-        IBinder tagService;
-        if (isMock == 0) {
-            tagService = oParcel.readStrongBinder();
-        } else {
-            tagService = null;
-        }
-        oParcel.recycle();
-
-        int nfca_idx = -1;
-        int mc_idx = -1;
-        short oSak = 0;
-        short nSak = 0;
-
-        for (int idx = 0; idx < sTechList.length; idx++) {
-            if (sTechList[idx].equals(NfcA.class.getName())) {
-                if (nfca_idx == -1) {
-                    nfca_idx = idx;
-                    if (oTechExtras[idx] != null && oTechExtras[idx].containsKey("sak")) {
-                        oSak = oTechExtras[idx].getShort("sak");
-                        nSak = oSak;
-                    }
-                } else {
-                    if (oTechExtras[idx] != null && oTechExtras[idx].containsKey("sak")) {
-                        nSak = (short) (nSak | oTechExtras[idx].getShort("sak"));
-                    }
-                }
-            } else if (sTechList[idx].equals(MifareClassic.class.getName())) {
-                mc_idx = idx;
-            }
         }
-
-        boolean modified = false;
-
-        if (oSak != nSak) {
-            oTechExtras[nfca_idx].putShort("sak", nSak);
-            modified = true;
-        }
-
-        if (nfca_idx != -1 && mc_idx != -1 && oTechExtras[mc_idx] == null) {
-            oTechExtras[mc_idx] = oTechExtras[nfca_idx];
-            modified = true;
-        }
-
-        if (!modified) {
-            return oTag;
-        }
-
-        Parcel nParcel = Parcel.obtain();
-        nParcel.writeInt(id.length);
-        nParcel.writeByteArray(id);
-        nParcel.writeInt(oTechList.length);
-        nParcel.writeIntArray(oTechList);
-        nParcel.writeTypedArray(oTechExtras, 0);
-        nParcel.writeInt(serviceHandle);
-        nParcel.writeInt(isMock);
-        if (isMock == 0) {
-            nParcel.writeStrongBinder(tagService);
-        }
-        nParcel.setDataPosition(0);
-
-        Tag nTag = Tag.CREATOR.createFromParcel(nParcel);
-
-        nParcel.recycle();
-
-        return nTag;
+        NdefMessage msg = ndef.getCachedNdefMessage();
+        return msg != null ? new NdefMessage[] {msg} : null;
     }
 
-    private String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = bytes.length - 1; i >= 0; --i) {
-            int b = bytes[i] & 0xff;
-            if (b < 0x10)
-                sb.append('0');
-            sb.append(Integer.toHexString(b));
-            if (i > 0) {
-                sb.append(" ");
-            }
-        }
-        return sb.toString();
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        return true;
     }
 
-    private String toReversedHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < bytes.length; ++i) {
-            if (i > 0) {
-                sb.append(" ");
-            }
-            int b = bytes[i] & 0xff;
-            if (b < 0x10)
-                sb.append('0');
-            sb.append(Integer.toHexString(b));
-        }
-        return sb.toString();
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem continuousScan = menu.findItem(R.id.menu_main_continuous_scan);
+        continuousScan.setVisible(ReaderModeTagSource.isSupported());
+        continuousScan.setChecked(isContinuousScan());
+        menu.findItem(R.id.menu_main_record_sessions)
+                .setChecked(mProcessor.getSessionFile() != null);
+        menu.findItem(R.id.menu_main_provision).setVisible(ReaderModeTagSource.isSupported());
+        return super.onPrepareOptionsMenu(menu);
     }
 
-    private long toDec(byte[] bytes) {
-        long result = 0;
-        long factor = 1;
-        for (int i = 0; i < bytes.length; ++i) {
-            long value = bytes[i] & 0xffl;
-            result += value * factor;
-            factor *= 256l;
-        }
-        return result;
-    }
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
 
-    private long toReversedDec(byte[] bytes) {
-        long result = 0;
-        long factor = 1;
-        for (int i = bytes.length - 1; i >= 0; --i) {
-            long value = bytes[i] & 0xffl;
-            result += value * factor;
-            factor *= 256l;
+        if (item.getItemId() == R.id.menu_main_continuous_scan) {
+            setContinuousScan(!item.isChecked());
+            return true;
         }
-        return result;
-    }
 
-    void buildTagViews(NdefMessage[] msgs) {
-        if (msgs == null || msgs.length == 0) {
-            return;
-        }
-        LayoutInflater inflater = LayoutInflater.from(this);
-        LinearLayout content = mTagContent;
-
-        // Parse the first message in the list
-        // Build views for all of the sub records
-        Date now = new Date();
-        List<ParsedNdefRecord> records = NdefMessageParser.parse(msgs[0]);
-        final int size = records.size();
-        for (int i = 0; i < size; i++) {
-            TextView timeView = new TextView(this);
-            timeView.setText(TIME_FORMAT.format(now));
-            content.addView(timeView, 0);
-            ParsedNdefRecord record = records.get(i);
-            content.addView(record.getView(this, inflater, content, i), 1 + i);
-            content.addView(inflater.inflate(R.layout.tag_divider, content, false), 2 + i);
+        if (item.getItemId() == R.id.menu_main_record_sessions) {
+            setRecordingSessions(!item.isChecked());
+            return true;
         }
-    }
 
-    @Override
-    public boolean onCreateOptionsMenu(Menu menu) {
-        getMenuInflater().inflate(R.menu.menu_main, menu);
-        return true;
-    }
+        if (item.getItemId() == R.id.menu_main_provision) {
+            startActivity(new Intent(this, ProvisioningActivity.class));
+            return true;
+        }
 
-    @Override
-    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.menu_main_diagnostics) {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
+            return true;
+        }
 
-        if (mTags.size() == 0) {
+        if (mHistory.size() == 0) {
             Toast.makeText(this, R.string.nothing_scanned, Toast.LENGTH_LONG).show();
             return true;
         }
 
+        int id = item.getItemId();
+        if (id == R.id.menu_export_csv) {
+            export(ScanExporter.Format.CSV);
+            return true;
+        } else if (id == R.id.menu_export_json) {
+            export(ScanExporter.Format.JSON_LINES);
+            return true;
+        } else if (id == R.id.menu_export_binary) {
+            export(ScanExporter.Format.BINARY);
+            return true;
+        }
+
         switch (item.getItemId()) {
 //            case R.id.menu_main_clear:
 //                clearTags();
@@ -621,59 +534,102 @@ public class TagViewer extends Activity {
         }
     }
 
-    private void clearTags() {
-        mTags.clear();
-        for (int i = mTagContent.getChildCount() - 1; i >= 0; i--) {
-            View view = mTagContent.getChildAt(i);
-            if (view.getId() != R.id.tag_viewer_text) {
-                mTagContent.removeViewAt(i);
+    /**
+     * Writes all journaled scans to a new file in the app's external files
+     * directory, once the scans processed so far have reached the journal.
+     */
+    private void export(final ScanExporter.Format format) {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        final File output = new File(dir, "scans-" + time + "." + format.getExtension());
+        mProcessor.sync(new Runnable() {
+            @Override
+            public void run() {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        new ExportTask(TagViewer.this, mJournalFile, format, output).execute();
+                    }
+                });
             }
+        });
+    }
+
+    /**
+     * Starts recording every tag as a tag session to a new file in the app's
+     * external files directory, or stops.
+     */
+    private void setRecordingSessions(boolean recording) {
+        if (!recording) {
+            mProcessor.setSessionFile(null);
+            Toast.makeText(this, R.string.recording_sessions_stopped, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "sessions-" + time + "." + SessionFile.EXTENSION);
+        mProcessor.setSessionFile(file);
+        Toast.makeText(this, getString(R.string.recording_sessions, file.getPath()),
+                Toast.LENGTH_LONG).show();
+    }
+
+    private void clearTags() {
+        mHistory.clear();
+        if (mRecentUids != null) {
+            mRecentUids.clear();
         }
+        mScanList.clear();
     }
 
     private void copyIds(String text) {
         ClipboardManager clipboard = (ClipboardManager) getSystemService(CLIPBOARD_SERVICE);
         ClipData clipData = ClipData.newPlainText("NFC IDs", text);
         clipboard.setPrimaryClip(clipData);
-        Toast.makeText(this, mTags.size() + " IDs copied", Toast.LENGTH_SHORT).show();
+        Toast.makeText(this, mHistory.size() + " IDs copied", Toast.LENGTH_SHORT).show();
     }
 
     private String getIdsHex() {
-        StringBuilder builder = new StringBuilder();
-        for (Tag tag : mTags) {
-            builder.append(toHex(tag.getId()));
-            builder.append('\n');
-        }
-        builder.setLength(builder.length() - 1); // Remove last new line
-        return builder.toString().replace(" ", "");
+        return getIds(true, 0);
     }
 
     private String getIdsReversedHex() {
-        StringBuilder builder = new StringBuilder();
-        for (Tag tag : mTags) {
-            builder.append(toReversedHex(tag.getId()));
-            builder.append('\n');
-        }
-        builder.setLength(builder.length() - 1); // Remove last new line
-        return builder.toString().replace(" ", "");
+        return getIds(true, UidCodec.REVERSED);
     }
 
     private String getIdsDec() {
-        StringBuilder builder = new StringBuilder();
-        for (Tag tag : mTags) {
-            builder.append(toDec(tag.getId()));
-            builder.append('\n');
-        }
-        builder.setLength(builder.length() - 1); // Remove last new line
-        return builder.toString();
+        return getIds(false, 0);
     }
 
     private String getIdsReversedDec() {
-        StringBuilder builder = new StringBuilder();
-        for (Tag tag : mTags) {
-            builder.append(toReversedDec(tag.getId()));
-            builder.append('\n');
-        }
+        return getIds(false, UidCodec.REVERSED);
+    }
+
+    /**
+     * Returns the IDs of all scans in the history, one per line.
+     *
+     * @param flags {@link UidCodec#REVERSED} or 0
+     */
+    private String getIds(final boolean hex, final int flags) {
+        final StringBuilder builder = new StringBuilder();
+        final char[] chars = new char[Math.max(UidCodec.hexLength(ScanHistory.MAX_UID_LENGTH, 0),
+                UidCodec.maxDecLength(ScanHistory.MAX_UID_LENGTH))];
+        mHistory.forEach(new ScanHistory.Visitor() {
+            @Override
+            public void visit(long timestamp, byte[] uids, int uidOffset, int uidLength,
+                    int techMask) {
+                int length = hex
+                        ? UidCodec.encodeHex(uids, uidOffset, uidLength, flags, chars, 0)
+                        : UidCodec.encodeDec(uids, uidOffset, uidLength, flags, chars, 0);
+                builder.append(chars, 0, length);
+                builder.append('\n');
+            }
+        });
         builder.setLength(builder.length() - 1); // Remove last new line
         return builder.toString();
     }
@@ -685,7 +641,7 @@ public class TagViewer extends Activity {
     }
 
     private void resetNfc() {
-        Log.i("ZYPP", "resetNfc mAdapter: " + mAdapter);
+        ScanLog.i(TAG, "resetNfc adapter: {}", mAdapter != null);
         if (mAdapter != null) {
             NfcUtil.nfcDisable(mAdapter);
         }
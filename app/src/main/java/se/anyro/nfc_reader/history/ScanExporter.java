@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.history;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import se.anyro.nfc_reader.NdefMessageParser;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.util.UidCodec;
+
+/**
+ * Streams the scans of a {@link ScanJournal} to a file, one scan at a time
+ * through a fixed size buffer, so the size of the history does not matter.
+ *
+ * <p>The text formats have the UID in hex, reversed hex, decimal and
+ * reversed decimal, the time in UTC, the technologies and the summaries of
+ * the NDEF records. The binary format keeps the raw NDEF message instead:
+ * the magic "NFCX", a version byte, then per scan a long timestamp, an int
+ * tech mask, a UID length byte and the UID, an int NDEF length and the
+ * NDEF message, all big-endian.
+ */
+public class ScanExporter {
+
+    public enum Format {
+        CSV("csv"), JSON_LINES("jsonl"), BINARY("bin");
+
+        private final String mExtension;
+
+        private Format(String extension) {
+            mExtension = extension;
+        }
+
+        /** Returns the file name extension, without the dot. */
+        public String getExtension() {
+            return mExtension;
+        }
+    }
+
+    /** Receives the progress of an export. */
+    public interface ProgressListener {
+
+        /**
+         * Called on the exporting thread after every {@link #PROGRESS_STEP}
+         * scans and at the end.
+         */
+        public void onProgress(int exported, int total);
+    }
+
+    public static final int PROGRESS_STEP = 256;
+
+    private static final int BINARY_MAGIC = 0x4e464358; // "NFCX"
+    private static final int BINARY_VERSION = 1;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String CSV_HEADER =
+            "time,uid_hex,uid_reversed_hex,uid_dec,uid_reversed_dec,techs,ndef";
+
+    // Utility class
+    private ScanExporter() {
+
+    }
+
+    /**
+     * Writes the scans in {@code journal} to {@code out}, which is not
+     * closed. Returns the number of scans written.
+     *
+     * @param listener receives progress updates, or null
+     */
+    public static int export(File journal, Format format, OutputStream out,
+            ProgressListener listener) throws IOException {
+        // A cheap first pass, so progress can be reported against a total
+        int total = ScanJournal.read(journal, null);
+        ScanJournal.Visitor writer;
+        Writer text = null;
+        DataOutputStream data = null;
+        if (format == Format.BINARY) {
+            data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            data.writeInt(BINARY_MAGIC);
+            data.writeByte(BINARY_VERSION);
+            writer = new BinaryWriter(data);
+        } else {
+            text = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+            if (format == Format.CSV) {
+                text.write(CSV_HEADER);
+                text.write('\n');
+            }
+            writer = new TextWriter(text, format == Format.CSV);
+        }
+        ProgressVisitor visitor = new ProgressVisitor(writer, total, listener);
+        ScanJournal.read(journal, visitor);
+        if (text != null) {
+            text.flush();
+        } else {
+            data.flush();
+        }
+        if (listener != null) {
+            listener.onProgress(visitor.mCount, Math.max(total, visitor.mCount));
+        }
+        return visitor.mCount;
+    }
+
+    private static class ProgressVisitor implements ScanJournal.Visitor {
+
+        private final ScanJournal.Visitor mWriter;
+        private final int mTotal;
+        private final ProgressListener mListener;
+        int mCount;
+
+        ProgressVisitor(ScanJournal.Visitor writer, int total, ProgressListener listener) {
+            mWriter = writer;
+            mTotal = total;
+            mListener = listener;
+        }
+
+        @Override
+        public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                ByteBuffer ndef) throws IOException {
+            mWriter.visit(timestamp, uid, uidLength, techMask, ndef);
+            mCount++;
+            if (mListener != null && mCount % PROGRESS_STEP == 0) {
+                // Scans appended since the first pass can take it past the total
+                mListener.onProgress(mCount, Math.max(mTotal, mCount));
+            }
+        }
+    }
+
+    private static class BinaryWriter implements ScanJournal.Visitor {
+
+        private final DataOutputStream mOut;
+
+        BinaryWriter(DataOutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                ByteBuffer ndef) throws IOException {
+            mOut.writeLong(timestamp);
+            mOut.writeInt(techMask);
+            mOut.writeByte(uidLength);
+            mOut.write(uid, 0, uidLength);
+            if (ndef == null) {
+                mOut.writeInt(0);
+                return;
+            }
+            mOut.writeInt(ndef.remaining());
+            while (ndef.hasRemaining()) {
+                mOut.writeByte(ndef.get());
+            }
+        }
+    }
+
+    private static class TextWriter implements ScanJournal.Visitor {
+
+        private final Writer mOut;
+        private final boolean mCsv;
+        private final DateFormat mTimeFormat;
+        private final Date mDate = new Date();
+        private final StringBuilder mField = new StringBuilder();
+        /** Large enough for any UID the journal holds, in hex or decimal. */
+        private final char[] mChars = new char[Math.max(UidCodec.hexLength(0xff, 0),
+                UidCodec.maxDecLength(0xff))];
+
+        TextWriter(Writer out, boolean csv) {
+            mOut = out;
+            mCsv = csv;
+            mTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+            mTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        @Override
+        public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                ByteBuffer ndef) throws IOException {
+            mDate.setTime(timestamp);
+            String time = mTimeFormat.format(mDate);
+            if (mCsv) {
+                mOut.write(time);
+                mOut.write(',');
+                writeUid(uid, uidLength, true, 0);
+                mOut.write(',');
+                writeUid(uid, uidLength, true, UidCodec.REVERSED);
+                mOut.write(',');
+                writeUid(uid, uidLength, false, 0);
+                mOut.write(',');
+                writeUid(uid, uidLength, false, UidCodec.REVERSED);
+                mOut.write(',');
+                writeCsvField(TechMask.toString(techMask));
+                mOut.write(',');
+                writeCsvField(summaries(ndef, "\n"));
+            } else {
+                mOut.write("{\"time\":\"");
+                mOut.write(time);
+                mOut.write("\",\"uid_hex\":\"");
+                writeUid(uid, uidLength, true, 0);
+                mOut.write("\",\"uid_reversed_hex\":\"");
+                writeUid(uid, uidLength, true, UidCodec.REVERSED);
+                // As strings, long UIDs do not fit a JSON number
+                mOut.write("\",\"uid_dec\":\"");
+                writeUid(uid, uidLength, false, 0);
+                mOut.write("\",\"uid_reversed_dec\":\"");
+                writeUid(uid, uidLength, false, UidCodec.REVERSED);
+                mOut.write("\",\"techs\":[");
+                String[] techs = TechMask.toNames(techMask);
+                for (int i = 0; i < techs.length; i++) {
+                    if (i > 0) {
+                        mOut.write(',');
+                    }
+                    writeJsonString(techs[i]);
+                }
+                mOut.write("],\"ndef\":[");
+                writeJsonRecords(ndef);
+                mOut.write("]}");
+            }
+            mOut.write('\n');
+        }
+
+        private void writeUid(byte[] uid, int length, boolean hex, int flags)
+                throws IOException {
+            int chars = hex
+                    ? UidCodec.encodeHex(uid, 0, length, flags, mChars, 0)
+                    : UidCodec.encodeDec(uid, 0, length, flags, mChars, 0);
+            mOut.write(mChars, 0, chars);
+        }
+
+        private void writeCsvField(String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                mOut.write(value);
+                return;
+            }
+            mOut.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    mOut.write('"');
+                }
+                mOut.write(c);
+            }
+            mOut.write('"');
+        }
+
+        private void writeJsonRecords(ByteBuffer ndef) throws IOException {
+            List<ParsedNdefRecord> records = parse(ndef);
+            if (records == null) {
+                return;
+            }
+            for (int i = 0; i < records.size(); i++) {
+                if (i > 0) {
+                    mOut.write(',');
+                }
+                writeJsonString(records.get(i).getSummary());
+            }
+        }
+
+        private void writeJsonString(String value) throws IOException {
+            mOut.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    mOut.write('\\');
+                    mOut.write(c);
+                } else if (c < 0x20) {
+                    mOut.write("\\u00");
+                    mOut.write(HEX[c >>> 4]);
+                    mOut.write(HEX[c & 0x0f]);
+                } else {
+                    mOut.write(c);
+                }
+            }
+            mOut.write('"');
+        }
+
+        private String summaries(ByteBuffer ndef, String separator) {
+            List<ParsedNdefRecord> records = parse(ndef);
+            if (records == null) {
+                return "";
+            }
+            mField.setLength(0);
+            for (int i = 0; i < records.size(); i++) {
+                if (i > 0) {
+                    mField.append(separator);
+                }
+                mField.append(records.get(i).getSummary());
+            }
+            return mField.toString();
+        }
+
+        /** Returns null if there is no NDEF message or it is malformed. */
+        private static List<ParsedNdefRecord> parse(ByteBuffer ndef) {
+            if (ndef == null) {
+                return null;
+            }
+            try {
+                return NdefMessageParser.parse(ndef);
+            } catch (NdefFormatException e) {
+                return null;
+            }
+        }
+    }
+}
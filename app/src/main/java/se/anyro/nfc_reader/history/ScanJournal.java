@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of scans, so the scan history survives the process.
+ *
+ * <p>The file starts with an 8 byte header: the magic "NFCJ", a version
+ * and the record header size. Each record is a 24 byte header followed by
+ * the UID and the raw NDEF message, all big-endian:
+ *
+ * <pre>
+ *  0  long  timestamp, milliseconds since the epoch
+ *  8  int   technology bitmask
+ * 12  int   NDEF message length, 0 if the tag had none
+ * 16  byte  UID length
+ * 17  3     reserved, zero
+ * 20  int   CRC-32 of the header bytes before it, the UID and the NDEF message
+ * 24        UID, then NDEF message
+ * </pre>
+ *
+ * <p>Records are collected in a buffer and written with one channel write.
+ * The file is forced to storage once a batch of records or a time limit is
+ * reached, or when {@link #sync()} is called, not once per scan. A crash
+ * can lose the scans since the last sync, and may leave a torn record at
+ * the end. Opening the journal maps the file, replays every record whose
+ * checksum matches and cuts the file off at the first one that doesn't.
+ *
+ * <p>Every record is kept, so the journal is the full audit trail and
+ * what exports read. Opening it checks every record but passes only the
+ * newest ones to the visitor, as many as the history they fill can hold.
+ *
+ * <p>Not thread safe; use from one thread, such as the tag processing
+ * thread.
+ */
+public class ScanJournal {
+
+    /** Receives the records of the journal when it is opened. */
+    public interface Visitor {
+
+        /**
+         * Called once per record, oldest first.
+         *
+         * @param uid shared array holding the UID in its first
+         *        {@code uidLength} bytes, only valid during the call
+         * @param ndef read-only view of the NDEF message in the mapped
+         *        file, only valid during the call, or null if there was none
+         */
+        public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                ByteBuffer ndef) throws IOException;
+    }
+
+    private static final int MAGIC = 0x4e46434a; // "NFCJ"
+    private static final short VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final int CRC_OFFSET = 20;
+    private static final int MAX_UID_LENGTH = 0xff;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 mCrc = new CRC32();
+    private final int mSyncRecords;
+    private final long mSyncMillis;
+
+    private int mUnsynced;
+    private long mLastSync;
+    private int mRecordCount;
+
+    private ScanJournal(RandomAccessFile file, int syncRecords, long syncMillis) {
+        mFile = file;
+        mChannel = file.getChannel();
+        mSyncRecords = syncRecords;
+        mSyncMillis = syncMillis;
+    }
+
+    /**
+     * Opens or creates the journal in {@code file}, passing the newest
+     * intact records to {@code visitor} and dropping a torn tail.
+     *
+     * @param syncRecords force the file to storage after this many records
+     * @param syncMillis force the file to storage when this long has passed
+     *        since the last sync, checked when a record is appended
+     * @param replayRecords the number of newest records to pass to
+     *        {@code visitor}, e.g. the capacity of the history they fill
+     * @param visitor receives the existing records, or null
+     */
+    public static ScanJournal open(File file, int syncRecords, long syncMillis, int replayRecords,
+            Visitor visitor) throws IOException {
+        if (replayRecords < 0) {
+            throw new IllegalArgumentException("replayRecords " + replayRecords);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        ScanJournal journal = new ScanJournal(raf, syncRecords, syncMillis);
+        boolean ok = false;
+        try {
+            journal.recover(replayRecords, visitor);
+            ok = true;
+        } finally {
+            if (!ok) {
+                journal.mFile.close();
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Passes the intact records of the journal in {@code file} to
+     * {@code visitor} without changing the file, and returns their number.
+     * Safe while another thread appends to the journal; records appended
+     * after the file was mapped, or not yet written, are not seen.
+     *
+     * @param visitor receives the records, or null to only count them
+     */
+    public static int read(File file, Visitor visitor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < FILE_HEADER_SIZE) {
+                return 0;
+            }
+            Replay replay = replay(map(channel, size), visitor);
+            return replay.count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Returns the number of records in the journal. */
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Appends a scan. The record reaches the file when the buffer fills or
+     * the journal is synced.
+     *
+     * @param ndef the raw NDEF message, or null
+     */
+    public void append(long timestamp, byte[] uid, int techMask, byte[] ndef)
+            throws IOException {
+        append(timestamp, uid, techMask, ndef != null ? ByteBuffer.wrap(ndef) : null);
+    }
+
+    /**
+     * Like {@link #append(long, byte[], int, byte[])}, with the NDEF message
+     * between the position and the limit of {@code ndef}, whose position is
+     * not changed.
+     */
+    public void append(long timestamp, byte[] uid, int techMask, ByteBuffer ndef)
+            throws IOException {
+        int uidLength = Math.min(uid.length, MAX_UID_LENGTH);
+        int ndefLength = ndef != null ? ndef.remaining() : 0;
+        int size = RECORD_HEADER_SIZE + uidLength + ndefLength;
+        if (size > mBuffer.remaining()) {
+            flush();
+        }
+        ByteBuffer buffer = size <= mBuffer.capacity() ? mBuffer : ByteBuffer.allocate(size);
+        int start = buffer.position();
+        buffer.putLong(timestamp);
+        buffer.putInt(techMask);
+        buffer.putInt(ndefLength);
+        buffer.put((byte) uidLength);
+        buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+        buffer.putInt(0);
+        buffer.put(uid, 0, uidLength);
+        if (ndefLength > 0) {
+            buffer.put(ndef.duplicate());
+        }
+        byte[] array = buffer.array();
+        mCrc.reset();
+        mCrc.update(array, start, CRC_OFFSET);
+        mCrc.update(array, start + RECORD_HEADER_SIZE, uidLength + ndefLength);
+        buffer.putInt(start + CRC_OFFSET, (int) mCrc.getValue());
+        if (buffer != mBuffer) {
+            buffer.flip();
+            write(buffer);
+        }
+        mRecordCount++;
+        mUnsynced++;
+        long now = System.currentTimeMillis();
+        if (mUnsynced >= mSyncRecords || now - mLastSync >= mSyncMillis) {
+            sync();
+        }
+    }
+
+    /** Writes buffered records and forces the file to storage. */
+    public void sync() throws IOException {
+        flush();
+        mChannel.force(false);
+        mUnsynced = 0;
+        mLastSync = System.currentTimeMillis();
+    }
+
+    /** Syncs and closes the file. */
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        write(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        write(mChannel, buffer);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_HEADER_SIZE);
+        header.flip();
+        write(channel, header);
+    }
+
+    private void recover(int replayRecords, Visitor visitor) throws IOException {
+        long size = mChannel.size();
+        if (size < FILE_HEADER_SIZE) {
+            // New file, or one that died before its header was written
+            mChannel.truncate(0);
+            mChannel.position(0);
+            writeHeader(mChannel);
+            mChannel.force(false);
+            mLastSync = System.currentTimeMillis();
+            return;
+        }
+        MappedByteBuffer map = map(mChannel, size);
+        Replay replay = replay(map, null);
+        mRecordCount = replay.count;
+        int end = replay.end;
+        if (visitor != null && replayRecords > 0) {
+            visit(map, end, Math.max(mRecordCount - replayRecords, 0), visitor);
+        }
+        if (end < size) {
+            mChannel.truncate(end);
+            mChannel.force(false);
+        }
+        mChannel.position(end);
+        mLastSync = System.currentTimeMillis();
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (map.getInt(0) != MAGIC || map.getShort(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " scan journal: " + size
+                    + " bytes");
+        }
+        return map;
+    }
+
+    /** Where a replay stopped. */
+    private static final class Replay {
+        /** Offset just past the last intact record. */
+        int end;
+        int count;
+    }
+
+    private static Replay replay(ByteBuffer map, Visitor visitor) throws IOException {
+        Replay replay = new Replay();
+        CRC32 crc32 = new CRC32();
+        int limit = map.limit();
+        int pos = FILE_HEADER_SIZE;
+        byte[] scratch = new byte[256];
+        byte[] uid = new byte[MAX_UID_LENGTH];
+        while (limit - pos >= RECORD_HEADER_SIZE) {
+            long timestamp = map.getLong(pos);
+            int techMask = map.getInt(pos + 8);
+            int ndefLength = map.getInt(pos + 12);
+            int uidLength = map.get(pos + 16) & 0xff;
+            int crc = map.getInt(pos + CRC_OFFSET);
+            int dataLength = uidLength + ndefLength;
+            if (ndefLength < 0 || dataLength > limit - pos - RECORD_HEADER_SIZE) {
+                break;
+            }
+            if (scratch.length < RECORD_HEADER_SIZE + dataLength) {
+                scratch = new byte[Math.max(RECORD_HEADER_SIZE + dataLength, scratch.length * 2)];
+            }
+            ByteBuffer record = map.duplicate();
+            record.position(pos);
+            record.get(scratch, 0, RECORD_HEADER_SIZE + dataLength);
+            crc32.reset();
+            crc32.update(scratch, 0, CRC_OFFSET);
+            crc32.update(scratch, RECORD_HEADER_SIZE, dataLength);
+            if ((int) crc32.getValue() != crc) {
+                break;
+            }
+            if (visitor != null) {
+                System.arraycopy(scratch, RECORD_HEADER_SIZE, uid, 0, uidLength);
+                visitor.visit(timestamp, uid, uidLength, techMask,
+                        ndef(record, pos + RECORD_HEADER_SIZE + uidLength, ndefLength));
+            }
+            replay.count++;
+            pos += RECORD_HEADER_SIZE + dataLength;
+        }
+        replay.end = pos;
+        return replay;
+    }
+
+    /**
+     * Passes the records before {@code end}, already checked by
+     * {@link #replay}, to {@code visitor}, skipping the first {@code skip}.
+     */
+    private static void visit(ByteBuffer map, int end, int skip, Visitor visitor)
+            throws IOException {
+        int pos = FILE_HEADER_SIZE;
+        for (; skip > 0; skip--) {
+            pos += RECORD_HEADER_SIZE + (map.get(pos + 16) & 0xff) + map.getInt(pos + 12);
+        }
+        byte[] uid = new byte[MAX_UID_LENGTH];
+        while (pos < end) {
+            long timestamp = map.getLong(pos);
+            int techMask = map.getInt(pos + 8);
+            int ndefLength = map.getInt(pos + 12);
+            int uidLength = map.get(pos + 16) & 0xff;
+            ByteBuffer record = map.duplicate();
+            record.position(pos + RECORD_HEADER_SIZE);
+            record.get(uid, 0, uidLength);
+            visitor.visit(timestamp, uid, uidLength, techMask,
+                    ndef(record, pos + RECORD_HEADER_SIZE + uidLength, ndefLength));
+            pos += RECORD_HEADER_SIZE + uidLength + ndefLength;
+        }
+    }
+
+    private static ByteBuffer ndef(ByteBuffer record, int start, int length) {
+        if (length == 0) {
+            return null;
+        }
+        record.limit(start + length).position(start);
+        return record.slice().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.MifareClassicIo;
+import se.anyro.nfc_reader.tech.TransceiveStats;
+import android.nfc.TagLostException;
+import android.nfc.tech.MifareClassic;
+
+/**
+ * {@link MifareClassicIo} over a connected {@link MifareClassic}.
+ */
+class AndroidMifareClassicIo implements MifareClassicIo {
+
+    // Commands as sent by MifareClassic, recorded in TagIo's stats
+    private static final int AUTH_KEY_A = 0x60;
+    private static final int AUTH_KEY_B = 0x61;
+    private static final int READ = 0x30;
+    /** Command, block, the last 4 bytes of the UID and the key. */
+    private static final int AUTH_LENGTH = 12;
+    private static final int READ_LENGTH = 2;
+
+    private final MifareClassic mTag;
+
+    AndroidMifareClassicIo(MifareClassic tag) {
+        mTag = tag;
+    }
+
+    @Override
+    public int getSectorCount() {
+        return mTag.getSectorCount();
+    }
+
+    @Override
+    public int getBlockCountInSector(int sector) {
+        return mTag.getBlockCountInSector(sector);
+    }
+
+    @Override
+    public int sectorToBlock(int sector) {
+        return mTag.sectorToBlock(sector);
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            boolean authenticated = mTag.authenticateSectorWithKeyA(sector, key);
+            record(AUTH_KEY_A, AUTH_LENGTH, 0, start);
+            return authenticated;
+        } catch (IOException e) {
+            recordFailure(AUTH_KEY_A, AUTH_LENGTH, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            boolean authenticated = mTag.authenticateSectorWithKeyB(sector, key);
+            record(AUTH_KEY_B, AUTH_LENGTH, 0, start);
+            return authenticated;
+        } catch (IOException e) {
+            recordFailure(AUTH_KEY_B, AUTH_LENGTH, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public byte[] readBlock(int block) throws IOException {
+        long start = System.nanoTime();
+        try {
+            byte[] data = mTag.readBlock(block);
+            record(READ, READ_LENGTH, data != null ? data.length : 0, start);
+            return data;
+        } catch (IOException e) {
+            recordFailure(READ, READ_LENGTH, start, e);
+            throw e;
+        }
+    }
+
+    private static void record(int command, int bytesOut, int bytesIn, long start) {
+        TagIo.getStats().recordTransceive(TechMask.MIFARE_CLASSIC, command, bytesOut, bytesIn,
+                System.nanoTime() - start);
+    }
+
+    private static void recordFailure(int command, int bytesOut, long start, IOException e) {
+        TagIo.getStats().recordFailure(TechMask.MIFARE_CLASSIC, command, bytesOut,
+                System.nanoTime() - start, e instanceof TagLostException
+                        ? TransceiveStats.FAILURE_TAG_LOST : TransceiveStats.FAILURE_IO);
+    }
+}
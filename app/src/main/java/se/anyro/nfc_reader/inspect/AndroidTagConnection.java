@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.scan.TagConnection;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.Transceiver;
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.NfcA;
+import android.nfc.tech.NfcF;
+import android.nfc.tech.NfcV;
+import android.nfc.tech.TagTechnology;
+
+/**
+ * A {@link Tag} as {@link se.anyro.nfc_reader.scan.TagPipeline} talks to
+ * it, every step through {@link TagIo}. One technology is connected at a
+ * time, as Android allows.
+ */
+public class AndroidTagConnection implements TagConnection {
+
+    private final Tag mTag;
+    private final int mTechMask;
+    private TagTechnology mConnected;
+
+    public AndroidTagConnection(Tag tag) {
+        mTag = tag;
+        mTechMask = TechMask.of(tag.getTechList());
+    }
+
+    public Tag getTag() {
+        return mTag;
+    }
+
+    @Override
+    public byte[] getId() {
+        return mTag.getId();
+    }
+
+    @Override
+    public int getTechMask() {
+        return mTechMask;
+    }
+
+    @Override
+    public int getSak() {
+        NfcA nfcA = NfcA.get(mTag);
+        return nfcA != null ? nfcA.getSak() : -1;
+    }
+
+    @Override
+    public boolean isExtendedLengthSupported() {
+        IsoDep isoDep = IsoDep.get(mTag);
+        return isoDep != null && IsoDepTransceiver.isExtendedLengthSupported(isoDep);
+    }
+
+    @Override
+    public Transceiver connect(int tech) throws IOException {
+        Transceiver transceiver;
+        TagTechnology technology;
+        switch (tech) {
+            case TechMask.NFC_A:
+                NfcA nfcA = NfcA.get(mTag);
+                technology = nfcA;
+                transceiver = nfcA != null ? TagIo.transceiver(nfcA) : null;
+                break;
+            case TechMask.NFC_F:
+                NfcF nfcF = NfcF.get(mTag);
+                technology = nfcF;
+                transceiver = nfcF != null ? TagIo.transceiver(nfcF) : null;
+                break;
+            case TechMask.NFC_V:
+                NfcV nfcV = NfcV.get(mTag);
+                technology = nfcV;
+                transceiver = nfcV != null ? TagIo.transceiver(nfcV) : null;
+                break;
+            case TechMask.ISO_DEP:
+                IsoDep isoDep = IsoDep.get(mTag);
+                technology = isoDep;
+                transceiver = isoDep != null ? TagIo.transceiver(isoDep) : null;
+                break;
+            default:
+                technology = null;
+                transceiver = null;
+        }
+        if (transceiver == null) {
+            throw new IOException("No transceiver for " + TechMask.toString(tech));
+        }
+        TagIo.connect(technology, tech);
+        mConnected = technology;
+        return transceiver;
+    }
+
+    @Override
+    public void close(int tech) throws IOException {
+        TagTechnology technology = mConnected;
+        mConnected = null;
+        if (technology != null) {
+            TagIo.close(technology, tech);
+        }
+    }
+}
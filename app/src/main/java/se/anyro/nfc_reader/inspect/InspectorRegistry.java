@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+
+/**
+ * Maps technology class names to the {@link TechInspector}s that report on
+ * them, and runs the inspectors a {@link ProbeProfile} asks for.
+ *
+ * <p>The time spent in each inspector is recorded, see {@link #getTimings()}.
+ */
+public class InspectorRegistry {
+
+    private static final String TAG = "InspectorRegistry";
+    private static final String PREFIX = "android.nfc.tech.";
+
+    /** Fully qualified technology class name to inspector. */
+    private final HashMap<String, TechInspector> mInspectors =
+            new HashMap<String, TechInspector>();
+
+    /** Indexed by TechMask bit number. */
+    private final int[] mCounts = new int[Integer.SIZE];
+    private final long[] mTotalNanos = new long[Integer.SIZE];
+    private final long[] mMaxNanos = new long[Integer.SIZE];
+
+    /** Returns a registry with inspectors for every technology Android knows. */
+    public static InspectorRegistry createDefault() {
+        InspectorRegistry registry = new InspectorRegistry();
+        registry.register(new NfcAInspector());
+        registry.register(new NfcBInspector());
+        registry.register(new NfcFInspector());
+        registry.register(new NfcVInspector());
+        registry.register(new IsoDepInspector());
+        registry.register(new MifareClassicInspector());
+        registry.register(new MifareUltralightInspector());
+        registry.register(new NdefInspector());
+        registry.register(new NdefFormatableInspector());
+        return registry;
+    }
+
+    /** Registers {@code inspector}, replacing any for the same technology. */
+    public void register(TechInspector inspector) {
+        mInspectors.put(PREFIX + TechMask.toString(inspector.getTech()), inspector);
+    }
+
+    /**
+     * Runs the inspectors of the technologies of {@code tag} included in
+     * {@code profile}, in the order of the tag's technology list. An
+     * inspector that fails is reported in {@code out} and does not stop the
+     * others.
+     */
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder out) {
+        if (profile.getTechs() == 0) {
+            return;
+        }
+        for (String tech : tag.getTechList()) {
+            TechInspector inspector = mInspectors.get(tech);
+            if (inspector == null || !profile.includes(inspector.getTech())) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                inspector.inspect(tag, profile, out);
+            } catch (RuntimeException e) {
+                ScanLog.w(TAG, "{} inspection failed", tech, e);
+                out.append('\n').append(TechMask.toString(inspector.getTech()))
+                        .append(" error: ").append(e.getMessage());
+            }
+            record(inspector.getTech(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the number of runs and the mean and maximum time of each
+     * inspector that has run, e.g. "NfcA: 12 x 0.04 ms, max 0.10 ms".
+     */
+    public synchronized String getTimings() {
+        StringBuilder sb = new StringBuilder();
+        for (int bit = 0; bit < Integer.SIZE; bit++) {
+            if (mCounts[bit] == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(TechMask.toString(1 << bit)).append(": ").append(mCounts[bit])
+                    .append(" x ").append(millis(mTotalNanos[bit] / mCounts[bit]))
+                    .append(" ms, max ").append(millis(mMaxNanos[bit])).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    /** Forgets the recorded timings. */
+    public synchronized void resetTimings() {
+        for (int bit = 0; bit < Integer.SIZE; bit++) {
+            mCounts[bit] = 0;
+            mTotalNanos[bit] = 0;
+            mMaxNanos[bit] = 0;
+        }
+    }
+
+    private synchronized void record(int tech, long nanos) {
+        int bit = Integer.numberOfTrailingZeros(tech);
+        mCounts[bit]++;
+        mTotalNanos[bit] += nanos;
+        if (nanos > mMaxNanos[bit]) {
+            mMaxNanos[bit] = nanos;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2f", nanos / 1e6);
+    }
+}
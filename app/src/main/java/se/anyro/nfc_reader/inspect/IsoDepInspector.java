@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TagPipeline;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+
+/**
+ * Logs the higher layer response, historical bytes, timeout and maximum
+ * transceive length of an ISO 14443-4 tag. With
+ * {@link ProbeProfile#readsMemory()} the NDEF file of a Type 4 tag is read
+ * and its size shown.
+ */
+class IsoDepInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.ISO_DEP;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        IsoDep isoDepTag = IsoDep.get(tag);
+        if (ScanLog.DEBUG) {
+            // NfcA based tags have no higher layer response, NfcB ones no historical bytes
+            ScanLog.d(ScanLog.TAG, "IsoDep hiLayerResponse: {}, historicalBytes: {}, "
+                    + "timeout: {}, maxTransceiveLength: {}", isoDepTag.getHiLayerResponse(),
+                    isoDepTag.getHistoricalBytes(), isoDepTag.getTimeout(),
+                    isoDepTag.getMaxTransceiveLength());
+        }
+
+        TagPipeline.inspectMemory(TechMask.ISO_DEP, profile, new AndroidTagConnection(tag), sb);
+    }
+}
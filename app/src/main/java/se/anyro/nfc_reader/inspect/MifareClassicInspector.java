@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.MifareClassicDump;
+import se.anyro.nfc_reader.tech.MifareClassicDumper;
+import se.anyro.nfc_reader.tech.MifareKeyCache;
+import se.anyro.nfc_reader.util.UidCodec;
+import android.nfc.Tag;
+import android.nfc.tech.MifareClassic;
+import android.nfc.tech.NfcA;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcel;
+
+/**
+ * Reports the MIFARE Classic type, size and sector and block counts, and
+ * with {@link ProbeProfile#readsMemory()} the blocks the default keys open.
+ */
+class MifareClassicInspector implements TechInspector {
+
+    /** Cards whose keys are remembered between scans. */
+    private static final int KEY_CACHE_CARDS = 64;
+
+    private final MifareClassicDumper mDumper = new MifareClassicDumper(
+            MifareClassicDumper.DEFAULT_KEYS, new MifareKeyCache(KEY_CACHE_CARDS));
+
+    @Override
+    public int getTech() {
+        return TechMask.MIFARE_CLASSIC;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        sb.append('\n');
+        String type = "Unknown";
+        try {
+            MifareClassic mifareTag;
+            try {
+                mifareTag = MifareClassic.get(tag);
+            } catch (Exception e) {
+                // Fix for Sony Xperia Z3/Z5 phones
+                tag = cleanupTag(tag);
+                mifareTag = MifareClassic.get(tag);
+            }
+            switch (mifareTag.getType()) {
+                case MifareClassic.TYPE_CLASSIC:
+                    type = "Classic";
+                    break;
+                case MifareClassic.TYPE_PLUS:
+                    type = "Plus";
+                    break;
+                case MifareClassic.TYPE_PRO:
+                    type = "Pro";
+                    break;
+            }
+            sb.append("Mifare Classic type: ");
+            sb.append(type);
+            sb.append('\n');
+
+            sb.append("Mifare size: ");
+            sb.append(mifareTag.getSize() + " bytes");
+            sb.append('\n');
+
+            sb.append("Mifare sectors: ");
+            sb.append(mifareTag.getSectorCount());
+            sb.append('\n');
+
+            sb.append("Mifare blocks: ");
+            sb.append(mifareTag.getBlockCount());
+
+            if (profile.readsMemory()) {
+                dump(tag, mifareTag, sb);
+            }
+        } catch (Exception e) {
+            sb.append("Mifare classic error: " + e.getMessage());
+        }
+    }
+
+    private void dump(Tag tag, MifareClassic mifareTag, StringBuilder sb) throws IOException {
+        MifareClassicDump dump;
+        TagIo.connect(mifareTag, TechMask.MIFARE_CLASSIC);
+        try {
+            dump = mDumper.dump(tag.getId(), new AndroidMifareClassicIo(mifareTag));
+        } finally {
+            TagIo.close(mifareTag, TechMask.MIFARE_CLASSIC);
+        }
+        sb.append('\n');
+        sb.append("Mifare dump: " + dump.getOpenedSectorCount() + "/" + dump.getSectorCount()
+                + " sectors, " + dump.getReadBlockCount() + "/" + dump.getBlockCount()
+                + " blocks, " + dump.getAuthentications() + " authentications ("
+                + dump.getFailedAuthentications() + " failed), " + dump.getReads() + " reads ("
+                + dump.getFailedReads() + " failed)");
+        byte[] data = dump.getData();
+        int flags = UidCodec.REVERSED | UidCodec.SPACED;
+        char[] chars = new char[UidCodec.hexLength(MifareClassicDump.BLOCK_SIZE, flags)];
+        for (int sector = 0; sector < dump.getSectorCount(); sector++) {
+            sb.append('\n');
+            byte[] key = dump.getKey(sector);
+            if (key == null) {
+                sb.append("Sector " + sector + ": no key");
+                continue;
+            }
+            sb.append("Sector " + sector + ", key " + (dump.isKeyB(sector) ? "B " : "A ")
+                    + UidCodec.toHex(key, UidCodec.REVERSED));
+            int first = dump.getFirstBlock(sector);
+            for (int block = first; block < first + dump.getBlockCountInSector(sector); block++) {
+                sb.append('\n').append(block).append(": ");
+                if (!dump.isBlockRead(block)) {
+                    sb.append("-");
+                    continue;
+                }
+                UidCodec.encodeHex(data, block * MifareClassicDump.BLOCK_SIZE,
+                        MifareClassicDump.BLOCK_SIZE, flags, chars, 0);
+                sb.append(chars);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the tag with the SAK of its NfcA entries merged and
+     * the NfcA extras copied to MifareClassic, which some phones leave out.
+     */
+    static Tag cleanupTag(Tag oTag) {
+        if (oTag == null)
+            return null;
+
+        String[] sTechList = oTag.getTechList();
+
+        Parcel oParcel = Parcel.obtain();
+        oTag.writeToParcel(oParcel, 0);
+        oParcel.setDataPosition(0);
+
+        int len = oParcel.readInt();
+        byte[] id = null;
+        if (len >= 0) {
+            id = new byte[len];
+            oParcel.readByteArray(id);
+        }
+        int[] oTechList = new int[oParcel.readInt()];
+        oParcel.readIntArray(oTechList);
+        Bundle[] oTechExtras = oParcel.createTypedArray(Bundle.CREATOR);
+        int serviceHandle = oParcel.readInt();
+        int isMock = oParcel.readInt();
+        IBinder tagService;
+        if (isMock == 0) {
+            tagService = oParcel.readStrongBinder();
+        } else {
+            tagService = null;
+        }
+        oParcel.recycle();
+
+        int nfca_idx = -1;
+        int mc_idx = -1;
+        short oSak = 0;
+        short nSak = 0;
+
+        for (int idx = 0; idx < sTechList.length; idx++) {
+            if (sTechList[idx].equals(NfcA.class.getName())) {
+                if (nfca_idx == -1) {
+                    nfca_idx = idx;
+                    if (oTechExtras[idx] != null && oTechExtras[idx].containsKey("sak")) {
+                        oSak = oTechExtras[idx].getShort("sak");
+                        nSak = oSak;
+                    }
+                } else {
+                    if (oTechExtras[idx] != null && oTechExtras[idx].containsKey("sak")) {
+                        nSak = (short) (nSak | oTechExtras[idx].getShort("sak"));
+                    }
+                }
+            } else if (sTechList[idx].equals(MifareClassic.class.getName())) {
+                mc_idx = idx;
+            }
+        }
+
+        boolean modified = false;
+
+        if (oSak != nSak) {
+            oTechExtras[nfca_idx].putShort("sak", nSak);
+            modified = true;
+        }
+
+        if (nfca_idx != -1 && mc_idx != -1 && oTechExtras[mc_idx] == null) {
+            oTechExtras[mc_idx] = oTechExtras[nfca_idx];
+            modified = true;
+        }
+
+        if (!modified) {
+            return oTag;
+        }
+
+        Parcel nParcel = Parcel.obtain();
+        nParcel.writeInt(id.length);
+        nParcel.writeByteArray(id);
+        nParcel.writeInt(oTechList.length);
+        nParcel.writeIntArray(oTechList);
+        nParcel.writeTypedArray(oTechExtras, 0);
+        nParcel.writeInt(serviceHandle);
+        nParcel.writeInt(isMock);
+        if (isMock == 0) {
+            nParcel.writeStrongBinder(tagService);
+        }
+        nParcel.setDataPosition(0);
+
+        Tag nTag = Tag.CREATOR.createFromParcel(nParcel);
+
+        nParcel.recycle();
+
+        return nTag;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.scan.TagPipeline;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+import android.nfc.tech.MifareUltralight;
+
+/**
+ * Reports the MIFARE Ultralight type, and with
+ * {@link ProbeProfile#readsMemory()} the pages of the tag.
+ */
+class MifareUltralightInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.MIFARE_ULTRALIGHT;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        sb.append('\n');
+        MifareUltralight mifareUlTag = MifareUltralight.get(tag);
+        String type = "Unknown";
+        switch (mifareUlTag.getType()) {
+            case MifareUltralight.TYPE_ULTRALIGHT:
+                type = "Ultralight";
+                break;
+            case MifareUltralight.TYPE_ULTRALIGHT_C:
+                type = "Ultralight C";
+                break;
+        }
+        sb.append("Mifare Ultralight type: ");
+        sb.append(type);
+
+        TagPipeline.inspectMemory(TechMask.MIFARE_ULTRALIGHT, profile,
+                new AndroidTagConnection(tag), sb);
+    }
+}
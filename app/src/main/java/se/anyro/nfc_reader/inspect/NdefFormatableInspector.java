@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+import android.nfc.tech.NdefFormatable;
+
+/**
+ * Logs that the tag can be formatted for NDEF. Nothing is shown.
+ */
+class NdefFormatableInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.NDEF_FORMATABLE;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        if (ScanLog.DEBUG) {
+            ScanLog.d(ScanLog.TAG, "NdefFormatable ndefFormatableTag: {}",
+                    NdefFormatable.get(tag));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.util.UidCodec;
+import android.nfc.Tag;
+import android.nfc.tech.NfcA;
+
+/**
+ * Reports the ATQA, SAK, timeout and maximum transceive length of an
+ * ISO 14443-3A tag.
+ */
+class NfcAInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.NFC_A;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        sb.append('\n');
+        NfcA nfcATag = NfcA.get(tag);
+        byte[] atqa = nfcATag.getAtqa();
+        short sak = nfcATag.getSak();
+        int timeout = nfcATag.getTimeout();
+        int maxTransceiveLength = nfcATag.getMaxTransceiveLength();
+        if (ScanLog.DEBUG) {
+            ScanLog.d(ScanLog.TAG, "NfcA ATQA: {}, SAK: {}, timeout: {}, maxTransceiveLength: {}",
+                    atqa, sak, timeout, maxTransceiveLength);
+        }
+        sb.append("NfcA ATQA: ").append(UidCodec.toHex(atqa, UidCodec.SPACED))
+                .append(", SAK: ").append(sak)
+                .append(", timeout: ").append(timeout)
+                .append(", maxTransceiveLength: ").append(maxTransceiveLength);
+    }
+}
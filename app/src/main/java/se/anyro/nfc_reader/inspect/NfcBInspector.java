@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+import android.nfc.tech.NfcB;
+
+/**
+ * Logs the application data, protocol info and maximum transceive length
+ * of an ISO 14443-3B tag. Nothing is shown.
+ */
+class NfcBInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.NFC_B;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        if (ScanLog.DEBUG) {
+            NfcB nfcBTag = NfcB.get(tag);
+            ScanLog.d(ScanLog.TAG,
+                    "NfcB applicationData: {}, protocolInfo: {}, maxTransceiveLength: {}",
+                    nfcBTag.getApplicationData(), nfcBTag.getProtocolInfo(),
+                    nfcBTag.getMaxTransceiveLength());
+        }
+    }
+}
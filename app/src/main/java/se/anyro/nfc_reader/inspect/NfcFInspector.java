@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TagPipeline;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+import android.nfc.tech.NfcF;
+
+/**
+ * Logs the manufacturer, system code, timeout and maximum transceive
+ * length of a JIS 6319-4 tag, and shows the services that need no key
+ * with {@link ProbeProfile#readsMemory()}.
+ */
+class NfcFInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.NFC_F;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        NfcF nfcFTag = NfcF.get(tag);
+        if (ScanLog.DEBUG) {
+            ScanLog.d(ScanLog.TAG,
+                    "NfcF manufacturer: {}, systemCode: {}, timeout: {}, maxTransceiveLength: {}",
+                    nfcFTag.getManufacturer(), nfcFTag.getSystemCode(), nfcFTag.getTimeout(),
+                    nfcFTag.getMaxTransceiveLength());
+        }
+
+        TagPipeline.inspectMemory(TechMask.NFC_F, profile, new AndroidTagConnection(tag), sb);
+    }
+}
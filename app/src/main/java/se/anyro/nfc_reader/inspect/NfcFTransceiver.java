@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.tech.Transceiver;
+import android.nfc.tech.NfcF;
+
+/**
+ * {@link Transceiver} over a connected {@link NfcF}.
+ */
+class NfcFTransceiver implements Transceiver {
+
+    private final NfcF mTag;
+
+    NfcFTransceiver(NfcF tag) {
+        mTag = tag;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        return mTag.transceive(command);
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mTag.getMaxTransceiveLength();
+    }
+
+    @Override
+    public void reconnect() throws IOException {
+        mTag.close();
+        mTag.connect();
+    }
+}
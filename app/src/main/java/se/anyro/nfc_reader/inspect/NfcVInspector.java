@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.scan.TagPipeline;
+import se.anyro.nfc_reader.scan.TechMask;
+import android.nfc.Tag;
+import android.nfc.tech.NfcV;
+
+/**
+ * Logs the DSFID, response flags and maximum transceive length of an
+ * ISO 15693 tag, and shows the blocks of the tag with
+ * {@link ProbeProfile#readsMemory()}.
+ */
+class NfcVInspector implements TechInspector {
+
+    @Override
+    public int getTech() {
+        return TechMask.NFC_V;
+    }
+
+    @Override
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder sb) {
+        NfcV nfcVTag = NfcV.get(tag);
+        if (ScanLog.DEBUG) {
+            ScanLog.d(ScanLog.TAG, "NfcV dsfId: {}, responseFlags: {}, maxTransceiveLength: {}",
+                    nfcVTag.getDsfId(), new byte[] {nfcVTag.getResponseFlags()},
+                    nfcVTag.getMaxTransceiveLength());
+        }
+
+        TagPipeline.inspectMemory(TechMask.NFC_V, profile, new AndroidTagConnection(tag), sb);
+    }
+}
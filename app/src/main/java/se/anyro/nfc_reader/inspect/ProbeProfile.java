@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import se.anyro.nfc_reader.scan.TechMask;
+
+/**
+ * Which technologies are inspected for each scan. The ID and technology
+ * list are always reported, since they come with the tag without any I/O.
+ */
+public enum ProbeProfile {
+
+    /** Only the ID and technology list, for attendance and access control. */
+    UID_ONLY(0, false),
+    /** Also the NDEF type and sizes. */
+    NDEF_ONLY(TechMask.NDEF, false),
+    /** Every technology with a registered inspector. */
+    FULL(~0, false),
+    /** Every technology, and the tag memory as far as it can be read. Slow. */
+    MEMORY(~0, true);
+
+    private final int mTechs;
+    private final boolean mReadsMemory;
+
+    private ProbeProfile(int techs, boolean readsMemory) {
+        mTechs = techs;
+        mReadsMemory = readsMemory;
+    }
+
+    /** Returns the {@link TechMask} bits of the inspected technologies. */
+    public int getTechs() {
+        return mTechs;
+    }
+
+    /** Returns true if technology {@code tech}, a TechMask bit, is inspected. */
+    public boolean includes(int tech) {
+        return (mTechs & tech) != 0;
+    }
+
+    /** Returns true if inspectors dump the memory of the tag, for auditing. */
+    public boolean readsMemory() {
+        return mReadsMemory;
+    }
+}
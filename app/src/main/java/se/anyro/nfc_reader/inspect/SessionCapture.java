@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.nio.charset.Charset;
+
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.session.SessionRecorder;
+import se.anyro.nfc_reader.session.TagSession;
+import android.annotation.TargetApi;
+import android.nfc.NdefMessage;
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.MifareClassic;
+import android.nfc.tech.MifareUltralight;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NfcA;
+import android.nfc.tech.NfcB;
+import android.nfc.tech.NfcF;
+import android.nfc.tech.NfcV;
+import android.os.Build;
+
+/**
+ * Starts a {@link SessionRecorder} for a discovered tag with what Android
+ * knows about it without talking to it: the UID, technologies, their
+ * extras and the NDEF message read on discovery. Exchanges are added by
+ * {@link TagIo} while a recorder is set.
+ */
+public class SessionCapture {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    // Utility class
+    private SessionCapture() {
+
+    }
+
+    /**
+     * @param msgs the NDEF messages read when the tag was discovered, or null
+     * @param profile the profile the tag is processed with
+     */
+    public static SessionRecorder begin(Tag tag, NdefMessage[] msgs, long timestamp,
+            ProbeProfile profile) {
+        int techMask = TechMask.of(tag.getTechList());
+        SessionRecorder recorder = new SessionRecorder(timestamp, tag.getId(), techMask,
+                profile);
+        if ((techMask & TechMask.NFC_A) != 0) {
+            NfcA nfcA = NfcA.get(tag);
+            recorder.putExtra(TechMask.NFC_A, TagSession.FIELD_ATQA, nfcA.getAtqa());
+            recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_SAK, nfcA.getSak());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                putLimits(recorder, nfcA);
+            }
+        }
+        if ((techMask & TechMask.NFC_B) != 0) {
+            NfcB nfcB = NfcB.get(tag);
+            recorder.putExtra(TechMask.NFC_B, TagSession.FIELD_APPLICATION_DATA,
+                    nfcB.getApplicationData());
+            recorder.putExtra(TechMask.NFC_B, TagSession.FIELD_PROTOCOL_INFO,
+                    nfcB.getProtocolInfo());
+        }
+        if ((techMask & TechMask.NFC_F) != 0) {
+            NfcF nfcF = NfcF.get(tag);
+            recorder.putExtra(TechMask.NFC_F, TagSession.FIELD_MANUFACTURER,
+                    nfcF.getManufacturer());
+            recorder.putExtra(TechMask.NFC_F, TagSession.FIELD_SYSTEM_CODE,
+                    nfcF.getSystemCode());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                putLimits(recorder, nfcF);
+            }
+        }
+        if ((techMask & TechMask.NFC_V) != 0) {
+            NfcV nfcV = NfcV.get(tag);
+            recorder.putIntExtra(TechMask.NFC_V, TagSession.FIELD_DSF_ID,
+                    nfcV.getDsfId() & 0xff);
+            recorder.putIntExtra(TechMask.NFC_V, TagSession.FIELD_RESPONSE_FLAGS,
+                    nfcV.getResponseFlags() & 0xff);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                putLimits(recorder, nfcV);
+            }
+        }
+        if ((techMask & TechMask.ISO_DEP) != 0) {
+            IsoDep isoDep = IsoDep.get(tag);
+            recorder.putExtra(TechMask.ISO_DEP, TagSession.FIELD_HI_LAYER_RESPONSE,
+                    isoDep.getHiLayerResponse());
+            recorder.putExtra(TechMask.ISO_DEP, TagSession.FIELD_HISTORICAL_BYTES,
+                    isoDep.getHistoricalBytes());
+            recorder.putIntExtra(TechMask.ISO_DEP, TagSession.FIELD_TIMEOUT,
+                    isoDep.getTimeout());
+            recorder.putFlagExtra(TechMask.ISO_DEP, TagSession.FIELD_EXTENDED_LENGTH,
+                    IsoDepTransceiver.isExtendedLengthSupported(isoDep));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                putLimits(recorder, isoDep);
+            }
+        }
+        if ((techMask & TechMask.MIFARE_CLASSIC) != 0) {
+            MifareClassic mfc = MifareClassic.get(tag);
+            if (mfc != null) {
+                recorder.putIntExtra(TechMask.MIFARE_CLASSIC, TagSession.FIELD_TYPE,
+                        mfc.getType());
+                recorder.putIntExtra(TechMask.MIFARE_CLASSIC, TagSession.FIELD_SIZE,
+                        mfc.getSize());
+            }
+        }
+        if ((techMask & TechMask.MIFARE_ULTRALIGHT) != 0) {
+            recorder.putIntExtra(TechMask.MIFARE_ULTRALIGHT, TagSession.FIELD_TYPE,
+                    MifareUltralight.get(tag).getType());
+        }
+        if ((techMask & TechMask.NDEF) != 0) {
+            Ndef ndef = Ndef.get(tag);
+            recorder.putExtra(TechMask.NDEF, TagSession.FIELD_TYPE,
+                    ndef.getType().getBytes(US_ASCII));
+            recorder.putIntExtra(TechMask.NDEF, TagSession.FIELD_MAX_SIZE, ndef.getMaxSize());
+            recorder.putFlagExtra(TechMask.NDEF, TagSession.FIELD_WRITABLE, ndef.isWritable());
+        }
+        if (msgs != null && msgs.length > 0) {
+            recorder.setNdef(msgs[0].toByteArray());
+        }
+        return recorder;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void putLimits(SessionRecorder recorder, NfcA tag) {
+        recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH,
+                tag.getMaxTransceiveLength());
+        recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_TIMEOUT, tag.getTimeout());
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void putLimits(SessionRecorder recorder, NfcF tag) {
+        recorder.putIntExtra(TechMask.NFC_F, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH,
+                tag.getMaxTransceiveLength());
+        recorder.putIntExtra(TechMask.NFC_F, TagSession.FIELD_TIMEOUT, tag.getTimeout());
+    }
+
+    /** NfcV has no timeout to ask for. */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void putLimits(SessionRecorder recorder, NfcV tag) {
+        recorder.putIntExtra(TechMask.NFC_V, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH,
+                tag.getMaxTransceiveLength());
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void putLimits(SessionRecorder recorder, IsoDep tag) {
+        recorder.putIntExtra(TechMask.ISO_DEP, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH,
+                tag.getMaxTransceiveLength());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.session.RecordingTransceiver;
+import se.anyro.nfc_reader.session.SessionRecorder;
+import se.anyro.nfc_reader.session.TagSession;
+import se.anyro.nfc_reader.tech.InstrumentedTransceiver;
+import se.anyro.nfc_reader.tech.TransceiveStats;
+import se.anyro.nfc_reader.tech.Transceiver;
+import android.annotation.TargetApi;
+import android.nfc.TagLostException;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.NfcA;
+import android.nfc.tech.NfcF;
+import android.nfc.tech.NfcV;
+import android.nfc.tech.TagTechnology;
+import android.os.Build;
+
+/**
+ * Connects, closes and talks to tags while recording every step in one
+ * {@link TransceiveStats} for the app, shown by the diagnostics screen.
+ *
+ * <p>While a thread has a {@link SessionRecorder} set, its steps are also
+ * recorded there, commands and responses included.
+ */
+public class TagIo {
+
+    private static final TransceiveStats sStats = new TransceiveStats();
+    private static final ThreadLocal<SessionRecorder> sRecorder =
+            new ThreadLocal<SessionRecorder>();
+
+    // Utility class
+    private TagIo() {
+
+    }
+
+    public static TransceiveStats getStats() {
+        return sStats;
+    }
+
+    /**
+     * Records the tag I/O of the calling thread in {@code recorder} from now
+     * on, or stops recording if null.
+     */
+    public static void setRecorder(SessionRecorder recorder) {
+        sRecorder.set(recorder);
+    }
+
+    /** Connects {@code tag}, recorded under the {@link TechMask} bit {@code tech}. */
+    public static void connect(TagTechnology tag, int tech) throws IOException {
+        long start = System.nanoTime();
+        boolean connected = false;
+        try {
+            tag.connect();
+            connected = true;
+        } finally {
+            long end = System.nanoTime();
+            sStats.recordConnect(tech, end - start, connected);
+            record(tech, TagSession.KIND_CONNECT, connected, start, end);
+        }
+    }
+
+    /** Closes {@code tag}, recorded under the {@link TechMask} bit {@code tech}. */
+    public static void close(TagTechnology tag, int tech) throws IOException {
+        long start = System.nanoTime();
+        boolean closed = false;
+        try {
+            tag.close();
+            closed = true;
+        } finally {
+            long end = System.nanoTime();
+            sStats.recordClose(tech, end - start);
+            record(tech, TagSession.KIND_CLOSE, closed, start, end);
+        }
+    }
+
+    public static Transceiver transceiver(NfcA tag) {
+        int timeout = Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                ? getTimeout(tag) : 0;
+        return instrument(new NfcATransceiver(tag), TechMask.NFC_A, timeout);
+    }
+
+    /** NfcV has no timeout to ask for. */
+    public static Transceiver transceiver(NfcV tag) {
+        return instrument(new NfcVTransceiver(tag), TechMask.NFC_V, 0);
+    }
+
+    public static Transceiver transceiver(NfcF tag) {
+        int timeout = Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                ? getTimeout(tag) : 0;
+        return instrument(new NfcFTransceiver(tag), TechMask.NFC_F, timeout);
+    }
+
+    public static Transceiver transceiver(IsoDep tag) {
+        return instrument(new IsoDepTransceiver(tag), TechMask.ISO_DEP, tag.getTimeout());
+    }
+
+    /** Android throws {@link TagLostException} when the tag left the field. */
+    private static Transceiver instrument(Transceiver tag, int tech, int timeoutMillis) {
+        SessionRecorder recorder = sRecorder.get();
+        if (recorder != null) {
+            tag = new RecordingTransceiver(tag, recorder, tech) {
+                @Override
+                protected int classify(IOException e) {
+                    return e instanceof TagLostException ? TagSession.RESULT_TAG_LOST
+                            : super.classify(e);
+                }
+            };
+        }
+        return new InstrumentedTransceiver(tag, sStats, tech, timeoutMillis) {
+            @Override
+            protected int classify(IOException e, long nanos) {
+                return e instanceof TagLostException ? TransceiveStats.FAILURE_TAG_LOST
+                        : super.classify(e, nanos);
+            }
+        };
+    }
+
+    private static void record(int tech, int kind, boolean ok, long start, long end) {
+        SessionRecorder recorder = sRecorder.get();
+        if (recorder != null) {
+            recorder.record(tech, kind, null, null,
+                    ok ? TagSession.RESULT_OK : TagSession.RESULT_IO_ERROR, start, end);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static int getTimeout(NfcA tag) {
+        return tag.getTimeout();
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static int getTimeout(NfcF tag) {
+        return tag.getTimeout();
+    }
+}
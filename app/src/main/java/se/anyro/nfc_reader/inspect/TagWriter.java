@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.NdefTooLargeException;
+import se.anyro.nfc_reader.tech.Transceiver;
+import se.anyro.nfc_reader.tech.Type2NdefReader;
+import se.anyro.nfc_reader.tech.Type2NdefWriter;
+import se.anyro.nfc_reader.tech.Type2Reader;
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.Tag;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NdefFormatable;
+import android.nfc.tech.NfcA;
+
+/**
+ * Writes NDEF messages to tags. The message is serialized once and
+ * checked against the capacity of the tag before anything is written.
+ *
+ * <p>Type 2 tags formatted for NDEF are written with a
+ * {@link Type2NdefWriter}, only the pages that change. Other NDEF tags
+ * are written through Android's {@link Ndef}, which rewrites the whole
+ * message, and unformatted tags are formatted with {@link NdefFormatable}.
+ * With {@link #FLAG_VERIFY} the message is read back before the tag is
+ * locked. A tag formatted by Android is only known as NDEF to a new
+ * {@link Tag}, so only a Type 2 tag, read directly, can be read back; other
+ * formatted tags are reported as not verified. This does tag I/O, so it
+ * must not be called on the UI thread.
+ */
+public class TagWriter {
+
+    /** Make the tag read-only once the message is written. */
+    public static final int FLAG_LOCK = 1;
+    /** Read the message back and compare it to the one written. */
+    public static final int FLAG_VERIFY = 2;
+
+    private static final String TAG = "TagWriter";
+
+    /** The SAK of Type 2 tags: no ISO 14443-4, no MIFARE Classic. */
+    private static final short SAK_TYPE_2 = 0x00;
+
+    // Utility class
+    private TagWriter() {
+
+    }
+
+    /**
+     * Writes {@code message} to {@code tag}.
+     *
+     * @param flags {@link #FLAG_LOCK}, {@link #FLAG_VERIFY} or 0
+     * @return true if the message was read back, false if
+     *         {@link #FLAG_VERIFY} was not set or the tag cannot be read back
+     * @throws NdefTooLargeException if the message does not fit, before
+     *         anything is written
+     * @throws NdefFormatException if the tag cannot hold NDEF, or Android
+     *         refused the message
+     */
+    public static boolean write(Tag tag, NdefMessage message, int flags)
+            throws IOException, NdefFormatException {
+        return write(tag, message, message.toByteArray(), flags);
+    }
+
+    /**
+     * Writes {@code message}, an NDEF message in wire format, to
+     * {@code tag}. Type 2 tags are written without parsing it.
+     *
+     * @param flags {@link #FLAG_LOCK}, {@link #FLAG_VERIFY} or 0
+     * @return true if the message was read back, false if
+     *         {@link #FLAG_VERIFY} was not set or the tag cannot be read back
+     * @throws NdefTooLargeException if the message does not fit, before
+     *         anything is written
+     * @throws NdefFormatException if the tag cannot hold NDEF, or the
+     *         message is malformed
+     */
+    public static boolean write(Tag tag, byte[] message, int flags)
+            throws IOException, NdefFormatException {
+        return write(tag, null, message, flags);
+    }
+
+    /** {@code message} is parsed from {@code bytes} if null and needed. */
+    private static boolean write(Tag tag, NdefMessage message, byte[] bytes, int flags)
+            throws IOException, NdefFormatException {
+        boolean verify = (flags & FLAG_VERIFY) != 0;
+        if (writeType2(tag, bytes, flags)) {
+            return verify;
+        }
+        Ndef ndef = Ndef.get(tag);
+        if (ndef != null) {
+            writeNdef(ndef, message != null ? message : parse(bytes), bytes, flags);
+            return verify;
+        }
+        NdefFormatable formatable = NdefFormatable.get(tag);
+        if (formatable == null) {
+            throw new NdefFormatException("Tag does not support NDEF");
+        }
+        if (!verify || !isType2(tag)) {
+            format(formatable, message != null ? message : parse(bytes),
+                    (flags & FLAG_LOCK) != 0);
+            return false;
+        }
+        // Locked only once read back
+        format(formatable, message != null ? message : parse(bytes), false);
+        NfcA nfcA = NfcA.get(tag);
+        TagIo.connect(nfcA, TechMask.NFC_A);
+        try {
+            Transceiver transceiver = TagIo.transceiver(nfcA);
+            verifyType2(transceiver, bytes);
+            if ((flags & FLAG_LOCK) != 0) {
+                new Type2NdefWriter(transceiver).lock();
+            }
+        } finally {
+            TagIo.close(nfcA, TechMask.NFC_A);
+        }
+        return true;
+    }
+
+    private static boolean isType2(Tag tag) {
+        NfcA nfcA = NfcA.get(tag);
+        return nfcA != null && nfcA.getSak() == SAK_TYPE_2;
+    }
+
+    /**
+     * Writes a Type 2 tag formatted for NDEF. Returns false if the tag is
+     * not one, so it is left to Android.
+     */
+    private static boolean writeType2(Tag tag, byte[] message, int flags)
+            throws IOException, NdefFormatException {
+        if (!isType2(tag)) {
+            return false;
+        }
+        NfcA nfcA = NfcA.get(tag);
+        TagIo.connect(nfcA, TechMask.NFC_A);
+        try {
+            Transceiver transceiver = TagIo.transceiver(nfcA);
+            Type2NdefWriter writer = new Type2NdefWriter(transceiver);
+            if (!writer.isFormatted()) {
+                return false;
+            }
+            int pages = writer.write(message);
+            if ((flags & FLAG_VERIFY) != 0) {
+                verifyType2(transceiver, message);
+            }
+            if ((flags & FLAG_LOCK) != 0) {
+                pages += writer.lock();
+            }
+            if (ScanLog.DEBUG) {
+                ScanLog.d(TAG, "Wrote {} pages of a {} byte message in {} commands", pages,
+                        message.length, writer.getExchanges());
+            }
+            return true;
+        } finally {
+            TagIo.close(nfcA, TechMask.NFC_A);
+        }
+    }
+
+    private static void verifyType2(Transceiver transceiver, byte[] message)
+            throws IOException, NdefFormatException {
+        ByteBuffer read = new Type2NdefReader(new Type2Reader(transceiver)).read();
+        if (read == null || !read.equals(ByteBuffer.wrap(message))) {
+            throw new IOException("NDEF message read back differs from the one written");
+        }
+    }
+
+    private static void writeNdef(Ndef ndef, NdefMessage message, byte[] bytes, int flags)
+            throws IOException, NdefFormatException {
+        TagIo.connect(ndef, TechMask.NDEF);
+        try {
+            if (!ndef.isWritable()) {
+                throw new IOException("Tag is read-only");
+            }
+            if (bytes.length > ndef.getMaxSize()) {
+                throw new NdefTooLargeException(bytes.length, ndef.getMaxSize());
+            }
+            try {
+                ndef.writeNdefMessage(message);
+                if ((flags & FLAG_VERIFY) != 0) {
+                    NdefMessage read = ndef.getNdefMessage();
+                    if (read == null || !Arrays.equals(read.toByteArray(), bytes)) {
+                        throw new IOException(
+                                "NDEF message read back differs from the one written");
+                    }
+                }
+            } catch (FormatException e) {
+                throw new NdefFormatException(e.getMessage());
+            }
+            if ((flags & FLAG_LOCK) != 0 && !(ndef.canMakeReadOnly() && ndef.makeReadOnly())) {
+                throw new IOException("Tag cannot be made read-only");
+            }
+        } finally {
+            TagIo.close(ndef, TechMask.NDEF);
+        }
+    }
+
+    /** Android does not tell the capacity of an unformatted tag up front. */
+    private static void format(NdefFormatable formatable, NdefMessage message, boolean lock)
+            throws IOException, NdefFormatException {
+        TagIo.connect(formatable, TechMask.NDEF_FORMATABLE);
+        try {
+            if (lock) {
+                formatable.formatReadOnly(message);
+            } else {
+                formatable.format(message);
+            }
+        } catch (FormatException e) {
+            throw new NdefFormatException(e.getMessage());
+        } finally {
+            TagIo.close(formatable, TechMask.NDEF_FORMATABLE);
+        }
+    }
+
+    private static NdefMessage parse(byte[] message) throws NdefFormatException {
+        try {
+            return new NdefMessage(message);
+        } catch (FormatException e) {
+            throw new NdefFormatException(e.getMessage());
+        }
+    }
+}
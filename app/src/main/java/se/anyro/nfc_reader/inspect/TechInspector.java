@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.inspect;
+
+import android.nfc.Tag;
+
+/**
+ * Reports the details of one tag technology. Inspectors are registered
+ * with an {@link InspectorRegistry}, which only calls them for tags that
+ * have their technology.
+ */
+public interface TechInspector {
+
+    /** Returns the {@link se.anyro.nfc_reader.scan.TechMask} bit of the technology. */
+    public int getTech();
+
+    /**
+     * Appends the details of the technology to {@code out}, each line
+     * preceded by a new line. May do tag I/O.
+     *
+     * @param profile the profile of the scan, which includes the technology
+     */
+    public void inspect(Tag tag, ProbeProfile profile, StringBuilder out);
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.anyro.nfc_reader.ndef;
+
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_CF;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_IL;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_MB;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_ME;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_SR;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_EMPTY;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_RESERVED;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_UNCHANGED;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the NDEF wire format (NFC Forum "NFC Data Exchange Format"
+ * section 3) into {@link NdefRecordView}s.
+ *
+ * <p>This class does not depend on the Android NFC classes. The views point
+ * at the bytes of the buffer passed in, so decoding a message allocates one
+ * small view object per record and never copies a type, ID or payload.
+ */
+public class NdefCodec {
+
+    /** Same limit as android.nfc.NdefRecord, to reject corrupt length fields early. */
+    private static final int MAX_PAYLOAD_SIZE = 10 * (1 << 20);
+
+    // Utility class
+    private NdefCodec() {
+
+    }
+
+    /**
+     * Decodes a complete NDEF message.
+     */
+    public static List<NdefRecordView> decode(byte[] message) throws NdefFormatException {
+        return decode(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Decodes the NDEF message between the position and the limit of
+     * {@code message}. The position of the buffer is not changed.
+     */
+    public static List<NdefRecordView> decode(ByteBuffer message) throws NdefFormatException {
+        return decode(message, message.position(), message.limit());
+    }
+
+    /**
+     * Decodes the NDEF message nested in the payload of {@code record}, as
+     * used by Smart Posters. The nested views share the buffer of the record.
+     */
+    public static List<NdefRecordView> decodePayload(NdefRecordView record)
+            throws NdefFormatException {
+        int start = record.payloadOffset();
+        return decode(record.buffer(), start, start + record.getPayloadLength());
+    }
+
+    private static List<NdefRecordView> decode(ByteBuffer buffer, int start, int end)
+            throws NdefFormatException {
+        List<NdefRecordView> records = new ArrayList<NdefRecordView>(4);
+        int offset = start;
+        boolean inChunk = false;
+        boolean messageEnd = false;
+        // Parts of the chunked record currently being reassembled
+        byte chunkFlags = 0;
+        short chunkTnf = 0;
+        int chunkTypeOffset = 0;
+        int chunkTypeLength = 0;
+        int chunkIdOffset = 0;
+        int chunkIdLength = 0;
+        List<int[]> chunks = null;
+
+        if (start == end) {
+            throw new NdefFormatException("empty message");
+        }
+        while (!messageEnd) {
+            if (offset >= end) {
+                throw new NdefFormatException("expected ME flag before end of data");
+            }
+            byte flags = buffer.get(offset++);
+            boolean mb = (flags & FLAG_MB) != 0;
+            boolean me = (flags & FLAG_ME) != 0;
+            boolean cf = (flags & FLAG_CF) != 0;
+            boolean sr = (flags & FLAG_SR) != 0;
+            boolean il = (flags & FLAG_IL) != 0;
+            short tnf = (short) (flags & 0x07);
+
+            if (!mb && records.isEmpty() && !inChunk) {
+                throw new NdefFormatException("expected MB flag");
+            } else if (mb && (!records.isEmpty() || inChunk)) {
+                throw new NdefFormatException("unexpected MB flag");
+            } else if (inChunk && il) {
+                throw new NdefFormatException("unexpected IL flag in non-leading chunk");
+            } else if (cf && me) {
+                throw new NdefFormatException("unexpected ME flag in non-trailing chunk");
+            } else if (inChunk && tnf != TNF_UNCHANGED) {
+                throw new NdefFormatException("expected TNF_UNCHANGED in non-leading chunk");
+            } else if (!inChunk && tnf == TNF_UNCHANGED) {
+                throw new NdefFormatException("unexpected TNF_UNCHANGED in first chunk or"
+                        + " unchunked record");
+            } else if (tnf == TNF_RESERVED) {
+                throw new NdefFormatException("unexpected TNF_RESERVED");
+            }
+
+            int headerEnd = offset + 1 + (sr ? 1 : 4) + (il ? 1 : 0);
+            if (headerEnd > end) {
+                throw new NdefFormatException("truncated record header");
+            }
+            int typeLength = buffer.get(offset++) & 0xff;
+            long payloadLength;
+            if (sr) {
+                payloadLength = buffer.get(offset++) & 0xff;
+            } else {
+                payloadLength = (buffer.get(offset) & 0xffL) << 24
+                        | (buffer.get(offset + 1) & 0xff) << 16
+                        | (buffer.get(offset + 2) & 0xff) << 8
+                        | (buffer.get(offset + 3) & 0xff);
+                offset += 4;
+            }
+            int idLength = il ? buffer.get(offset++) & 0xff : 0;
+
+            if (inChunk && typeLength != 0) {
+                throw new NdefFormatException("expected zero-length type in non-leading chunk");
+            }
+            if (tnf == TNF_EMPTY && (typeLength != 0 || payloadLength != 0 || idLength != 0)) {
+                throw new NdefFormatException("unexpected type, id or payload in TNF_EMPTY");
+            }
+            if (payloadLength > MAX_PAYLOAD_SIZE) {
+                throw new NdefFormatException("payload above max limit: " + payloadLength);
+            }
+
+            int typeOffset = offset;
+            int idOffset = typeOffset + typeLength;
+            int payloadOffset = idOffset + idLength;
+            long recordEnd = payloadOffset + payloadLength;
+            if (recordEnd > end) {
+                throw new NdefFormatException("record extends past end of data");
+            }
+            offset = (int) recordEnd;
+
+            if (cf && !inChunk) {
+                // First chunk: remember type and id, collect payload parts
+                inChunk = true;
+                chunkFlags = flags;
+                chunkTnf = tnf;
+                chunkTypeOffset = typeOffset;
+                chunkTypeLength = typeLength;
+                chunkIdOffset = idOffset;
+                chunkIdLength = idLength;
+                chunks = new ArrayList<int[]>();
+                chunks.add(new int[] {payloadOffset, (int) payloadLength});
+            } else if (inChunk) {
+                chunks.add(new int[] {payloadOffset, (int) payloadLength});
+                if (!cf) {
+                    // Trailing chunk
+                    inChunk = false;
+                    records.add(reassemble(buffer, chunkFlags, chunkTnf, chunkTypeOffset,
+                            chunkTypeLength, chunkIdOffset, chunkIdLength, chunks, me));
+                    chunks = null;
+                }
+            } else {
+                records.add(new NdefRecordView(buffer, flags, tnf, typeOffset, typeLength,
+                        idOffset, idLength, payloadOffset, (int) payloadLength));
+            }
+            messageEnd = me;
+        }
+        if (offset != end) {
+            throw new NdefFormatException("unexpected data after ME flag");
+        }
+        return records;
+    }
+
+    /**
+     * Copies the chunks of a chunked record into a buffer of its own. This is
+     * the only case where the codec copies record data.
+     */
+    private static NdefRecordView reassemble(ByteBuffer buffer, byte flags, short tnf,
+            int typeOffset, int typeLength, int idOffset, int idLength, List<int[]> chunks,
+            boolean messageEnd) throws NdefFormatException {
+        long payloadLength = 0;
+        for (int[] chunk : chunks) {
+            payloadLength += chunk[1];
+        }
+        if (payloadLength > MAX_PAYLOAD_SIZE) {
+            throw new NdefFormatException("payload above max limit: " + payloadLength);
+        }
+        byte[] bytes = new byte[typeLength + idLength + (int) payloadLength];
+        int pos = get(buffer, typeOffset, bytes, 0, typeLength);
+        pos = get(buffer, idOffset, bytes, pos, idLength);
+        for (int[] chunk : chunks) {
+            pos = get(buffer, chunk[0], bytes, pos, chunk[1]);
+        }
+        if (messageEnd) {
+            flags |= FLAG_ME;
+        }
+        return new NdefRecordView(ByteBuffer.wrap(bytes), flags, tnf, 0, typeLength,
+                typeLength, idLength, typeLength + idLength, (int) payloadLength);
+    }
+
+    private static int get(ByteBuffer buffer, int offset, byte[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = buffer.get(offset + i);
+        }
+        return dstOffset + length;
+    }
+}
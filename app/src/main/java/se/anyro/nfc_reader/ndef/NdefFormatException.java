@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.anyro.nfc_reader.ndef;
+
+/**
+ * Thrown by {@link NdefCodec} when the bytes are not a valid NDEF message.
+ */
+public class NdefFormatException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public NdefFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.anyro.nfc_reader.ndef;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A decoded NDEF record that points into the buffer it was decoded from.
+ *
+ * <p>The type, ID and payload are not copied. They are read straight from
+ * the shared buffer, so the buffer contents must not change while the view
+ * is in use. Only chunked records, whose payload is spread over several
+ * records on the wire, get a buffer of their own.
+ */
+public final class NdefRecordView {
+
+    /** NFC Forum "NDEF" section 3.2.6, Type Name Format values. */
+    public static final short TNF_EMPTY = 0x00;
+    public static final short TNF_WELL_KNOWN = 0x01;
+    public static final short TNF_MIME_MEDIA = 0x02;
+    public static final short TNF_ABSOLUTE_URI = 0x03;
+    public static final short TNF_EXTERNAL_TYPE = 0x04;
+    public static final short TNF_UNKNOWN = 0x05;
+    public static final short TNF_UNCHANGED = 0x06;
+    public static final short TNF_RESERVED = 0x07;
+
+    /** NFC Forum Record Type Definitions for TNF_WELL_KNOWN records. */
+    public static final byte[] RTD_TEXT = {0x54}; // "T"
+    public static final byte[] RTD_URI = {0x55}; // "U"
+    public static final byte[] RTD_SMART_POSTER = {0x53, 0x70}; // "Sp"
+
+    /** Header flags, NFC Forum "NDEF" section 3.2. */
+    public static final byte FLAG_MB = (byte) 0x80;
+    public static final byte FLAG_ME = 0x40;
+    public static final byte FLAG_CF = 0x20;
+    public static final byte FLAG_SR = 0x10;
+    public static final byte FLAG_IL = 0x08;
+
+    private final ByteBuffer mBuffer;
+    private final byte mFlags;
+    private final short mTnf;
+    private final int mTypeOffset;
+    private final int mTypeLength;
+    private final int mIdOffset;
+    private final int mIdLength;
+    private final int mPayloadOffset;
+    private final int mPayloadLength;
+
+    NdefRecordView(ByteBuffer buffer, byte flags, short tnf, int typeOffset, int typeLength,
+            int idOffset, int idLength, int payloadOffset, int payloadLength) {
+        mBuffer = buffer;
+        mFlags = flags;
+        mTnf = tnf;
+        mTypeOffset = typeOffset;
+        mTypeLength = typeLength;
+        mIdOffset = idOffset;
+        mIdLength = idLength;
+        mPayloadOffset = payloadOffset;
+        mPayloadLength = payloadLength;
+    }
+
+    public short getTnf() {
+        return mTnf;
+    }
+
+    /**
+     * Returns the MB/ME/CF/SR/IL header flags this record had on the wire.
+     * For a reassembled chunked record these are the flags of its first chunk.
+     */
+    public byte getFlags() {
+        return mFlags;
+    }
+
+    public boolean isMessageBegin() {
+        return (mFlags & FLAG_MB) != 0;
+    }
+
+    public boolean isMessageEnd() {
+        return (mFlags & FLAG_ME) != 0;
+    }
+
+    /**
+     * Returns true if this record was reassembled from several chunks.
+     */
+    public boolean isChunked() {
+        return (mFlags & FLAG_CF) != 0;
+    }
+
+    public int getTypeLength() {
+        return mTypeLength;
+    }
+
+    public int getIdLength() {
+        return mIdLength;
+    }
+
+    public int getPayloadLength() {
+        return mPayloadLength;
+    }
+
+    /**
+     * Returns true if the record type is exactly {@code type}.
+     */
+    public boolean typeEquals(byte[] type) {
+        if (type.length != mTypeLength) {
+            return false;
+        }
+        for (int i = 0; i < mTypeLength; i++) {
+            if (mBuffer.get(mTypeOffset + i) != type[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the byte at {@code index} in the payload.
+     */
+    public byte getPayloadByte(int index) {
+        if (index < 0 || index >= mPayloadLength) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + mPayloadLength);
+        }
+        return mBuffer.get(mPayloadOffset + index);
+    }
+
+    /**
+     * Returns a read-only buffer sharing the type bytes. No bytes are copied.
+     */
+    public ByteBuffer type() {
+        return slice(mTypeOffset, mTypeLength);
+    }
+
+    /**
+     * Returns a read-only buffer sharing the ID bytes. No bytes are copied.
+     */
+    public ByteBuffer id() {
+        return slice(mIdOffset, mIdLength);
+    }
+
+    /**
+     * Returns a read-only buffer sharing the payload bytes. No bytes are copied.
+     */
+    public ByteBuffer payload() {
+        return slice(mPayloadOffset, mPayloadLength);
+    }
+
+    /** Returns a copy of the type bytes. */
+    public byte[] getType() {
+        return copy(mTypeOffset, mTypeLength);
+    }
+
+    /** Returns a copy of the ID bytes. */
+    public byte[] getId() {
+        return copy(mIdOffset, mIdLength);
+    }
+
+    /** Returns a copy of the payload bytes. */
+    public byte[] getPayload() {
+        return copy(mPayloadOffset, mPayloadLength);
+    }
+
+    /**
+     * Decodes {@code length} payload bytes starting at {@code offset} into a
+     * string, reading straight from the shared buffer.
+     */
+    public String decodePayload(int offset, int length, Charset charset) {
+        if (offset < 0 || length < 0 || offset + length > mPayloadLength) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+                    + ", payload length " + mPayloadLength);
+        }
+        if (mBuffer.hasArray()) {
+            return new String(mBuffer.array(), mBuffer.arrayOffset() + mPayloadOffset + offset,
+                    length, charset);
+        }
+        return charset.decode(slice(mPayloadOffset + offset, length)).toString();
+    }
+
+    ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    int payloadOffset() {
+        return mPayloadOffset;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = mBuffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    private byte[] copy(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + i);
+        }
+        return bytes;
+    }
+}
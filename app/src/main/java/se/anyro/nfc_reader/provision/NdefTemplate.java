@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.provision;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+import se.anyro.nfc_reader.record.UriRecord;
+
+/**
+ * An NDEF message of one URI or Text record with placeholders, for
+ * encoding many tags in a row.
+ *
+ * <p>The template is encoded once, into the record type and UTF-8 bytes
+ * of the text between placeholders. A message is then put together by
+ * copying those, writing the digits of the serial straight into the
+ * output and copying column values the caller encoded in advance; only
+ * the payload length in the record header is computed per message.
+ *
+ * <p>Placeholders: {@code {n}} is the serial, {@code {n:6}} the serial
+ * zero padded to 6 digits, {@code {name}} the value of a column and
+ * {@code {{}} a literal brace. For example
+ * {@code https://example.com/t/{n:6}?sku={sku}}.
+ */
+public class NdefTemplate {
+
+    /** The most digits a serial can have. */
+    private static final int MAX_SERIAL_DIGITS = 19;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** A URI scheme followed by a colon, which makes a template a URI. */
+    private static final Pattern SCHEME = Pattern.compile("^[A-Za-z][A-Za-z0-9+.-]*:.*",
+            Pattern.DOTALL);
+
+    private static final int PART_LITERAL = 0;
+    private static final int PART_SERIAL = 1;
+    private static final int PART_COLUMN = 2;
+
+    /** Text, or the serial or a column substituted. */
+    private static final class Part {
+
+        final int mKind;
+        /** UTF-8 text, for literals. */
+        final byte[] mBytes;
+        /** Minimum digits of a serial, or the index of a column. */
+        final int mValue;
+
+        Part(int kind, byte[] bytes, int value) {
+            mKind = kind;
+            mBytes = bytes;
+            mValue = value;
+        }
+    }
+
+    private final short mTnf;
+    private final byte[] mType;
+    private final Part[] mParts;
+    private final List<String> mColumns;
+
+    private NdefTemplate(short tnf, byte[] type, Part[] parts, List<String> columns) {
+        mTnf = tnf;
+        mType = type;
+        mParts = parts;
+        mColumns = Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Returns a URI record template if {@code template} starts with a URI
+     * scheme such as "https:" or "tel:", otherwise a Text record template.
+     *
+     * @param language the language code of Text records, e.g. "en"
+     * @throws IllegalArgumentException if the template is empty or a
+     *         placeholder is malformed
+     */
+    public static NdefTemplate parse(String template, String language) {
+        if (template.isEmpty()) {
+            throw new IllegalArgumentException("Empty template");
+        }
+        return SCHEME.matcher(template).matches() ? uri(template) : text(language, template);
+    }
+
+    /**
+     * Returns a URI record template. The longest URI prefix the text in
+     * front of the first placeholder starts with is abbreviated.
+     *
+     * @throws IllegalArgumentException if a placeholder is malformed
+     */
+    public static NdefTemplate uri(String template) {
+        List<String> columns = new ArrayList<String>();
+        List<Object> tokens = tokenize(template, columns);
+        byte code = 0;
+        if (!tokens.isEmpty() && tokens.get(0) instanceof String) {
+            String head = (String) tokens.get(0);
+            code = UriRecord.getPrefixCode(head);
+            tokens.set(0, head.substring(UriRecord.getPrefix(code).length()));
+        }
+        return new NdefTemplate(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_URI,
+                toParts(new byte[] {code}, tokens), columns);
+    }
+
+    /**
+     * Returns a UTF-8 Text record template.
+     *
+     * @param language the language code, e.g. "en"
+     * @throws IllegalArgumentException if a placeholder is malformed
+     */
+    public static NdefTemplate text(String language, String template) {
+        byte[] lang = language.getBytes(US_ASCII);
+        if (lang.length == 0 || lang.length > 0x3f) {
+            throw new IllegalArgumentException("Invalid language code " + language);
+        }
+        List<String> columns = new ArrayList<String>();
+        List<Object> tokens = tokenize(template, columns);
+        byte[] head = new byte[1 + lang.length];
+        head[0] = (byte) lang.length;
+        System.arraycopy(lang, 0, head, 1, lang.length);
+        return new NdefTemplate(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_TEXT,
+                toParts(head, tokens), columns);
+    }
+
+    /**
+     * Returns the names of the columns the template uses. The values
+     * passed to {@link #encode} are in this order.
+     */
+    public List<String> getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Returns the length of the message for {@code serial}.
+     *
+     * @param row the UTF-8 value of each column, or null if there are none
+     */
+    public int getLength(long serial, byte[][] row) {
+        int payload = getPayloadLength(serial, row);
+        return 2 + (payload < 256 ? 1 : 4) + mType.length + payload;
+    }
+
+    /** Returns a new array with the message for {@code serial}. */
+    public byte[] encode(long serial, byte[][] row) {
+        byte[] message = new byte[getLength(serial, row)];
+        encode(serial, row, message, 0);
+        return message;
+    }
+
+    /**
+     * Writes the message for {@code serial} to {@code dst}, which must have
+     * room for {@link #getLength}, and returns its length. Nothing is
+     * allocated.
+     *
+     * @param serial the serial, not negative
+     * @param row the UTF-8 value of each column, or null if there are none
+     */
+    public int encode(long serial, byte[][] row, byte[] dst, int offset) {
+        int payload = getPayloadLength(serial, row);
+        boolean shortRecord = payload < 256;
+        int pos = offset;
+        dst[pos++] = (byte) (NdefRecordView.FLAG_MB | NdefRecordView.FLAG_ME
+                | (shortRecord ? NdefRecordView.FLAG_SR : 0) | mTnf);
+        dst[pos++] = (byte) mType.length;
+        if (shortRecord) {
+            dst[pos++] = (byte) payload;
+        } else {
+            dst[pos++] = (byte) (payload >>> 24);
+            dst[pos++] = (byte) (payload >>> 16);
+            dst[pos++] = (byte) (payload >>> 8);
+            dst[pos++] = (byte) payload;
+        }
+        System.arraycopy(mType, 0, dst, pos, mType.length);
+        pos += mType.length;
+        for (Part part : mParts) {
+            switch (part.mKind) {
+                case PART_LITERAL:
+                    System.arraycopy(part.mBytes, 0, dst, pos, part.mBytes.length);
+                    pos += part.mBytes.length;
+                    break;
+                case PART_SERIAL: {
+                    int digits = Math.max(part.mValue, digits(serial));
+                    long rest = serial;
+                    for (int i = digits - 1; i >= 0; i--) {
+                        dst[pos + i] = (byte) ('0' + rest % 10);
+                        rest /= 10;
+                    }
+                    pos += digits;
+                    break;
+                }
+                default: {
+                    byte[] value = row[part.mValue];
+                    System.arraycopy(value, 0, dst, pos, value.length);
+                    pos += value.length;
+                    break;
+                }
+            }
+        }
+        return pos - offset;
+    }
+
+    private int getPayloadLength(long serial, byte[][] row) {
+        if (serial < 0) {
+            throw new IllegalArgumentException("Negative serial " + serial);
+        }
+        int length = 0;
+        for (Part part : mParts) {
+            switch (part.mKind) {
+                case PART_LITERAL:
+                    length += part.mBytes.length;
+                    break;
+                case PART_SERIAL:
+                    length += Math.max(part.mValue, digits(serial));
+                    break;
+                default:
+                    length += row[part.mValue].length;
+                    break;
+            }
+        }
+        return length;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Splits {@code template} into Strings and the placeholders, as Parts
+     * without literal bytes, and adds new column names to {@code columns}.
+     */
+    private static List<Object> tokenize(String template, List<String> columns) {
+        List<Object> tokens = new ArrayList<Object>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            boolean doubled = i + 1 < template.length() && template.charAt(i + 1) == c;
+            if ((c == '{' || c == '}') && doubled) {
+                text.append(c);
+                i++;
+            } else if (c == '{') {
+                int end = template.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed { at " + i);
+                }
+                if (text.length() > 0) {
+                    tokens.add(text.toString());
+                    text.setLength(0);
+                }
+                tokens.add(placeholder(template.substring(i + 1, end).trim(), columns));
+                i = end;
+            } else {
+                text.append(c);
+            }
+        }
+        if (text.length() > 0) {
+            tokens.add(text.toString());
+        }
+        return tokens;
+    }
+
+    private static Part placeholder(String name, List<String> columns) {
+        if (name.equals("n")) {
+            return new Part(PART_SERIAL, null, 0);
+        }
+        if (name.startsWith("n:")) {
+            int digits;
+            try {
+                digits = Integer.parseInt(name.substring(2));
+            } catch (NumberFormatException e) {
+                digits = -1;
+            }
+            if (digits < 1 || digits > MAX_SERIAL_DIGITS) {
+                throw new IllegalArgumentException("Invalid serial width in {" + name + "}");
+            }
+            return new Part(PART_SERIAL, null, digits);
+        }
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Empty placeholder {}");
+        }
+        int column = columns.indexOf(name);
+        if (column < 0) {
+            column = columns.size();
+            columns.add(name);
+        }
+        return new Part(PART_COLUMN, null, column);
+    }
+
+    /** Encodes the text of {@code tokens} after the payload {@code head}. */
+    private static Part[] toParts(byte[] head, List<Object> tokens) {
+        List<Part> parts = new ArrayList<Part>();
+        parts.add(new Part(PART_LITERAL, head, 0));
+        for (Object token : tokens) {
+            if (token instanceof String) {
+                parts.add(new Part(PART_LITERAL, ((String) token).getBytes(UTF_8), 0));
+            } else {
+                parts.add((Part) token);
+            }
+        }
+        return parts.toArray(new Part[parts.size()]);
+    }
+}
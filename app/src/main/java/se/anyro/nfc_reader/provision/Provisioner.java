@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.provision;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.inspect.TagWriter;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.scan.RecentUidCache;
+import se.anyro.nfc_reader.scan.ScanRateMeter;
+import se.anyro.nfc_reader.tech.LatencyHistogram;
+import android.nfc.Tag;
+import android.os.SystemClock;
+
+/**
+ * Writes the messages of a {@link ProvisioningBatch} to one tag after the
+ * other, moving on to the next serial only once a tag has been written
+ * and, where the tag allows it, read back. Tags that cannot be read back
+ * are counted apart from the verified ones.
+ *
+ * <p>The message for the next serial is encoded while waiting for the
+ * tag, so a tag only costs the tag I/O. A tag that fails, typically by
+ * leaving the field too early, gets the same serial when it comes back,
+ * and since only the pages that differ are written a half written tag is
+ * quickly repaired. A tag written within the last minute is left alone,
+ * so holding it to the reader again does not use up a serial.
+ *
+ * <p>{@link #provision} must be called on one thread at a time, not the UI
+ * thread. The getters may be called from any thread, but to keep where to
+ * resume, read {@link #getNextSerial()} after the last call returned:
+ * until then a tag being written may still take the serial.
+ */
+public class Provisioner {
+
+    /** The tag got the message. */
+    public static final int RESULT_WRITTEN = 0;
+    /** The tag could not be written; it can be tried again. */
+    public static final int RESULT_FAILED = 1;
+    /** The tag was written moments ago, so it was left alone. */
+    public static final int RESULT_REPEAT = 2;
+    /** All messages have been written. */
+    public static final int RESULT_DONE = 3;
+    /** The tag got the message, but it could not be read back. */
+    public static final int RESULT_UNVERIFIED = 4;
+
+    private static final String TAG = "Provisioner";
+
+    private static final long REPEAT_WINDOW_MILLIS = 60000;
+    private static final int REPEAT_CAPACITY = 64;
+    /** Tags the rate is computed over. */
+    private static final int RATE_WINDOW = 20;
+
+    private final ProvisioningBatch mBatch;
+    private final int mFlags;
+    private final RecentUidCache mWritten = new RecentUidCache(REPEAT_WINDOW_MILLIS,
+            REPEAT_CAPACITY);
+    private final ScanRateMeter mRate = new ScanRateMeter(RATE_WINDOW);
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+
+    // Only changed by provision()
+    private volatile long mNextSerial;
+    private volatile long mFailures;
+    private volatile long mRepeats;
+    private volatile long mUnverified;
+    private volatile String mLastError;
+    /** The message for mNextSerial, or null when done. */
+    private byte[] mNext;
+
+    /**
+     * @param firstSerial the serial to start from, e.g. where the last run
+     *        stopped
+     * @param flags the {@link TagWriter} flags, usually including
+     *        {@link TagWriter#FLAG_VERIFY}
+     */
+    public Provisioner(ProvisioningBatch batch, long firstSerial, int flags) {
+        if (firstSerial < batch.getFirstSerial()) {
+            throw new IllegalArgumentException("Serial " + firstSerial + " not in batch");
+        }
+        mBatch = batch;
+        mFlags = flags;
+        mNextSerial = firstSerial;
+        mNext = firstSerial <= batch.getLastSerial() ? batch.encode(firstSerial) : null;
+    }
+
+    /**
+     * Writes the next message to {@code tag} and returns one of the
+     * RESULT_* constants.
+     */
+    public int provision(Tag tag) {
+        if (mNext == null) {
+            return RESULT_DONE;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mWritten.isRecent(tag.getId(), now)) {
+            mRepeats++;
+            return RESULT_REPEAT;
+        }
+        long start = System.nanoTime();
+        boolean verified;
+        try {
+            verified = TagWriter.write(tag, mNext, mFlags);
+        } catch (IOException e) {
+            return fail(e);
+        } catch (NdefFormatException e) {
+            return fail(e);
+        }
+        mLatency.recordNanos(System.nanoTime() - start);
+        mWritten.seen(tag.getId(), now);
+        mRate.record(System.currentTimeMillis());
+        if (ScanLog.DEBUG) {
+            ScanLog.d(TAG, "Wrote serial {}, {} bytes", mNextSerial, mNext.length);
+        }
+        long next = mNextSerial + 1;
+        mNext = next <= mBatch.getLastSerial() ? mBatch.encode(next) : null;
+        mNextSerial = next;
+        if (!verified && (mFlags & TagWriter.FLAG_VERIFY) != 0) {
+            mUnverified++;
+            return RESULT_UNVERIFIED;
+        }
+        return RESULT_WRITTEN;
+    }
+
+    private int fail(Exception e) {
+        mFailures++;
+        mLastError = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        ScanLog.w(TAG, "Writing serial {} failed", mNextSerial, e);
+        return RESULT_FAILED;
+    }
+
+    public ProvisioningBatch getBatch() {
+        return mBatch;
+    }
+
+    /** Returns the serial the next tag gets, past the last one when done. */
+    public long getNextSerial() {
+        return mNextSerial;
+    }
+
+    public boolean isDone() {
+        return mNextSerial > mBatch.getLastSerial();
+    }
+
+    /** Returns the number of tags written. */
+    public long getWritten() {
+        return mRate.getTotal();
+    }
+
+    /**
+     * Returns the number of tags written that could not be read back, also
+     * counted by {@link #getWritten()}.
+     */
+    public long getUnverified() {
+        return mUnverified;
+    }
+
+    /** Returns the number of failed attempts. */
+    public long getFailures() {
+        return mFailures;
+    }
+
+    /** Returns the number of tags left alone because they were just written. */
+    public long getRepeats() {
+        return mRepeats;
+    }
+
+    /** Returns the message of the last failure, or null. */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    /** Returns the rate over the last few tags written. */
+    public double getTagsPerMinute() {
+        return mRate.getScansPerMinute();
+    }
+
+    /** Returns the time from discovery to written and, if possible, read back, per tag. */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+}
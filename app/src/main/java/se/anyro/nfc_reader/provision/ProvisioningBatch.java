@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.provision;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The NDEF messages to encode a run of tags with: an {@link NdefTemplate}
+ * and a range of serials, and for a CSV file the column values of each
+ * row. The values are UTF-8 encoded when the file is loaded, so putting
+ * a message together copies bytes and allocates nothing else.
+ *
+ * <p>Immutable, so it may be shared between threads.
+ */
+public class ProvisioningBatch {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Excel starts UTF-8 CSV files with a byte order mark. */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final NdefTemplate mTemplate;
+    private final long mFirstSerial;
+    private final long mLastSerial;
+    /** The template columns of each row, or null without a CSV file. */
+    private final byte[][][] mRows;
+    private final int mMaxLength;
+
+    private ProvisioningBatch(NdefTemplate template, long firstSerial, long lastSerial,
+            byte[][][] rows) {
+        mTemplate = template;
+        mFirstSerial = firstSerial;
+        mLastSerial = lastSerial;
+        mRows = rows;
+        int maxLength = template.getLength(lastSerial, row(lastSerial));
+        if (rows != null) {
+            for (long serial = firstSerial; serial <= lastSerial; serial++) {
+                maxLength = Math.max(maxLength, template.getLength(serial, row(serial)));
+            }
+        }
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * Returns a batch of {@code count} serials from {@code firstSerial} on.
+     *
+     * @throws IllegalArgumentException if the template uses columns
+     */
+    public static ProvisioningBatch counter(NdefTemplate template, long firstSerial,
+            int count) {
+        if (!template.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("No CSV file for " + template.getColumns());
+        }
+        if (firstSerial < 0 || count < 1 || firstSerial > Long.MAX_VALUE - count) {
+            throw new IllegalArgumentException("Invalid serials " + firstSerial + ", "
+                    + count);
+        }
+        return new ProvisioningBatch(template, firstSerial, firstSerial + count - 1, null);
+    }
+
+    /**
+     * Reads the rows of a CSV file whose first row names the columns.
+     * The serial of a row is its number, from 1 for the row after the
+     * names, so it also tells where to resume. Fields may be quoted, with
+     * doubled quotes inside; empty lines are skipped.
+     *
+     * @throws IOException if the file cannot be read, lacks a column the
+     *         template uses or has no rows
+     */
+    public static ProvisioningBatch csv(NdefTemplate template, Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        List<String> names = readRow(reader);
+        if (names == null) {
+            throw new IOException("CSV file is empty");
+        }
+        if (names.get(0).length() > 0 && names.get(0).charAt(0) == BYTE_ORDER_MARK) {
+            names.set(0, names.get(0).substring(1));
+        }
+        List<String> columns = template.getColumns();
+        int[] indexes = new int[columns.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = names.indexOf(columns.get(i));
+            if (indexes[i] < 0) {
+                throw new IOException("CSV file has no column " + columns.get(i));
+            }
+        }
+        List<byte[][]> rows = new ArrayList<byte[][]>();
+        List<String> fields;
+        while ((fields = readRow(reader)) != null) {
+            if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                continue;
+            }
+            byte[][] row = new byte[indexes.length][];
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] >= fields.size()) {
+                    throw new IOException("Row " + (rows.size() + 1) + " has "
+                            + fields.size() + " fields, the header " + names.size());
+                }
+                row[i] = fields.get(indexes[i]).getBytes(UTF_8);
+            }
+            rows.add(row);
+        }
+        if (rows.isEmpty()) {
+            throw new IOException("CSV file has no rows");
+        }
+        return new ProvisioningBatch(template, 1, rows.size(),
+                rows.toArray(new byte[rows.size()][][]));
+    }
+
+    public long getFirstSerial() {
+        return mFirstSerial;
+    }
+
+    public long getLastSerial() {
+        return mLastSerial;
+    }
+
+    /** Returns the number of messages. */
+    public long size() {
+        return mLastSerial - mFirstSerial + 1;
+    }
+
+    /** Returns whether the messages come from the rows of a CSV file. */
+    public boolean isCsv() {
+        return mRows != null;
+    }
+
+    /** Returns the length of the longest message, in bytes. */
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * Returns the message for {@code serial}.
+     *
+     * @throws IllegalArgumentException if the serial is not in the batch
+     */
+    public byte[] encode(long serial) {
+        checkSerial(serial);
+        return mTemplate.encode(serial, row(serial));
+    }
+
+    /**
+     * Writes the message for {@code serial} to {@code dst}, which must have
+     * room for {@link #getMaxLength}, and returns its length.
+     *
+     * @throws IllegalArgumentException if the serial is not in the batch
+     */
+    public int encode(long serial, byte[] dst, int offset) {
+        checkSerial(serial);
+        return mTemplate.encode(serial, row(serial), dst, offset);
+    }
+
+    private void checkSerial(long serial) {
+        if (serial < mFirstSerial || serial > mLastSerial) {
+            throw new IllegalArgumentException("Serial " + serial + " not in " + mFirstSerial
+                    + ".." + mLastSerial);
+        }
+    }
+
+    private byte[][] row(long serial) {
+        return mRows != null ? mRows[(int) (serial - mFirstSerial)] : null;
+    }
+
+    /**
+     * Reads the fields of the next row, which may span lines inside
+     * quotes, or returns null at the end of the file.
+     */
+    private static List<String> readRow(BufferedReader in) throws IOException {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean any = false;
+        int c;
+        while ((c = in.read()) != -1) {
+            any = true;
+            if (quoted) {
+                if (c != '"') {
+                    field.append((char) c);
+                    continue;
+                }
+                in.mark(1);
+                if (in.read() == '"') {
+                    field.append('"');
+                } else {
+                    quoted = false;
+                    in.reset();
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        if (quoted) {
+            throw new IOException("Unterminated quote in CSV file");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
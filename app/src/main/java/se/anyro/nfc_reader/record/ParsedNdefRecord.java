@@ -16,18 +16,19 @@
 
 package se.anyro.nfc_reader.record;
 
-import android.app.Activity;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-
-
+/**
+ * A parsed NDEF record.
+ *
+ * <p>Implementations do not depend on the Android UI or NFC classes, so
+ * records can be parsed on any thread and on a plain JVM. Decoding of the
+ * payload into strings is deferred until first access. Views are built
+ * separately, by {@link se.anyro.nfc_reader.render.RecordRenderer}.
+ */
 public interface ParsedNdefRecord {
 
     /**
-     * Returns a view to display this record.
+     * Returns a plain text form of this record, as shown to the user.
      */
-    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent,
-            int offset);
+    public String getSummary();
 
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.anyro.nfc_reader.record;
+
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+
+/**
+ * Turns a single {@link NdefRecordView} of a known TNF and type into a
+ * {@link ParsedNdefRecord}.
+ */
+public interface RecordParser {
+
+    /**
+     * Parses the record, or returns {@code null} if it is malformed.
+     */
+    public ParsedNdefRecord tryParse(NdefRecordView record);
+
+}
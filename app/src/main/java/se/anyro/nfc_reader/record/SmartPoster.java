@@ -15,25 +15,16 @@
  */
 package se.anyro.nfc_reader.record;
 
-import java.util.Arrays;
-import java.util.NoSuchElementException;
+import java.util.List;
 
 import se.anyro.nfc_reader.NdefMessageParser;
-import se.anyro.nfc_reader.R;
-import android.app.Activity;
-import android.nfc.FormatException;
-import android.nfc.NdefMessage;
-import android.nfc.NdefRecord;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.LinearLayout;
+import se.anyro.nfc_reader.ndef.NdefCodec;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
 
 /**
  * A representation of an NFC Forum "Smart Poster".
@@ -78,14 +69,19 @@ public class SmartPoster implements ParsedNdefRecord {
      * URL), the Type record may be used to declare the MIME type of the entity.
      * This can be used to tell the mobile device what kind of an object it can
      * expect before it opens the connection. The Type record is optional."
+     *
+     * Decoded on first use from {@link #mTypeRecord}.
      */
-    private final String mType;
+    private String mType;
+
+    private final NdefRecordView mTypeRecord;
 
-    private SmartPoster(UriRecord uri, TextRecord title, RecommendedAction action, String type) {
+    private SmartPoster(UriRecord uri, TextRecord title, RecommendedAction action,
+            NdefRecordView typeRecord) {
         mUriRecord = Preconditions.checkNotNull(uri);
         mTitleRecord = title;
         mAction = Preconditions.checkNotNull(action);
-        mType = type;
+        mTypeRecord = typeRecord;
     }
 
     public UriRecord getUriRecord() {
@@ -99,67 +95,88 @@ public class SmartPoster implements ParsedNdefRecord {
         return mTitleRecord;
     }
 
-    public static SmartPoster parse(NdefRecord record) {
-        Preconditions.checkArgument(record.getTnf() == NdefRecord.TNF_WELL_KNOWN);
-        Preconditions.checkArgument(Arrays.equals(record.getType(), NdefRecord.RTD_SMART_POSTER));
-        try {
-            NdefMessage subRecords = new NdefMessage(record.getPayload());
-            return parse(subRecords.getRecords());
-        } catch (FormatException e) {
-            throw new IllegalArgumentException(e);
+    /**
+     * Returns the MIME type of the entity the URI references. This may be
+     * {@code null}.
+     */
+    public String getType() {
+        String type = mType;
+        if (type == null && mTypeRecord != null) {
+            type = mTypeRecord.decodePayload(0, mTypeRecord.getPayloadLength(), Charsets.UTF_8);
+            mType = type;
         }
+        return type;
     }
 
-    public static SmartPoster parse(NdefRecord[] recordsRaw) {
-        try {
-            Iterable<ParsedNdefRecord> records = NdefMessageParser.getRecords(recordsRaw);
-            UriRecord uri = Iterables.getOnlyElement(Iterables.filter(records, UriRecord.class));
-            TextRecord title = getFirstIfExists(records, TextRecord.class);
-            RecommendedAction action = parseRecommendedAction(recordsRaw);
-            String type = parseType(recordsRaw);
-            return new SmartPoster(uri, title, action, type);
-        } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException(e);
-        }
+    public static SmartPoster parse(NdefRecordView record) {
+        SmartPoster poster = tryParse(record);
+        Preconditions.checkArgument(poster != null, "Not a smart poster");
+        return poster;
     }
 
-    public static boolean isPoster(NdefRecord record) {
-        try {
-            parse(record);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
-        }
+    public static SmartPoster parse(List<NdefRecordView> recordsRaw) {
+        SmartPoster poster = tryParse(recordsRaw);
+        Preconditions.checkArgument(poster != null, "Not a smart poster");
+        return poster;
     }
 
-    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
-        if (mTitleRecord != null) {
-            // Build a container to hold the title and the URI
-            LinearLayout container = new LinearLayout(activity);
-            container.setOrientation(LinearLayout.VERTICAL);
-            container.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT,
-                LayoutParams.WRAP_CONTENT));
-            container.addView(mTitleRecord.getView(activity, inflater, container, offset));
-            inflater.inflate(R.layout.tag_divider, container);
-            container.addView(mUriRecord.getView(activity, inflater, container, offset));
-            return container;
-        } else {
-            // Just a URI, return a view for it directly
-            return mUriRecord.getView(activity, inflater, parent, offset);
+    /**
+     * Parses a TNF_WELL_KNOWN / RTD_SMART_POSTER record. The nested message
+     * is decoded in place, without copying the payload.
+     *
+     * @return the smart poster, or {@code null} if the record is not a
+     *         well-formed smart poster.
+     */
+    public static SmartPoster tryParse(NdefRecordView record) {
+        if (record.getTnf() != NdefRecordView.TNF_WELL_KNOWN
+                || !record.typeEquals(NdefRecordView.RTD_SMART_POSTER)) {
+            return null;
+        }
+        List<NdefRecordView> subRecords;
+        try {
+            subRecords = NdefCodec.decodePayload(record);
+        } catch (NdefFormatException e) {
+            return null;
         }
+        return tryParse(subRecords);
     }
 
     /**
-     * Returns the first element of {@code elements} which is an instance of
-     * {@code type}, or {@code null} if no such element exists.
+     * Builds a smart poster from its already decoded sub records, or returns
+     * {@code null} if they do not contain exactly one URI record.
      */
-    private static <T> T getFirstIfExists(Iterable<?> elements, Class<T> type) {
-        Iterable<T> filtered = Iterables.filter(elements, type);
-        T instance = null;
-        if (!Iterables.isEmpty(filtered)) {
-            instance = Iterables.get(filtered, 0);
+    public static SmartPoster tryParse(List<NdefRecordView> recordsRaw) {
+        List<ParsedNdefRecord> records = NdefMessageParser.getRecords(recordsRaw);
+        UriRecord uri = null;
+        TextRecord title = null;
+        for (ParsedNdefRecord record : records) {
+            if (record instanceof UriRecord) {
+                if (uri != null) {
+                    return null;
+                }
+                uri = (UriRecord) record;
+            } else if (title == null && record instanceof TextRecord) {
+                title = (TextRecord) record;
+            }
+        }
+        if (uri == null) {
+            return null;
         }
-        return instance;
+        RecommendedAction action = parseRecommendedAction(recordsRaw);
+        NdefRecordView type = getByType(TYPE_TYPE, recordsRaw);
+        return new SmartPoster(uri, title, action, type);
+    }
+
+    public static boolean isPoster(NdefRecordView record) {
+        return tryParse(record) != null;
+    }
+
+    @Override
+    public String getSummary() {
+        if (mTitleRecord != null) {
+            return mTitleRecord.getText() + '\n' + mUriRecord.getUri();
+        }
+        return mUriRecord.getUri();
     }
 
     private enum RecommendedAction {
@@ -186,9 +203,9 @@ public class SmartPoster implements ParsedNdefRecord {
         }
     }
 
-    private static NdefRecord getByType(byte[] type, NdefRecord[] records) {
-        for (NdefRecord record : records) {
-            if (Arrays.equals(type, record.getType())) {
+    private static NdefRecordView getByType(byte[] type, List<NdefRecordView> records) {
+        for (NdefRecordView record : records) {
+            if (record.typeEquals(type)) {
                 return record;
             }
         }
@@ -197,12 +214,12 @@ public class SmartPoster implements ParsedNdefRecord {
 
     private static final byte[] ACTION_RECORD_TYPE = new byte[] {'a', 'c', 't'};
 
-    private static RecommendedAction parseRecommendedAction(NdefRecord[] records) {
-        NdefRecord record = getByType(ACTION_RECORD_TYPE, records);
-        if (record == null) {
+    private static RecommendedAction parseRecommendedAction(List<NdefRecordView> records) {
+        NdefRecordView record = getByType(ACTION_RECORD_TYPE, records);
+        if (record == null || record.getPayloadLength() == 0) {
             return RecommendedAction.UNKNOWN;
         }
-        byte action = record.getPayload()[0];
+        byte action = record.getPayloadByte(0);
         if (RecommendedAction.LOOKUP.containsKey(action)) {
             return RecommendedAction.LOOKUP.get(action);
         }
@@ -210,12 +227,4 @@ public class SmartPoster implements ParsedNdefRecord {
     }
 
     private static final byte[] TYPE_TYPE = new byte[] {'t'};
-
-    private static String parseType(NdefRecord[] records) {
-        NdefRecord type = getByType(TYPE_TYPE, records);
-        if (type == null) {
-            return null;
-        }
-        return new String(type.getPayload(), Charsets.UTF_8);
-    }
 }
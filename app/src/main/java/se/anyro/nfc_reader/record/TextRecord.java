@@ -15,91 +15,114 @@
  */
 package se.anyro.nfc_reader.record;
 
-import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
-
-import se.anyro.nfc_reader.R;
-import android.app.Activity;
-import android.nfc.NdefRecord;
-import android.util.Log;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.TextView;
+import java.nio.charset.Charset;
 
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 
 /**
  * An NFC Text Record
+ *
+ * <p>The language code and the text are decoded from the record on first
+ * access and cached. Concurrent first calls may decode twice, which is
+ * harmless since the result is an immutable string.
  */
 public class TextRecord implements ParsedNdefRecord {
 
-    /** ISO/IANA language code */
-    private final String mLanguageCode;
+    private final NdefRecordView mRecord;
 
-    private final String mText;
+    /** Length of the ISO/IANA language code, from the status byte */
+    private final int mLanguageCodeLength;
 
-    private TextRecord(String languageCode, String text) {
-        mLanguageCode = Preconditions.checkNotNull(languageCode);
-        mText = Preconditions.checkNotNull(text);
-    }
+    private final Charset mTextEncoding;
 
-    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
-        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
-        text.setText(mText);
-        return text;
+    /** ISO/IANA language code, decoded on first use */
+    private String mLanguageCode;
+
+    /** Decoded on first use */
+    private String mText;
+
+    private TextRecord(NdefRecordView record, int languageCodeLength, Charset textEncoding) {
+        mRecord = Preconditions.checkNotNull(record);
+        mLanguageCodeLength = languageCodeLength;
+        mTextEncoding = textEncoding;
     }
 
     public String getText() {
-        return mText;
+        String text = mText;
+        if (text == null) {
+            int offset = mLanguageCodeLength + 1;
+            text = mRecord.decodePayload(offset, mRecord.getPayloadLength() - offset,
+                    mTextEncoding);
+            mText = text;
+        }
+        return text;
     }
 
     /**
      * Returns the ISO/IANA language code associated with this text element.
      */
     public String getLanguageCode() {
-        return mLanguageCode;
+        String languageCode = mLanguageCode;
+        if (languageCode == null) {
+            languageCode = mRecord.decodePayload(1, mLanguageCodeLength, Charsets.US_ASCII);
+            mLanguageCode = languageCode;
+        }
+        return languageCode;
+    }
+
+    @Override
+    public String getSummary() {
+        return getText();
     }
 
     // TODO: deal with text fields which span multiple NdefRecords
-    public static TextRecord parse(NdefRecord record) {
-        Preconditions.checkArgument(record.getTnf() == NdefRecord.TNF_WELL_KNOWN);
-        Preconditions.checkArgument(Arrays.equals(record.getType(), NdefRecord.RTD_TEXT));
-        try {
-            byte[] payload = record.getPayload();
-            /*
-             * payload[0] contains the "Status Byte Encodings" field, per the
-             * NFC Forum "Text Record Type Definition" section 3.2.1.
-             *
-             * bit7 is the Text Encoding Field.
-             *
-             * if (Bit_7 == 0): The text is encoded in UTF-8 if (Bit_7 == 1):
-             * The text is encoded in UTF16
-             *
-             * Bit_6 is reserved for future use and must be set to zero.
-             *
-             * Bits 5 to 0 are the length of the IANA language code.
-             */
-            String textEncoding = ((payload[0] & 0200) == 0) ? "UTF-8" : "UTF-16";
-            int languageCodeLength = payload[0] & 0077;
-            String languageCode = new String(payload, 1, languageCodeLength, "US-ASCII");
-            String text =
-                new String(payload, languageCodeLength + 1,
-                    payload.length - languageCodeLength - 1, textEncoding);
-            Log.i("ZYPP", "payload: " + Arrays.toString(payload) + ", languageCode: " + languageCode + ", text: " + text);
-            return new TextRecord(languageCode, text);
-        } catch (UnsupportedEncodingException e) {
-            // should never happen unless we get a malformed tag.
-            throw new IllegalArgumentException(e);
-        }
+    public static TextRecord parse(NdefRecordView record) {
+        TextRecord text = tryParse(record);
+        Preconditions.checkArgument(text != null, "Not a text record");
+        return text;
     }
 
-    public static boolean isText(NdefRecord record) {
-        try {
-            parse(record);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
+    /**
+     * Parses a TNF_WELL_KNOWN / RTD_TEXT record.
+     *
+     * @return the text record, or {@code null} if the record is not a
+     *         well-formed text record.
+     */
+    public static TextRecord tryParse(NdefRecordView record) {
+        if (record.getTnf() != NdefRecordView.TNF_WELL_KNOWN
+                || !record.typeEquals(NdefRecordView.RTD_TEXT)) {
+            return null;
         }
+        int length = record.getPayloadLength();
+        if (length == 0) {
+            return null;
+        }
+        /*
+         * payload[0] contains the "Status Byte Encodings" field, per the
+         * NFC Forum "Text Record Type Definition" section 3.2.1.
+         *
+         * bit7 is the Text Encoding Field.
+         *
+         * if (Bit_7 == 0): The text is encoded in UTF-8 if (Bit_7 == 1):
+         * The text is encoded in UTF16
+         *
+         * Bit_6 is reserved for future use and must be set to zero.
+         *
+         * Bits 5 to 0 are the length of the IANA language code.
+         */
+        byte status = record.getPayloadByte(0);
+        Charset textEncoding = ((status & 0200) == 0) ? Charsets.UTF_8 : Charsets.UTF_16;
+        int languageCodeLength = status & 0077;
+        if (languageCodeLength + 1 > length) {
+            return null;
+        }
+        return new TextRecord(record, languageCodeLength, textEncoding);
+    }
+
+    public static boolean isText(NdefRecordView record) {
+        return tryParse(record) != null;
     }
 }
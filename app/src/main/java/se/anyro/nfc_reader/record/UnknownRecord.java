@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.record;
+
+import java.nio.charset.Charset;
+
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A record without a registered parser, or one its parser rejected. The
+ * payload is shown as text in the platform default charset, decoded on
+ * first access.
+ */
+public class UnknownRecord implements ParsedNdefRecord {
+
+    private final NdefRecordView mRecord;
+
+    /** Decoded on first use */
+    private String mPayload;
+
+    public UnknownRecord(NdefRecordView record) {
+        mRecord = Preconditions.checkNotNull(record);
+    }
+
+    public NdefRecordView getRecord() {
+        return mRecord;
+    }
+
+    @Override
+    public String getSummary() {
+        String payload = mPayload;
+        if (payload == null) {
+            payload = mRecord.decodePayload(0, mRecord.getPayloadLength(),
+                    Charset.defaultCharset());
+            mPayload = payload;
+        }
+        return payload;
+    }
+}
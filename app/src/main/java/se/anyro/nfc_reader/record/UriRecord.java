@@ -15,26 +15,19 @@
  */
 package se.anyro.nfc_reader.record;
 
-import java.nio.charset.Charset;
-import java.util.Arrays;
-
-import se.anyro.nfc_reader.R;
-import android.app.Activity;
-import android.net.Uri;
-import android.nfc.NdefRecord;
-import android.text.util.Linkify;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.TextView;
+import java.util.Map;
 
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
-import com.google.common.primitives.Bytes;
 
 /**
  * A parsed record containing a Uri.
+ *
+ * <p>The URI string is decoded from the record on first access and cached.
  */
 public class UriRecord implements ParsedNdefRecord {
 
@@ -87,51 +80,82 @@ public class UriRecord implements ParsedNdefRecord {
             .put((byte) 0x23, "urn:nfc:")
             .build();
 
-    private final Uri mUri;
+    private final NdefRecordView mRecord;
+
+    /** Prefix from the URI Identifier Code, or null for an absolute URI */
+    private final String mPrefix;
 
-    private UriRecord(Uri uri) {
-        this.mUri = Preconditions.checkNotNull(uri);
+    /** Decoded on first use */
+    private String mUri;
+
+    private UriRecord(NdefRecordView record, String prefix) {
+        mRecord = Preconditions.checkNotNull(record);
+        mPrefix = prefix;
     }
 
-    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
-        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
-        text.setAutoLinkMask(Linkify.ALL);
-        text.setText(mUri.toString());
-        return text;
+    /**
+     * Returns the full URI, with the abbreviated prefix expanded.
+     */
+    public String getUri() {
+        String uri = mUri;
+        if (uri == null) {
+            if (mPrefix == null) {
+                uri = mRecord.decodePayload(0, mRecord.getPayloadLength(), Charsets.UTF_8);
+            } else {
+                uri = mPrefix + mRecord.decodePayload(1, mRecord.getPayloadLength() - 1,
+                        Charsets.UTF_8);
+            }
+            mUri = uri;
+        }
+        return uri;
     }
 
-    public Uri getUri() {
-        return mUri;
+    @Override
+    public String getSummary() {
+        return getUri();
     }
 
     /**
-     * Convert {@link android.nfc.NdefRecord} into a {@link android.net.Uri}.
+     * Convert an NDEF record into a {@link UriRecord}.
      * This will handle both TNF_WELL_KNOWN / RTD_URI and TNF_ABSOLUTE_URI.
      *
      * @throws IllegalArgumentException if the NdefRecord is not a record
      *         containing a URI.
      */
-    public static UriRecord parse(NdefRecord record) {
+    public static UriRecord parse(NdefRecordView record) {
+        UriRecord uri = tryParse(record);
+        Preconditions.checkArgument(uri != null, "Not a URI record");
+        return uri;
+    }
+
+    /**
+     * Like {@link #parse(NdefRecordView)}, but returns {@code null} instead of
+     * throwing if the record does not contain a URI.
+     */
+    public static UriRecord tryParse(NdefRecordView record) {
         short tnf = record.getTnf();
-        if (tnf == NdefRecord.TNF_WELL_KNOWN) {
+        if (tnf == NdefRecordView.TNF_WELL_KNOWN) {
             return parseWellKnown(record);
-        } else if (tnf == NdefRecord.TNF_ABSOLUTE_URI) {
+        } else if (tnf == NdefRecordView.TNF_ABSOLUTE_URI) {
             return parseAbsolute(record);
         }
-        throw new IllegalArgumentException("Unknown TNF " + tnf);
+        return null;
     }
 
     /** Parse and absolute URI record */
-    private static UriRecord parseAbsolute(NdefRecord record) {
-        byte[] payload = record.getPayload();
-        Uri uri = Uri.parse(new String(payload, Charset.forName("UTF-8")));
-        return new UriRecord(uri);
+    private static UriRecord parseAbsolute(NdefRecordView record) {
+        return new UriRecord(record, null);
     }
 
     /** Parse an well known URI record */
-    private static UriRecord parseWellKnown(NdefRecord record) {
-        Preconditions.checkArgument(Arrays.equals(record.getType(), NdefRecord.RTD_URI));
-        byte[] payload = record.getPayload();
+    private static UriRecord parseWellKnown(NdefRecordView record) {
+        if (!record.typeEquals(NdefRecordView.RTD_URI)) {
+            return null;
+        }
+        int length = record.getPayloadLength();
+        if (length == 0) {
+            return null;
+        }
         /*
          * payload[0] contains the URI Identifier Code, per the
          * NFC Forum "URI Record Type Definition" section 3.2.2.
@@ -139,21 +163,37 @@ public class UriRecord implements ParsedNdefRecord {
          * payload[1]...payload[payload.length - 1] contains the rest of
          * the URI.
          */
-        String prefix = URI_PREFIX_MAP.get(payload[0]);
-        byte[] fullUri =
-            Bytes.concat(prefix.getBytes(Charset.forName("UTF-8")), Arrays.copyOfRange(payload, 1,
-                payload.length));
-        Uri uri = Uri.parse(new String(fullUri, Charset.forName("UTF-8")));
-        return new UriRecord(uri);
+        String prefix = URI_PREFIX_MAP.get(record.getPayloadByte(0));
+        if (prefix == null) {
+            return null;
+        }
+        return new UriRecord(record, prefix);
+    }
+
+    public static boolean isUri(NdefRecordView record) {
+        return tryParse(record) != null;
     }
 
-    public static boolean isUri(NdefRecord record) {
-        try {
-            parse(record);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
+    /**
+     * Returns the URI Identifier Code of the longest prefix {@code uri}
+     * starts with, or 0 for none.
+     */
+    public static byte getPrefixCode(String uri) {
+        byte code = 0;
+        int length = 0;
+        for (Map.Entry<Byte, String> entry : URI_PREFIX_MAP.entrySet()) {
+            String prefix = entry.getValue();
+            if (prefix.length() > length && uri.startsWith(prefix)) {
+                code = entry.getKey();
+                length = prefix.length();
+            }
         }
+        return code;
+    }
+
+    /** Returns the prefix {@code code} stands for, or null if it is not defined. */
+    public static String getPrefix(byte code) {
+        return URI_PREFIX_MAP.get(code);
     }
 
     private static final byte[] EMPTY = new byte[0];
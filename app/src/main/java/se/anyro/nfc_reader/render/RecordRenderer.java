@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.render;
+
+import se.anyro.nfc_reader.R;
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.record.SmartPoster;
+import se.anyro.nfc_reader.record.TextRecord;
+import se.anyro.nfc_reader.record.UriRecord;
+import android.app.Activity;
+import android.text.util.Linkify;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * Builds the views for {@link ParsedNdefRecord}s. Must be used on the UI
+ * thread. This is where lazily decoded record fields get decoded.
+ */
+public class RecordRenderer {
+
+    // Utility class
+    private RecordRenderer() {
+
+    }
+
+    /**
+     * Returns a view to display the record.
+     */
+    public static View getView(ParsedNdefRecord record, Activity activity,
+            LayoutInflater inflater, ViewGroup parent, int offset) {
+        if (record instanceof SmartPoster) {
+            return getPosterView((SmartPoster) record, activity, inflater, parent, offset);
+        } else if (record instanceof UriRecord) {
+            return getUriView((UriRecord) record, inflater, parent);
+        } else if (record instanceof TextRecord) {
+            return getTextView((TextRecord) record, inflater, parent);
+        }
+        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+        text.setText(record.getSummary());
+        if (ScanLog.DEBUG) {
+            ScanLog.d(ScanLog.TAG, "other record.getPayload(): {}", record.getSummary());
+        }
+        return text;
+    }
+
+    private static View getTextView(TextRecord record, LayoutInflater inflater,
+            ViewGroup parent) {
+        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+        text.setText(record.getText());
+        return text;
+    }
+
+    private static View getUriView(UriRecord record, LayoutInflater inflater, ViewGroup parent) {
+        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+        text.setAutoLinkMask(Linkify.ALL);
+        text.setText(record.getUri());
+        return text;
+    }
+
+    private static View getPosterView(SmartPoster poster, Activity activity,
+            LayoutInflater inflater, ViewGroup parent, int offset) {
+        TextRecord title = poster.getTitle();
+        if (title != null) {
+            // Build a container to hold the title and the URI
+            LinearLayout container = new LinearLayout(activity);
+            container.setOrientation(LinearLayout.VERTICAL);
+            container.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT,
+                LayoutParams.WRAP_CONTENT));
+            container.addView(getTextView(title, inflater, container));
+            inflater.inflate(R.layout.tag_divider, container);
+            container.addView(getUriView(poster.getUriRecord(), inflater, container));
+            return container;
+        } else {
+            // Just a URI, return a view for it directly
+            return getUriView(poster.getUriRecord(), inflater, parent);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.render;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+import se.anyro.nfc_reader.R;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.scan.ScanLatency;
+import se.anyro.nfc_reader.scan.ScanResult;
+import se.anyro.nfc_reader.scan.TagProcessor;
+import android.app.Activity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * Shows the most recent scans in a list, newest first. Older scans are
+ * dropped once the capacity is reached, so the number of results and views
+ * kept stays the same however long the app runs. Must be used on the UI
+ * thread.
+ */
+public class ScanListAdapter extends BaseAdapter {
+
+    private static final DateFormat TIME_FORMAT = DateFormat.getDateTimeInstance();
+
+    private final Activity mActivity;
+    private final LayoutInflater mInflater;
+    private final Date mDate = new Date();
+
+    /** Ring buffer of results, mNewest is the index of the latest one. */
+    private final ScanResult[] mResults;
+    private int mNewest = -1;
+    private int mCount;
+
+    public ScanListAdapter(Activity activity, int capacity) {
+        mActivity = activity;
+        mInflater = LayoutInflater.from(activity);
+        mResults = new ScanResult[capacity];
+    }
+
+    public void add(ScanResult result) {
+        mNewest = (mNewest + 1) % mResults.length;
+        mResults[mNewest] = result;
+        if (mCount < mResults.length) {
+            mCount++;
+        }
+        notifyDataSetChanged();
+    }
+
+    public void clear() {
+        for (int i = 0; i < mResults.length; i++) {
+            mResults[i] = null;
+        }
+        mNewest = -1;
+        mCount = 0;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public ScanResult getItem(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("position " + position + ", count " + mCount);
+        }
+        return mResults[(mNewest - position + mResults.length) % mResults.length];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getTimestamp();
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
+        if (convertView == null) {
+            convertView = mInflater.inflate(R.layout.tag_scan, parent, false);
+            holder = new ViewHolder();
+            holder.time = (TextView) convertView.findViewById(R.id.time);
+            holder.records = (LinearLayout) convertView.findViewById(R.id.records);
+            holder.tagData = (TextView) convertView.findViewById(R.id.text);
+            convertView.setTag(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
+        }
+        bind(holder, getItem(position));
+        return convertView;
+    }
+
+    /** Timed as {@link ScanLatency#STAGE_BIND}. */
+    private void bind(ViewHolder holder, ScanResult result) {
+        long start = System.nanoTime();
+        mDate.setTime(result.getTimestamp());
+        holder.time.setText(TIME_FORMAT.format(mDate));
+        // Record views differ by record type, so only the row is recycled
+        holder.records.removeAllViews();
+        List<ParsedNdefRecord> records = result.getRecords();
+        final int size = records.size();
+        for (int i = 0; i < size; i++) {
+            holder.records.addView(RecordRenderer.getView(records.get(i), mActivity, mInflater,
+                    holder.records, i));
+            mInflater.inflate(R.layout.tag_divider, holder.records);
+        }
+        holder.tagData.setText(result.getTagData());
+        TagProcessor.getLatency().record(ScanLatency.STAGE_BIND, System.nanoTime() - start);
+    }
+
+    private static class ViewHolder {
+        TextView time;
+        LinearLayout records;
+        TextView tagData;
+    }
+}
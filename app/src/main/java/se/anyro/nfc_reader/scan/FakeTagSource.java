@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import android.app.Activity;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.Tag;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Parcel;
+
+/**
+ * An in-process tag source that emits mock tags at a fixed interval, to
+ * measure scan throughput without hardware.
+ *
+ * <p>The tags are built through a {@link Parcel} like the ones the NFC
+ * service sends, but have no tag service behind them. They only have the
+ * Ndef technology, whose getters work from the cached extras, and every
+ * tag gets a new 7 byte UID.
+ */
+public class FakeTagSource implements TagSource {
+
+    /** android.nfc.tech.TagTechnology.NDEF */
+    private static final int TECH_NDEF = 6;
+
+    /** Extras keys read by android.nfc.tech.Ndef */
+    private static final String EXTRA_NDEF_MSG = "ndefmsg";
+    private static final String EXTRA_NDEF_MAXLENGTH = "ndefmaxlength";
+    private static final String EXTRA_NDEF_CARDSTATE = "ndefcardstate";
+    private static final String EXTRA_NDEF_TYPE = "ndeftype";
+
+    /** Ndef.NDEF_MODE_READ_WRITE and Ndef.TYPE_2 */
+    private static final int NDEF_MODE_READ_WRITE = 2;
+    private static final int NDEF_TYPE_2 = 2;
+
+    private final long mIntervalMillis;
+    private final NdefMessage mMessage;
+    private HandlerThread mThread;
+    private long mSerial;
+
+    /**
+     * @param intervalMillis time between two tags
+     * @param message the NDEF message every tag carries
+     */
+    public FakeTagSource(long intervalMillis, NdefMessage message) {
+        mIntervalMillis = intervalMillis;
+        mMessage = message;
+    }
+
+    public FakeTagSource(long intervalMillis) {
+        this(intervalMillis, new NdefMessage(new NdefRecord[] {
+                NdefRecord.createUri("https://github.com/nadam/nfc-reader")}));
+    }
+
+    @Override
+    public synchronized void start(Activity activity, final Callback callback) {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("FakeTagSource");
+        mThread.start();
+        // Once stop() has quit the looper, postDelayed() returns false and the ticks end
+        final Handler handler = new Handler(mThread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTagDiscovered(createTag(nextId()));
+                handler.postDelayed(this, mIntervalMillis);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void stop(Activity activity) {
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+        }
+    }
+
+    private byte[] nextId() {
+        long serial = ++mSerial;
+        byte[] id = new byte[7];
+        id[0] = 0x04; // NXP
+        for (int i = 6; i > 0; i--) {
+            id[i] = (byte) serial;
+            serial >>>= 8;
+        }
+        return id;
+    }
+
+    private Tag createTag(byte[] id) {
+        Bundle ndefExtras = new Bundle();
+        ndefExtras.putParcelable(EXTRA_NDEF_MSG, mMessage);
+        ndefExtras.putInt(EXTRA_NDEF_MAXLENGTH, 868);
+        ndefExtras.putInt(EXTRA_NDEF_CARDSTATE, NDEF_MODE_READ_WRITE);
+        ndefExtras.putInt(EXTRA_NDEF_TYPE, NDEF_TYPE_2);
+
+        // Same layout as Tag.writeToParcel(), see cleanupTag() in TagViewer
+        Parcel parcel = Parcel.obtain();
+        parcel.writeInt(id.length);
+        parcel.writeByteArray(id);
+        parcel.writeInt(1);
+        parcel.writeIntArray(new int[] {TECH_NDEF});
+        parcel.writeTypedArray(new Bundle[] {ndefExtras}, 0);
+        parcel.writeInt(0); // service handle
+        parcel.writeInt(1); // mock tag, no tag service binder follows
+        parcel.setDataPosition(0);
+        Tag tag = Tag.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        return tag;
+    }
+}
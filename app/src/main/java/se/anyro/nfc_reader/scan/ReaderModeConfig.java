@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import android.nfc.NfcAdapter;
+
+/**
+ * Settings for {@link ReaderModeTagSource}.
+ */
+public final class ReaderModeConfig {
+
+    /** All tag technologies the reader can poll for. */
+    public static final int ALL_TECHNOLOGIES = NfcAdapter.FLAG_READER_NFC_A
+            | NfcAdapter.FLAG_READER_NFC_B | NfcAdapter.FLAG_READER_NFC_F
+            | NfcAdapter.FLAG_READER_NFC_V | NfcAdapter.FLAG_READER_NFC_BARCODE;
+
+    /** Polls for all technologies, reads NDEF and uses the platform presence check delay. */
+    public static final ReaderModeConfig DEFAULT = new ReaderModeConfig(ALL_TECHNOLOGIES, 0, false);
+
+    private final int mTechFlags;
+    private final int mPresenceCheckDelay;
+    private final boolean mSkipNdefCheck;
+
+    /**
+     * @param techFlags the NfcAdapter.FLAG_READER_NFC_* technologies to poll for
+     * @param presenceCheckDelay milliseconds between checks that a tag is still
+     *        in the field, or 0 for the platform default
+     * @param skipNdefCheck true to not read NDEF before delivering the tag.
+     *        Tags then arrive sooner but without a cached NDEF message.
+     */
+    public ReaderModeConfig(int techFlags, int presenceCheckDelay, boolean skipNdefCheck) {
+        if ((techFlags & ALL_TECHNOLOGIES) == 0) {
+            throw new IllegalArgumentException("No technology to poll for");
+        }
+        if (presenceCheckDelay < 0) {
+            throw new IllegalArgumentException("Negative presence check delay");
+        }
+        mTechFlags = techFlags & ALL_TECHNOLOGIES;
+        mPresenceCheckDelay = presenceCheckDelay;
+        mSkipNdefCheck = skipNdefCheck;
+    }
+
+    public int getTechFlags() {
+        return mTechFlags;
+    }
+
+    public int getPresenceCheckDelay() {
+        return mPresenceCheckDelay;
+    }
+
+    public boolean isSkipNdefCheck() {
+        return mSkipNdefCheck;
+    }
+
+    /**
+     * Returns the flags to pass to {@link NfcAdapter#enableReaderMode}.
+     */
+    public int getReaderFlags() {
+        int flags = mTechFlags;
+        if (mSkipNdefCheck) {
+            flags |= NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
+        }
+        return flags;
+    }
+}
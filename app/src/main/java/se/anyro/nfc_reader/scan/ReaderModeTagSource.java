@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Continuous scanning with {@link NfcAdapter#enableReaderMode}. The radio
+ * stays on between tags, so there is no need to restart the adapter after
+ * every tag to get the next one.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class ReaderModeTagSource implements TagSource {
+
+    private final NfcAdapter mAdapter;
+    private final ReaderModeConfig mConfig;
+
+    public ReaderModeTagSource(NfcAdapter adapter, ReaderModeConfig config) {
+        mAdapter = adapter;
+        mConfig = config;
+    }
+
+    /**
+     * Returns true if reader mode is available on this device.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    @Override
+    public void start(Activity activity, final Callback callback) {
+        Bundle extras = null;
+        if (mConfig.getPresenceCheckDelay() > 0) {
+            extras = new Bundle();
+            extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY,
+                    mConfig.getPresenceCheckDelay());
+        }
+        mAdapter.enableReaderMode(activity, new NfcAdapter.ReaderCallback() {
+            @Override
+            public void onTagDiscovered(Tag tag) {
+                callback.onTagDiscovered(tag);
+            }
+        }, mConfig.getReaderFlags(), extras);
+    }
+
+    @Override
+    public void stop(Activity activity) {
+        mAdapter.disableReaderMode(activity);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+/**
+ * Remembers the UIDs of recently seen tags, to suppress a tag that is held
+ * on the reader and dispatched again and again. Thread safe.
+ *
+ * <p>A UID counts as recent while it has been seen within the time window.
+ * Every sighting restarts the window, so a tag that stays on the reader is
+ * only reported once. When all entries are in use the least recently seen
+ * UID is forgotten.
+ *
+ * <p>UIDs of up to {@link #MAX_UID_LENGTH} bytes (ISO 14443 UIDs are 4, 7
+ * or 10 bytes, NfcF and NfcV IDs 8) are packed with their length into two
+ * longs, so no objects are allocated per lookup. Longer UIDs are never
+ * treated as recent. The entries are searched linearly, which is cheaper
+ * than hashing for the few dozen entries this is meant for.
+ */
+public class RecentUidCache {
+
+    public static final int MAX_UID_LENGTH = 15;
+
+    private final long mWindowMillis;
+    private final long[] mLow;
+    private final long[] mHigh;
+    private final long[] mLastSeen;
+    private int mSize;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param windowMillis how long a UID stays recent after it was last seen
+     * @param capacity maximum number of UIDs remembered
+     */
+    public RecentUidCache(long windowMillis, int capacity) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must be positive");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mWindowMillis = windowMillis;
+        mLow = new long[capacity];
+        mHigh = new long[capacity];
+        mLastSeen = new long[capacity];
+    }
+
+    /**
+     * Records a sighting of {@code uid} and returns true if it was already
+     * seen within the window, meaning the tag should not be processed again.
+     */
+    public synchronized boolean seen(byte[] uid, long nowMillis) {
+        if (uid == null || uid.length > MAX_UID_LENGTH) {
+            mMisses++;
+            return false;
+        }
+        long low = packLow(uid);
+        long high = packHigh(uid);
+        int oldest = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mLow[i] == low && mHigh[i] == high) {
+                boolean recent = nowMillis - mLastSeen[i] <= mWindowMillis;
+                mLastSeen[i] = nowMillis;
+                if (recent) {
+                    mHits++;
+                } else {
+                    mMisses++;
+                }
+                return recent;
+            }
+            if (mLastSeen[i] < mLastSeen[oldest]) {
+                oldest = i;
+            }
+        }
+        int slot = mSize < mLow.length ? mSize++ : oldest;
+        mLow[slot] = low;
+        mHigh[slot] = high;
+        mLastSeen[slot] = nowMillis;
+        mMisses++;
+        return false;
+    }
+
+    /**
+     * Returns true if {@code uid} was seen within the window, without
+     * recording a sighting or counting a hit or miss.
+     */
+    public synchronized boolean isRecent(byte[] uid, long nowMillis) {
+        if (uid == null || uid.length > MAX_UID_LENGTH) {
+            return false;
+        }
+        long low = packLow(uid);
+        long high = packHigh(uid);
+        for (int i = 0; i < mSize; i++) {
+            if (mLow[i] == low && mHigh[i] == high) {
+                return nowMillis - mLastSeen[i] <= mWindowMillis;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the number of sightings suppressed as repeats. */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /** Returns the number of sightings that were let through. */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized void clear() {
+        mSize = 0;
+    }
+
+    /** The first 8 bytes, zero padded. */
+    private static long packLow(byte[] uid) {
+        long packed = 0;
+        for (int i = 0; i < Math.min(8, uid.length); i++) {
+            packed |= (uid[i] & 0xffL) << (8 * i);
+        }
+        return packed;
+    }
+
+    /** Bytes 8 to 14, zero padded, with the length in the top byte. */
+    private static long packHigh(byte[] uid) {
+        long packed = (long) uid.length << 56;
+        for (int i = 8; i < uid.length; i++) {
+            packed |= (uid[i] & 0xffL) << (8 * (i - 8));
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+/**
+ * The UIDs, times and technologies of the most recent scans, up to a fixed
+ * capacity. Appended to by the processing thread and read on the UI thread,
+ * so all access is synchronized.
+ *
+ * <p>Everything is kept in primitive arrays allocated up front, about 30
+ * bytes per scan, so adding a scan and iterating allocate nothing and no
+ * {@link android.nfc.Tag} or {@link ScanResult} is kept alive.
+ */
+public class ScanHistory {
+
+    /**
+     * UID bytes stored per scan. ISO 14443 UIDs are at most 10 bytes; the
+     * extra room covers the longer IDs of some NfcBarcode tags. Longer IDs
+     * are truncated.
+     */
+    public static final int MAX_UID_LENGTH = 16;
+
+    /** Receives the scans from {@link ScanHistory#forEach}. */
+    public interface Visitor {
+
+        /**
+         * Called once per scan, oldest first, with the history locked. The
+         * UID is {@code uidLength} bytes of {@code uids} starting at
+         * {@code uidOffset}; the array is shared and must not be kept or
+         * modified.
+         */
+        public void visit(long timestamp, byte[] uids, int uidOffset, int uidLength,
+                int techMask);
+    }
+
+    private final long[] mTimestamps;
+    private final int[] mTechMasks;
+    private final byte[] mUidLengths;
+    private final byte[] mUids;
+
+    /** Index of the slot the next scan goes into. */
+    private int mNext;
+    private int mSize;
+
+    public ScanHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mTimestamps = new long[capacity];
+        mTechMasks = new int[capacity];
+        mUidLengths = new byte[capacity];
+        mUids = new byte[capacity * MAX_UID_LENGTH];
+    }
+
+    /**
+     * Adds a scan, overwriting the oldest one if the history is full.
+     *
+     * @param techMask the technologies of the tag, see {@link TechMask}
+     */
+    public void add(long timestamp, byte[] uid, int techMask) {
+        add(timestamp, uid, 0, uid.length, techMask);
+    }
+
+    /**
+     * Adds a scan whose UID is {@code uidLength} bytes of {@code uid}
+     * starting at {@code uidOffset}.
+     */
+    public synchronized void add(long timestamp, byte[] uid, int uidOffset, int uidLength,
+            int techMask) {
+        int length = Math.min(uidLength, MAX_UID_LENGTH);
+        mTimestamps[mNext] = timestamp;
+        mTechMasks[mNext] = techMask;
+        mUidLengths[mNext] = (byte) length;
+        System.arraycopy(uid, uidOffset, mUids, mNext * MAX_UID_LENGTH, length);
+        mNext = (mNext + 1) % mTimestamps.length;
+        if (mSize < mTimestamps.length) {
+            mSize++;
+        }
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mTimestamps.length;
+    }
+
+    public synchronized void clear() {
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Passes every scan to {@code visitor}, oldest first.
+     */
+    public synchronized void forEach(Visitor visitor) {
+        int capacity = mTimestamps.length;
+        int slot = (mNext - mSize + capacity) % capacity;
+        for (int i = 0; i < mSize; i++) {
+            visitor.visit(mTimestamps[slot], mUids, slot * MAX_UID_LENGTH, mUidLengths[slot],
+                    mTechMasks[slot]);
+            slot = (slot + 1) % capacity;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.tech.LatencyHistogram;
+
+/**
+ * The latency of each stage from tag discovery to the result reaching the
+ * scan list, one {@link LatencyHistogram} per stage. Safe to record into
+ * from any thread.
+ */
+public class ScanLatency {
+
+    /** From discovery until the processing thread takes the tag. */
+    public static final int STAGE_QUEUE = 0;
+    /** Reading NDEF Android did not check the tag for, when it happens. */
+    public static final int STAGE_READ = 1;
+    /** Parsing the NDEF message into records. */
+    public static final int STAGE_PARSE = 2;
+    /** Running the inspectors for the tag details. */
+    public static final int STAGE_INSPECT = 3;
+    /** Adding the scan to the history, journal and session file. */
+    public static final int STAGE_STORE = 4;
+    /** From posting the result until the UI thread runs it. */
+    public static final int STAGE_HANDOFF = 5;
+    /** The listener, which adds the result to the scan list. */
+    public static final int STAGE_LISTENER = 6;
+    /** From discovery until the listener returned. */
+    public static final int STAGE_TOTAL = 7;
+    /**
+     * Binding a result to its row. Happens at the next layout, so it is not
+     * part of the total, and again whenever the row scrolls into view.
+     */
+    public static final int STAGE_BIND = 8;
+
+    /** The number of stages. */
+    public static final int STAGE_COUNT = 9;
+
+    private static final String[] NAMES = {
+        "queue", "read", "parse", "inspect", "store", "handoff", "listener", "total", "bind"
+    };
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+
+    public ScanLatency() {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    /** Returns the name of {@code stage} as dumped, e.g. "parse". */
+    public static String getStageName(int stage) {
+        return NAMES[stage];
+    }
+
+    public void record(int stage, long nanos) {
+        mStages[stage].recordNanos(nanos);
+    }
+
+    public LatencyHistogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    /** Clears all stages. Latencies recorded meanwhile may be lost. */
+    public void reset() {
+        for (LatencyHistogram stage : mStages) {
+            stage.reset();
+        }
+    }
+
+    /**
+     * Writes one line per stage that has run, in milliseconds, e.g.
+     * "parse    n=12 p50=0.08 p99=0.31 max=0.31".
+     */
+    public void dump(Appendable out) throws IOException {
+        boolean empty = true;
+        for (int i = 0; i < mStages.length; i++) {
+            LatencyHistogram stage = mStages[i];
+            if (stage.getCount() == 0) {
+                continue;
+            }
+            empty = false;
+            out.append(String.format("%-8s n=%d p50=%s p99=%s max=%s\n", getStageName(i),
+                    stage.getCount(), millis(stage.getPercentileMicros(50)),
+                    millis(stage.getPercentileMicros(99)), millis(stage.getMaxMicros())));
+        }
+        if (empty) {
+            out.append("No scans yet\n");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            dump(sb);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long micros) {
+        return String.format("%d.%02d", micros / 1000, micros % 1000 / 10);
+    }
+}
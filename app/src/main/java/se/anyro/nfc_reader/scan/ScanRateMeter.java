@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+/**
+ * Scans per minute over the most recent scans. Thread safe.
+ */
+public class ScanRateMeter {
+
+    private final long[] mTimes;
+    private int mNext;
+    private int mCount;
+    private long mTotal;
+
+    /**
+     * @param window number of most recent scans the rate is computed over
+     */
+    public ScanRateMeter(int window) {
+        if (window < 2) {
+            throw new IllegalArgumentException("window must be at least 2");
+        }
+        mTimes = new long[window];
+    }
+
+    public synchronized void record(long nowMillis) {
+        mTimes[mNext] = nowMillis;
+        mNext = (mNext + 1) % mTimes.length;
+        if (mCount < mTimes.length) {
+            mCount++;
+        }
+        mTotal++;
+    }
+
+    /** Returns the number of scans recorded since creation. */
+    public synchronized long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Returns the scan rate over the window, or 0 if fewer than two scans
+     * have been recorded.
+     */
+    public synchronized double getScansPerMinute() {
+        if (mCount < 2) {
+            return 0;
+        }
+        long newest = mTimes[(mNext - 1 + mTimes.length) % mTimes.length];
+        long oldest = mTimes[(mNext - mCount + mTimes.length) % mTimes.length];
+        long elapsed = newest - oldest;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (mCount - 1) * 60000.0 / elapsed;
+    }
+}
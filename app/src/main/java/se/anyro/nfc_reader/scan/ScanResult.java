@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import java.util.Collections;
+import java.util.List;
+
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+
+/**
+ * The finished, immutable result of processing one tag. Holds no reference
+ * to the {@link android.nfc.Tag} it came from.
+ */
+public final class ScanResult {
+
+    private final long mTimestamp;
+    private final byte[] mId;
+    private final String[] mTechList;
+    private final String mTagData;
+    private final List<ParsedNdefRecord> mRecords;
+
+    public ScanResult(long timestamp, byte[] id, String[] techList, String tagData,
+            List<ParsedNdefRecord> records) {
+        mTimestamp = timestamp;
+        mId = id.clone();
+        mTechList = techList.clone();
+        mTagData = tagData;
+        mRecords = Collections.unmodifiableList(records);
+    }
+
+    /** Returns the time of discovery, in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** Returns a copy of the tag UID. */
+    public byte[] getId() {
+        return mId.clone();
+    }
+
+    public int getIdLength() {
+        return mId.length;
+    }
+
+    /** Returns a copy of the fully qualified technology class names. */
+    public String[] getTechList() {
+        return mTechList.clone();
+    }
+
+    /** Returns the tag ID and technology details, as shown to the user. */
+    public String getTagData() {
+        return mTagData;
+    }
+
+    /** Returns the records of the first NDEF message on the tag, if any. */
+    public List<ParsedNdefRecord> getRecords() {
+        return mRecords;
+    }
+}
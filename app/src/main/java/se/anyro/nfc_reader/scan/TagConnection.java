@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.tech.Transceiver;
+
+/**
+ * A discovered tag as {@link TagPipeline} talks to it: a tag from Android,
+ * or a recorded {@link se.anyro.nfc_reader.session.TagSession} replayed.
+ */
+public interface TagConnection {
+
+    public byte[] getId();
+
+    /** Returns the {@link TechMask} bits of the technologies of the tag. */
+    public int getTechMask();
+
+    /** Returns the SAK of NfcA, or -1 if the tag has no NfcA. */
+    public int getSak();
+
+    /** Returns true if extended length APDUs can be sent over IsoDep. */
+    public boolean isExtendedLengthSupported();
+
+    /** Connects the technology {@code tech}, a TechMask bit, to talk to it. */
+    public Transceiver connect(int tech) throws IOException;
+
+    /** Closes the technology connected by {@link #connect(int)}. */
+    public void close(int tech) throws IOException;
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import se.anyro.nfc_reader.inspect.InspectorRegistry;
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.util.UidCodec;
+import android.nfc.Tag;
+
+/**
+ * Reads the ID and technology details of a tag, see {@link InspectorRegistry}.
+ */
+public class TagInspector {
+
+    // Utility class
+    private TagInspector() {
+
+    }
+
+    /**
+     * Returns a human readable description of the tag and of the
+     * technologies {@code profile} asks for. This may do tag I/O, so it must
+     * not be called on the UI thread.
+     */
+    public static String dumpTagData(Tag tag, InspectorRegistry inspectors,
+            ProbeProfile profile) {
+        StringBuilder sb = new StringBuilder();
+        byte[] id = tag.getId();
+        sb.append("ID (hex): ").append(toHex(id)).append('\n');
+        sb.append("ID (reversed hex): ").append(toReversedHex(id)).append('\n');
+        sb.append("ID (dec): ").append(toDec(id)).append('\n');
+        sb.append("ID (reversed dec): ").append(toReversedDec(id)).append('\n');
+
+        String prefix = "android.nfc.tech.";
+        sb.append("Technologies: ");
+        for (String tech : tag.getTechList()) {
+            sb.append(tech.substring(prefix.length()));
+            sb.append(", ");
+        }
+        sb.delete(sb.length() - 2, sb.length());
+        inspectors.inspect(tag, profile, sb);
+
+        return sb.toString();
+    }
+
+    /** Returns the bytes as spaced hex, last byte first. */
+    public static String toHex(byte[] bytes) {
+        return UidCodec.toHex(bytes, UidCodec.SPACED);
+    }
+
+    /** Returns the bytes as spaced hex, first byte first. */
+    public static String toReversedHex(byte[] bytes) {
+        return UidCodec.toHex(bytes, UidCodec.SPACED | UidCodec.REVERSED);
+    }
+
+    /** Returns the bytes as a decimal number, first byte least significant. */
+    public static String toDec(byte[] bytes) {
+        return UidCodec.toDec(bytes, 0);
+    }
+
+    /** Returns the bytes as a decimal number, first byte most significant. */
+    public static String toReversedDec(byte[] bytes) {
+        return UidCodec.toDec(bytes, UidCodec.REVERSED);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import se.anyro.nfc_reader.NdefMessageParser;
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.tech.ApduTransport;
+import se.anyro.nfc_reader.tech.FelicaReader;
+import se.anyro.nfc_reader.tech.FelicaService;
+import se.anyro.nfc_reader.tech.NfcVMemory;
+import se.anyro.nfc_reader.tech.NfcVReader;
+import se.anyro.nfc_reader.tech.Transceiver;
+import se.anyro.nfc_reader.tech.Type2Memory;
+import se.anyro.nfc_reader.tech.Type2NdefReader;
+import se.anyro.nfc_reader.tech.Type2Reader;
+import se.anyro.nfc_reader.tech.Type4NdefReader;
+import se.anyro.nfc_reader.util.UidCodec;
+
+/**
+ * The stages of processing one tag that talk to it or parse what it holds:
+ * the NDEF read for tags Android did not check, NDEF parsing and the
+ * inspection, each only as far as the {@link ProbeProfile} asks. Free of
+ * Android, so that {@link TagProcessor} runs tags from Android through it
+ * and {@link se.anyro.nfc_reader.session.SessionReplayer} recorded
+ * sessions, sending the same commands.
+ *
+ * <p>The inspection reads the tag memory with {@link #inspectMemory}, as
+ * the inspectors do for the app. Subclasses may inspect more, and report
+ * failures by overriding {@link #onFailure(String, Exception)}.
+ */
+public class TagPipeline<T extends TagConnection> {
+
+    /** The NDEF message and details of one tag. */
+    public static final class Result {
+
+        private final ByteBuffer mNdef;
+        private final List<ParsedNdefRecord> mRecords;
+        private final String mDetails;
+
+        Result(ByteBuffer ndef, List<ParsedNdefRecord> records, String details) {
+            mNdef = ndef;
+            mRecords = records;
+            mDetails = details;
+        }
+
+        /** Returns the NDEF message, as found or read, or null. */
+        public ByteBuffer getNdef() {
+            return mNdef;
+        }
+
+        public List<ParsedNdefRecord> getRecords() {
+            return mRecords;
+        }
+
+        /** Returns the human readable description of the inspection. */
+        public String getDetails() {
+            return mDetails;
+        }
+    }
+
+    /** The SAK of Type 2 tags: no ISO 14443-4, no MIFARE Classic. */
+    private static final int SAK_TYPE_2 = 0x00;
+
+    /** The technologies {@link #inspectMemory} reads, in TechMask order. */
+    private static final int[] MEMORY_TECHS = {
+        TechMask.NFC_F, TechMask.NFC_V, TechMask.ISO_DEP, TechMask.MIFARE_ULTRALIGHT
+    };
+
+    private final ScanLatency mLatency;
+
+    /** @param latency where to time the read, parse and inspect stages, or null */
+    public TagPipeline(ScanLatency latency) {
+        mLatency = latency;
+    }
+
+    /**
+     * Runs {@code tag} through the stages {@code profile} asks for. This
+     * may do tag I/O, so it must not be called on the UI thread.
+     *
+     * @param ndef the NDEF message Android read on discovery, or null
+     * @param start when processing started, in {@link System#nanoTime()}
+     */
+    public Result process(T tag, ProbeProfile profile, ByteBuffer ndef, long start) {
+        int techMask = tag.getTechMask();
+        if (ndef == null && (techMask & TechMask.NDEF) == 0
+                && profile.includes(TechMask.NDEF)) {
+            // Android did not check the tag for NDEF
+            ndef = readNdef(tag);
+            start = record(ScanLatency.STAGE_READ, start);
+        }
+
+        List<ParsedNdefRecord> records = Collections.emptyList();
+        if (ndef != null) {
+            try {
+                records = NdefMessageParser.parse(ndef.duplicate());
+            } catch (NdefFormatException e) {
+                onFailure("Malformed NDEF message", e);
+            }
+        }
+        start = record(ScanLatency.STAGE_PARSE, start);
+
+        String details = inspect(tag, profile);
+        record(ScanLatency.STAGE_INSPECT, start);
+        return new Result(ndef, records, details);
+    }
+
+    /**
+     * Returns a human readable description of {@code tag}. By default the
+     * memory read by {@link #inspectMemory} for each of its technologies.
+     */
+    protected String inspect(T tag, ProbeProfile profile) {
+        StringBuilder sb = new StringBuilder();
+        for (int tech : MEMORY_TECHS) {
+            if ((tag.getTechMask() & tech) != 0 && !inspectMemory(tech, profile, tag, sb)) {
+                onFailure("Failed to read " + TechMask.toString(tech) + " memory", null);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Called for every read or parse that failed, which the app shows as an
+     * error rather than failing the scan.
+     *
+     * @param e the cause, or null if it was shown in the details
+     */
+    protected void onFailure(String message, Exception e) {
+    }
+
+    /**
+     * Reads the NDEF message of a Type 4 tag with a {@link Type4NdefReader},
+     * or of a Type 2 tag, MIFARE Ultralight or NTAG, with a
+     * {@link Type2NdefReader}. For tags Android did not check for NDEF: in
+     * reader mode with the NDEF check skipped, or NTAGs that readers without
+     * MIFARE support only report as NfcA. Returns null if the tag is
+     * neither, holds no or an empty NDEF message, or could not be read.
+     */
+    private ByteBuffer readNdef(T tag) {
+        ByteBuffer ndef = null;
+        if ((tag.getTechMask() & TechMask.ISO_DEP) != 0) {
+            try {
+                Transceiver isoDep = tag.connect(TechMask.ISO_DEP);
+                try {
+                    ndef = new Type4NdefReader(
+                            new ApduTransport(isoDep, tag.isExtendedLengthSupported())).read();
+                } finally {
+                    tag.close(TechMask.ISO_DEP);
+                }
+            } catch (IOException e) {
+                onFailure("Failed to read NDEF from Type 4 tag", e);
+            } catch (NdefFormatException e) {
+                onFailure("Malformed Type 4 Capability Container or NDEF file", e);
+            }
+        } else if (tag.getSak() == SAK_TYPE_2) {
+            try {
+                Transceiver nfcA = tag.connect(TechMask.NFC_A);
+                try {
+                    ndef = new Type2NdefReader(new Type2Reader(nfcA)).read();
+                } finally {
+                    tag.close(TechMask.NFC_A);
+                }
+            } catch (IOException e) {
+                onFailure("Failed to read NDEF from Type 2 tag", e);
+            } catch (NdefFormatException e) {
+                onFailure("Malformed Type 2 NDEF area", e);
+            }
+        }
+        return ndef != null && ndef.hasRemaining() ? ndef : null;
+    }
+
+    /** Records the time since {@code start} as {@code stage} and returns the time now. */
+    private long record(int stage, long start) {
+        long now = System.nanoTime();
+        if (mLatency != null) {
+            mLatency.record(stage, now - start);
+        }
+        return now;
+    }
+
+    /**
+     * Appends the memory of technology {@code tech} of {@code tag}, as far
+     * as it can be read, if {@code profile} reads memory and includes it:
+     * the pages of MIFARE Ultralight, the blocks of NfcV, the services of
+     * NfcF that need no key and the size of the NDEF file of IsoDep. Other
+     * technologies have no memory read here. A read that fails is shown as
+     * an error, and false returned.
+     * This does tag I/O, so it must not be called on the UI thread.
+     */
+    public static boolean inspectMemory(int tech, ProbeProfile profile, TagConnection tag,
+            StringBuilder sb) {
+        if (!profile.readsMemory() || !profile.includes(tech)) {
+            return true;
+        }
+        switch (tech) {
+            case TechMask.MIFARE_ULTRALIGHT:
+                try {
+                    dumpType2Memory(tag, sb);
+                    return true;
+                } catch (IOException e) {
+                    return readError(sb, "Mifare Ultralight read error: ", e);
+                }
+            case TechMask.NFC_V:
+                try {
+                    dumpNfcVMemory(tag, sb);
+                    return true;
+                } catch (IOException e) {
+                    return readError(sb, "NfcV read error: ", e);
+                }
+            case TechMask.NFC_F:
+                try {
+                    dumpFelicaServices(tag, sb);
+                    return true;
+                } catch (IOException e) {
+                    return readError(sb, "NfcF read error: ", e);
+                }
+            case TechMask.ISO_DEP:
+                try {
+                    dumpType4NdefFile(tag, sb);
+                    return true;
+                } catch (IOException e) {
+                    return readError(sb, "IsoDep read error: ", e);
+                } catch (NdefFormatException e) {
+                    return readError(sb, "Type 4 NDEF error: ", e);
+                }
+            default:
+                return true;
+        }
+    }
+
+    private static boolean readError(StringBuilder sb, String prefix, Exception e) {
+        sb.append('\n');
+        sb.append(prefix + e.getMessage());
+        return false;
+    }
+
+    private static void dumpType2Memory(TagConnection tag, StringBuilder sb)
+            throws IOException {
+        Type2Memory memory;
+        Transceiver nfcA = tag.connect(TechMask.NFC_A);
+        try {
+            memory = new Type2Reader(nfcA).readAll();
+        } finally {
+            tag.close(TechMask.NFC_A);
+        }
+        sb.append('\n');
+        sb.append(memory.getChip() + ": " + memory.getPageCount() + " pages in "
+                + memory.getExchanges() + " commands");
+        int flags = UidCodec.REVERSED | UidCodec.SPACED;
+        char[] chars = new char[UidCodec.hexLength(Type2Reader.PAGE_SIZE, flags)];
+        for (int page = 0; page < memory.getPageCount(); page++) {
+            UidCodec.encodeHex(memory.getData(), page * Type2Reader.PAGE_SIZE,
+                    Type2Reader.PAGE_SIZE, flags, chars, 0);
+            sb.append('\n').append(page).append(": ").append(chars);
+        }
+    }
+
+    private static void dumpNfcVMemory(TagConnection tag, StringBuilder sb)
+            throws IOException {
+        NfcVMemory memory;
+        Transceiver nfcV = tag.connect(TechMask.NFC_V);
+        try {
+            memory = new NfcVReader(nfcV, tag.getId()).readAll();
+        } finally {
+            tag.close(TechMask.NFC_V);
+        }
+        sb.append('\n');
+        sb.append(memory.getManufacturer() + ": " + memory.getBlockCount() + " blocks of "
+                + memory.getBlockSize() + " bytes in " + memory.getExchanges() + " commands");
+        int flags = UidCodec.REVERSED | UidCodec.SPACED;
+        char[] chars = new char[UidCodec.hexLength(memory.getBlockSize(), flags)];
+        for (int block = 0; block < memory.getBlockCount(); block++) {
+            UidCodec.encodeHex(memory.getData(), block * memory.getBlockSize(),
+                    memory.getBlockSize(), flags, chars, 0);
+            sb.append('\n').append(block).append(": ").append(chars);
+        }
+    }
+
+    private static void dumpFelicaServices(TagConnection tag, StringBuilder sb)
+            throws IOException {
+        FelicaReader reader;
+        FelicaService[] services;
+        Transceiver nfcF = tag.connect(TechMask.NFC_F);
+        try {
+            reader = new FelicaReader(nfcF, tag.getId());
+            services = reader.readAll();
+        } finally {
+            tag.close(TechMask.NFC_F);
+        }
+        sb.append('\n');
+        sb.append("FeliCa: " + services.length + " services without key in "
+                + reader.getExchanges() + " commands");
+        int flags = UidCodec.REVERSED | UidCodec.SPACED;
+        char[] chars = new char[UidCodec.hexLength(FelicaReader.BLOCK_SIZE, flags)];
+        for (FelicaService service : services) {
+            sb.append('\n');
+            sb.append(String.format("Service %04x: %d blocks", service.getCode(),
+                    service.getBlockCount()));
+            for (int block = 0; block < service.getBlockCount(); block++) {
+                UidCodec.encodeHex(service.getData(), block * FelicaReader.BLOCK_SIZE,
+                        FelicaReader.BLOCK_SIZE, flags, chars, 0);
+                sb.append('\n').append(block).append(": ").append(chars);
+            }
+        }
+    }
+
+    private static void dumpType4NdefFile(TagConnection tag, StringBuilder sb)
+            throws IOException, NdefFormatException {
+        ApduTransport transport;
+        ByteBuffer ndef;
+        Transceiver isoDep = tag.connect(TechMask.ISO_DEP);
+        try {
+            transport = new ApduTransport(isoDep, tag.isExtendedLengthSupported());
+            ndef = new Type4NdefReader(transport).read();
+        } finally {
+            tag.close(TechMask.ISO_DEP);
+        }
+        if (ndef == null) {
+            return;
+        }
+        sb.append('\n');
+        sb.append("Type 4 NDEF file: " + ndef.remaining() + " bytes in "
+                + transport.getExchanges() + " APDUs"
+                + (transport.isExtendedLength() ? ", extended length" : ""));
+    }
+}
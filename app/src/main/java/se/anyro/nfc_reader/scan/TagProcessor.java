@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.anyro.nfc_reader.ScanLog;
+import se.anyro.nfc_reader.history.ScanJournal;
+import se.anyro.nfc_reader.inspect.AndroidTagConnection;
+import se.anyro.nfc_reader.inspect.InspectorRegistry;
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.inspect.SessionCapture;
+import se.anyro.nfc_reader.inspect.TagIo;
+import se.anyro.nfc_reader.session.SessionFile;
+import se.anyro.nfc_reader.session.SessionRecorder;
+import android.nfc.NdefMessage;
+import android.nfc.Tag;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Inspects and parses tags on a single background thread and posts the
+ * finished {@link ScanResult}s to the UI thread.
+ *
+ * <p>At most a fixed number of tags wait to be processed. When a burst of
+ * tags goes past it, the {@link OverflowPolicy} decides which tag is
+ * dropped. Other tasks, such as {@link #sync()}, wait in the same queue in
+ * order with the tags but are never dropped.
+ *
+ * <p>With a journal file, every scan is also appended to a
+ * {@link ScanJournal}, and the scans already in it are replayed into the
+ * history before the first tag is processed.
+ *
+ * <p>Only the technologies in the {@link ProbeProfile} are inspected, so
+ * a deployment that needs just the UID does no tag I/O beyond discovery.
+ * The stages that talk to the tag run in a {@link TagPipeline}, which
+ * session replay runs too.
+ *
+ * <p>With a session file, every tag is also recorded as a
+ * {@link se.anyro.nfc_reader.session.TagSession}, every command and
+ * response included, to replay off the device.
+ *
+ * <p>The time each stage from discovery to the listener takes is recorded
+ * in one {@link ScanLatency} for the app, shown by the diagnostics screen.
+ */
+public class TagProcessor {
+
+    private static final String TAG = "TagProcessor";
+
+    /** Force the journal to storage after this many scans... */
+    private static final int JOURNAL_SYNC_RECORDS = 50;
+    /** ...or when a scan arrives this long after the last sync. */
+    private static final long JOURNAL_SYNC_MILLIS = 10000;
+
+    private static final ScanLatency sLatency = new ScanLatency();
+
+    /** What to do with a new tag when the queue is full. */
+    public enum OverflowPolicy {
+        /** Drop the oldest waiting tag, so the most recent tags are shown. */
+        DROP_OLDEST,
+        /** Drop the new tag, so tags are shown in the order they arrived. */
+        DROP_NEWEST
+    }
+
+    public interface Listener {
+
+        /** Called on the UI thread for every processed tag. */
+        public void onScanResult(ScanResult result);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mQueueCapacity;
+    private final OverflowPolicy mPolicy;
+    /** Held while a tag is queued, so that the tag count stays consistent. */
+    private final Object mQueueLock = new Object();
+    /** Tags queued and not yet taken by the processing thread. */
+    private final AtomicInteger mQueuedTags = new AtomicInteger();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ScanHistory mHistory;
+    private final Listener mListener;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final InspectorRegistry mInspectors = InspectorRegistry.createDefault();
+    private final ProbeProfile mProfile;
+    private final TagPipeline<AndroidTagConnection> mPipeline =
+            new TagPipeline<AndroidTagConnection>(sLatency) {
+                @Override
+                protected String inspect(AndroidTagConnection tag, ProbeProfile profile) {
+                    return TagInspector.dumpTagData(tag.getTag(), mInspectors, profile);
+                }
+
+                @Override
+                protected void onFailure(String message, Exception e) {
+                    ScanLog.w(TAG, message, e);
+                }
+            };
+
+    /** Only used on the processing thread. Null if there is none or it failed. */
+    private ScanJournal mJournal;
+    /** Where tag sessions are recorded, or null. */
+    private volatile File mSessionFile;
+
+    /**
+     * @param queueCapacity maximum number of tags waiting to be processed
+     * @param policy what to drop when the queue is full
+     * @param history receives every scan on the processing thread, before
+     *        the result is posted to the listener
+     * @param journalFile where scans are persisted, or null
+     * @param profile the technologies to inspect
+     */
+    public TagProcessor(int queueCapacity, OverflowPolicy policy, ScanHistory history,
+            final File journalFile, ProbeProfile profile, Listener listener) {
+        mHistory = history;
+        mProfile = profile;
+        mListener = listener;
+        mQueueCapacity = queueCapacity;
+        mPolicy = policy;
+        // The queue itself is unbounded, submit() keeps the number of tags in it bounded.
+        // Tasks are only rejected after shutdown(), and then discarded.
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, TAG);
+                    }
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        if (journalFile != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    openJournal(journalFile);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues a tag for processing. May be called from any thread.
+     *
+     * @param msgs the NDEF messages read when the tag was discovered, or null
+     */
+    public void submit(Tag tag, NdefMessage[] msgs) {
+        TagTask task = new TagTask(tag, msgs, System.currentTimeMillis(), System.nanoTime());
+        synchronized (mQueueLock) {
+            if (mQueuedTags.get() >= mQueueCapacity && !makeRoom()) {
+                mDropped.incrementAndGet();
+                return;
+            }
+            mQueuedTags.incrementAndGet();
+            mExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Drops the oldest waiting tag if the policy allows it. Returns false if
+     * the new tag is to be dropped instead.
+     */
+    private boolean makeRoom() {
+        if (mPolicy == OverflowPolicy.DROP_NEWEST) {
+            return false;
+        }
+        for (Runnable task : mExecutor.getQueue()) {
+            if (task instanceof TagTask && mExecutor.remove(task)) {
+                mQueuedTags.decrementAndGet();
+                mDropped.incrementAndGet();
+                return true;
+            }
+        }
+        // The processing thread took the waiting tags in the meantime
+        return true;
+    }
+
+    /** Runs on the processing thread for every tag that was not dropped. */
+    private void processTag(Tag tag, NdefMessage[] msgs, final long timestamp,
+            final long discovered) {
+        long start = System.nanoTime();
+        sLatency.record(ScanLatency.STAGE_QUEUE, start - discovered);
+        AndroidTagConnection connection = new AndroidTagConnection(tag);
+        int techMask = connection.getTechMask();
+        File sessionFile = mSessionFile;
+        SessionRecorder recorder = sessionFile != null
+                ? SessionCapture.begin(tag, msgs, timestamp, mProfile) : null;
+        TagIo.setRecorder(recorder);
+        final TagPipeline.Result processed;
+        try {
+            // Only the first message is shown and stored
+            ByteBuffer ndef = msgs != null && msgs.length > 0
+                    ? ByteBuffer.wrap(msgs[0].toByteArray()) : null;
+            processed = mPipeline.process(connection, mProfile, ndef, start);
+        } finally {
+            TagIo.setRecorder(null);
+        }
+        final ScanResult result = new ScanResult(timestamp, tag.getId(), tag.getTechList(),
+                processed.getDetails(), processed.getRecords());
+        start = System.nanoTime();
+        if (recorder != null) {
+            appendSession(sessionFile, recorder);
+        }
+        mHistory.add(timestamp, tag.getId(), techMask);
+        appendToJournal(timestamp, tag.getId(), techMask, processed.getNdef());
+        final long posted = System.nanoTime();
+        sLatency.record(ScanLatency.STAGE_STORE, posted - start);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                sLatency.record(ScanLatency.STAGE_HANDOFF, start - posted);
+                mListener.onScanResult(result);
+                long end = System.nanoTime();
+                sLatency.record(ScanLatency.STAGE_LISTENER, end - start);
+                sLatency.record(ScanLatency.STAGE_TOTAL, end - discovered);
+            }
+        });
+    }
+
+    /**
+     * Records every tag processed from now on to {@code file}, appending if
+     * it exists, or stops recording if null. May be called from any thread.
+     */
+    public void setSessionFile(File file) {
+        mSessionFile = file;
+    }
+
+    /** Returns the file tag sessions are recorded to, or null. */
+    public File getSessionFile() {
+        return mSessionFile;
+    }
+
+    /** Returns the stage latencies of all scans processed by the app. */
+    public static ScanLatency getLatency() {
+        return sLatency;
+    }
+
+    /** Returns the inspectors, e.g. for their timings. */
+    public InspectorRegistry getInspectors() {
+        return mInspectors;
+    }
+
+    /** Returns the number of tags dropped because the queue was full. */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Forces the scans processed so far to storage, after the tags already
+     * queued. Call when the app goes to the background.
+     */
+    public void sync() {
+        sync(null);
+    }
+
+    /**
+     * Like {@link #sync()}, then runs {@code then} on the processing thread,
+     * e.g. to read the journal once it holds every scan processed so far.
+     */
+    public void sync(final Runnable then) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mJournal != null) {
+                    try {
+                        mJournal.sync();
+                    } catch (IOException e) {
+                        journalFailed(e);
+                    }
+                }
+                if (then != null) {
+                    then.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the processing thread. Tags still waiting are discarded, other
+     * tasks still run, then the journal is synced and closed.
+     */
+    public void shutdown() {
+        for (Runnable task : mExecutor.getQueue()) {
+            if (task instanceof TagTask && mExecutor.remove(task)) {
+                mQueuedTags.decrementAndGet();
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mJournal != null) {
+                    try {
+                        mJournal.close();
+                    } catch (IOException e) {
+                        ScanLog.w(TAG, "Failed to close scan journal", e);
+                    }
+                    mJournal = null;
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private void openJournal(File file) {
+        try {
+            mJournal = ScanJournal.open(file, JOURNAL_SYNC_RECORDS, JOURNAL_SYNC_MILLIS,
+                    mHistory.capacity(), new ScanJournal.Visitor() {
+                        @Override
+                        public void visit(long timestamp, byte[] uid, int uidLength,
+                                int techMask, ByteBuffer ndef) {
+                            mHistory.add(timestamp, uid, 0, uidLength, techMask);
+                        }
+                    });
+            ScanLog.i(TAG, "Replayed {} of {} scans from {}", mHistory.size(),
+                    mJournal.getRecordCount(), file);
+        } catch (IOException e) {
+            ScanLog.w(TAG, "Failed to open scan journal {}", file, e);
+        }
+    }
+
+    private void appendToJournal(long timestamp, byte[] uid, int techMask, ByteBuffer ndef) {
+        if (mJournal != null) {
+            try {
+                mJournal.append(timestamp, uid, techMask, ndef);
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
+    }
+
+    private void appendSession(File file, SessionRecorder recorder) {
+        try {
+            SessionFile.append(file, recorder.toSession());
+        } catch (IOException e) {
+            ScanLog.w(TAG, "Failed to record tag session to {}", file, e);
+        }
+    }
+
+    /** Stops journaling, rather than failing again for every scan. */
+    private void journalFailed(IOException e) {
+        ScanLog.w(TAG, "Scan journal failed, scans are no longer persisted", e);
+        try {
+            mJournal.close();
+        } catch (IOException ignored) {
+            // Already failing
+        }
+        mJournal = null;
+    }
+
+    /** A queued tag, the only kind of task that may be dropped. */
+    private final class TagTask implements Runnable {
+        private final Tag mTag;
+        private final NdefMessage[] mMsgs;
+        private final long mTimestamp;
+        private final long mDiscovered;
+
+        TagTask(Tag tag, NdefMessage[] msgs, long timestamp, long discovered) {
+            mTag = tag;
+            mMsgs = msgs;
+            mTimestamp = timestamp;
+            mDiscovered = discovered;
+        }
+
+        @Override
+        public void run() {
+            mQueuedTags.decrementAndGet();
+            processTag(mTag, mMsgs, mTimestamp, mDiscovered);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+import android.app.Activity;
+import android.nfc.Tag;
+
+/**
+ * Delivers discovered tags to a callback while started, without going
+ * through Activity intent dispatch.
+ */
+public interface TagSource {
+
+    public interface Callback {
+
+        /**
+         * Called for every discovered tag. This is not called on the UI
+         * thread.
+         */
+        public void onTagDiscovered(Tag tag);
+    }
+
+    /**
+     * Starts delivering tags. Call from {@link Activity#onResume()}.
+     */
+    public void start(Activity activity, Callback callback);
+
+    /**
+     * Stops delivering tags. Call from {@link Activity#onPause()}.
+     */
+    public void stop(Activity activity);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.scan;
+
+/**
+ * Packs the technologies of a tag into the bits of an int, in place of the
+ * array of class names returned by {@link android.nfc.Tag#getTechList()}.
+ */
+public class TechMask {
+
+    public static final int NFC_A = 1;
+    public static final int NFC_B = 1 << 1;
+    public static final int NFC_F = 1 << 2;
+    public static final int NFC_V = 1 << 3;
+    public static final int ISO_DEP = 1 << 4;
+    public static final int MIFARE_CLASSIC = 1 << 5;
+    public static final int MIFARE_ULTRALIGHT = 1 << 6;
+    public static final int NDEF = 1 << 7;
+    public static final int NDEF_FORMATABLE = 1 << 8;
+    public static final int NFC_BARCODE = 1 << 9;
+
+    private static final String PREFIX = "android.nfc.tech.";
+
+    /** Simple class names, indexed by bit number. */
+    private static final String[] NAMES = {
+        "NfcA", "NfcB", "NfcF", "NfcV", "IsoDep", "MifareClassic", "MifareUltralight", "Ndef",
+        "NdefFormatable", "NfcBarcode"
+    };
+
+    // Utility class
+    private TechMask() {
+
+    }
+
+    /**
+     * Returns the mask for a tech list. Unknown technologies are ignored.
+     */
+    public static int of(String[] techList) {
+        int mask = 0;
+        for (String tech : techList) {
+            if (!tech.startsWith(PREFIX)) {
+                continue;
+            }
+            for (int bit = 0; bit < NAMES.length; bit++) {
+                if (tech.regionMatches(PREFIX.length(), NAMES[bit], 0, NAMES[bit].length())
+                        && tech.length() == PREFIX.length() + NAMES[bit].length()) {
+                    mask |= 1 << bit;
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the simple class names of the technologies in {@code mask}.
+     */
+    public static String[] toNames(int mask) {
+        String[] names = new String[Integer.bitCount(mask & ((1 << NAMES.length) - 1))];
+        int i = 0;
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                names[i++] = NAMES[bit];
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the simple class names of the technologies in {@code mask},
+     * separated by ", ".
+     */
+    public static String toString(int mask) {
+        StringBuilder sb = new StringBuilder();
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(NAMES[bit]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.tech.Transceiver;
+
+/**
+ * A {@link Transceiver} that records every command of another one, with
+ * its response and timing, in a {@link SessionRecorder}.
+ */
+public class RecordingTransceiver implements Transceiver {
+
+    private final Transceiver mTag;
+    private final SessionRecorder mRecorder;
+    private final int mTech;
+
+    /**
+     * @param tech the {@link se.anyro.nfc_reader.scan.TechMask} bit to record under
+     */
+    public RecordingTransceiver(Transceiver tag, SessionRecorder recorder, int tech) {
+        mTag = tag;
+        mRecorder = recorder;
+        mTech = tech;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        long start = System.nanoTime();
+        byte[] response;
+        try {
+            response = mTag.transceive(command);
+        } catch (IOException e) {
+            mRecorder.record(mTech, TagSession.KIND_TRANSCEIVE, command, null, classify(e),
+                    start, System.nanoTime());
+            throw e;
+        }
+        mRecorder.record(mTech, TagSession.KIND_TRANSCEIVE, command, response,
+                TagSession.RESULT_OK, start, System.nanoTime());
+        return response;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mTag.getMaxTransceiveLength();
+    }
+
+    @Override
+    public void reconnect() throws IOException {
+        long start = System.nanoTime();
+        try {
+            mTag.reconnect();
+        } catch (IOException e) {
+            mRecorder.record(mTech, TagSession.KIND_RECONNECT, null, null, classify(e), start,
+                    System.nanoTime());
+            throw e;
+        }
+        mRecorder.record(mTech, TagSession.KIND_RECONNECT, null, null, TagSession.RESULT_OK,
+                start, System.nanoTime());
+    }
+
+    /**
+     * Returns the {@link TagSession} result for {@code e}. The Android layer
+     * overrides this to tell lost tags apart.
+     */
+    protected int classify(IOException e) {
+        return TagSession.RESULT_IO_ERROR;
+    }
+}
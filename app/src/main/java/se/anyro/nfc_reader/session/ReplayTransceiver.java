@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import se.anyro.nfc_reader.tech.Transceiver;
+
+/**
+ * A {@link Transceiver} that answers with the responses recorded in a
+ * {@link TagSession} for one technology.
+ *
+ * <p>A command gets the response of the next unused recorded exchange with
+ * the same command, or failing that of any one, so reads replay in a
+ * different order as well. A command that was never recorded fails as a
+ * NAK would and counts as a miss, which tells a reader change apart from a
+ * tag that stopped answering. Nothing sleeps: the recorded air time of
+ * the answered commands is added up instead.
+ */
+public class ReplayTransceiver implements Transceiver {
+
+    /** Most phones, for sessions recorded without the extra. */
+    private static final int DEFAULT_MAX_TRANSCEIVE_LENGTH = 253;
+
+    private final List<TagSession.Exchange> mExchanges = new ArrayList<TagSession.Exchange>();
+    private final boolean[] mUsed;
+    private final int mMaxTransceiveLength;
+    private int mNext;
+    private int mCommands;
+    private int mMisses;
+    private long mRecordedMicros;
+
+    /**
+     * @param tech the {@link se.anyro.nfc_reader.scan.TechMask} bit whose
+     *        exchanges to replay
+     */
+    public ReplayTransceiver(TagSession session, int tech) {
+        for (TagSession.Exchange exchange : session.getExchanges()) {
+            if (exchange.getTech() == tech && exchange.getKind() == TagSession.KIND_TRANSCEIVE) {
+                mExchanges.add(exchange);
+            }
+        }
+        mUsed = new boolean[mExchanges.size()];
+        mMaxTransceiveLength = session.getIntExtra(tech,
+                TagSession.FIELD_MAX_TRANSCEIVE_LENGTH, DEFAULT_MAX_TRANSCEIVE_LENGTH);
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        mCommands++;
+        int index = findUnused(command);
+        if (index < 0) {
+            index = findAny(command);
+        }
+        if (index < 0) {
+            mMisses++;
+            throw new IOException("No recorded response");
+        }
+        mUsed[index] = true;
+        mNext = index + 1;
+        TagSession.Exchange exchange = mExchanges.get(index);
+        mRecordedMicros += exchange.getDurationMicros();
+        if (exchange.getResult() != TagSession.RESULT_OK) {
+            throw new IOException(exchange.getResult() == TagSession.RESULT_TAG_LOST
+                    ? "Tag was lost" : "Transceive failed");
+        }
+        return exchange.getResponse().clone();
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mMaxTransceiveLength;
+    }
+
+    @Override
+    public void reconnect() {
+        // The recorded responses after a reconnect already are those of a woken tag
+    }
+
+    /** Returns the number of commands sent. */
+    public int getCommands() {
+        return mCommands;
+    }
+
+    /** Returns the number of commands that were never recorded. */
+    public int getMisses() {
+        return mMisses;
+    }
+
+    /** Returns the recorded time of the commands answered so far. */
+    public long getRecordedMicros() {
+        return mRecordedMicros;
+    }
+
+    /** Returns the first unused exchange with {@code command} from the last one on, or -1. */
+    private int findUnused(byte[] command) {
+        int count = mExchanges.size();
+        for (int n = 0; n < count; n++) {
+            int i = (mNext + n) % count;
+            if (!mUsed[i] && Arrays.equals(mExchanges.get(i).getRequest(), command)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findAny(byte[] command) {
+        for (int i = 0; i < mExchanges.size(); i++) {
+            if (Arrays.equals(mExchanges.get(i).getRequest(), command)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+
+/**
+ * Reads and writes files of {@link TagSession}s.
+ *
+ * <p>The file starts with an 8 byte header: the magic "NFCS", a version
+ * and two reserved bytes. Each session follows as its length, the CRC-32 of
+ * its bytes and the bytes, all big-endian:
+ *
+ * <pre>
+ * long   timestamp, milliseconds since the epoch
+ * int    technology bitmask
+ * UTF    probe profile name, as {@link DataOutputStream#writeUTF(String)}
+ * byte   UID length, then the UID
+ * int    NDEF message length, -1 if Android had none, then the message
+ * short  extra count, then per extra:
+ *          byte tech bit number, byte field, short length, the value
+ * int    exchange count, then per exchange:
+ *          byte tech bit number, byte kind, byte result,
+ *          int start and int duration in microseconds,
+ *          short request length, the request,
+ *          short response length, the response
+ * </pre>
+ *
+ * <p>Sessions are appended one at a time, so a file can collect the taps
+ * of a whole field trip. Reading stops at the first torn or corrupt
+ * session, as after a crash while appending.
+ */
+public class SessionFile {
+
+    /** The file name extension. */
+    public static final String EXTENSION = "nfcs";
+
+    private static final int MAGIC = 0x4e464353; // "NFCS"
+    private static final short VERSION = 1;
+    private static final int MAX_SESSION_LENGTH = 16 * 1024 * 1024;
+
+    // Utility class
+    private SessionFile() {
+
+    }
+
+    /** Appends {@code session} to {@code file}, creating it if needed. */
+    public static void append(File file, TagSession session) throws IOException {
+        byte[] bytes = encode(session);
+        boolean empty = file.length() == 0;
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            if (empty) {
+                writeHeader(out);
+            }
+            writeSession(out, bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Writes a whole file of {@code sessions} to {@code out}. */
+    public static void write(OutputStream out, List<TagSession> sessions) throws IOException {
+        writeHeader(out);
+        for (TagSession session : sessions) {
+            writeSession(out, encode(session));
+        }
+    }
+
+    public static List<TagSession> read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the sessions of a file up to the end or to the first torn or
+     * corrupt one. Throws if the file is not a session file at all.
+     */
+    public static List<TagSession> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a tag session file");
+        }
+        int version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported tag session file version " + version);
+        }
+        data.readShort();
+        List<TagSession> sessions = new ArrayList<TagSession>();
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] bytes;
+            int expectedCrc;
+            try {
+                int length = data.readInt();
+                if (length < 0 || length > MAX_SESSION_LENGTH) {
+                    break;
+                }
+                expectedCrc = data.readInt();
+                bytes = new byte[length];
+                data.readFully(bytes);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            sessions.add(decode(bytes));
+        }
+        return sessions;
+    }
+
+    private static void writeHeader(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(0);
+        data.flush();
+    }
+
+    private static void writeSession(OutputStream out, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(bytes.length);
+        data.writeInt((int) crc.getValue());
+        data.write(bytes);
+        data.flush();
+    }
+
+    static byte[] encode(TagSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(session.getTimestamp());
+        out.writeInt(session.getTechMask());
+        out.writeUTF(session.getProfile().name());
+        out.writeByte(session.getUid().length);
+        out.write(session.getUid());
+        byte[] ndef = session.getNdef();
+        out.writeInt(ndef != null ? ndef.length : -1);
+        if (ndef != null) {
+            out.write(ndef);
+        }
+        out.writeShort(session.getExtraCount());
+        for (int i = 0; i < session.getExtraCount(); i++) {
+            int key = session.getExtraKey(i);
+            byte[] value = session.getExtraValue(i);
+            out.writeByte(key >>> 8);
+            out.writeByte(key);
+            out.writeShort(value.length);
+            out.write(value);
+        }
+        List<TagSession.Exchange> exchanges = session.getExchanges();
+        out.writeInt(exchanges.size());
+        for (TagSession.Exchange exchange : exchanges) {
+            out.writeByte(Integer.numberOfTrailingZeros(exchange.getTech()));
+            out.writeByte(exchange.getKind());
+            out.writeByte(exchange.getResult());
+            out.writeInt(exchange.getStartMicros());
+            out.writeInt(exchange.getDurationMicros());
+            out.writeShort(exchange.getRequest().length);
+            out.write(exchange.getRequest());
+            out.writeShort(exchange.getResponse().length);
+            out.write(exchange.getResponse());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static TagSession decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        long timestamp = in.readLong();
+        int techMask = in.readInt();
+        ProbeProfile profile;
+        try {
+            profile = ProbeProfile.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt tag session");
+        }
+        byte[] uid = readBytes(in, in.readUnsignedByte());
+        int ndefLength = in.readInt();
+        byte[] ndef = ndefLength >= 0 ? readBytes(in, ndefLength) : null;
+        int extraCount = in.readUnsignedShort();
+        int[] extraKeys = new int[extraCount];
+        byte[][] extraValues = new byte[extraCount][];
+        for (int i = 0; i < extraCount; i++) {
+            extraKeys[i] = in.readUnsignedByte() << 8 | in.readUnsignedByte();
+            extraValues[i] = readBytes(in, in.readUnsignedShort());
+        }
+        int exchangeCount = in.readInt();
+        if (exchangeCount < 0 || exchangeCount > bytes.length) {
+            throw new IOException("Corrupt tag session");
+        }
+        List<TagSession.Exchange> exchanges = new ArrayList<TagSession.Exchange>(exchangeCount);
+        for (int i = 0; i < exchangeCount; i++) {
+            int tech = 1 << in.readUnsignedByte();
+            int kind = in.readUnsignedByte();
+            int result = in.readUnsignedByte();
+            int start = in.readInt();
+            int duration = in.readInt();
+            byte[] request = readBytes(in, in.readUnsignedShort());
+            byte[] response = readBytes(in, in.readUnsignedShort());
+            exchanges.add(new TagSession.Exchange(tech, kind, result, request, response, start,
+                    duration));
+        }
+        return new TagSession(timestamp, uid, techMask, profile, extraKeys, extraValues, ndef,
+                exchanges);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        if (length > in.available()) {
+            throw new IOException("Corrupt tag session");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+
+/**
+ * Collects a {@link TagSession} while a tag is processed. Exchanges are
+ * timed from when the recorder was created.
+ *
+ * <p>Not thread safe; use from the thread that talks to the tag.
+ */
+public class SessionRecorder {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final long mTimestamp;
+    private final byte[] mUid;
+    private final int mTechMask;
+    private final ProbeProfile mProfile;
+    private final long mStartNanos = System.nanoTime();
+    private int[] mExtraKeys = new int[0];
+    private byte[][] mExtraValues = new byte[0][];
+    private byte[] mNdef;
+    private final List<TagSession.Exchange> mExchanges = new ArrayList<TagSession.Exchange>();
+
+    /**
+     * @param profile the profile the tag is processed with, which decides
+     *        the commands sent to it
+     */
+    public SessionRecorder(long timestamp, byte[] uid, int techMask, ProbeProfile profile) {
+        mTimestamp = timestamp;
+        mUid = uid.clone();
+        mTechMask = techMask;
+        mProfile = profile;
+    }
+
+    /** Stores an extra of the {@code tech} bit. A null value is ignored. */
+    public void putExtra(int tech, int field, byte[] value) {
+        if (value == null) {
+            return;
+        }
+        int n = mExtraKeys.length;
+        mExtraKeys = Arrays.copyOf(mExtraKeys, n + 1);
+        mExtraValues = Arrays.copyOf(mExtraValues, n + 1);
+        mExtraKeys[n] = TagSession.extraKey(tech, field);
+        mExtraValues[n] = value.clone();
+    }
+
+    public void putIntExtra(int tech, int field, int value) {
+        putExtra(tech, field, new byte[] {
+                (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+
+    public void putFlagExtra(int tech, int field, boolean value) {
+        putExtra(tech, field, new byte[] {(byte) (value ? 1 : 0)});
+    }
+
+    /** Sets the NDEF message Android read on discovery. */
+    public void setNdef(byte[] ndef) {
+        mNdef = ndef != null ? ndef.clone() : null;
+    }
+
+    /**
+     * Records an exchange that ran from {@code startNanos} to
+     * {@code endNanos}, in {@link System#nanoTime()}.
+     *
+     * @param request the command, or null for a connect or close
+     * @param response the response, or null if there was none
+     */
+    public void record(int tech, int kind, byte[] request, byte[] response, int result,
+            long startNanos, long endNanos) {
+        mExchanges.add(new TagSession.Exchange(tech, kind, result,
+                request != null ? request.clone() : EMPTY,
+                response != null ? response.clone() : EMPTY,
+                micros(startNanos - mStartNanos), micros(endNanos - startNanos)));
+    }
+
+    /** Returns the session recorded so far. */
+    public TagSession toSession() {
+        return new TagSession(mTimestamp, mUid, mTechMask, mProfile, mExtraKeys.clone(),
+                mExtraValues.clone(), mNdef, new ArrayList<TagSession.Exchange>(mExchanges));
+    }
+
+    private static int micros(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, nanos / 1000));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.anyro.nfc_reader.history.ScanJournal;
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.scan.ScanHistory;
+import se.anyro.nfc_reader.scan.ScanLatency;
+import se.anyro.nfc_reader.scan.TagConnection;
+import se.anyro.nfc_reader.scan.TagPipeline;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.Transceiver;
+
+/**
+ * Runs {@link TagSession}s through the {@link TagPipeline} of TagProcessor
+ * on a plain JVM, with the {@link ProbeProfile} each was recorded with and
+ * {@link ReplayTransceiver}s in place of the tag, then through the scan
+ * journal. So a recording sends the same commands again: the NDEF read for
+ * tags Android did not check, and the memory reads of the MEMORY profile.
+ * MIFARE Classic sectors are not recorded, so not read. With a
+ * {@link ScanLatency}, the read, parse, inspect and store stages and their
+ * total are timed as TagProcessor times them.
+ *
+ * <p>Counts add up over all sessions processed, so a corpus of recordings
+ * gives one set of numbers to compare between builds.
+ */
+public class SessionReplayer {
+
+    /** Returns what to talk to a technology of a session through. */
+    public interface Connector {
+
+        public Transceiver open(TagSession session, int tech);
+    }
+
+    private final ScanHistory mHistory;
+    private final ScanJournal mJournal;
+    private final ScanLatency mLatency;
+    private final TagPipeline<SessionConnection> mPipeline;
+    private final List<ReplayTransceiver> mReplays = new ArrayList<ReplayTransceiver>();
+    private final Connector mReplayConnector = new Connector() {
+        @Override
+        public Transceiver open(TagSession session, int tech) {
+            ReplayTransceiver replay = new ReplayTransceiver(session, tech);
+            mReplays.add(replay);
+            return replay;
+        }
+    };
+
+    private int mSessions;
+    private int mRecords;
+    private int mFailures;
+    private long mCommands;
+    private long mMisses;
+    private long mRecordedMicros;
+
+    /**
+     * @param journal receives every session as TagProcessor appends scans,
+     *        or null
+     */
+    public SessionReplayer(ScanJournal journal) {
+        this(null, journal, null);
+    }
+
+    /**
+     * @param history receives every session as TagProcessor adds scans, or
+     *        null
+     * @param journal receives every session as TagProcessor appends scans,
+     *        or null
+     * @param latency where to time the stages, or null
+     */
+    public SessionReplayer(ScanHistory history, ScanJournal journal, ScanLatency latency) {
+        mHistory = history;
+        mJournal = journal;
+        mLatency = latency;
+        mPipeline = new TagPipeline<SessionConnection>(latency) {
+            @Override
+            protected void onFailure(String message, Exception e) {
+                mFailures++;
+            }
+        };
+    }
+
+    /** Replays {@code session} and returns its NDEF records. */
+    public List<ParsedNdefRecord> replay(TagSession session) throws IOException {
+        mReplays.clear();
+        try {
+            return process(session, mReplayConnector);
+        } finally {
+            for (ReplayTransceiver replay : mReplays) {
+                mCommands += replay.getCommands();
+                mMisses += replay.getMisses();
+                mRecordedMicros += replay.getRecordedMicros();
+            }
+        }
+    }
+
+    /**
+     * Runs {@code session} through the pipeline with the transceivers of
+     * {@code connector}, e.g. simulated tags wrapped in
+     * {@link RecordingTransceiver}s to make a recording. Throws only if the
+     * journal fails; tag errors count as failures as they show as errors
+     * in the app.
+     */
+    public List<ParsedNdefRecord> process(TagSession session, Connector connector)
+            throws IOException {
+        mSessions++;
+        long discovered = System.nanoTime();
+        ByteBuffer ndef = session.getNdef() != null ? ByteBuffer.wrap(session.getNdef()) : null;
+        TagPipeline.Result processed = mPipeline.process(
+                new SessionConnection(session, connector), session.getProfile(), ndef,
+                discovered);
+        mRecords += processed.getRecords().size();
+
+        long start = System.nanoTime();
+        int techMask = session.getTechMask();
+        if (mHistory != null) {
+            mHistory.add(session.getTimestamp(), session.getUid(), techMask);
+        }
+        if (mJournal != null) {
+            mJournal.append(session.getTimestamp(), session.getUid(), techMask,
+                    processed.getNdef());
+        }
+        record(ScanLatency.STAGE_STORE, start);
+        record(ScanLatency.STAGE_TOTAL, discovered);
+        return processed.getRecords();
+    }
+
+    /** Records the time since {@code start} as {@code stage} and returns the time now. */
+    private long record(int stage, long start) {
+        long now = System.nanoTime();
+        if (mLatency != null) {
+            mLatency.record(stage, now - start);
+        }
+        return now;
+    }
+
+    public int getSessions() {
+        return mSessions;
+    }
+
+    /** Returns the number of NDEF records parsed. */
+    public int getRecords() {
+        return mRecords;
+    }
+
+    /** Returns the number of reads and parses that failed. */
+    public int getFailures() {
+        return mFailures;
+    }
+
+    /** Returns the number of commands sent to replayed tags. */
+    public long getCommands() {
+        return mCommands;
+    }
+
+    /** Returns the number of commands replayed tags had no recorded response to. */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    /** Returns the recorded air time of the commands replayed. */
+    public long getRecordedMicros() {
+        return mRecordedMicros;
+    }
+
+    /** A session as the pipeline talks to it, its extras in place of Android's. */
+    private static class SessionConnection implements TagConnection {
+
+        private final TagSession mSession;
+        private final Connector mConnector;
+
+        SessionConnection(TagSession session, Connector connector) {
+            mSession = session;
+            mConnector = connector;
+        }
+
+        @Override
+        public byte[] getId() {
+            return mSession.getUid();
+        }
+
+        @Override
+        public int getTechMask() {
+            return mSession.getTechMask();
+        }
+
+        @Override
+        public int getSak() {
+            return mSession.getIntExtra(TechMask.NFC_A, TagSession.FIELD_SAK, -1);
+        }
+
+        @Override
+        public boolean isExtendedLengthSupported() {
+            return mSession.getIntExtra(TechMask.ISO_DEP, TagSession.FIELD_EXTENDED_LENGTH, 0)
+                    != 0;
+        }
+
+        @Override
+        public Transceiver connect(int tech) {
+            return mConnector.open(mSession, tech);
+        }
+
+        @Override
+        public void close(int tech) {
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import java.util.Collections;
+import java.util.List;
+
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+
+/**
+ * Everything the app got from one tag: the UID, technologies and their
+ * extras as Android reported them, the NDEF message Android cached, the
+ * {@link ProbeProfile} it was processed with, and every command sent to the
+ * tag with its response and timing. Recorded by
+ * {@link SessionRecorder}, stored by {@link SessionFile} and replayed by
+ * {@link SessionReplayer}.
+ */
+public class TagSession {
+
+    /** Exchange kinds. */
+    public static final int KIND_TRANSCEIVE = 0;
+    public static final int KIND_CONNECT = 1;
+    public static final int KIND_CLOSE = 2;
+    public static final int KIND_RECONNECT = 3;
+
+    /** Exchange results. */
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_IO_ERROR = 1;
+    public static final int RESULT_TAG_LOST = 2;
+
+    /**
+     * Extra fields, each stored under a technology. Numbers are big-endian
+     * ints, flags one byte.
+     */
+    public static final int FIELD_MAX_TRANSCEIVE_LENGTH = 1;
+    public static final int FIELD_TIMEOUT = 2;
+    /** NfcA */
+    public static final int FIELD_ATQA = 3;
+    public static final int FIELD_SAK = 4;
+    /** NfcB */
+    public static final int FIELD_APPLICATION_DATA = 5;
+    public static final int FIELD_PROTOCOL_INFO = 6;
+    /** NfcF, the PMm */
+    public static final int FIELD_MANUFACTURER = 7;
+    public static final int FIELD_SYSTEM_CODE = 8;
+    /** NfcV */
+    public static final int FIELD_DSF_ID = 9;
+    public static final int FIELD_RESPONSE_FLAGS = 10;
+    /** IsoDep */
+    public static final int FIELD_HI_LAYER_RESPONSE = 11;
+    public static final int FIELD_HISTORICAL_BYTES = 12;
+    public static final int FIELD_EXTENDED_LENGTH = 13;
+    /** MifareClassic, MifareUltralight and Ndef */
+    public static final int FIELD_TYPE = 14;
+    /** MifareClassic */
+    public static final int FIELD_SIZE = 15;
+    /** Ndef */
+    public static final int FIELD_MAX_SIZE = 16;
+    public static final int FIELD_WRITABLE = 17;
+
+    /** One command and its response, or a connect or close. */
+    public static class Exchange {
+
+        private final int mTech;
+        private final int mKind;
+        private final int mResult;
+        private final byte[] mRequest;
+        private final byte[] mResponse;
+        private final int mStartMicros;
+        private final int mDurationMicros;
+
+        Exchange(int tech, int kind, int result, byte[] request, byte[] response,
+                int startMicros, int durationMicros) {
+            mTech = tech;
+            mKind = kind;
+            mResult = result;
+            mRequest = request;
+            mResponse = response;
+            mStartMicros = startMicros;
+            mDurationMicros = durationMicros;
+        }
+
+        /** Returns the {@link se.anyro.nfc_reader.scan.TechMask} bit. */
+        public int getTech() {
+            return mTech;
+        }
+
+        public int getKind() {
+            return mKind;
+        }
+
+        public int getResult() {
+            return mResult;
+        }
+
+        /** Returns the command, empty unless this is a transceive. */
+        public byte[] getRequest() {
+            return mRequest;
+        }
+
+        /** Returns the response, empty unless this is a transceive that succeeded. */
+        public byte[] getResponse() {
+            return mResponse;
+        }
+
+        /** Returns when the exchange started, from the start of the session. */
+        public int getStartMicros() {
+            return mStartMicros;
+        }
+
+        public int getDurationMicros() {
+            return mDurationMicros;
+        }
+    }
+
+    private final long mTimestamp;
+    private final byte[] mUid;
+    private final int mTechMask;
+    private final ProbeProfile mProfile;
+    private final int[] mExtraKeys;
+    private final byte[][] mExtraValues;
+    private final byte[] mNdef;
+    private final List<Exchange> mExchanges;
+
+    TagSession(long timestamp, byte[] uid, int techMask, ProbeProfile profile, int[] extraKeys,
+            byte[][] extraValues, byte[] ndef, List<Exchange> exchanges) {
+        mTimestamp = timestamp;
+        mUid = uid;
+        mTechMask = techMask;
+        mProfile = profile;
+        mExtraKeys = extraKeys;
+        mExtraValues = extraValues;
+        mNdef = ndef;
+        mExchanges = Collections.unmodifiableList(exchanges);
+    }
+
+    /** Returns when the tag was discovered, in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public byte[] getUid() {
+        return mUid;
+    }
+
+    public int getTechMask() {
+        return mTechMask;
+    }
+
+    /** Returns the profile the tag was processed with, so replays send the same commands. */
+    public ProbeProfile getProfile() {
+        return mProfile;
+    }
+
+    /** Returns the extra {@code field} of the {@code tech} bit, or null. */
+    public byte[] getExtra(int tech, int field) {
+        int key = extraKey(tech, field);
+        for (int i = 0; i < mExtraKeys.length; i++) {
+            if (mExtraKeys[i] == key) {
+                return mExtraValues[i];
+            }
+        }
+        return null;
+    }
+
+    /** Returns an extra stored as an int or a byte, or {@code defaultValue}. */
+    public int getIntExtra(int tech, int field, int defaultValue) {
+        byte[] value = getExtra(tech, field);
+        if (value == null || value.length == 0 || value.length > 4) {
+            return defaultValue;
+        }
+        int result = 0;
+        for (byte b : value) {
+            result = result << 8 | b & 0xff;
+        }
+        return result;
+    }
+
+    int getExtraCount() {
+        return mExtraKeys.length;
+    }
+
+    int getExtraKey(int index) {
+        return mExtraKeys[index];
+    }
+
+    byte[] getExtraValue(int index) {
+        return mExtraValues[index];
+    }
+
+    /** Returns the NDEF message Android read on discovery, or null. */
+    public byte[] getNdef() {
+        return mNdef;
+    }
+
+    /** Returns the exchanges, in the order they started. */
+    public List<Exchange> getExchanges() {
+        return mExchanges;
+    }
+
+    /** The tech's bit number in the high byte, the field in the low one. */
+    static int extraKey(int tech, int field) {
+        return Integer.numberOfTrailingZeros(tech) << 8 | field;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sends ISO 7816-4 command APDUs to an ISO 14443-4 tag over a
+ * {@link Transceiver} and collects the whole response.
+ *
+ * <p>Commands are sent as short APDUs when they fit, and as extended length
+ * APDUs only when the reader supports them. Command data that does not fit
+ * {@link Transceiver#getMaxTransceiveLength()} is split with command
+ * chaining. A 61xx status is followed by GET RESPONSE until the card has
+ * nothing more to send, and a 6Cxx status repeats the command with the Le
+ * the card asked for.
+ */
+public class ApduTransport {
+
+    public static final int SW_OK = 0x9000;
+    /** End of file reached before Le bytes were read, the data is valid. */
+    public static final int SW_END_OF_FILE = 0x6282;
+
+    /** Largest Ne of a short APDU, sent as Le 00. */
+    public static final int MAX_SHORT_NE = 256;
+    /** Largest Ne of an extended length APDU, sent as Le 00 00. */
+    public static final int MAX_EXTENDED_NE = 65536;
+
+    private static final int MAX_SHORT_NC = 255;
+    private static final int MAX_EXTENDED_NC = 65535;
+    private static final int HEADER_LENGTH = 4;
+    private static final int SW_LENGTH = 2;
+
+    private static final int CLA_CHAINING = 0x10;
+    /** The logical channel bits of an interindustry CLA. */
+    private static final int CLA_CHANNEL = 0x03;
+    private static final int INS_GET_RESPONSE = 0xc0;
+    private static final int SW1_MORE_DATA = 0x61;
+    private static final int SW1_WRONG_LE = 0x6c;
+
+    private static final byte[] NO_DATA = new byte[0];
+
+    /** The data and status word of a response APDU. */
+    public static final class Response {
+
+        private final byte[] mData;
+        private final int mSw;
+
+        Response(byte[] data, int sw) {
+            mData = data;
+            mSw = sw;
+        }
+
+        /** Returns the response data, empty if there is none. */
+        public byte[] getData() {
+            return mData;
+        }
+
+        /** Returns SW1 and SW2, such as {@link #SW_OK}. */
+        public int getSw() {
+            return mSw;
+        }
+
+        public boolean isOk() {
+            return mSw == SW_OK;
+        }
+    }
+
+    private final Transceiver mTag;
+    private final boolean mExtendedLength;
+    private int mExchanges;
+
+    /**
+     * @param extendedLength whether the reader and the tag take extended
+     *        length APDUs, see {@code IsoDep.isExtendedLengthApduSupported()}
+     */
+    public ApduTransport(Transceiver tag, boolean extendedLength) {
+        mTag = tag;
+        mExtendedLength = extendedLength;
+    }
+
+    public boolean isExtendedLength() {
+        return mExtendedLength;
+    }
+
+    /** Returns the number of APDUs exchanged with the tag so far. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /**
+     * Returns the most response data a single command can return: the
+     * largest Ne, limited by the maximum transceive length less the status
+     * word.
+     */
+    public int getMaxResponseLength() {
+        int ne = mExtendedLength ? MAX_EXTENDED_NE : MAX_SHORT_NE;
+        return Math.min(ne, mTag.getMaxTransceiveLength() - SW_LENGTH);
+    }
+
+    /**
+     * Sends a command and returns the response once the card has sent all
+     * of it. {@code ne} is limited to {@link #getMaxResponseLength()}, so
+     * check the length of the data returned.
+     *
+     * @param data the command data, or null
+     * @param ne the expected response length, 0 for none
+     * @throws IOException if the tag does not answer, or the response has no
+     *         status word
+     */
+    public Response transmit(int cla, int ins, int p1, int p2, byte[] data, int ne)
+            throws IOException {
+        if (data == null) {
+            data = NO_DATA;
+        }
+        ne = Math.min(ne, getMaxResponseLength());
+        int chunk = maxCommandData(ne);
+        int offset = 0;
+        while (data.length - offset > chunk) {
+            // Every part but the last has the chaining bit set and no Le
+            byte[] raw = exchange(encode(cla | CLA_CHAINING, ins, p1, p2, data, offset, chunk,
+                    0));
+            int sw = sw(raw);
+            if (sw != SW_OK) {
+                return new Response(Arrays.copyOf(raw, raw.length - SW_LENGTH), sw);
+            }
+            offset += chunk;
+        }
+        int length = data.length - offset;
+        byte[] raw = exchange(encode(cla, ins, p1, p2, data, offset, length, ne));
+        int sw = sw(raw);
+        if (sw >> 8 == SW1_WRONG_LE) {
+            raw = exchange(encode(cla, ins, p1, p2, data, offset, length, ne(sw)));
+            sw = sw(raw);
+        }
+        byte[] response = Arrays.copyOf(raw, raw.length - SW_LENGTH);
+        while (sw >> 8 == SW1_MORE_DATA) {
+            raw = exchange(encode(cla & CLA_CHANNEL, INS_GET_RESPONSE, 0, 0, NO_DATA, 0, 0,
+                    ne(sw)));
+            sw = sw(raw);
+            int end = response.length;
+            response = Arrays.copyOf(response, end + raw.length - SW_LENGTH);
+            System.arraycopy(raw, 0, response, end, raw.length - SW_LENGTH);
+        }
+        return new Response(response, sw);
+    }
+
+    /**
+     * Returns the most command data that fits one APDU with room for the
+     * header, Lc and, if {@code ne} is not 0, Le.
+     */
+    private int maxCommandData(int ne) {
+        int max = mTag.getMaxTransceiveLength() - HEADER_LENGTH;
+        if (mExtendedLength) {
+            return Math.min(MAX_EXTENDED_NC, max - 3 - (ne > 0 ? 2 : 0));
+        }
+        return Math.min(MAX_SHORT_NC, max - 1 - (ne > 0 ? 1 : 0));
+    }
+
+    private byte[] exchange(byte[] command) throws IOException {
+        mExchanges++;
+        byte[] raw = mTag.transceive(command);
+        if (raw == null || raw.length < SW_LENGTH) {
+            throw new IOException("Response without status word");
+        }
+        return raw;
+    }
+
+    /**
+     * Encodes a command APDU, extended length only if {@code length} or
+     * {@code ne} does not fit a short one.
+     */
+    private byte[] encode(int cla, int ins, int p1, int p2, byte[] data, int offset,
+            int length, int ne) {
+        boolean extended = length > MAX_SHORT_NC || ne > MAX_SHORT_NE;
+        int lcLength = length == 0 ? 0 : extended ? 3 : 1;
+        int leLength = ne == 0 ? 0 : !extended ? 1 : length == 0 ? 3 : 2;
+        byte[] apdu = new byte[HEADER_LENGTH + lcLength + length + leLength];
+        apdu[0] = (byte) cla;
+        apdu[1] = (byte) ins;
+        apdu[2] = (byte) p1;
+        apdu[3] = (byte) p2;
+        int pos = HEADER_LENGTH;
+        if (lcLength == 1) {
+            apdu[pos++] = (byte) length;
+        } else if (lcLength == 3) {
+            apdu[pos++] = 0;
+            apdu[pos++] = (byte) (length >> 8);
+            apdu[pos++] = (byte) length;
+        }
+        System.arraycopy(data, offset, apdu, pos, length);
+        pos += length;
+        // Ne 256 and 65536 are sent as 0
+        if (leLength == 1) {
+            apdu[pos] = (byte) ne;
+        } else if (leLength > 1) {
+            if (leLength == 3) {
+                apdu[pos++] = 0;
+            }
+            apdu[pos++] = (byte) (ne >> 8);
+            apdu[pos] = (byte) ne;
+        }
+        return apdu;
+    }
+
+    private static int sw(byte[] raw) {
+        return (raw[raw.length - 2] & 0xff) << 8 | raw[raw.length - 1] & 0xff;
+    }
+
+    /** Returns the length in SW2 of a 61xx or 6Cxx status, where 00 means 256. */
+    private static int ne(int sw) {
+        int length = sw & 0xff;
+        return length == 0 ? MAX_SHORT_NE : length;
+    }
+}
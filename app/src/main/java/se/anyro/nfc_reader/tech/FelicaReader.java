@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Finds and reads the services of a FeliCa card that need no key, such as
+ * the history of a transit card, in as few exchanges as possible.
+ *
+ * <p>Services are found with Search Service Code, one service or area per
+ * command, or checked with Request Service, 32 per command, when the
+ * codes are known. Read Without Encryption then packs up to 16 services and
+ * as many block list elements as fit the reader's maximum transceive
+ * length into each command: the 20 block history and the balance of a
+ * Suica take two reads instead of 21.
+ *
+ * <p>FeliCa cannot tell how many blocks a service has. Where the count is
+ * not given, a service is read until a block is refused, and the refused
+ * range is halved until the last block is found, a few commands more per
+ * service. Commands follow the Android {@code NfcF.transceive} format,
+ * with the length byte. Not thread safe.
+ */
+public class FelicaReader {
+
+    public static final int BLOCK_SIZE = 16;
+
+    /** The history of Suica, PASMO, ICOCA and other transit cards. */
+    public static final int SERVICE_TRANSIT_HISTORY = 0x090f;
+    /** The balance of transit cards. */
+    public static final int SERVICE_TRANSIT_BALANCE = 0x008b;
+
+    static final byte CMD_REQUEST_SERVICE = 0x02;
+    static final byte CMD_READ_WITHOUT_ENCRYPTION = 0x06;
+    static final byte CMD_SEARCH_SERVICE_CODE = 0x0a;
+
+    /** The most services a Read Without Encryption can name. */
+    static final int MAX_READ_SERVICES = 16;
+    /** The most codes a Request Service can check. */
+    static final int MAX_REQUEST_SERVICES = 32;
+    /** Blocks a two byte block list element can address. */
+    static final int MAX_BLOCKS = 256;
+
+    private static final int IDM_LENGTH = 8;
+    /** Length, response code and IDm. */
+    private static final int HEADER_LENGTH = 2 + IDM_LENGTH;
+    /** Header, status flags and block count of a Read Without Encryption response. */
+    private static final int READ_HEADER_LENGTH = HEADER_LENGTH + 3;
+    private static final int KEY_VERSION_NONE = 0xffff;
+    private static final int SEARCH_END = 0xffff;
+    /** Search Service Code indexes tried before giving up on the end marker. */
+    private static final int MAX_SEARCH_INDEX = 0x1000;
+    /** Status flag 2 when a card takes fewer blocks per command. */
+    private static final int STATUS_ILLEGAL_BLOCK_COUNT = 0xa2;
+    private static final int ELEMENT_TWO_BYTES = 0x80;
+
+    private final Transceiver mTag;
+    private final byte[] mIdm;
+    /** The most block list elements per Read Without Encryption. */
+    private int mMaxBlocks;
+    private int mExchanges;
+
+    /**
+     * @param idm the IDm, as {@code Tag.getId()} returns it for NfcF
+     */
+    public FelicaReader(Transceiver tag, byte[] idm) {
+        if (idm.length != IDM_LENGTH) {
+            throw new IllegalArgumentException("The IDm is 8 bytes, not " + idm.length);
+        }
+        mTag = tag;
+        mIdm = idm.clone();
+        mMaxBlocks = Math.max(1, (tag.getMaxTransceiveLength() - READ_HEADER_LENGTH)
+                / BLOCK_SIZE);
+    }
+
+    /** Returns the number of commands sent so far, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Whether a service can be read without a key, from its attribute bits. */
+    public static boolean isKeyless(int serviceCode) {
+        return (serviceCode & 0x01) != 0;
+    }
+
+    /**
+     * Returns the codes of all services of the card, areas left out, in
+     * the order the card lists them. Takes one command per service and
+     * area.
+     */
+    public int[] searchServiceCodes() throws IOException {
+        int[] codes = new int[16];
+        int count = 0;
+        for (int index = 0; index < MAX_SEARCH_INDEX; index++) {
+            byte[] command = command(CMD_SEARCH_SERVICE_CODE, 2);
+            command[HEADER_LENGTH] = (byte) index;
+            command[HEADER_LENGTH + 1] = (byte) (index >> 8);
+            byte[] response = exchange(command);
+            if (response == null || response.length < HEADER_LENGTH + 2) {
+                break;
+            }
+            int code = readLittleEndian(response, HEADER_LENGTH);
+            if (code == SEARCH_END) {
+                break;
+            }
+            if (response.length >= HEADER_LENGTH + 4) {
+                // An area: its code, then the last service code in it
+                continue;
+            }
+            if (count == codes.length) {
+                codes = Arrays.copyOf(codes, count * 2);
+            }
+            codes[count++] = code;
+        }
+        return Arrays.copyOf(codes, count);
+    }
+
+    /**
+     * Returns which of {@code codes} the card has, checking up to 32 per
+     * Request Service.
+     */
+    public boolean[] requestServices(int[] codes) throws IOException {
+        boolean[] exists = new boolean[codes.length];
+        for (int first = 0; first < codes.length; first += MAX_REQUEST_SERVICES) {
+            int n = Math.min(codes.length - first, MAX_REQUEST_SERVICES);
+            byte[] command = command(CMD_REQUEST_SERVICE, 1 + 2 * n);
+            command[HEADER_LENGTH] = (byte) n;
+            for (int i = 0; i < n; i++) {
+                writeLittleEndian(codes[first + i], command, HEADER_LENGTH + 1 + 2 * i);
+            }
+            byte[] response = exchange(command);
+            if (response == null || response.length < HEADER_LENGTH + 1 + 2 * n) {
+                throw new IOException("No answer to Request Service");
+            }
+            for (int i = 0; i < n; i++) {
+                exists[first + i] = readLittleEndian(response, HEADER_LENGTH + 1 + 2 * i)
+                        != KEY_VERSION_NONE;
+            }
+        }
+        return exists;
+    }
+
+    /** Finds the services that need no key with Search Service Code and reads them. */
+    public FelicaService[] readAll() throws IOException {
+        int[] codes = searchServiceCodes();
+        int count = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (isKeyless(codes[i])) {
+                codes[count++] = codes[i];
+            }
+        }
+        return readServices(Arrays.copyOf(codes, count), null);
+    }
+
+    /**
+     * Reads the blocks of {@code codes}, which have to be services that need
+     * no key, packing as many as the card takes into each Read Without
+     * Encryption.
+     *
+     * @param blockCounts the number of blocks of each service, or null or
+     *        0 to read the service until a block is refused
+     */
+    public FelicaService[] readServices(int[] codes, int[] blockCounts) throws IOException {
+        int n = codes.length;
+        int[] limits = new int[n];
+        byte[][] data = new byte[n][];
+        int[] read = new int[n];
+        for (int i = 0; i < n; i++) {
+            int count = blockCounts != null ? blockCounts[i] : 0;
+            limits[i] = count > 0 ? Math.min(count, MAX_BLOCKS) : -MAX_BLOCKS;
+            data[i] = new byte[(count > 0 ? limits[i] : 4) * BLOCK_SIZE];
+        }
+        int[] elementService = new int[mMaxBlocks];
+        int[] elementBlock = new int[mMaxBlocks];
+        int service = 0;
+        int attempt = mMaxBlocks;
+        // The elements of the last refused command, counted from where
+        // reading goes on, while searching for the block that was refused
+        int refused = 0;
+        while (service < n) {
+            if (read[service] >= Math.abs(limits[service])) {
+                service++;
+                continue;
+            }
+            // Pack elements from this service on. Past a service of unknown
+            // length nothing is packed, since its end would fail the command.
+            int elements = 0;
+            int services = 0;
+            for (int s = service; s < n && elements < attempt; s++) {
+                int end = Math.abs(limits[s]);
+                if (read[s] >= end) {
+                    continue;
+                }
+                if (services == MAX_READ_SERVICES) {
+                    break;
+                }
+                services++;
+                for (int b = read[s]; b < end && elements < attempt; b++) {
+                    elementService[elements] = s;
+                    elementBlock[elements++] = b;
+                }
+                if (limits[s] < 0) {
+                    break;
+                }
+            }
+            byte[] response = exchange(readCommand(codes, elementService, elementBlock,
+                    elements));
+            if (isReadOk(response, elements)) {
+                for (int e = 0; e < elements; e++) {
+                    int s = elementService[e];
+                    if (data[s].length < (read[s] + 1) * BLOCK_SIZE) {
+                        data[s] = Arrays.copyOf(data[s], data[s].length * 2);
+                    }
+                    System.arraycopy(response, READ_HEADER_LENGTH + e * BLOCK_SIZE, data[s],
+                            read[s] * BLOCK_SIZE, BLOCK_SIZE);
+                    read[s]++;
+                }
+                refused -= elements;
+                int last = elementService[elements - 1];
+                if (refused == 1 && limits[last] < 0) {
+                    // Only the refused block is left, the end of the service
+                    limits[last] = read[last];
+                }
+                if (refused > 1) {
+                    attempt = refused / 2;
+                } else {
+                    refused = 0;
+                    attempt = mMaxBlocks;
+                }
+            } else if (response != null && response.length > HEADER_LENGTH + 1
+                    && (response[HEADER_LENGTH + 1] & 0xff) == STATUS_ILLEGAL_BLOCK_COUNT
+                    && elements > 1) {
+                // The card takes fewer blocks per command than fit. Rounding
+                // up goes from 15 through 8 to 4, the limit of FeliCa Lite-S.
+                mMaxBlocks = (elements + 1) / 2;
+                attempt = mMaxBlocks;
+                refused = 0;
+            } else if (elements > 1) {
+                // Some block is past the end of its service, or refused:
+                // halve until the last block that reads is found
+                refused = elements;
+                attempt = elements / 2;
+            } else {
+                // The first element is the end of its service
+                limits[elementService[0]] = read[elementService[0]];
+                attempt = mMaxBlocks;
+                refused = 0;
+            }
+        }
+        FelicaService[] result = new FelicaService[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = new FelicaService(codes[i], data[i], read[i]);
+        }
+        return result;
+    }
+
+    /** Returns a Read Without Encryption of the given elements. */
+    private byte[] readCommand(int[] codes, int[] elementService, int[] elementBlock,
+            int elements) {
+        // The services in the order they first appear, with their index
+        int[] order = new int[MAX_READ_SERVICES];
+        int services = 0;
+        for (int e = 0; e < elements; e++) {
+            if (services == 0 || order[services - 1] != elementService[e]) {
+                order[services++] = elementService[e];
+            }
+        }
+        byte[] command = command(CMD_READ_WITHOUT_ENCRYPTION, 2 + 2 * services + 2 * elements);
+        int pos = HEADER_LENGTH;
+        command[pos++] = (byte) services;
+        for (int i = 0; i < services; i++) {
+            writeLittleEndian(codes[order[i]], command, pos);
+            pos += 2;
+        }
+        command[pos++] = (byte) elements;
+        int index = -1;
+        for (int e = 0; e < elements; e++) {
+            if (index < 0 || order[index] != elementService[e]) {
+                index++;
+            }
+            command[pos++] = (byte) (ELEMENT_TWO_BYTES | index);
+            command[pos++] = (byte) elementBlock[e];
+        }
+        return command;
+    }
+
+    private static boolean isReadOk(byte[] response, int elements) {
+        return response != null && response.length >= READ_HEADER_LENGTH + elements * BLOCK_SIZE
+                && response[HEADER_LENGTH] == 0 && response[HEADER_LENGTH + 1] == 0
+                && (response[HEADER_LENGTH + 2] & 0xff) == elements;
+    }
+
+    /** Returns a command with the length, code and IDm set and {@code parameters} bytes left. */
+    private byte[] command(byte code, int parameters) {
+        byte[] command = new byte[HEADER_LENGTH + parameters];
+        command[0] = (byte) command.length;
+        command[1] = code;
+        System.arraycopy(mIdm, 0, command, 2, IDM_LENGTH);
+        return command;
+    }
+
+    /** Returns null if the card did not answer or answered another card's IDm. */
+    private byte[] exchange(byte[] command) throws IOException {
+        mExchanges++;
+        byte[] response;
+        try {
+            response = mTag.transceive(command);
+        } catch (IOException e) {
+            // If the card is gone, reconnecting throws
+            mTag.reconnect();
+            return null;
+        }
+        if (response == null || response.length < HEADER_LENGTH
+                || (response[1] & 0xff) != command[1] + 1) {
+            return null;
+        }
+        for (int i = 0; i < IDM_LENGTH; i++) {
+            if (response[2 + i] != mIdm[i]) {
+                return null;
+            }
+        }
+        return response;
+    }
+
+    private static int readLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static void writeLittleEndian(int value, byte[] bytes, int offset) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+/**
+ * The blocks of one FeliCa service, as read by {@link FelicaReader}.
+ */
+public class FelicaService {
+
+    private final int mCode;
+    private final byte[] mData;
+    private final int mBlockCount;
+
+    FelicaService(int code, byte[] data, int blockCount) {
+        mCode = code;
+        mData = data;
+        mBlockCount = blockCount;
+    }
+
+    /** Returns the service code, e.g. 0x090f for the history of a transit card. */
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * Returns the blocks read, {@link FelicaReader#BLOCK_SIZE} bytes each.
+     * The array may be longer than the blocks read.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /** Returns the number of blocks read, 0 if the service could not be read. */
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+
+import se.anyro.nfc_reader.scan.TechMask;
+
+/**
+ * A {@link Transceiver} that records the latency, bytes and failures of
+ * every command of another one in {@link TransceiveStats}.
+ *
+ * <p>Commands are told apart by their command byte: the first byte for
+ * NfcA and MIFARE tags, the second one for ISO 15693 (after the flags),
+ * FeliCa (after the length) and APDUs (the INS byte).
+ */
+public class InstrumentedTransceiver implements Transceiver {
+
+    private final Transceiver mTag;
+    private final TransceiveStats mStats;
+    private final int mTech;
+    private final int mCommandOffset;
+    private final long mTimeoutNanos;
+
+    /**
+     * @param tech the {@link TechMask} bit to record under
+     * @param timeoutMillis the tag's timeout; failures taking this long
+     *        count as timeouts, 0 if unknown
+     */
+    public InstrumentedTransceiver(Transceiver tag, TransceiveStats stats, int tech,
+            int timeoutMillis) {
+        mTag = tag;
+        mStats = stats;
+        mTech = tech;
+        mCommandOffset = commandOffset(tech);
+        mTimeoutNanos = timeoutMillis * 1000000L;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        int code = command.length > mCommandOffset ? command[mCommandOffset] : 0;
+        long start = System.nanoTime();
+        byte[] response;
+        try {
+            response = mTag.transceive(command);
+        } catch (IOException e) {
+            long nanos = System.nanoTime() - start;
+            mStats.recordFailure(mTech, code, command.length, nanos, classify(e, nanos));
+            throw e;
+        }
+        mStats.recordTransceive(mTech, code, command.length,
+                response != null ? response.length : 0, System.nanoTime() - start);
+        return response;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mTag.getMaxTransceiveLength();
+    }
+
+    @Override
+    public void reconnect() throws IOException {
+        long start = System.nanoTime();
+        boolean connected = false;
+        try {
+            mTag.reconnect();
+            connected = true;
+        } finally {
+            mStats.recordConnect(mTech, System.nanoTime() - start, connected);
+        }
+    }
+
+    /**
+     * Returns the {@link TransceiveStats} failure kind of {@code e}. Failures
+     * that took the whole timeout are timeouts, others I/O errors; the
+     * Android layer overrides this to tell lost tags apart.
+     */
+    protected int classify(IOException e, long nanos) {
+        return mTimeoutNanos > 0 && nanos >= mTimeoutNanos
+                ? TransceiveStats.FAILURE_TIMEOUT : TransceiveStats.FAILURE_IO;
+    }
+
+    /** Returns the index of the command byte in commands of {@code tech}. */
+    static int commandOffset(int tech) {
+        return tech == TechMask.NFC_V || tech == TechMask.NFC_F || tech == TechMask.ISO_DEP
+                ? 1 : 0;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in log-linear buckets, as HdrHistogram does: 16 buckets
+ * per power of two microseconds, so a percentile is off by at most 6.25%,
+ * from 1 us to over 19 hours in a fixed 4 kB of counters.
+ *
+ * <p>Recording is lock-free, a few atomic increments, and safe from any
+ * number of threads. Reads while recording goes on see each counter
+ * up to date, not a consistent snapshot of all of them.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values of 2^36 us and more go in the last bucket. */
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /** Records one latency. Negative values count as 0. */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mCounts.incrementAndGet(bucket(micros));
+        mCount.incrementAndGet();
+        mTotalMicros.addAndGet(micros);
+        long max = mMaxMicros.get();
+        while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    /** Returns the mean in microseconds, 0 if nothing was recorded. */
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalMicros.get() / count;
+    }
+
+    /**
+     * Returns the latency in microseconds that {@code percentile} percent
+     * of the recorded ones are at or below, as the upper end of its bucket
+     * but no more than the maximum. 0 if nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mCounts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), mMaxMicros.get());
+            }
+        }
+        return mMaxMicros.get();
+    }
+
+    /** Clears the counters. Latencies recorded meanwhile may be lost. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalMicros.set(0);
+        mMaxMicros.set(0);
+    }
+
+    /**
+     * Values below 16 have a bucket each. Above, the exponent picks a row of
+     * 16 buckets and the 4 bits below the highest one the bucket in it.
+     */
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the largest value that goes in {@code bucket}. */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+/**
+ * The memory of a MIFARE Classic card as far as the key dictionary could
+ * open it, with the number of exchanges it took.
+ */
+public class MifareClassicDump {
+
+    public static final int BLOCK_SIZE = 16;
+
+    private final int[] mFirstBlocks;
+    private final int[] mBlockCounts;
+    private final byte[] mData;
+    private final boolean[] mRead;
+    private final byte[][] mKeys;
+    private final boolean[] mKeyB;
+
+    int mAuthentications;
+    int mFailedAuthentications;
+    int mReads;
+    int mFailedReads;
+
+    MifareClassicDump(int[] firstBlocks, int[] blockCounts) {
+        mFirstBlocks = firstBlocks;
+        mBlockCounts = blockCounts;
+        int sectors = firstBlocks.length;
+        int blocks = firstBlocks[sectors - 1] + blockCounts[sectors - 1];
+        mData = new byte[blocks * BLOCK_SIZE];
+        mRead = new boolean[blocks];
+        mKeys = new byte[sectors][];
+        mKeyB = new boolean[sectors];
+    }
+
+    public int getSectorCount() {
+        return mFirstBlocks.length;
+    }
+
+    public int getBlockCount() {
+        return mRead.length;
+    }
+
+    public int getFirstBlock(int sector) {
+        return mFirstBlocks[sector];
+    }
+
+    public int getBlockCountInSector(int sector) {
+        return mBlockCounts[sector];
+    }
+
+    /** Returns the key that opened {@code sector}, or null if none did. */
+    public byte[] getKey(int sector) {
+        return mKeys[sector];
+    }
+
+    /** Returns true if {@link #getKey} is key B of the sector. */
+    public boolean isKeyB(int sector) {
+        return mKeyB[sector];
+    }
+
+    public boolean isBlockRead(int block) {
+        return mRead[block];
+    }
+
+    /** Returns the number of sectors opened by a key. */
+    public int getOpenedSectorCount() {
+        int opened = 0;
+        for (byte[] key : mKeys) {
+            if (key != null) {
+                opened++;
+            }
+        }
+        return opened;
+    }
+
+    /** Returns the number of blocks read. */
+    public int getReadBlockCount() {
+        int read = 0;
+        for (boolean r : mRead) {
+            if (r) {
+                read++;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Returns the memory, {@link #BLOCK_SIZE} bytes per block. Blocks that
+     * could not be read are zero.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /** Returns the number of authentication exchanges, failed ones included. */
+    public int getAuthentications() {
+        return mAuthentications;
+    }
+
+    public int getFailedAuthentications() {
+        return mFailedAuthentications;
+    }
+
+    /** Returns the number of read exchanges, failed ones included. */
+    public int getReads() {
+        return mReads;
+    }
+
+    public int getFailedReads() {
+        return mFailedReads;
+    }
+
+    void setKey(int sector, byte[] key, boolean keyB) {
+        mKeys[sector] = key;
+        mKeyB[sector] = keyB;
+    }
+
+    void setBlock(int block, byte[] data) {
+        System.arraycopy(data, 0, mData, block * BLOCK_SIZE, Math.min(data.length, BLOCK_SIZE));
+        mRead[block] = true;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Dumps MIFARE Classic cards by authenticating each sector with the keys
+ * of a dictionary and reading its blocks.
+ *
+ * <p>Authentication is where the time goes: every wrong key is an
+ * exchange, and the card has to be woken up again after it. So for each
+ * sector the keys are tried in this order:
+ * <ol>
+ * <li>the key that opened the sector when the card was last dumped, from
+ * the {@link MifareKeyCache}; sectors no key opened are skipped
+ * <li>the key that opened the previous sector, since cards often use one
+ * key throughout
+ * <li>the remaining keys, A before B, the keys that opened most sectors so
+ * far first
+ * </ol>
+ *
+ * <p>Reading takes one exchange per block, which is all the card offers.
+ * The sector trailer is read first and its access bits decide which data
+ * blocks the key may read, so reads that would be refused, and the new
+ * authentication a refusal costs, are skipped.
+ *
+ * <p>Not thread safe.
+ */
+public class MifareClassicDumper {
+
+    /** Transport, MAD and NDEF keys and others found on many cards. */
+    public static final byte[][] DEFAULT_KEYS = {
+        key(0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+        key(0xa0, 0xa1, 0xa2, 0xa3, 0xa4, 0xa5),
+        key(0xd3, 0xf7, 0xd3, 0xf7, 0xd3, 0xf7),
+        key(0x00, 0x00, 0x00, 0x00, 0x00, 0x00),
+        key(0xb0, 0xb1, 0xb2, 0xb3, 0xb4, 0xb5),
+        key(0x4d, 0x3a, 0x99, 0xc3, 0x51, 0xdd),
+        key(0x1a, 0x98, 0x2c, 0x7e, 0x45, 0x9a),
+        key(0xaa, 0xbb, 0xcc, 0xdd, 0xee, 0xff),
+        key(0x71, 0x4c, 0x5c, 0x88, 0x6e, 0x97),
+        key(0x58, 0x7e, 0xe5, 0xf9, 0x35, 0x0f),
+        key(0xa0, 0x47, 0x8c, 0xc3, 0x90, 0x91),
+        key(0x53, 0x3c, 0xb6, 0xc7, 0x23, 0xf6),
+        key(0x8f, 0xd0, 0xa4, 0xf2, 0x56, 0xe9)
+    };
+
+    private final byte[][] mKeys;
+    private final MifareKeyCache mCache;
+
+    /** Sectors opened per key, indexed like the key cache entries. */
+    private final int[] mOpened;
+    private final boolean[] mTried;
+
+    /**
+     * @param keys the 6 byte keys to try, each as key A and as key B
+     * @param cache remembers the keys per card, shared by dumpers with the
+     *        same keys
+     */
+    public MifareClassicDumper(byte[][] keys, MifareKeyCache cache) {
+        mKeys = keys;
+        mCache = cache;
+        mOpened = new int[keys.length * 2];
+        mTried = new boolean[keys.length * 2];
+    }
+
+    /**
+     * Reads whatever the keys open. Throws if the card is lost; wrong keys
+     * and refused reads only leave gaps in the dump.
+     */
+    public MifareClassicDump dump(byte[] uid, MifareClassicIo io) throws IOException {
+        int sectors = io.getSectorCount();
+        int[] firstBlocks = new int[sectors];
+        int[] blockCounts = new int[sectors];
+        for (int sector = 0; sector < sectors; sector++) {
+            firstBlocks[sector] = io.sectorToBlock(sector);
+            blockCounts[sector] = io.getBlockCountInSector(sector);
+        }
+        MifareClassicDump dump = new MifareClassicDump(firstBlocks, blockCounts);
+        int[] order = keyOrder();
+        int previous = MifareKeyCache.UNKNOWN;
+        for (int sector = 0; sector < sectors; sector++) {
+            int key = authenticate(uid, io, dump, sector, order, previous);
+            if (key >= 0) {
+                dump.setKey(sector, mKeys[key >> 1], (key & 1) != 0);
+                readSector(io, dump, sector, key);
+                previous = key;
+            }
+        }
+        return dump;
+    }
+
+    /** Returns the key that opened the sector, or {@link MifareKeyCache#NO_KEY}. */
+    private int authenticate(byte[] uid, MifareClassicIo io, MifareClassicDump dump,
+            int sector, int[] order, int previous) throws IOException {
+        int cached = mCache.get(uid, sector);
+        if (cached == MifareKeyCache.NO_KEY) {
+            return cached;
+        }
+        Arrays.fill(mTried, false);
+        if (cached >= 0 && cached < mTried.length && tryKey(io, dump, sector, cached)) {
+            return cached;
+        }
+        if (previous >= 0 && !mTried[previous] && tryKey(io, dump, sector, previous)) {
+            mCache.put(uid, sector, previous);
+            return previous;
+        }
+        for (int key : order) {
+            if (!mTried[key] && tryKey(io, dump, sector, key)) {
+                mCache.put(uid, sector, key);
+                return key;
+            }
+        }
+        mCache.put(uid, sector, MifareKeyCache.NO_KEY);
+        return MifareKeyCache.NO_KEY;
+    }
+
+    private boolean tryKey(MifareClassicIo io, MifareClassicDump dump, int sector, int key)
+            throws IOException {
+        mTried[key] = true;
+        if (!authenticate(io, dump, sector, key)) {
+            return false;
+        }
+        mOpened[key]++;
+        return true;
+    }
+
+    private boolean authenticate(MifareClassicIo io, MifareClassicDump dump, int sector,
+            int key) throws IOException {
+        dump.mAuthentications++;
+        boolean ok = (key & 1) == 0
+                ? io.authenticateSectorWithKeyA(sector, mKeys[key >> 1])
+                : io.authenticateSectorWithKeyB(sector, mKeys[key >> 1]);
+        if (!ok) {
+            dump.mFailedAuthentications++;
+        }
+        return ok;
+    }
+
+    private void readSector(MifareClassicIo io, MifareClassicDump dump, int sector, int key)
+            throws IOException {
+        int first = dump.getFirstBlock(sector);
+        int count = dump.getBlockCountInSector(sector);
+        boolean keyB = (key & 1) != 0;
+        byte[] trailer = read(io, dump, first + count - 1);
+        if (trailer == null && !authenticate(io, dump, sector, key)) {
+            return;
+        }
+        for (int i = 0; i < count - 1; i++) {
+            if (trailer != null && !canRead(trailer, count, i, keyB)) {
+                continue;
+            }
+            if (read(io, dump, first + i) == null && !authenticate(io, dump, sector, key)) {
+                return;
+            }
+        }
+    }
+
+    /** Returns null if the card refused the read. */
+    private static byte[] read(MifareClassicIo io, MifareClassicDump dump, int block)
+            throws IOException {
+        dump.mReads++;
+        byte[] data;
+        try {
+            data = io.readBlock(block);
+        } catch (IOException e) {
+            // A refusal, or the card is gone and the authentication after
+            // it will throw too
+            dump.mFailedReads++;
+            return null;
+        }
+        dump.setBlock(block, data);
+        return data;
+    }
+
+    /**
+     * Returns true if the access bits in {@code trailer} let the key read
+     * data block {@code index} of the sector. Also true if the access bits
+     * are corrupt, then the card decides.
+     */
+    static boolean canRead(byte[] trailer, int blocksInSector, int index, boolean keyB) {
+        int b6 = trailer[6] & 0xff;
+        int b7 = trailer[7] & 0xff;
+        int b8 = trailer[8] & 0xff;
+        int c1 = b7 >>> 4;
+        int c2 = b8 & 0x0f;
+        int c3 = b8 >>> 4;
+        if ((~b6 & 0x0f) != c1 || (~b6 >>> 4 & 0x0f) != c2 || (~b7 & 0x0f) != c3) {
+            return true;
+        }
+        // Sectors of 16 blocks have access bits per 5 blocks
+        int group = blocksInSector == 4 ? index : index / 5;
+        int access = accessBits(c1, c2, c3, group);
+        if (access == 7) {
+            return false;
+        }
+        if (keyB) {
+            // Where key B can be read it is data, not a key
+            int trailerAccess = accessBits(c1, c2, c3, 3);
+            return trailerAccess != 0 && trailerAccess != 1 && trailerAccess != 2;
+        }
+        return access != 3 && access != 5;
+    }
+
+    /** Returns C1 C2 C3 of {@code group} as a number, C1 most significant. */
+    private static int accessBits(int c1, int c2, int c3, int group) {
+        return (c1 >> group & 1) << 2 | (c2 >> group & 1) << 1 | (c3 >> group & 1);
+    }
+
+    /** Returns the keys in the order to try them, see the class comment. */
+    private int[] keyOrder() {
+        int[] order = new int[mOpened.length];
+        for (int i = 0; i < order.length; i++) {
+            // All A keys, then all B keys
+            order[i] = i < mKeys.length ? i << 1 : (i - mKeys.length) << 1 | 1;
+        }
+        // Stable insertion sort on the opened count, within A and within B
+        for (int half = 0; half < 2; half++) {
+            int from = half * mKeys.length;
+            int to = from + mKeys.length;
+            for (int i = from + 1; i < to; i++) {
+                int key = order[i];
+                int j = i - 1;
+                while (j >= from && mOpened[order[j]] < mOpened[key]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = key;
+            }
+        }
+        return order;
+    }
+
+    private static byte[] key(int... bytes) {
+        byte[] key = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            key[i] = (byte) bytes[i];
+        }
+        return key;
+    }
+}
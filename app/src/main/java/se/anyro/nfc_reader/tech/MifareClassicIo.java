@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+
+/**
+ * The MIFARE Classic operations {@link MifareClassicDumper} needs, as
+ * offered by {@link android.nfc.tech.MifareClassic}. Each authenticate and
+ * read call is one exchange with the card. Implemented over the Android
+ * class on a device and by a simulated card on a JVM.
+ */
+public interface MifareClassicIo {
+
+    public int getSectorCount();
+
+    public int getBlockCountInSector(int sector);
+
+    /** Returns the number of the first block of {@code sector}. */
+    public int sectorToBlock(int sector);
+
+    /** Returns false if the key is wrong, the card then needs a new authentication. */
+    public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException;
+
+    /** Returns false if the key is wrong, the card then needs a new authentication. */
+    public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException;
+
+    /**
+     * Returns the 16 bytes of {@code block}, which must be in the sector
+     * authenticated last. Throws if access is denied, the card then needs a
+     * new authentication.
+     */
+    public byte[] readBlock(int block) throws IOException;
+}
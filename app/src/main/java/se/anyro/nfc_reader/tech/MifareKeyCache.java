@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import se.anyro.nfc_reader.util.UidCodec;
+
+/**
+ * Remembers which dictionary key opened each sector of the most recently
+ * dumped cards, so dumping a known card again authenticates each sector at
+ * the first attempt.
+ *
+ * <p>A key is stored as its index in the dictionary times two, plus one
+ * for key B, see {@link MifareClassicDumper}. Sectors that no key opened
+ * are remembered too, so they are not tried again.
+ */
+public class MifareKeyCache {
+
+    /** No key has been tried on the sector yet. */
+    public static final int UNKNOWN = -1;
+    /** No key of the dictionary opens the sector. */
+    public static final int NO_KEY = -2;
+
+    /** MIFARE Classic 4K has the most sectors. */
+    static final int MAX_SECTORS = 40;
+
+    private final LinkedHashMap<String, short[]> mCards;
+
+    /** @param capacity cards remembered, the least recently dumped is forgotten */
+    public MifareKeyCache(final int capacity) {
+        mCards = new LinkedHashMap<String, short[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, short[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the key that opened {@code sector} of the card, {@link #NO_KEY}
+     * or {@link #UNKNOWN}.
+     */
+    public synchronized int get(byte[] uid, int sector) {
+        short[] sectors = mCards.get(UidCodec.toHex(uid, 0));
+        return sectors != null ? sectors[sector] : UNKNOWN;
+    }
+
+    /** Remembers the key that opened {@code sector} of the card, or {@link #NO_KEY}. */
+    public synchronized void put(byte[] uid, int sector, int key) {
+        String id = UidCodec.toHex(uid, 0);
+        short[] sectors = mCards.get(id);
+        if (sectors == null) {
+            sectors = new short[MAX_SECTORS];
+            for (int i = 0; i < sectors.length; i++) {
+                sectors[i] = UNKNOWN;
+            }
+            mCards.put(id, sectors);
+        }
+        sectors[sector] = (short) key;
+    }
+
+    /** Returns the number of cards remembered. */
+    public synchronized int size() {
+        return mCards.size();
+    }
+
+    public synchronized void clear() {
+        mCards.clear();
+    }
+}
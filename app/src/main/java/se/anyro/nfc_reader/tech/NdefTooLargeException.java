@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an NDEF message does not fit on a tag, before anything is
+ * written to it.
+ */
+public class NdefTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int mSize;
+    private final int mMaxSize;
+
+    public NdefTooLargeException(int size, int maxSize) {
+        super("NDEF message of " + size + " bytes does not fit in " + maxSize);
+        mSize = size;
+        mMaxSize = maxSize;
+    }
+
+    /** Returns the size of the message, in bytes. */
+    public int getSize() {
+        return mSize;
+    }
+
+    /** Returns the largest message the tag holds, in bytes. */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+}
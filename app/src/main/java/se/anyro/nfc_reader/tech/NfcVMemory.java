@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+/**
+ * The user memory of an ISO 15693 tag, as read by {@link NfcVReader}.
+ */
+public class NfcVMemory {
+
+    private final String mManufacturer;
+    private final int mIcReference;
+    private final int mBlockSize;
+    private final byte[] mData;
+    private final int mBlockCount;
+    private final int mExchanges;
+
+    NfcVMemory(String manufacturer, int icReference, int blockSize, byte[] data,
+            int blockCount, int exchanges) {
+        mManufacturer = manufacturer;
+        mIcReference = icReference;
+        mBlockSize = blockSize;
+        mData = data;
+        mBlockCount = blockCount;
+        mExchanges = exchanges;
+    }
+
+    /** Returns the manufacturer from the UID, e.g. "NXP". */
+    public String getManufacturer() {
+        return mManufacturer;
+    }
+
+    /** Returns the IC reference from GET SYSTEM INFORMATION, or -1 if not given. */
+    public int getIcReference() {
+        return mIcReference;
+    }
+
+    /** Returns the number of bytes per block. */
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * Returns the blocks read, {@link #getBlockSize()} bytes each. May be
+     * shorter than the memory if part of it is read protected.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /** Returns the number of blocks read. */
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    /** Returns the number of commands sent to the tag, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the user memory of ISO 15693 tags (ICODE SLIX, Tag-it, ST LRI) in
+ * as few exchanges as possible.
+ *
+ * <p>GET SYSTEM INFORMATION gives the block size and count. The blocks are
+ * then read with READ MULTIPLE BLOCKS, as many per command as fit the
+ * reader's maximum transceive length: a whole ICODE SLIX takes one
+ * command instead of 28 READ SINGLE BLOCKs. A tag that refuses a batch
+ * gets half as many blocks per command, down to READ SINGLE BLOCK, which
+ * is also used if it does not know READ MULTIPLE BLOCKS at all.
+ *
+ * <p>All commands are addressed, with the UID, so other tags in the field
+ * keep quiet. Tags with more than 256 blocks, which need the protocol
+ * extension flag, are read up to block 255. Not thread safe.
+ */
+public class NfcVReader {
+
+    static final byte FLAG_HIGH_DATA_RATE = 0x02;
+    static final byte FLAG_ADDRESSED = 0x20;
+    static final byte CMD_READ_SINGLE_BLOCK = 0x20;
+    static final byte CMD_READ_MULTIPLE_BLOCKS = 0x23;
+    static final byte CMD_GET_SYSTEM_INFO = 0x2b;
+
+    /** The most blocks a READ MULTIPLE BLOCKS and a block number address. */
+    static final int MAX_BLOCKS = 256;
+
+    private static final int UID_LENGTH = 8;
+    private static final int RESPONSE_FLAG_ERROR = 0x01;
+    private static final int ERROR_NOT_SUPPORTED = 0x01;
+    private static final int ERROR_NOT_RECOGNIZED = 0x02;
+    private static final int INFO_DSFID = 0x01;
+    private static final int INFO_AFI = 0x02;
+    private static final int INFO_MEMORY_SIZE = 0x04;
+    private static final int INFO_IC_REFERENCE = 0x08;
+
+    private final Transceiver mTag;
+    private final byte[] mUid;
+    private boolean mSystemInfoRead;
+    private int mBlockSize;
+    private int mBlockCount;
+    private int mIcReference = -1;
+    /** The most blocks per READ MULTIPLE BLOCKS, 1 for READ SINGLE BLOCK. */
+    private int mBatch;
+    private int mExchanges;
+
+    /**
+     * @param uid the UID as {@code Tag.getId()} returns it, least
+     *        significant byte first, as the commands take it
+     */
+    public NfcVReader(Transceiver tag, byte[] uid) {
+        if (uid.length != UID_LENGTH) {
+            throw new IllegalArgumentException("ISO 15693 UIDs are 8 bytes, not " + uid.length);
+        }
+        mTag = tag;
+        mUid = uid.clone();
+    }
+
+    /**
+     * Asks the tag for its block size and count, the first time only.
+     * Returns false if the tag does not tell them.
+     */
+    public boolean readSystemInfo() throws IOException {
+        if (!mSystemInfoRead) {
+            mSystemInfoRead = true;
+            parseSystemInfo(exchange(command(CMD_GET_SYSTEM_INFO, 0)));
+            if (mBlockSize > 0) {
+                setBatch();
+            }
+        }
+        return mBlockSize > 0;
+    }
+
+    /** Returns the block size from GET SYSTEM INFORMATION, or 0 if unknown. */
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /** Returns the block count from GET SYSTEM INFORMATION, or 0 if unknown. */
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    /** Returns the number of commands sent so far, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Reads the whole user memory, see the class comment. */
+    public NfcVMemory readAll() throws IOException {
+        int count;
+        int read;
+        byte[] data;
+        if (readSystemInfo()) {
+            count = Math.min(mBlockCount, MAX_BLOCKS);
+            data = new byte[count * mBlockSize];
+            read = readBlocks(0, count, data, 0);
+        } else {
+            // Learn the block size from the first block, then read until refused
+            byte[] first = exchange(command(CMD_READ_SINGLE_BLOCK, 1));
+            if (!isOk(first) || first.length < 2) {
+                return new NfcVMemory(manufacturer(mUid), mIcReference, 0, new byte[0], 0,
+                        mExchanges);
+            }
+            mBlockSize = first.length - 1;
+            mBatch = 1;
+            count = MAX_BLOCKS;
+            data = new byte[count * mBlockSize];
+            System.arraycopy(first, 1, data, 0, mBlockSize);
+            read = 1 + readBlocks(1, count - 1, data, mBlockSize);
+        }
+        if (read < count) {
+            data = Arrays.copyOf(data, read * mBlockSize);
+        }
+        return new NfcVMemory(manufacturer(mUid), mIcReference, mBlockSize, data, read,
+                mExchanges);
+    }
+
+    /**
+     * Reads {@code count} blocks from block {@code first} into {@code dst}.
+     * Returns the number of blocks read, fewer than {@code count} if the tag
+     * refused a block, e.g. because it is read protected. Throws if the tag
+     * is lost.
+     */
+    public int readBlocks(int first, int count, byte[] dst, int dstOffset) throws IOException {
+        if (!readSystemInfo() && mBlockSize == 0) {
+            throw new IOException("Block size unknown");
+        }
+        int read = 0;
+        while (read < count) {
+            int block = first + read;
+            int blocks = Math.min(count - read, mBatch);
+            byte[] response;
+            if (blocks > 1) {
+                byte[] command = command(CMD_READ_MULTIPLE_BLOCKS, 2);
+                command[command.length - 2] = (byte) block;
+                command[command.length - 1] = (byte) (blocks - 1);
+                response = exchange(command);
+                if (!isOk(response) || response.length < 1 + blocks * mBlockSize) {
+                    // Many tags take fewer blocks per command than they have
+                    mBatch = isUnsupported(response) ? 1 : blocks / 2;
+                    continue;
+                }
+            } else {
+                byte[] command = command(CMD_READ_SINGLE_BLOCK, 1);
+                command[command.length - 1] = (byte) block;
+                response = exchange(command);
+                if (!isOk(response) || response.length < 1 + mBlockSize) {
+                    return read;
+                }
+            }
+            System.arraycopy(response, 1, dst, dstOffset + read * mBlockSize,
+                    blocks * mBlockSize);
+            read += blocks;
+        }
+        return read;
+    }
+
+    private void parseSystemInfo(byte[] response) {
+        if (!isOk(response) || response.length < 2 + UID_LENGTH) {
+            return;
+        }
+        int info = response[1];
+        int pos = 2 + UID_LENGTH;
+        if ((info & INFO_DSFID) != 0) {
+            pos++;
+        }
+        if ((info & INFO_AFI) != 0) {
+            pos++;
+        }
+        if ((info & INFO_MEMORY_SIZE) != 0) {
+            if (response.length < pos + 2) {
+                return;
+            }
+            mBlockCount = (response[pos] & 0xff) + 1;
+            mBlockSize = (response[pos + 1] & 0x1f) + 1;
+            pos += 2;
+        }
+        if ((info & INFO_IC_REFERENCE) != 0 && response.length > pos) {
+            mIcReference = response[pos] & 0xff;
+        }
+    }
+
+    /** Fills the batch size with as many blocks as one response can hold. */
+    private void setBatch() {
+        int blocks = (mTag.getMaxTransceiveLength() - 1) / mBlockSize;
+        mBatch = Math.max(1, Math.min(blocks, MAX_BLOCKS));
+    }
+
+    /** Returns an addressed command with {@code parameters} bytes left at the end. */
+    private byte[] command(byte code, int parameters) {
+        byte[] command = new byte[2 + UID_LENGTH + parameters];
+        command[0] = FLAG_HIGH_DATA_RATE | FLAG_ADDRESSED;
+        command[1] = code;
+        System.arraycopy(mUid, 0, command, 2, UID_LENGTH);
+        return command;
+    }
+
+    /** Returns null if the tag did not answer. */
+    private byte[] exchange(byte[] command) throws IOException {
+        mExchanges++;
+        try {
+            return mTag.transceive(command);
+        } catch (IOException e) {
+            // Tags do not answer commands they do not know. If it is gone,
+            // reconnecting throws.
+            mTag.reconnect();
+            return null;
+        }
+    }
+
+    private static boolean isOk(byte[] response) {
+        return response != null && response.length > 0
+                && (response[0] & RESPONSE_FLAG_ERROR) == 0;
+    }
+
+    /** Whether the tag said it does not know the command, or did not answer. */
+    private static boolean isUnsupported(byte[] response) {
+        if (response == null) {
+            return true;
+        }
+        if (response.length < 2 || (response[0] & RESPONSE_FLAG_ERROR) == 0) {
+            return false;
+        }
+        int error = response[1] & 0xff;
+        return error == ERROR_NOT_SUPPORTED || error == ERROR_NOT_RECOGNIZED;
+    }
+
+    /** Returns the manufacturer from the second most significant UID byte. */
+    static String manufacturer(byte[] uid) {
+        int code = uid[6] & 0xff;
+        switch (code) {
+            case 0x02:
+                return "STMicroelectronics";
+            case 0x04:
+                return "NXP";
+            case 0x07:
+                return "Texas Instruments";
+            case 0x16:
+                return "EM Microelectronic";
+            default:
+                return String.format("ISO 15693 manufacturer %02x", code);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import se.anyro.nfc_reader.scan.TechMask;
+
+/**
+ * Latency histograms and counters of tag I/O, per technology and per
+ * command byte, with connect and close timed as well.
+ *
+ * <p>Recording is lock-free: histograms are created on first use with a
+ * compare-and-set and the counters are atomic, so the scan thread never
+ * waits for the diagnostics screen reading them.
+ */
+public class TransceiveStats {
+
+    /** Failure kinds for {@link #recordFailure}. */
+    public static final int FAILURE_IO = 0;
+    public static final int FAILURE_TIMEOUT = 1;
+    public static final int FAILURE_TAG_LOST = 2;
+
+    /** TechMask has a bit per technology, 10 of them. */
+    private static final int TECHS = 10;
+    private static final int COMMANDS = 256;
+    private static final int CONNECT = COMMANDS;
+    private static final int CLOSE = COMMANDS + 1;
+    private static final int SLOTS = COMMANDS + 2;
+
+    // Counters per tech, in a row of COUNTERS
+    private static final int BYTES_OUT = 0;
+    private static final int BYTES_IN = 1;
+    private static final int TIMEOUTS = 2;
+    private static final int TAGS_LOST = 3;
+    private static final int IO_ERRORS = 4;
+    private static final int CONNECT_FAILURES = 5;
+    private static final int COUNTERS = 6;
+
+    private final AtomicReferenceArray<LatencyHistogram> mHistograms =
+            new AtomicReferenceArray<LatencyHistogram>(TECHS * SLOTS);
+    private final AtomicLongArray mCounters = new AtomicLongArray(TECHS * COUNTERS);
+
+    /**
+     * Records a command answered after {@code nanos}.
+     *
+     * @param tech a single {@link TechMask} bit
+     * @param command the command byte, see {@link InstrumentedTransceiver}
+     */
+    public void recordTransceive(int tech, int command, int bytesOut, int bytesIn,
+            long nanos) {
+        int index = index(tech);
+        histogram(index, command & 0xff).recordNanos(nanos);
+        mCounters.addAndGet(index * COUNTERS + BYTES_OUT, bytesOut);
+        mCounters.addAndGet(index * COUNTERS + BYTES_IN, bytesIn);
+    }
+
+    /**
+     * Records a command that failed after {@code nanos}. The time goes in
+     * the command's histogram too, since a timeout is time spent.
+     *
+     * @param failure {@link #FAILURE_IO}, {@link #FAILURE_TIMEOUT} or
+     *        {@link #FAILURE_TAG_LOST}
+     */
+    public void recordFailure(int tech, int command, int bytesOut, long nanos, int failure) {
+        int index = index(tech);
+        histogram(index, command & 0xff).recordNanos(nanos);
+        mCounters.addAndGet(index * COUNTERS + BYTES_OUT, bytesOut);
+        int counter = failure == FAILURE_TIMEOUT ? TIMEOUTS
+                : failure == FAILURE_TAG_LOST ? TAGS_LOST : IO_ERRORS;
+        mCounters.incrementAndGet(index * COUNTERS + counter);
+    }
+
+    /** Records a connect, or a reconnect, that took {@code nanos}. */
+    public void recordConnect(int tech, long nanos, boolean connected) {
+        int index = index(tech);
+        histogram(index, CONNECT).recordNanos(nanos);
+        if (!connected) {
+            mCounters.incrementAndGet(index * COUNTERS + CONNECT_FAILURES);
+        }
+    }
+
+    public void recordClose(int tech, long nanos) {
+        histogram(index(tech), CLOSE).recordNanos(nanos);
+    }
+
+    /** Clears all histograms and counters. */
+    public void reset() {
+        for (int i = 0; i < mHistograms.length(); i++) {
+            LatencyHistogram histogram = mHistograms.get(i);
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Writes a report of every technology and command seen so far: counts,
+     * mean, 50th, 90th and 99th percentile and maximum in milliseconds,
+     * bytes and failures.
+     */
+    public void dump(Appendable out) throws IOException {
+        boolean empty = true;
+        for (int index = 0; index < TECHS; index++) {
+            int row = index * COUNTERS;
+            StringBuilder sb = new StringBuilder();
+            for (int slot = 0; slot < SLOTS; slot++) {
+                LatencyHistogram histogram = mHistograms.get(index * SLOTS + slot);
+                if (histogram == null || histogram.getCount() == 0) {
+                    continue;
+                }
+                String name = slot == CONNECT ? "connect" : slot == CLOSE ? "close"
+                        : String.format("cmd %02x", slot);
+                sb.append(String.format("  %-8s n=%d mean=%s p50=%s p90=%s p99=%s max=%s\n",
+                        name, histogram.getCount(), millis(histogram.getMeanMicros()),
+                        millis(histogram.getPercentileMicros(50)),
+                        millis(histogram.getPercentileMicros(90)),
+                        millis(histogram.getPercentileMicros(99)),
+                        millis(histogram.getMaxMicros())));
+            }
+            if (sb.length() == 0) {
+                continue;
+            }
+            empty = false;
+            out.append(TechMask.toString(1 << index)).append(": ")
+                    .append(mCounters.get(row + BYTES_OUT) + " bytes out, ")
+                    .append(mCounters.get(row + BYTES_IN) + " bytes in, ")
+                    .append(mCounters.get(row + TIMEOUTS) + " timeouts, ")
+                    .append(mCounters.get(row + TAGS_LOST) + " tags lost, ")
+                    .append(mCounters.get(row + IO_ERRORS) + " other errors, ")
+                    .append(mCounters.get(row + CONNECT_FAILURES) + " failed connects\n")
+                    .append(sb);
+        }
+        if (empty) {
+            out.append("No tag I/O yet\n");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            dump(sb);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    private LatencyHistogram histogram(int index, int slot) {
+        int i = index * SLOTS + slot;
+        LatencyHistogram histogram = mHistograms.get(i);
+        if (histogram == null) {
+            mHistograms.compareAndSet(i, null, new LatencyHistogram());
+            histogram = mHistograms.get(i);
+        }
+        return histogram;
+    }
+
+    private static int index(int tech) {
+        int index = Integer.numberOfTrailingZeros(tech);
+        if (index >= TECHS || tech != 1 << index) {
+            throw new IllegalArgumentException("Not a single tech bit: " + tech);
+        }
+        return index;
+    }
+
+    private static String millis(long micros) {
+        return String.format("%d.%02d", micros / 1000, micros % 1000 / 10);
+    }
+}
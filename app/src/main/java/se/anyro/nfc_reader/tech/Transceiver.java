@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+
+/**
+ * Sends raw commands to a connected tag, as the {@code transceive} method
+ * of the Android tag technologies does. Implemented over them on a device
+ * and by simulated tags on a JVM.
+ */
+public interface Transceiver {
+
+    /**
+     * Sends {@code command} and returns the response, without CRC. Throws
+     * if the tag does not answer or answers with a NAK.
+     */
+    public byte[] transceive(byte[] command) throws IOException;
+
+    /** Returns the longest command or response {@link #transceive} handles. */
+    public int getMaxTransceiveLength();
+
+    /**
+     * Wakes the tag up again after a command it does not support, which
+     * leaves many tags halted.
+     */
+    public void reconnect() throws IOException;
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+/**
+ * The memory of an NFC Forum Type 2 tag, as read by {@link Type2Reader}.
+ */
+public class Type2Memory {
+
+    private final String mChip;
+    private final byte[] mVersion;
+    private final byte[] mData;
+    private final int mPageCount;
+    private final int mExchanges;
+
+    Type2Memory(String chip, byte[] version, byte[] data, int pageCount, int exchanges) {
+        mChip = chip;
+        mVersion = version;
+        mData = data;
+        mPageCount = pageCount;
+        mExchanges = exchanges;
+    }
+
+    /** Returns the chip name, e.g. "NTAG216" or "MIFARE Ultralight". */
+    public String getChip() {
+        return mChip;
+    }
+
+    /** Returns the GET_VERSION response, or null if the tag does not support it. */
+    public byte[] getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns the pages read, {@link Type2Reader#PAGE_SIZE} bytes each. May
+     * be shorter than the memory if part of it is password protected.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /** Returns the number of pages read. */
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    /** Returns the number of commands sent to the tag, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+
+/**
+ * Reads the NDEF message of an NFC Forum Type 2 tag, reading only the
+ * pages up to the end of the message rather than the whole data area.
+ *
+ * <p>The first READ of page 3 returns the Capability Container and the
+ * first 12 bytes of the data area. The TLV chain is walked from there,
+ * skipping Lock Control, Memory Control and proprietary TLVs without
+ * reading their values, and the pages the NDEF TLV covers are read in one
+ * {@link Type2Reader#readPages} call. A short URL on an NTAG216 takes two
+ * READs.
+ *
+ * <p>Reserved areas announced by Memory Control TLVs are not skipped
+ * inside the NDEF message; NTAG and Ultralight tags have none there.
+ */
+public class Type2NdefReader {
+
+    static final int TLV_NULL = 0x00;
+    static final int TLV_LOCK_CONTROL = 0x01;
+    static final int TLV_MEMORY_CONTROL = 0x02;
+    static final int TLV_NDEF = 0x03;
+    static final int TLV_PROPRIETARY = 0xfd;
+    static final int TLV_TERMINATOR = 0xfe;
+
+    private static final int CC_PAGE = 3;
+    private static final int CC_MAGIC = 0xe1;
+    /** The data area starts on page 4. */
+    private static final int DATA_OFFSET = 16;
+
+    private final Type2Reader mReader;
+    private byte[] mMemory;
+    /** Bytes of mMemory read, from the start of the tag. */
+    private int mLoaded;
+
+    public Type2NdefReader(Type2Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Returns the NDEF message, between the position and the limit of a
+     * buffer over the bytes read, or null if the tag is not formatted for
+     * NDEF. An empty NDEF TLV gives an empty buffer.
+     *
+     * @throws NdefFormatException if the Capability Container or the TLVs
+     *         are corrupt
+     */
+    public ByteBuffer read() throws IOException, NdefFormatException {
+        // READ returns 4 pages, so reading from page 3 costs nothing extra
+        byte[] head = new byte[Type2Reader.READ_PAGES * Type2Reader.PAGE_SIZE];
+        if (mReader.readPages(CC_PAGE, Type2Reader.READ_PAGES, head, 0)
+                < Type2Reader.READ_PAGES) {
+            throw new IOException("Tag refused to read the Capability Container");
+        }
+        if ((head[0] & 0xff) != CC_MAGIC) {
+            return null;
+        }
+        if ((head[1] & 0xff) >>> 4 > 1) {
+            throw new NdefFormatException("Unsupported mapping version " + (head[1] & 0xff));
+        }
+        if ((head[3] & 0xf0) != 0) {
+            throw new IOException("NDEF area is not readable");
+        }
+        int end = DATA_OFFSET + (head[2] & 0xff) * 8;
+        mLoaded = (CC_PAGE + Type2Reader.READ_PAGES) * Type2Reader.PAGE_SIZE;
+        mMemory = new byte[Math.max(end, mLoaded)];
+        System.arraycopy(head, 0, mMemory, CC_PAGE * Type2Reader.PAGE_SIZE, head.length);
+
+        int pos = DATA_OFFSET;
+        while (pos < end) {
+            load(pos, pos + 1, end);
+            int type = mMemory[pos++] & 0xff;
+            if (type == TLV_NULL) {
+                continue;
+            }
+            if (type == TLV_TERMINATOR) {
+                return null;
+            }
+            load(pos, pos + 1, end);
+            int length = mMemory[pos++] & 0xff;
+            if (length == 0xff) {
+                load(pos, pos + 2, end);
+                length = (mMemory[pos] & 0xff) << 8 | mMemory[pos + 1] & 0xff;
+                pos += 2;
+            }
+            if (type == TLV_NDEF) {
+                load(pos, pos + length, end);
+                return ByteBuffer.wrap(mMemory, pos, length);
+            }
+            // Lock Control, Memory Control, proprietary or unknown
+            pos += length;
+            if (pos > end) {
+                throw new NdefFormatException("TLV runs past the data area");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes sure the bytes from {@code from} up to {@code to} have been
+     * read. Bytes between those read so far and {@code from}, such as the
+     * value of a skipped TLV, are not read.
+     */
+    private void load(int from, int to, int end) throws IOException, NdefFormatException {
+        if (to > end) {
+            throw new NdefFormatException("TLV runs past the data area");
+        }
+        if (to <= mLoaded) {
+            return;
+        }
+        int firstPage = Math.max(mLoaded, from) / Type2Reader.PAGE_SIZE;
+        int lastPage = (to - 1) / Type2Reader.PAGE_SIZE;
+        int pages = lastPage - firstPage + 1;
+        byte[] memory = mMemory;
+        if ((lastPage + 1) * Type2Reader.PAGE_SIZE > memory.length) {
+            // The data area need not end on a page boundary
+            memory = new byte[(lastPage + 1) * Type2Reader.PAGE_SIZE];
+            System.arraycopy(mMemory, 0, memory, 0, mLoaded);
+        }
+        if (mReader.readPages(firstPage, pages, memory, firstPage * Type2Reader.PAGE_SIZE)
+                < pages) {
+            throw new IOException("Tag refused to read page " + firstPage);
+        }
+        mMemory = memory;
+        mLoaded = Math.min(end, (lastPage + 1) * Type2Reader.PAGE_SIZE);
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+
+/**
+ * Writes an NDEF message to an NFC Forum Type 2 tag formatted for NDEF,
+ * writing only the pages whose content changes.
+ *
+ * <p>The Capability Container and the TLVs in front of the NDEF TLV are
+ * read first, so a message that does not fit is refused before anything
+ * is written. The pages the new NDEF TLV covers are then read, in as few
+ * commands as {@link Type2Reader} manages, and compared with the new
+ * content: changing a few characters of a URL on an NTAG takes one or two
+ * WRITEs instead of one per page of the message. Lock Control, Memory
+ * Control and proprietary TLVs in front of the NDEF TLV are kept.
+ *
+ * <p>When more than one page changes, the pages are written in the order
+ * the NFC Forum Type 2 Tag specification gives: the TLV length set to 0
+ * first, then the message, then the real length. The length goes from 0 to
+ * the real one in a single WRITE, also when its three byte form spans two
+ * pages. A write torn by the tag leaving the field then leaves the old
+ * message or an empty one, not a mix of the old and the new. A change
+ * within one page is a single WRITE, which the tag does whole or not at
+ * all. Reserved areas announced by Memory Control TLVs are not skipped, as
+ * in {@link Type2NdefReader}.
+ *
+ * <p>Not thread safe.
+ */
+public class Type2NdefWriter {
+
+    static final byte CMD_WRITE = (byte) 0xa2;
+
+    /** The 4 bit ACK of a WRITE. */
+    private static final int ACK = 0x0a;
+    private static final int STATIC_LOCK_PAGE = 2;
+    private static final int CC_PAGE = 3;
+    private static final int CC_MAGIC = 0xe1;
+    /** Write access condition of the CC for no write access at all. */
+    private static final int CC_READ_ONLY = 0x0f;
+    /** The data area starts on page 4. */
+    private static final int DATA_OFFSET = 16;
+    /** Bytes of the data area the static lock bits cover. */
+    private static final int STATIC_LOCK_AREA = 48;
+
+    private final Transceiver mTag;
+    private final Type2Reader mReader;
+    private boolean mLaidOut;
+    private byte[] mCc;
+    /** The memory from the start of the tag up to the end of the data area. */
+    private byte[] mMemory;
+    /** Bytes of mMemory read, from the start of the tag. */
+    private int mLoaded;
+    private int mEnd;
+    /** Where the NDEF TLV starts. */
+    private int mNdefOffset;
+    /** The first dynamic lock byte, or -1 if there are none. */
+    private int mLockAddress = -1;
+    private int mLockBits;
+    private int mWrites;
+
+    public Type2NdefWriter(Transceiver tag) {
+        mTag = tag;
+        mReader = new Type2Reader(tag);
+    }
+
+    /** Returns whether the Capability Container is that of an NDEF tag. */
+    public boolean isFormatted() throws IOException, NdefFormatException {
+        layOut();
+        return mCc != null;
+    }
+
+    /** Returns whether the Capability Container grants write access. */
+    public boolean isWritable() throws IOException, NdefFormatException {
+        return isFormatted() && (mCc[3] & 0x0f) == 0;
+    }
+
+    /**
+     * Returns the largest NDEF message that fits after the TLVs kept in
+     * front of it.
+     *
+     * @throws NdefFormatException if the tag is not formatted for NDEF or
+     *         its TLVs are corrupt
+     */
+    public int getMaxSize() throws IOException, NdefFormatException {
+        requireFormatted();
+        int room = mEnd - mNdefOffset;
+        if (room - 4 >= 0xff) {
+            return Math.min(room - 4, 0xfffe);
+        }
+        return Math.max(0, Math.min(room - 2, 0xfe));
+    }
+
+    /**
+     * Writes {@code message}, a whole NDEF message in wire format, and
+     * returns the number of pages written.
+     *
+     * @throws NdefTooLargeException if the message does not fit, before
+     *         anything is written
+     * @throws NdefFormatException if the tag is not formatted for NDEF or
+     *         its TLVs are corrupt
+     */
+    public int write(byte[] message) throws IOException, NdefFormatException {
+        requireFormatted();
+        if ((mCc[3] & 0x0f) != 0) {
+            throw new IOException("NDEF area is read-only");
+        }
+        int maxSize = getMaxSize();
+        if (message.length > maxSize) {
+            throw new NdefTooLargeException(message.length, maxSize);
+        }
+        int headerLength = message.length < 0xff ? 2 : 4;
+        int length = headerLength + message.length;
+        // The Terminator TLV may be left out when the message fills the area
+        boolean terminator = mNdefOffset + length < mEnd;
+        byte[] tlv = new byte[length + (terminator ? 1 : 0)];
+        tlv[0] = (byte) Type2NdefReader.TLV_NDEF;
+        if (headerLength == 2) {
+            tlv[1] = (byte) message.length;
+        } else {
+            tlv[1] = (byte) 0xff;
+            tlv[2] = (byte) (message.length >> 8);
+            tlv[3] = (byte) message.length;
+        }
+        System.arraycopy(message, 0, tlv, headerLength, message.length);
+        if (terminator) {
+            tlv[length] = (byte) Type2NdefReader.TLV_TERMINATOR;
+        }
+
+        int start = mNdefOffset;
+        load(start + tlv.length);
+        int firstPage = start / Type2Reader.PAGE_SIZE;
+        int lastPage = (start + tlv.length - 1) / Type2Reader.PAGE_SIZE;
+        int lastHeaderPage = (start + headerLength - 1) / Type2Reader.PAGE_SIZE;
+        int changed = 0;
+        for (int page = firstPage; page <= lastPage; page++) {
+            if (!Arrays.equals(withTlv(page, tlv, start), page(page))) {
+                changed++;
+            }
+        }
+        int written = 0;
+        if (changed > 1) {
+            // An empty NDEF TLV, with the new bytes after its one byte length
+            // in place, so that only that byte is left to write last
+            byte[] empty = tlv.clone();
+            empty[1] = 0;
+            written += writeIfChanged(firstPage, lastHeaderPage, empty, start);
+        }
+        written += writeIfChanged(lastHeaderPage + 1, lastPage, tlv, start);
+        written += writeIfChanged(firstPage, lastHeaderPage, tlv, start);
+        return written;
+    }
+
+    /**
+     * Makes the tag read-only for good: sets the CC to no write access,
+     * then the dynamic and static lock bits. Returns the number of pages
+     * written. Dynamic lock bytes inside the data area are in a reserved
+     * area this writer does not track, so they are left alone.
+     */
+    public int lock() throws IOException, NdefFormatException {
+        requireFormatted();
+        int written = 0;
+        if ((mCc[3] & 0x0f) != CC_READ_ONLY) {
+            byte[] cc = mCc.clone();
+            cc[3] |= CC_READ_ONLY;
+            writePage(CC_PAGE, cc, 0);
+            mCc = cc;
+            written++;
+        }
+        if (mLockAddress >= mEnd) {
+            written += setLockBits(mLockAddress, mLockBits);
+        }
+        // The static lock bits are bytes 2 and 3 of page 2
+        written += setLockBits(STATIC_LOCK_PAGE * Type2Reader.PAGE_SIZE + 2, 16);
+        return written;
+    }
+
+    /** Returns the number of WRITE commands sent so far. */
+    public int getWrites() {
+        return mWrites;
+    }
+
+    /** Returns the number of commands sent so far, reads and writes. */
+    public int getExchanges() {
+        return mReader.getExchanges() + mWrites;
+    }
+
+    private void requireFormatted() throws IOException, NdefFormatException {
+        if (!isFormatted()) {
+            throw new NdefFormatException("Tag is not formatted for NDEF");
+        }
+    }
+
+    /**
+     * Reads the Capability Container and walks the TLVs up to where the
+     * NDEF TLV goes: the existing one, a Terminator TLV or the NULL TLVs
+     * in front of either.
+     */
+    private void layOut() throws IOException, NdefFormatException {
+        if (mLaidOut) {
+            return;
+        }
+        // READ returns 4 pages: the CC and the first 12 bytes of the data area
+        byte[] head = new byte[Type2Reader.READ_PAGES * Type2Reader.PAGE_SIZE];
+        if (mReader.readPages(CC_PAGE, Type2Reader.READ_PAGES, head, 0)
+                < Type2Reader.READ_PAGES) {
+            throw new IOException("Tag refused to read the Capability Container");
+        }
+        mLaidOut = true;
+        if ((head[0] & 0xff) != CC_MAGIC) {
+            return;
+        }
+        if ((head[1] & 0xff) >>> 4 > 1) {
+            throw new NdefFormatException("Unsupported mapping version " + (head[1] & 0xff));
+        }
+        mEnd = DATA_OFFSET + (head[2] & 0xff) * 8;
+        mLoaded = (CC_PAGE + Type2Reader.READ_PAGES) * Type2Reader.PAGE_SIZE;
+        mMemory = new byte[Math.max(mEnd, mLoaded)];
+        System.arraycopy(head, 0, mMemory, CC_PAGE * Type2Reader.PAGE_SIZE, head.length);
+
+        int pos = DATA_OFFSET;
+        int nulls = -1;
+        while (pos < mEnd) {
+            load(pos + 1);
+            int type = mMemory[pos] & 0xff;
+            if (type == Type2NdefReader.TLV_NDEF || type == Type2NdefReader.TLV_TERMINATOR) {
+                break;
+            }
+            if (type == Type2NdefReader.TLV_NULL) {
+                if (nulls < 0) {
+                    nulls = pos;
+                }
+                pos++;
+                continue;
+            }
+            nulls = -1;
+            load(pos + 2);
+            int length = mMemory[pos + 1] & 0xff;
+            pos += 2;
+            if (length == 0xff) {
+                load(pos + 2);
+                length = (mMemory[pos] & 0xff) << 8 | mMemory[pos + 1] & 0xff;
+                pos += 2;
+            }
+            if (type == Type2NdefReader.TLV_LOCK_CONTROL && length >= 3) {
+                load(pos + 3);
+                readLockControl(pos);
+            }
+            pos += length;
+        }
+        mNdefOffset = Math.min(nulls >= 0 ? nulls : pos, mEnd);
+        if (mLockAddress < 0 && mEnd - DATA_OFFSET > STATIC_LOCK_AREA) {
+            // Without a Lock Control TLV the dynamic lock bits follow the
+            // data area, one per 8 bytes beyond what the static ones cover
+            mLockAddress = mEnd;
+            mLockBits = (mEnd - DATA_OFFSET - STATIC_LOCK_AREA + 7) / 8;
+        }
+        mCc = Arrays.copyOf(head, Type2Reader.PAGE_SIZE);
+    }
+
+    /** Decodes the position and size of the dynamic lock bits. */
+    private void readLockControl(int pos) {
+        int position = mMemory[pos] & 0xff;
+        int bits = mMemory[pos + 1] & 0xff;
+        int bytesPerPage = 1 << (mMemory[pos + 2] & 0x0f);
+        mLockAddress = (position >>> 4) * bytesPerPage + (position & 0x0f);
+        mLockBits = bits == 0 ? 256 : bits;
+    }
+
+    /** Makes sure the bytes up to {@code to} have been read. */
+    private void load(int to) throws IOException, NdefFormatException {
+        if (to > mEnd) {
+            throw new NdefFormatException("TLV runs past the data area");
+        }
+        if (to <= mLoaded) {
+            return;
+        }
+        int firstPage = mLoaded / Type2Reader.PAGE_SIZE;
+        int pages = (to - 1) / Type2Reader.PAGE_SIZE - firstPage + 1;
+        // A READ returns 4 pages anyway, which matters when walking NULL TLVs
+        pages = Math.max(pages, Math.min(Type2Reader.READ_PAGES,
+                mEnd / Type2Reader.PAGE_SIZE - firstPage));
+        if (mReader.readPages(firstPage, pages, mMemory, firstPage * Type2Reader.PAGE_SIZE)
+                < pages) {
+            throw new IOException("Tag refused to read page " + firstPage);
+        }
+        mLoaded = (firstPage + pages) * Type2Reader.PAGE_SIZE;
+    }
+
+    /**
+     * Writes the bytes of {@code tlv} at {@code start} that fall in pages
+     * {@code firstPage} to {@code lastPage}, in the pages where they change
+     * something. Returns the number of pages written.
+     */
+    private int writeIfChanged(int firstPage, int lastPage, byte[] tlv, int start)
+            throws IOException {
+        int written = 0;
+        for (int page = firstPage; page <= lastPage; page++) {
+            byte[] data = withTlv(page, tlv, start);
+            if (!Arrays.equals(data, page(page))) {
+                writePage(page, data, 0);
+                System.arraycopy(data, 0, mMemory, page * Type2Reader.PAGE_SIZE, data.length);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /** Returns {@code page} with the bytes of {@code tlv} at {@code start} that fall in it. */
+    private byte[] withTlv(int page, byte[] tlv, int start) {
+        int address = page * Type2Reader.PAGE_SIZE;
+        byte[] data = page(page);
+        for (int i = 0; i < data.length; i++) {
+            int offset = address + i - start;
+            if (offset >= 0 && offset < tlv.length) {
+                data[i] = tlv[offset];
+            }
+        }
+        return data;
+    }
+
+    /** Returns a copy of {@code page} as last read or written. */
+    private byte[] page(int page) {
+        int address = page * Type2Reader.PAGE_SIZE;
+        return Arrays.copyOfRange(mMemory, address, address + Type2Reader.PAGE_SIZE);
+    }
+
+    /** Sets {@code bits} lock bits from byte {@code address} on, keeping the others. */
+    private int setLockBits(int address, int bits) throws IOException {
+        int bytes = (bits + 7) / 8;
+        int firstPage = address / Type2Reader.PAGE_SIZE;
+        int pages = (address + bytes - 1) / Type2Reader.PAGE_SIZE - firstPage + 1;
+        byte[] data = new byte[pages * Type2Reader.PAGE_SIZE];
+        if (mReader.readPages(firstPage, pages, data, 0) < pages) {
+            throw new IOException("Tag refused to read the lock bytes on page " + firstPage);
+        }
+        byte[] locked = data.clone();
+        int offset = address - firstPage * Type2Reader.PAGE_SIZE;
+        for (int i = 0; i < bytes; i++) {
+            int rest = bits - i * 8;
+            locked[offset + i] |= rest >= 8 ? 0xff : (1 << rest) - 1;
+        }
+        int written = 0;
+        for (int i = 0; i < pages; i++) {
+            int from = i * Type2Reader.PAGE_SIZE;
+            if (!Arrays.equals(Arrays.copyOfRange(data, from, from + Type2Reader.PAGE_SIZE),
+                    Arrays.copyOfRange(locked, from, from + Type2Reader.PAGE_SIZE))) {
+                writePage(firstPage + i, locked, from);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private void writePage(int page, byte[] data, int offset) throws IOException {
+        mWrites++;
+        byte[] response = mTag.transceive(new byte[] {CMD_WRITE, (byte) page,
+                data[offset], data[offset + 1], data[offset + 2], data[offset + 3]});
+        // Some readers pass the 4 bit ACK or NAK on, others only throw on a NAK
+        if (response != null && response.length == 1 && (response[0] & 0x0f) != ACK) {
+            throw new IOException("Tag refused to write page " + page);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the memory of NFC Forum Type 2 tags (MIFARE Ultralight, NTAG) in
+ * as few exchanges as possible.
+ *
+ * <p>Tags that answer GET_VERSION, NTAG and Ultralight EV1, are read with
+ * FAST_READ, as many pages per command as the reader's maximum transceive
+ * length allows: a whole NTAG216 takes 4 commands instead of 58 READs.
+ * Other tags are read 4 pages per READ, up to the end of the data area
+ * the Capability Container announces.
+ *
+ * <p>Not thread safe.
+ */
+public class Type2Reader {
+
+    public static final int PAGE_SIZE = 4;
+
+    static final byte CMD_GET_VERSION = 0x60;
+    static final byte CMD_READ = 0x30;
+    static final byte CMD_FAST_READ = 0x3a;
+
+    /** Pages returned by READ. */
+    static final int READ_PAGES = 4;
+    /** Pages 0 to 3 hold the UID, lock bytes and the Capability Container. */
+    static final int HEADER_PAGES = 4;
+    /** The smallest Type 2 tag, MIFARE Ultralight. */
+    static final int MIN_PAGES = 16;
+
+    private static final int VENDOR_NXP = 0x04;
+    private static final int PRODUCT_ULTRALIGHT = 0x03;
+    private static final int PRODUCT_NTAG = 0x04;
+
+    private final Transceiver mTag;
+    private byte[] mVersion;
+    private boolean mVersionRead;
+    private boolean mFastRead;
+    private int mExchanges;
+
+    public Type2Reader(Transceiver tag) {
+        mTag = tag;
+    }
+
+    /**
+     * Returns the 8 byte GET_VERSION response, or null if the tag does not
+     * support the command. Only asks the tag the first time.
+     */
+    public byte[] getVersion() throws IOException {
+        if (!mVersionRead) {
+            mVersionRead = true;
+            mVersion = exchange(new byte[] {CMD_GET_VERSION});
+            if (mVersion == null || mVersion.length < 8) {
+                mVersion = null;
+            }
+            mFastRead = mVersion != null;
+        }
+        return mVersion;
+    }
+
+    /** Returns the number of commands sent so far, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Reads the whole memory, see the class comment. */
+    public Type2Memory readAll() throws IOException {
+        byte[] version = getVersion();
+        int pages = pageCount(version);
+        byte[] data;
+        int read;
+        if (pages > 0) {
+            data = new byte[pages * PAGE_SIZE];
+            read = readPages(0, pages, data, 0);
+        } else {
+            // The Capability Container tells the size of the data area
+            byte[] header = new byte[HEADER_PAGES * PAGE_SIZE];
+            read = readPages(0, HEADER_PAGES, header, 0);
+            pages = read == HEADER_PAGES ? ccPageCount(header) : HEADER_PAGES;
+            data = Arrays.copyOf(header, pages * PAGE_SIZE);
+            if (read == HEADER_PAGES) {
+                read += readPages(HEADER_PAGES, pages - HEADER_PAGES, data,
+                        HEADER_PAGES * PAGE_SIZE);
+            }
+        }
+        if (read < pages) {
+            data = Arrays.copyOf(data, read * PAGE_SIZE);
+        }
+        return new Type2Memory(chipName(version), version, data, read, mExchanges);
+    }
+
+    /**
+     * Reads {@code count} pages from page {@code first} into {@code dst}.
+     * Returns the number of pages read, fewer than {@code count} if the tag
+     * refused a page, e.g. because it is password protected. Throws if the
+     * tag is lost.
+     *
+     * <p>Up to 8 pages are read with READ without asking for the version
+     * first, since a GET_VERSION would cost as much as FAST_READ saves.
+     */
+    public int readPages(int first, int count, byte[] dst, int dstOffset) throws IOException {
+        if (count > 2 * READ_PAGES) {
+            getVersion();
+        }
+        int maxPages = Math.max(1, mTag.getMaxTransceiveLength() / PAGE_SIZE);
+        int read = 0;
+        while (read < count) {
+            int page = first + read;
+            int pages;
+            byte[] response = null;
+            if (mFastRead) {
+                pages = Math.min(count - read, maxPages);
+                response = exchange(new byte[] {
+                        CMD_FAST_READ, (byte) page, (byte) (page + pages - 1)});
+                if (response == null || response.length < pages * PAGE_SIZE) {
+                    // Not a real NTAG after all, or a protected page
+                    mFastRead = false;
+                    response = null;
+                }
+            }
+            if (response == null) {
+                pages = Math.min(count - read, READ_PAGES);
+                response = exchange(new byte[] {CMD_READ, (byte) page});
+                if (response == null || response.length < pages * PAGE_SIZE) {
+                    return read;
+                }
+            } else {
+                pages = response.length / PAGE_SIZE;
+            }
+            pages = Math.min(pages, count - read);
+            System.arraycopy(response, 0, dst, dstOffset + read * PAGE_SIZE, pages * PAGE_SIZE);
+            read += pages;
+        }
+        return read;
+    }
+
+    /** Returns null if the tag refused the command. */
+    private byte[] exchange(byte[] command) throws IOException {
+        mExchanges++;
+        try {
+            return mTag.transceive(command);
+        } catch (IOException e) {
+            // A NAK halts the tag. If it is gone, reconnecting throws.
+            mTag.reconnect();
+            return null;
+        }
+    }
+
+    /** Returns the number of pages of the chip, or 0 if unknown. */
+    static int pageCount(byte[] version) {
+        if (version == null || (version[1] & 0xff) != VENDOR_NXP) {
+            return 0;
+        }
+        int product = version[2] & 0xff;
+        if (product != PRODUCT_ULTRALIGHT && product != PRODUCT_NTAG) {
+            return 0;
+        }
+        switch (version[6] & 0xff) {
+            case 0x0b:
+                return 20;  // Ultralight EV1 MF0UL11, NTAG210
+            case 0x0e:
+                return 41;  // Ultralight EV1 MF0UL21, NTAG212
+            case 0x0f:
+                return 45;  // NTAG213
+            case 0x11:
+                return 135; // NTAG215
+            case 0x13:
+                return 231; // NTAG216
+            default:
+                return 0;
+        }
+    }
+
+    static String chipName(byte[] version) {
+        if (version == null) {
+            return "MIFARE Ultralight";
+        }
+        int vendor = version[1] & 0xff;
+        int product = version[2] & 0xff;
+        int storage = version[6] & 0xff;
+        if (vendor == VENDOR_NXP && product == PRODUCT_NTAG) {
+            switch (storage) {
+                case 0x0b:
+                    return "NTAG210";
+                case 0x0e:
+                    return "NTAG212";
+                case 0x0f:
+                    return "NTAG213";
+                case 0x11:
+                    return "NTAG215";
+                case 0x13:
+                    return "NTAG216";
+            }
+        } else if (vendor == VENDOR_NXP && product == PRODUCT_ULTRALIGHT) {
+            switch (storage) {
+                case 0x0b:
+                    return "MIFARE Ultralight EV1 MF0UL11";
+                case 0x0e:
+                    return "MIFARE Ultralight EV1 MF0UL21";
+            }
+        }
+        return String.format("Type 2 vendor %02x type %02x size %02x", vendor, product, storage);
+    }
+
+    /**
+     * Returns the number of pages up to the end of the data area in the
+     * Capability Container on page 3, or {@link #MIN_PAGES} if there is no
+     * valid one.
+     */
+    static int ccPageCount(byte[] header) {
+        if ((header[12] & 0xff) != 0xe1) {
+            return MIN_PAGES;
+        }
+        // Byte 2 of the CC is the data area size in units of 8 bytes
+        return HEADER_PAGES + (header[14] & 0xff) * 8 / PAGE_SIZE;
+    }
+}
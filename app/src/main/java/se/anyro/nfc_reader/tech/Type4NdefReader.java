@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+
+/**
+ * Reads the NDEF message of an NFC Forum Type 4 tag, such as a DESFire
+ * with an NDEF application, in as few READ BINARY commands as the tag and
+ * the reader allow.
+ *
+ * <p>After selecting the NDEF Tag Application and reading the Capability
+ * Container, the NDEF file is read in chunks of the CC's MLe, limited by
+ * {@link ApduTransport#getMaxResponseLength()}. The first READ BINARY asks
+ * for up to 256 bytes, which holds the length field as well as the start
+ * of the message, so the length costs no command of its own and short
+ * messages are read in one. With extended length APDUs and a large MLe the
+ * rest of a large message is a single READ BINARY more.
+ *
+ * <p>Offsets above 32767 do not fit READ BINARY B0 and are read with B1
+ * and an offset data object.
+ */
+public class Type4NdefReader {
+
+    /** The NDEF Tag Application, mapping version 2.0 and later. */
+    static final byte[] NDEF_AID = {
+        (byte) 0xd2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x01
+    };
+    static final int CC_FILE_ID = 0xe103;
+    static final int TLV_NDEF_FILE_CONTROL = 0x04;
+    static final int TLV_EXTENDED_NDEF_FILE_CONTROL = 0x06;
+
+    private static final int INS_SELECT = 0xa4;
+    private static final int INS_READ_BINARY = 0xb0;
+    private static final int INS_READ_BINARY_ODO = 0xb1;
+    private static final int SELECT_BY_NAME = 0x04;
+    private static final int SELECT_FIRST_OR_ONLY = 0x00;
+    private static final int SELECT_BY_ID = 0x00;
+    private static final int SELECT_NO_RESPONSE = 0x0c;
+
+    /** The CC up to the end of an NDEF File Control TLV. */
+    private static final int CC_LENGTH = 15;
+    /**
+     * The most the first READ BINARY asks for, before the message length is
+     * known. The whole file could be far longer than the message.
+     */
+    private static final int FIRST_READ_LENGTH = 256;
+    private static final int MAX_B0_OFFSET = 0x7fff;
+    private static final int TAG_OFFSET = 0x54;
+    private static final int TAG_DISCRETIONARY_DATA = 0x53;
+    /** The tag and the longest length of the 53 data object around B1 data. */
+    private static final int ODO_OVERHEAD = 4;
+
+    private final ApduTransport mTransport;
+
+    public Type4NdefReader(ApduTransport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * Returns the NDEF message, between the position and the limit of a
+     * buffer over the bytes read, or null if the tag has no NDEF Tag
+     * Application. An empty NDEF file gives an empty buffer.
+     *
+     * @throws NdefFormatException if the Capability Container or the length
+     *         of the NDEF file is corrupt
+     */
+    public ByteBuffer read() throws IOException, NdefFormatException {
+        ApduTransport.Response response = mTransport.transmit(0x00, INS_SELECT, SELECT_BY_NAME,
+                SELECT_FIRST_OR_ONLY, NDEF_AID, ApduTransport.MAX_SHORT_NE);
+        if (!response.isOk()) {
+            return null;
+        }
+        selectFile(CC_FILE_ID);
+        byte[] cc = readBinary(0, CC_LENGTH, CC_LENGTH);
+        int version = (cc[2] & 0xff) >>> 4;
+        if (version < 2 || version > 3) {
+            throw new NdefFormatException("Unsupported mapping version " + (cc[2] & 0xff));
+        }
+        int mle = readUnsigned(cc, 3, 2);
+        int type = cc[7] & 0xff;
+        int fileId = readUnsigned(cc, 9, 2);
+        int lengthSize;
+        long maxSize;
+        int readAccess;
+        if (type == TLV_NDEF_FILE_CONTROL) {
+            lengthSize = 2;
+            maxSize = readUnsigned(cc, 11, 2);
+            readAccess = cc[13] & 0xff;
+        } else if (type == TLV_EXTENDED_NDEF_FILE_CONTROL) {
+            // Two bytes longer than the NDEF File Control TLV
+            byte[] tail = readBinary(CC_LENGTH, 2, 2);
+            lengthSize = 4;
+            maxSize = (long) readUnsigned(cc, 11, 4) & 0xffffffffL;
+            readAccess = tail[0] & 0xff;
+        } else {
+            throw new NdefFormatException("No NDEF File Control TLV in the CC");
+        }
+        if (readAccess != 0) {
+            throw new IOException("NDEF file is not readable");
+        }
+        if (mle < CC_LENGTH) {
+            throw new NdefFormatException("MLe " + mle + " below the minimum");
+        }
+        selectFile(fileId);
+
+        int chunk = Math.min(mle, mTransport.getMaxResponseLength());
+        // Reading the length field on its own would cost a command
+        byte[] head = readBinary(0, (int) Math.min(Math.min(chunk, FIRST_READ_LENGTH), maxSize),
+                lengthSize);
+        long messageLength = readUnsigned(head, 0, lengthSize) & 0xffffffffL;
+        if (lengthSize + messageLength > maxSize) {
+            throw new NdefFormatException("NDEF length " + messageLength + " exceeds file size "
+                    + maxSize);
+        }
+        if (lengthSize + messageLength > Integer.MAX_VALUE) {
+            throw new NdefFormatException("NDEF length " + messageLength + " is too large");
+        }
+        int fileLength = (int) (lengthSize + messageLength);
+        byte[] file = new byte[fileLength];
+        int loaded = Math.min(head.length, fileLength);
+        System.arraycopy(head, 0, file, 0, loaded);
+        while (loaded < fileLength) {
+            int length = Math.min(fileLength - loaded,
+                    loaded > MAX_B0_OFFSET ? chunk - ODO_OVERHEAD : chunk);
+            byte[] data = readBinary(loaded, length, 1);
+            int n = Math.min(data.length, fileLength - loaded);
+            System.arraycopy(data, 0, file, loaded, n);
+            loaded += n;
+        }
+        return ByteBuffer.wrap(file, lengthSize, (int) messageLength);
+    }
+
+    private void selectFile(int fileId) throws IOException {
+        byte[] id = {(byte) (fileId >> 8), (byte) fileId};
+        ApduTransport.Response response = mTransport.transmit(0x00, INS_SELECT, SELECT_BY_ID,
+                SELECT_NO_RESPONSE, id, 0);
+        if (!response.isOk()) {
+            throw new IOException(String.format("SELECT of file %04x failed: %04x", fileId,
+                    response.getSw()));
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes from {@code offset} of the selected file,
+     * using B1 if the offset does not fit P1-P2 of B0. Returns at least
+     * {@code min} bytes, but possibly fewer than {@code length}.
+     */
+    private byte[] readBinary(int offset, int length, int min) throws IOException {
+        ApduTransport.Response response;
+        byte[] data;
+        if (offset <= MAX_B0_OFFSET) {
+            response = mTransport.transmit(0x00, INS_READ_BINARY, offset >> 8, offset, null,
+                    length);
+            data = response.getData();
+        } else {
+            byte[] odo = {
+                TAG_OFFSET, 0x03, (byte) (offset >> 16), (byte) (offset >> 8), (byte) offset
+            };
+            response = mTransport.transmit(0x00, INS_READ_BINARY_ODO, 0x00, 0x00, odo,
+                    length + ODO_OVERHEAD);
+            data = unwrapDiscretionaryData(response.getData());
+        }
+        int sw = response.getSw();
+        if (sw != ApduTransport.SW_OK && sw != ApduTransport.SW_END_OF_FILE) {
+            throw new IOException(String.format("READ BINARY at %d failed: %04x", offset, sw));
+        }
+        if (data.length < min) {
+            throw new IOException("READ BINARY at " + offset + " returned " + data.length
+                    + " bytes");
+        }
+        return data;
+    }
+
+    /** Returns the value of the 53 data object B1 wraps its data in. */
+    private static byte[] unwrapDiscretionaryData(byte[] data) throws IOException {
+        if (data.length < 2 || (data[0] & 0xff) != TAG_DISCRETIONARY_DATA) {
+            throw new IOException("READ BINARY B1 response without a data object");
+        }
+        int pos = 1;
+        int length = data[pos++] & 0xff;
+        if (length == 0x81 || length == 0x82) {
+            int bytes = length & 0x0f;
+            if (data.length < pos + bytes) {
+                throw new IOException("Truncated READ BINARY B1 response");
+            }
+            length = readUnsigned(data, pos, bytes);
+            pos += bytes;
+        }
+        if (data.length < pos + length) {
+            throw new IOException("Truncated READ BINARY B1 response");
+        }
+        byte[] value = new byte[length];
+        System.arraycopy(data, pos, value, 0, length);
+        return value;
+    }
+
+    private static int readUnsigned(byte[] bytes, int offset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value = value << 8 | bytes[offset + i] & 0xff;
+        }
+        return value;
+    }
+}
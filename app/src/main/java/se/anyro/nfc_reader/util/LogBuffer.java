@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.util;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The last log entries, in preallocated arrays that are written over
+ * oldest first. Entries keep their format and arguments, and messages are
+ * only formatted by {@link #dump(Appendable)}.
+ *
+ * <p>Strings and boxed primitives are kept as given, so adding an entry
+ * with only those allocates nothing. Byte arrays are copied, and any other
+ * argument is turned into a string when added: an entry may be kept long
+ * after it was logged, and must not hold on to a view or an Activity.
+ *
+ * <p>Formats use {@code {}} for each argument, as in SLF4J. Byte arrays
+ * are written as spaced hex.
+ */
+public class LogBuffer {
+
+    /** Levels, the same numbers as android.util.Log uses. */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public static final int MAX_ARGS = 4;
+
+    private static final String LEVELS = "??VDIWE";
+
+    private final int mCapacity;
+    private final long[] mTimes;
+    private final int[] mLevels;
+    private final String[] mTags;
+    private final String[] mFormats;
+    private final Object[] mArgs;
+    private final int[] mArgCounts;
+    private final Throwable[] mErrors;
+    /** Entries added since the last clear, the next one goes at mAdded % mCapacity. */
+    private long mAdded;
+
+    public LogBuffer(int capacity) {
+        mCapacity = capacity;
+        mTimes = new long[capacity];
+        mLevels = new int[capacity];
+        mTags = new String[capacity];
+        mFormats = new String[capacity];
+        mArgs = new Object[capacity * MAX_ARGS];
+        mArgCounts = new int[capacity];
+        mErrors = new Throwable[capacity];
+    }
+
+    /**
+     * Adds an entry with the first {@code argCount} of {@code a0} to
+     * {@code a3} as arguments, writing over the oldest one if full.
+     */
+    public synchronized void add(long timeMillis, int level, String tag, String format,
+            int argCount, Object a0, Object a1, Object a2, Object a3, Throwable error) {
+        int i = (int) (mAdded++ % mCapacity);
+        mTimes[i] = timeMillis;
+        mLevels[i] = level;
+        mTags[i] = tag;
+        mFormats[i] = format;
+        mArgCounts[i] = argCount;
+        int arg = i * MAX_ARGS;
+        mArgs[arg] = argCount > 0 ? retain(a0) : null;
+        mArgs[arg + 1] = argCount > 1 ? retain(a1) : null;
+        mArgs[arg + 2] = argCount > 2 ? retain(a2) : null;
+        mArgs[arg + 3] = argCount > 3 ? retain(a3) : null;
+        mErrors[i] = error;
+    }
+
+    /** Returns what to keep of an argument, see the class comment. */
+    private static Object retain(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Integer
+                || arg instanceof Long || arg instanceof Boolean || arg instanceof Short
+                || arg instanceof Byte || arg instanceof Character || arg instanceof Float
+                || arg instanceof Double) {
+            return arg;
+        }
+        if (arg instanceof byte[]) {
+            return ((byte[]) arg).clone();
+        }
+        return String.valueOf(arg);
+    }
+
+    /** Returns the number of entries held, at most the capacity. */
+    public synchronized int size() {
+        return (int) Math.min(mAdded, mCapacity);
+    }
+
+    /** Returns the number of entries added since the last clear, written over or not. */
+    public synchronized long getAdded() {
+        return mAdded;
+    }
+
+    public synchronized void clear() {
+        mAdded = 0;
+        for (int i = 0; i < mCapacity; i++) {
+            mTags[i] = null;
+            mFormats[i] = null;
+            mErrors[i] = null;
+        }
+        for (int i = 0; i < mArgs.length; i++) {
+            mArgs[i] = null;
+        }
+    }
+
+    /**
+     * Writes the entries oldest first, one line each as
+     * {@code MM-dd HH:mm:ss.SSS D/tag: message}, followed by the error if
+     * there is one. The entries are copied first, so logging goes on while
+     * the copy is formatted.
+     */
+    public void dump(Appendable out) throws IOException {
+        int count;
+        long first;
+        long[] times;
+        int[] levels;
+        String[] tags;
+        String[] formats;
+        Object[] args;
+        int[] argCounts;
+        Throwable[] errors;
+        synchronized (this) {
+            count = size();
+            first = mAdded - count;
+            times = mTimes.clone();
+            levels = mLevels.clone();
+            tags = mTags.clone();
+            formats = mFormats.clone();
+            args = mArgs.clone();
+            argCounts = mArgCounts.clone();
+            errors = mErrors.clone();
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        StringBuilder sb = new StringBuilder();
+        for (long n = first; n < first + count; n++) {
+            int i = (int) (n % mCapacity);
+            date.setTime(times[i]);
+            sb.setLength(0);
+            sb.append(dateFormat.format(date)).append(' ');
+            int level = levels[i];
+            sb.append(level >= 0 && level < LEVELS.length() ? LEVELS.charAt(level) : '?');
+            sb.append('/').append(tags[i]).append(": ");
+            format(sb, formats[i], args, i * MAX_ARGS, argCounts[i]);
+            sb.append('\n');
+            if (errors[i] != null) {
+                sb.append("    ").append(errors[i]).append('\n');
+            }
+            out.append(sb);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            dump(sb);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends {@code format} with each {@code {}} replaced by the next of
+     * {@code count} arguments from {@code args[offset]}. Placeholders left
+     * without an argument stay as they are.
+     */
+    public static void format(StringBuilder sb, String format, Object[] args, int offset,
+            int count) {
+        int arg = 0;
+        int start = 0;
+        int length = format.length();
+        for (int i = 0; i < length - 1; i++) {
+            if (arg < count && format.charAt(i) == '{' && format.charAt(i + 1) == '}') {
+                sb.append(format, start, i);
+                appendArg(sb, args[offset + arg++]);
+                start = i + 2;
+                i++;
+            }
+        }
+        sb.append(format, start, length);
+    }
+
+    private static void appendArg(StringBuilder sb, Object arg) {
+        if (arg instanceof byte[]) {
+            sb.append(UidCodec.toHex((byte[]) arg, UidCodec.SPACED));
+        } else {
+            sb.append(arg);
+        }
+    }
+}
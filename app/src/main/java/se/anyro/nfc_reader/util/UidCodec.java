@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.util;
+
+import java.nio.CharBuffer;
+
+/**
+ * Converts tag UIDs to and from the hex and decimal forms shown in the app.
+ *
+ * <p>The app shows UIDs with the last byte first, so "hex" is the bytes in
+ * reverse order and "dec" reads the first byte as least significant. With
+ * {@link #REVERSED} the bytes are taken in the order of the array instead.
+ *
+ * <p>The encoders write into a caller supplied {@code char[]} or
+ * {@link CharBuffer} and allocate nothing. Decimal is exact for UIDs of
+ * any length, not limited to the 8 bytes of a {@code long}.
+ */
+public final class UidCodec {
+
+    /** Take the bytes in array order, first byte first / most significant. */
+    public static final int REVERSED = 1;
+    /** Separate the bytes of hex output with a space. */
+    public static final int SPACED = 2;
+
+    private static final char[] HEX_HIGH = new char[256];
+    private static final char[] HEX_LOW = new char[256];
+    static {
+        char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX_HIGH[i] = digits[i >>> 4];
+            HEX_LOW[i] = digits[i & 0x0f];
+        }
+    }
+
+    /** The two decimal digits of 0 to 99. */
+    private static final char[] DEC_TENS = new char[100];
+    private static final char[] DEC_ONES = new char[100];
+    static {
+        for (int i = 0; i < 100; i++) {
+            DEC_TENS[i] = (char) ('0' + i / 10);
+            DEC_ONES[i] = (char) ('0' + i % 10);
+        }
+    }
+
+    /** 10 to the power of the index, up to the 17 digits of a 7 byte UID. */
+    private static final long[] POWERS_OF_TEN = new long[18];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Utility class
+    private UidCodec() {
+
+    }
+
+    /** Returns the number of chars {@link #encodeHex} writes for {@code length} bytes. */
+    public static int hexLength(int length, int flags) {
+        if (length == 0) {
+            return 0;
+        }
+        return (flags & SPACED) != 0 ? 3 * length - 1 : 2 * length;
+    }
+
+    /**
+     * Returns the largest number of chars {@link #encodeDec} writes for
+     * {@code length} bytes: 8 * log10(2) digits per byte, rounded up.
+     */
+    public static int maxDecLength(int length) {
+        return Math.max(1, (length * 2409 + 999) / 1000);
+    }
+
+    /**
+     * Writes {@code length} bytes of {@code src} as lowercase hex and
+     * returns the number of chars written.
+     */
+    public static int encodeHex(byte[] src, int srcOffset, int length, int flags, char[] dst,
+            int dstOffset) {
+        boolean reversed = (flags & REVERSED) != 0;
+        boolean spaced = (flags & SPACED) != 0;
+        int pos = dstOffset;
+        for (int i = 0; i < length; i++) {
+            if (spaced && i > 0) {
+                dst[pos++] = ' ';
+            }
+            int b = src[srcOffset + (reversed ? i : length - 1 - i)] & 0xff;
+            dst[pos++] = HEX_HIGH[b];
+            dst[pos++] = HEX_LOW[b];
+        }
+        return pos - dstOffset;
+    }
+
+    /** Like {@link #encodeHex(byte[], int, int, int, char[], int)}, into a buffer. */
+    public static void encodeHex(byte[] src, int srcOffset, int length, int flags,
+            CharBuffer dst) {
+        if (dst.hasArray()) {
+            int written = encodeHex(src, srcOffset, length, flags, dst.array(),
+                    dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + written);
+            return;
+        }
+        boolean reversed = (flags & REVERSED) != 0;
+        boolean spaced = (flags & SPACED) != 0;
+        for (int i = 0; i < length; i++) {
+            if (spaced && i > 0) {
+                dst.put(' ');
+            }
+            int b = src[srcOffset + (reversed ? i : length - 1 - i)] & 0xff;
+            dst.put(HEX_HIGH[b]);
+            dst.put(HEX_LOW[b]);
+        }
+    }
+
+    /**
+     * Writes {@code length} bytes of {@code src} as an unsigned decimal
+     * number and returns the number of chars written. {@code dst} needs
+     * room for {@link #maxDecLength} chars.
+     */
+    public static int encodeDec(byte[] src, int srcOffset, int length, int flags, char[] dst,
+            int dstOffset) {
+        boolean reversed = (flags & REVERSED) != 0;
+        if (length <= 7) {
+            // Fits a long without touching the sign bit
+            int index = reversed ? srcOffset : srcOffset + length - 1;
+            int step = reversed ? 1 : -1;
+            long value = 0;
+            for (int i = 0; i < length; i++, index += step) {
+                value = value << 8 | (src[index] & 0xff);
+            }
+            return encodeLong(value, dst, dstOffset);
+        }
+        // Schoolbook conversion in base 10000, two bytes at a time. The base
+        // 10000 digits, least significant first, are kept at the end of the
+        // output range of dst and multiplied by 256 or 65536 for every step.
+        int end = dstOffset + maxDecLength(length);
+        int count = 0;
+        for (int i = 0; i < length; ) {
+            int carry;
+            int factor;
+            if ((length - i) % 2 != 0) {
+                carry = src[srcOffset + (reversed ? i : length - 1 - i)] & 0xff;
+                factor = 256;
+                i++;
+            } else {
+                carry = (src[srcOffset + (reversed ? i : length - 1 - i)] & 0xff) << 8
+                        | src[srcOffset + (reversed ? i + 1 : length - 2 - i)] & 0xff;
+                factor = 65536;
+                i += 2;
+            }
+            for (int d = 0; d < count; d++) {
+                int v = dst[end - 1 - d] * factor + carry;
+                carry = v / 10000;
+                dst[end - 1 - d] = (char) (v - carry * 10000);
+            }
+            while (carry > 0) {
+                int next = carry / 10000;
+                dst[end - 1 - count++] = (char) (carry - next * 10000);
+                carry = next;
+            }
+        }
+        if (count == 0) {
+            dst[dstOffset] = '0';
+            return 1;
+        }
+        // Expand to decimal chars from the most significant digit. The
+        // output never catches up with the base 10000 digits not yet read.
+        int pos = dstOffset + encodeLong(dst[end - count], dst, dstOffset);
+        for (int d = count - 2; d >= 0; d--) {
+            int v = dst[end - 1 - d];
+            int high = v / 100;
+            int low = v - high * 100;
+            dst[pos] = DEC_TENS[high];
+            dst[pos + 1] = DEC_ONES[high];
+            dst[pos + 2] = DEC_TENS[low];
+            dst[pos + 3] = DEC_ONES[low];
+            pos += 4;
+        }
+        return pos - dstOffset;
+    }
+
+    /** Returns the bytes as hex, see {@link #encodeHex}. */
+    public static String toHex(byte[] src, int flags) {
+        char[] chars = new char[hexLength(src.length, flags)];
+        encodeHex(src, 0, src.length, flags, chars, 0);
+        return new String(chars);
+    }
+
+    /** Returns the bytes as a decimal number, see {@link #encodeDec}. */
+    public static String toDec(byte[] src, int flags) {
+        char[] chars = new char[maxDecLength(src.length)];
+        int length = encodeDec(src, 0, src.length, flags, chars, 0);
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Parses hex produced by {@link #encodeHex}, with or without spaces,
+     * colons or dashes between bytes, into {@code dst} and returns the
+     * number of bytes.
+     *
+     * @throws NumberFormatException if {@code hex} is not valid hex or does
+     *         not fit {@code dst}
+     */
+    public static int parseHex(CharSequence hex, int flags, byte[] dst, int dstOffset) {
+        int digits = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if (hexValue(c) >= 0) {
+                digits++;
+            } else if (!isSeparator(c)) {
+                throw new NumberFormatException("Invalid hex char '" + c + "' in " + hex);
+            }
+        }
+        if (digits % 2 != 0) {
+            throw new NumberFormatException("Odd number of hex digits in " + hex);
+        }
+        int length = digits / 2;
+        if (length > dst.length - dstOffset) {
+            throw new NumberFormatException(length + " bytes do not fit, " + hex);
+        }
+        boolean reversed = (flags & REVERSED) != 0;
+        int index = 0;
+        int high = -1;
+        for (int i = 0; i < hex.length(); i++) {
+            int value = hexValue(hex.charAt(i));
+            if (value < 0) {
+                continue;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                dst[dstOffset + (reversed ? index : length - 1 - index)] =
+                        (byte) (high << 4 | value);
+                index++;
+                high = -1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Parses a decimal number produced by {@link #encodeDec} into
+     * {@code length} bytes of {@code dst}. The UID length has to be given,
+     * since leading zero bytes do not show in decimal.
+     *
+     * @throws NumberFormatException if {@code dec} is not a decimal number
+     *         or does not fit {@code length} bytes
+     */
+    public static void parseDec(CharSequence dec, int flags, byte[] dst, int dstOffset,
+            int length) {
+        if (dec.length() == 0) {
+            throw new NumberFormatException("Empty decimal UID");
+        }
+        boolean reversed = (flags & REVERSED) != 0;
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = 0;
+        }
+        for (int i = 0; i < dec.length(); i++) {
+            char c = dec.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid decimal char '" + c + "' in " + dec);
+            }
+            // Multiply by 10 and add the digit, least significant byte first
+            int carry = c - '0';
+            for (int b = 0; b < length; b++) {
+                int index = dstOffset + (reversed ? length - 1 - b : b);
+                int v = (dst[index] & 0xff) * 10 + carry;
+                dst[index] = (byte) v;
+                carry = v >>> 8;
+            }
+            if (carry != 0) {
+                throw new NumberFormatException(dec + " does not fit " + length + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Writes {@code value}, below 10^18, from its last digit backward, two
+     * digits at a time and in {@code int} once it fits one.
+     */
+    private static int encodeLong(long value, char[] dst, int dstOffset) {
+        int count = decLength(value);
+        int pos = dstOffset + count;
+        while (value > Integer.MAX_VALUE) {
+            long next = value / 100;
+            int pair = (int) (value - next * 100);
+            dst[--pos] = DEC_ONES[pair];
+            dst[--pos] = DEC_TENS[pair];
+            value = next;
+        }
+        int small = (int) value;
+        while (small >= 100) {
+            int next = small / 100;
+            int pair = small - next * 100;
+            dst[--pos] = DEC_ONES[pair];
+            dst[--pos] = DEC_TENS[pair];
+            small = next;
+        }
+        dst[--pos] = DEC_ONES[small];
+        if (small >= 10) {
+            dst[--pos] = DEC_TENS[small];
+        }
+        return count;
+    }
+
+    /** Returns the number of decimal digits of {@code value}, below 10^18. */
+    private static int decLength(long value) {
+        // 1233 / 4096 is close to log10(2), so this is the digit count or
+        // one less
+        int digits = (64 - Long.numberOfLeadingZeros(value)) * 1233 >>> 12;
+        return value >= POWERS_OF_TEN[digits] ? digits + 1 : Math.max(digits, 1);
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == ':' || c == '-';
+    }
+}
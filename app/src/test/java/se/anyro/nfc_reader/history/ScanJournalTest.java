@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScanJournalTest {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final byte[] NDEF = {(byte) 0xd1, 0x01, 0x01, 0x55, 0x00};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "scans.journal");
+    }
+
+    @Test
+    public void replaysAppendedRecords() throws IOException {
+        ScanJournal journal = ScanJournal.open(mFile, 10, Long.MAX_VALUE, 100, null);
+        journal.append(1, UID, 0x81, NDEF);
+        journal.append(2, UID, 0x01, (byte[]) null);
+        journal.close();
+
+        final List<Long> timestamps = new ArrayList<Long>();
+        final List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+        ScanJournal.read(mFile, new ScanJournal.Visitor() {
+            @Override
+            public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                    ByteBuffer ndef) {
+                assertEquals(UID.length, uidLength);
+                timestamps.add(timestamp);
+                messages.add(ndef);
+            }
+        });
+        assertEquals(2, timestamps.size());
+        assertEquals(1L, (long) timestamps.get(0));
+        assertEquals(ByteBuffer.wrap(NDEF), messages.get(0));
+        assertNull(messages.get(1));
+    }
+
+    @Test
+    public void dropsTornTail() throws IOException {
+        ScanJournal journal = ScanJournal.open(mFile, 10, Long.MAX_VALUE, 100, null);
+        journal.append(1, UID, 0x81, NDEF);
+        journal.append(2, UID, 0x81, NDEF);
+        journal.close();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        journal = ScanJournal.open(mFile, 10, Long.MAX_VALUE, 100, null);
+        assertEquals(1, journal.getRecordCount());
+        journal.append(3, UID, 0x81, NDEF);
+        journal.close();
+        assertEquals(2, ScanJournal.read(mFile, null));
+    }
+
+    @Test
+    public void keepsEveryRecord() throws IOException {
+        ScanJournal journal = ScanJournal.open(mFile, 10, Long.MAX_VALUE, 100, null);
+        for (int i = 0; i < 250; i++) {
+            journal.append(i, UID, 0x81, NDEF);
+        }
+        assertEquals(250, journal.getRecordCount());
+        journal.close();
+
+        List<Long> kept = readTimestamps();
+        assertEquals(250, kept.size());
+        assertEquals(0L, (long) kept.get(0));
+        // File header, then 24 byte record headers, UIDs and messages
+        assertEquals(8 + 250 * (24 + UID.length + NDEF.length), mFile.length());
+    }
+
+    @Test
+    public void replaysNewestRecordsWhenOpened() throws IOException {
+        ScanJournal journal = ScanJournal.open(mFile, 10, Long.MAX_VALUE, 100, null);
+        for (int i = 0; i < 250; i++) {
+            journal.append(i, UID, 0x81, i % 2 == 0 ? NDEF : null);
+        }
+        journal.close();
+
+        final List<Long> replayed = new ArrayList<Long>();
+        final List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+        journal = ScanJournal.open(mFile, 10, Long.MAX_VALUE, 100,
+                new ScanJournal.Visitor() {
+                    @Override
+                    public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                            ByteBuffer ndef) {
+                        assertEquals(UID[6], uid[uidLength - 1]);
+                        replayed.add(timestamp);
+                        messages.add(ndef);
+                    }
+                });
+        assertEquals(250, journal.getRecordCount());
+        journal.append(250, UID, 0x81, NDEF);
+        journal.close();
+
+        assertEquals(100, replayed.size());
+        assertEquals(150L, (long) replayed.get(0));
+        assertEquals(249L, (long) replayed.get(99));
+        assertEquals(ByteBuffer.wrap(NDEF), messages.get(0));
+        assertNull(messages.get(1));
+        assertEquals(251, readTimestamps().size());
+    }
+
+    private List<Long> readTimestamps() throws IOException {
+        final List<Long> timestamps = new ArrayList<Long>();
+        ScanJournal.read(mFile, new ScanJournal.Visitor() {
+            @Override
+            public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                    ByteBuffer ndef) {
+                timestamps.add(timestamp);
+            }
+        });
+        return timestamps;
+    }
+}
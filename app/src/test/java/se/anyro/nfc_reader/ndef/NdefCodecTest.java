@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.anyro.nfc_reader.ndef;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_CF;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_IL;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_MB;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_ME;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.FLAG_SR;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_EMPTY;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_MIME_MEDIA;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_RESERVED;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_UNCHANGED;
+import static se.anyro.nfc_reader.ndef.NdefRecordView.TNF_WELL_KNOWN;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NdefCodecTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final byte[] NONE = new byte[0];
+    private static final byte[] MIME = bytes("text/plain");
+
+    @Test
+    public void decodesShortRecord() throws NdefFormatException {
+        byte[] payload = bytes("\u0002enHello");
+        List<NdefRecordView> records = NdefCodec.decode(
+                record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_WELL_KNOWN, NdefRecordView.RTD_TEXT,
+                        NONE, payload));
+
+        assertEquals(1, records.size());
+        NdefRecordView record = records.get(0);
+        assertEquals(TNF_WELL_KNOWN, record.getTnf());
+        assertTrue(record.typeEquals(NdefRecordView.RTD_TEXT));
+        assertArrayEquals(NONE, record.getId());
+        assertArrayEquals(payload, record.getPayload());
+        assertTrue(record.isMessageBegin());
+        assertTrue(record.isMessageEnd());
+        assertFalse(record.isChunked());
+        assertEquals("Hello", record.decodePayload(3, 5, US_ASCII));
+    }
+
+    @Test
+    public void decodesLongRecord() throws NdefFormatException {
+        byte[] payload = filled(300);
+        List<NdefRecordView> records = NdefCodec.decode(
+                record(FLAG_MB | FLAG_ME, TNF_MIME_MEDIA, MIME, NONE, payload));
+
+        assertEquals(1, records.size());
+        assertEquals(300, records.get(0).getPayloadLength());
+        assertArrayEquals(payload, records.get(0).getPayload());
+        assertEquals(ByteBuffer.wrap(payload), records.get(0).payload());
+    }
+
+    @Test
+    public void decodesShortRecordWithFourByteLength() throws NdefFormatException {
+        // SR is optional, a short payload may still use the long length field
+        byte[] payload = filled(3);
+        List<NdefRecordView> records = NdefCodec.decode(
+                record(FLAG_MB | FLAG_ME, TNF_MIME_MEDIA, MIME, NONE, payload));
+
+        assertArrayEquals(payload, records.get(0).getPayload());
+    }
+
+    @Test
+    public void decodesIdLength() throws NdefFormatException {
+        byte[] id = bytes("#id");
+        byte[] payload = filled(4);
+        List<NdefRecordView> records = NdefCodec.decode(record(
+                FLAG_MB | FLAG_ME | FLAG_SR | FLAG_IL, TNF_MIME_MEDIA, MIME, id, payload));
+
+        NdefRecordView record = records.get(0);
+        assertEquals(MIME.length, record.getTypeLength());
+        assertEquals(id.length, record.getIdLength());
+        assertArrayEquals(MIME, record.getType());
+        assertArrayEquals(id, record.getId());
+        assertArrayEquals(payload, record.getPayload());
+    }
+
+    @Test
+    public void decodesSeveralRecords() throws NdefFormatException {
+        List<NdefRecordView> records = NdefCodec.decode(concat(
+                record(FLAG_MB | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1)),
+                record(FLAG_SR, TNF_EMPTY, NONE, NONE, NONE),
+                record(FLAG_ME, TNF_MIME_MEDIA, MIME, NONE, filled(260))));
+
+        assertEquals(3, records.size());
+        assertTrue(records.get(0).isMessageBegin());
+        assertFalse(records.get(0).isMessageEnd());
+        assertEquals(TNF_EMPTY, records.get(1).getTnf());
+        assertEquals(260, records.get(2).getPayloadLength());
+        assertTrue(records.get(2).isMessageEnd());
+    }
+
+    @Test
+    public void reassemblesChunkedRecord() throws NdefFormatException {
+        byte[] id = bytes("x");
+        List<NdefRecordView> records = NdefCodec.decode(concat(
+                record(FLAG_MB | FLAG_CF | FLAG_SR | FLAG_IL, TNF_MIME_MEDIA, MIME, id,
+                        bytes("abc")),
+                record(FLAG_CF, TNF_UNCHANGED, NONE, NONE, bytes("def")),
+                record(FLAG_ME | FLAG_SR, TNF_UNCHANGED, NONE, NONE, bytes("gh"))));
+
+        assertEquals(1, records.size());
+        NdefRecordView record = records.get(0);
+        assertEquals(TNF_MIME_MEDIA, record.getTnf());
+        assertTrue(record.isChunked());
+        assertTrue(record.isMessageBegin());
+        assertTrue(record.isMessageEnd());
+        assertArrayEquals(MIME, record.getType());
+        assertArrayEquals(id, record.getId());
+        assertArrayEquals(bytes("abcdefgh"), record.getPayload());
+    }
+
+    @Test
+    public void decodesBetweenPositionAndLimit() throws NdefFormatException {
+        byte[] message = record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE,
+                bytes("abc"));
+        ByteBuffer buffer = ByteBuffer.wrap(concat(filled(5), message, filled(7)));
+        buffer.position(5).limit(5 + message.length);
+
+        List<NdefRecordView> records = NdefCodec.decode(buffer);
+
+        assertArrayEquals(bytes("abc"), records.get(0).getPayload());
+        assertEquals(5, buffer.position());
+    }
+
+    @Test
+    public void decodesNestedPayload() throws NdefFormatException {
+        byte[] inner = record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE,
+                bytes("in"));
+        NdefRecordView outer = NdefCodec.decode(record(FLAG_MB | FLAG_ME | FLAG_SR,
+                TNF_WELL_KNOWN, NdefRecordView.RTD_SMART_POSTER, NONE, inner)).get(0);
+
+        List<NdefRecordView> records = NdefCodec.decodePayload(outer);
+
+        assertEquals(1, records.size());
+        assertArrayEquals(bytes("in"), records.get(0).getPayload());
+    }
+
+    @Test
+    public void rejectsEmptyMessage() {
+        assertMalformed("empty message", NONE);
+    }
+
+    @Test
+    public void rejectsTruncatedHeader() {
+        // Long record header cut off in the payload length field
+        assertMalformed("truncated record header", new byte[] {(byte) 0xc2, 0x0a, 0x00, 0x00});
+        // Missing ID length
+        assertMalformed("truncated record header",
+                new byte[] {(byte) (FLAG_MB | FLAG_ME | FLAG_SR | FLAG_IL | TNF_MIME_MEDIA), 0, 0});
+    }
+
+    @Test
+    public void rejectsTruncatedPayload() {
+        byte[] message = record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE,
+                filled(10));
+        assertMalformed("past end of data", copyOf(message, message.length - 1));
+    }
+
+    @Test
+    public void rejectsMissingMessageEnd() {
+        assertMalformed("expected ME flag",
+                record(FLAG_MB | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1)));
+        // Ends inside a chunked record
+        assertMalformed("expected ME flag", concat(
+                record(FLAG_MB | FLAG_CF | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1)),
+                record(FLAG_CF | FLAG_SR, TNF_UNCHANGED, NONE, NONE, filled(1))));
+    }
+
+    @Test
+    public void rejectsMisplacedMessageBegin() {
+        assertMalformed("expected MB flag",
+                record(FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1)));
+        assertMalformed("unexpected MB flag", concat(
+                record(FLAG_MB | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1)),
+                record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1))));
+    }
+
+    @Test
+    public void rejectsDataAfterMessageEnd() {
+        assertMalformed("after ME flag", concat(
+                record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE, filled(1)),
+                new byte[] {0}));
+    }
+
+    @Test
+    public void rejectsInvalidTnf() {
+        assertMalformed("TNF_RESERVED",
+                record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_RESERVED, NONE, NONE, NONE));
+        assertMalformed("unexpected TNF_UNCHANGED",
+                record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_UNCHANGED, NONE, NONE, NONE));
+        assertMalformed("TNF_EMPTY",
+                record(FLAG_MB | FLAG_ME | FLAG_SR, TNF_EMPTY, NONE, NONE, filled(1)));
+    }
+
+    @Test
+    public void rejectsMalformedChunks() {
+        byte[] first = record(FLAG_MB | FLAG_CF | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE,
+                filled(1));
+        assertMalformed("expected TNF_UNCHANGED", concat(first,
+                record(FLAG_ME | FLAG_SR, TNF_MIME_MEDIA, NONE, NONE, filled(1))));
+        assertMalformed("zero-length type", concat(first,
+                record(FLAG_ME | FLAG_SR, TNF_UNCHANGED, MIME, NONE, filled(1))));
+        assertMalformed("IL flag", concat(first,
+                record(FLAG_ME | FLAG_SR | FLAG_IL, TNF_UNCHANGED, NONE, NONE, filled(1))));
+        assertMalformed("ME flag in non-trailing chunk",
+                record(FLAG_MB | FLAG_ME | FLAG_CF | FLAG_SR, TNF_MIME_MEDIA, MIME, NONE,
+                        filled(1)));
+    }
+
+    @Test
+    public void rejectsPayloadAboveLimit() {
+        // 0x7fffffff bytes are announced, but only the header is there
+        assertMalformed("above max limit", new byte[] {
+                (byte) (FLAG_MB | FLAG_ME | TNF_MIME_MEDIA), 0, 0x7f, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff});
+    }
+
+    private static void assertMalformed(String reason, byte[] message) {
+        try {
+            NdefCodec.decode(message);
+            fail("Expected NdefFormatException: " + reason);
+        } catch (NdefFormatException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    /**
+     * Builds a record with the given header flags, using a one byte payload
+     * length if FLAG_SR is set and an ID length if FLAG_IL is set.
+     */
+    private static byte[] record(int flags, short tnf, byte[] type, byte[] id, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(flags | tnf);
+        out.write(type.length);
+        if ((flags & FLAG_SR) != 0) {
+            out.write(payload.length);
+        } else {
+            out.write(payload.length >>> 24);
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        if ((flags & FLAG_IL) != 0) {
+            out.write(id.length);
+        }
+        out.write(type, 0, type.length);
+        out.write(id, 0, id.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] copyOf(byte[] bytes, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return copy;
+    }
+
+    private static byte[] filled(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(US_ASCII);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.provision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.ndef.NdefCodec;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+import se.anyro.nfc_reader.record.TextRecord;
+import se.anyro.nfc_reader.record.UriRecord;
+
+public class NdefTemplateTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void encodesPaddedSerialInUri() throws NdefFormatException {
+        NdefTemplate template = NdefTemplate.parse("https://example.com/t/{n:6}", "en");
+
+        byte[] message = template.encode(42, null);
+
+        assertEquals(template.getLength(42, null), message.length);
+        List<NdefRecordView> records = NdefCodec.decode(message);
+        assertEquals(1, records.size());
+        NdefRecordView record = records.get(0);
+        assertEquals(NdefRecordView.TNF_WELL_KNOWN, record.getTnf());
+        assertTrue(record.typeEquals(NdefRecordView.RTD_URI));
+        assertEquals(0x04, record.getPayloadByte(0));
+        assertEquals("https://example.com/t/000042", UriRecord.parse(record).getUri());
+    }
+
+    @Test
+    public void abbreviatesLongestUriPrefix() throws NdefFormatException {
+        assertEquals(0x02, uriRecord("https://www.example.com/{n}").getPayloadByte(0));
+        assertEquals(0x05, uriRecord("tel:+46{n}").getPayloadByte(0));
+        // A scheme without a prefix code, or a placeholder first
+        assertEquals(0x00, uriRecord("geo:1,{n}").getPayloadByte(0));
+        NdefTemplate template = NdefTemplate.uri("{host}/{n}");
+        NdefRecordView record = NdefCodec.decode(template.encode(3,
+                row("https://example.com"))).get(0);
+        assertEquals(0x00, record.getPayloadByte(0));
+        assertEquals("https://example.com/3", UriRecord.parse(record).getUri());
+    }
+
+    @Test
+    public void encodesTextRecord() throws NdefFormatException {
+        NdefTemplate template = NdefTemplate.parse("Tag {n} å", "sv");
+
+        TextRecord text = TextRecord.parse(NdefCodec.decode(template.encode(5, null)).get(0));
+
+        assertEquals("Tag 5 å", text.getText());
+        assertEquals("sv", text.getLanguageCode());
+    }
+
+    @Test
+    public void unescapesDoubledBraces() throws NdefFormatException {
+        assertEquals("a{b}c7", text(NdefTemplate.parse("a{{b}}c{n}", "en"), 7, null));
+        assertEquals("}x", text(NdefTemplate.parse("}x", "en"), 7, null));
+    }
+
+    @Test
+    public void growsSerialPastWidth() throws NdefFormatException {
+        NdefTemplate template = NdefTemplate.parse("{n:3}", "en");
+
+        assertEquals("007", text(template, 7, null));
+        assertEquals("12345", text(template, 12345, null));
+        assertEquals(String.valueOf(Long.MAX_VALUE), text(template, Long.MAX_VALUE, null));
+    }
+
+    @Test
+    public void usesRepeatedColumnOnce() throws NdefFormatException {
+        NdefTemplate template = NdefTemplate.parse("{sku}-{ lot }-{sku}", "en");
+
+        assertEquals(Arrays.asList("sku", "lot"), template.getColumns());
+        assertEquals("A-B-A", text(template, 1, row("A", "B")));
+    }
+
+    @Test
+    public void rejectsMalformedPlaceholders() {
+        String[] templates = {"", "x{n", "x{}", "x{ }", "{n:0}", "{n:20}", "{n:x}"};
+        for (String template : templates) {
+            try {
+                NdefTemplate.parse(template, "en");
+                fail(template);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSerial() {
+        NdefTemplate.parse("{n}", "en").encode(-1, null);
+    }
+
+    @Test
+    public void growsLengthWithDigits() {
+        NdefTemplate template = NdefTemplate.parse("x{n}", "en");
+
+        assertEquals(template.getLength(9, null) + 1, template.getLength(10, null));
+        assertEquals(template.getLength(99, null) + 1, template.getLength(100, null));
+        assertEquals(template.getLength(100, null), template.getLength(999, null));
+    }
+
+    @Test
+    public void switchesToLongRecordAt256Bytes() throws NdefFormatException {
+        // Status byte, "en" and 251 characters leave room for one digit
+        char[] filler = new char[251];
+        Arrays.fill(filler, 'x');
+        NdefTemplate template = NdefTemplate.parse(new String(filler) + "{n}", "en");
+
+        byte[] shortRecord = template.encode(9, null);
+        byte[] longRecord = template.encode(10, null);
+
+        // One more digit and three more length bytes
+        assertEquals(shortRecord.length + 4, longRecord.length);
+        assertEquals(template.getLength(10, null), longRecord.length);
+        assertEquals(NdefRecordView.FLAG_SR, shortRecord[0] & NdefRecordView.FLAG_SR);
+        assertEquals(0, longRecord[0] & NdefRecordView.FLAG_SR);
+        assertEquals(255, NdefCodec.decode(shortRecord).get(0).getPayloadLength());
+        NdefRecordView record = NdefCodec.decode(longRecord).get(0);
+        assertEquals(256, record.getPayloadLength());
+        assertEquals(new String(filler) + "10", TextRecord.parse(record).getText());
+    }
+
+    @Test
+    public void encodesIntoBufferAtOffset() {
+        NdefTemplate template = NdefTemplate.parse("https://example.com/{n}?sku={sku}", "en");
+        byte[][] row = row("SKU-1");
+        byte[] dst = new byte[100];
+
+        int length = template.encode(123, row, dst, 7);
+
+        assertEquals(template.getLength(123, row), length);
+        assertArrayEquals(template.encode(123, row), Arrays.copyOfRange(dst, 7, 7 + length));
+    }
+
+    private static NdefRecordView uriRecord(String template) throws NdefFormatException {
+        return NdefCodec.decode(NdefTemplate.uri(template).encode(1, null)).get(0);
+    }
+
+    private static String text(NdefTemplate template, long serial, byte[][] row)
+            throws NdefFormatException {
+        return TextRecord.parse(NdefCodec.decode(template.encode(serial, row)).get(0))
+                .getText();
+    }
+
+    private static byte[][] row(String... values) {
+        byte[][] row = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            row[i] = values[i].getBytes(UTF_8);
+        }
+        return row;
+    }
+}
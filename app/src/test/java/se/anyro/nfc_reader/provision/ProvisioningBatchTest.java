@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.provision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.ndef.NdefCodec;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.record.TextRecord;
+
+public class ProvisioningBatchTest {
+
+    @Test
+    public void countsSerials() throws NdefFormatException {
+        ProvisioningBatch batch = ProvisioningBatch.counter(NdefTemplate.parse("#{n}", "en"),
+                5, 3);
+
+        assertFalse(batch.isCsv());
+        assertEquals(5, batch.getFirstSerial());
+        assertEquals(7, batch.getLastSerial());
+        assertEquals(3, batch.size());
+        assertEquals("#7", text(batch, 7));
+        assertEquals(batch.encode(7).length, batch.getMaxLength());
+    }
+
+    @Test
+    public void rejectsSerialsOutsideBatch() {
+        ProvisioningBatch batch = ProvisioningBatch.counter(NdefTemplate.parse("#{n}", "en"),
+                5, 3);
+        for (long serial : new long[] {4, 8}) {
+            try {
+                batch.encode(serial);
+                fail("Serial " + serial);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCounterForTemplateWithColumns() {
+        ProvisioningBatch.counter(NdefTemplate.parse("{sku}", "en"), 1, 10);
+    }
+
+    @Test
+    public void readsQuotedFields() throws Exception {
+        ProvisioningBatch batch = csv("{name}|{sku}",
+                "sku,name,unused\r\n"
+                + "A1,\"Widget, \"\"big\"\"\",x\r\n"
+                + "A2,\"two\r\nlines\",\"\"\r\n");
+
+        assertTrue(batch.isCsv());
+        assertEquals(1, batch.getFirstSerial());
+        assertEquals(2, batch.size());
+        assertEquals("Widget, \"big\"|A1", text(batch, 1));
+        // Line breaks inside quotes are kept as they are
+        assertEquals("two\r\nlines|A2", text(batch, 2));
+    }
+
+    @Test
+    public void skipsBlankLines() throws Exception {
+        ProvisioningBatch batch = csv("{sku}", "sku\n\nA\r\n\r\nB\n\n");
+
+        assertEquals(2, batch.size());
+        assertEquals("B", text(batch, 2));
+    }
+
+    @Test
+    public void stripsByteOrderMark() throws Exception {
+        ProvisioningBatch batch = csv("{sku}", "\uFEFFsku\nA");
+
+        assertEquals("A", text(batch, 1));
+    }
+
+    @Test
+    public void findsLongestMessage() throws Exception {
+        ProvisioningBatch batch = csv("{sku}", "sku\nA\nLONGEST\nBB\n");
+
+        assertEquals(batch.encode(2).length, batch.getMaxLength());
+        byte[] dst = new byte[batch.getMaxLength()];
+        assertEquals(batch.encode(3).length, batch.encode(3, dst, 0));
+    }
+
+    @Test
+    public void rejectsMalformedFiles() {
+        String[][] files = {
+            {"{sku}", ""},
+            {"{sku}", "sku\n"},
+            {"{sku}", "name\nA\n"},
+            {"{lot}", "sku,lot\nA,1\nB\n"},
+            {"{sku}", "sku\n\"A\n"},
+        };
+        for (String[] file : files) {
+            try {
+                csv(file[0], file[1]);
+                fail(file[1]);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    private static ProvisioningBatch csv(String template, String file) throws IOException {
+        return ProvisioningBatch.csv(NdefTemplate.parse(template, "en"), new StringReader(file));
+    }
+
+    private static String text(ProvisioningBatch batch, long serial)
+            throws NdefFormatException {
+        return TextRecord.parse(NdefCodec.decode(batch.encode(serial)).get(0)).getText();
+    }
+}
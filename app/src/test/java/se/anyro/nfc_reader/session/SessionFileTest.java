@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.scan.TechMask;
+
+public class SessionFileTest {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33};
+
+    @Test
+    public void keepsProbeProfile() throws IOException {
+        SessionRecorder recorder = new SessionRecorder(1000, UID, TechMask.NFC_V,
+                ProbeProfile.MEMORY);
+        recorder.record(TechMask.NFC_V, TagSession.KIND_TRANSCEIVE, new byte[] {0x22, 0x20},
+                new byte[] {0x00, 0x01}, TagSession.RESULT_OK, 0, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionFile.write(out, Collections.singletonList(recorder.toSession()));
+
+        List<TagSession> sessions = SessionFile.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(1, sessions.size());
+        TagSession session = sessions.get(0);
+        assertEquals(ProbeProfile.MEMORY, session.getProfile());
+        assertEquals(TechMask.NFC_V, session.getTechMask());
+        assertArrayEquals(UID, session.getUid());
+        assertEquals(1, session.getExchanges().size());
+    }
+}
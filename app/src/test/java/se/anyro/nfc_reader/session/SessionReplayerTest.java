@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.SimulatedFelicaCard;
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.Transceiver;
+
+public class SessionReplayerTest {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    /** One URI record, "https://example.com". */
+    private static final byte[] MESSAGE = {
+        (byte) 0xd1, 0x01, 0x0c, 0x55, 0x04, 'e', 'x', 'a', 'm', 'p', 'l', 'e', '.', 'c', 'o',
+        'm'
+    };
+
+    @Test
+    public void replaysFullProfileRecording() throws IOException {
+        TagSession session = recordType2(ProbeProfile.FULL);
+
+        SessionReplayer replayer = replay(session);
+
+        // Only the NDEF read, which the replay sends again
+        assertTrue(transceives(session) > 0);
+        assertEquals(transceives(session), replayer.getCommands());
+        assertEquals(0, replayer.getMisses());
+        assertEquals(0, replayer.getFailures());
+        assertEquals(1, replayer.getRecords());
+    }
+
+    @Test
+    public void replaysMemoryReadsOfMemoryProfileRecording() throws IOException {
+        TagSession full = recordType2(ProbeProfile.FULL);
+        TagSession memory = recordType2(ProbeProfile.MEMORY);
+
+        SessionReplayer replayer = replay(memory);
+
+        assertTrue(transceives(memory) > transceives(full));
+        assertEquals(transceives(memory), replayer.getCommands());
+        assertEquals(0, replayer.getMisses());
+        assertEquals(1, replayer.getRecords());
+    }
+
+    @Test
+    public void sendsNoCommandsForUidOnly() throws IOException {
+        TagSession session = recordType2(ProbeProfile.UID_ONLY);
+
+        SessionReplayer replayer = replay(session);
+
+        assertEquals(0, transceives(session));
+        assertEquals(0, replayer.getCommands());
+        assertEquals(0, replayer.getRecords());
+    }
+
+    @Test
+    public void readsFelicaServicesOnlyWithMemoryProfile() throws IOException {
+        TagSession full = recordFelica(ProbeProfile.FULL);
+        TagSession memory = recordFelica(ProbeProfile.MEMORY);
+
+        SessionReplayer replayer = replay(memory);
+
+        assertEquals(0, transceives(full));
+        assertEquals(transceives(memory), replayer.getCommands());
+        assertEquals(0, replayer.getMisses());
+        assertEquals(0, replayer.getFailures());
+    }
+
+    /** An NTAG216 with {@link #MESSAGE} that Android did not check for NDEF. */
+    private static TagSession recordType2(ProbeProfile profile) throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        tag.writeNdef(MESSAGE);
+        SessionRecorder recorder = new SessionRecorder(1000, UID,
+                TechMask.NFC_A | TechMask.MIFARE_ULTRALIGHT, profile);
+        recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_SAK, 0x00);
+        return record(recorder, TechMask.NFC_A, tag);
+    }
+
+    private static TagSession recordFelica(ProbeProfile profile) throws IOException {
+        SimulatedFelicaCard card = new SimulatedFelicaCard(15);
+        SessionRecorder recorder = new SessionRecorder(2000, card.getIdm(), TechMask.NFC_F,
+                profile);
+        return record(recorder, TechMask.NFC_F, card);
+    }
+
+    /** Runs the pipeline against {@code tag}, recording its exchanges under {@code tech}. */
+    private static TagSession record(final SessionRecorder recorder, final int tech,
+            final Transceiver tag) throws IOException {
+        new SessionReplayer(null).process(recorder.toSession(), new SessionReplayer.Connector() {
+            @Override
+            public Transceiver open(TagSession session, int openTech) {
+                assertEquals(tech, openTech);
+                return new RecordingTransceiver(tag, recorder, tech);
+            }
+        });
+        return recorder.toSession();
+    }
+
+    private static SessionReplayer replay(TagSession session) throws IOException {
+        SessionReplayer replayer = new SessionReplayer(null);
+        replayer.replay(session);
+        return replayer;
+    }
+
+    private static int transceives(TagSession session) {
+        int count = 0;
+        for (TagSession.Exchange exchange : session.getExchanges()) {
+            if (exchange.getKind() == TagSession.KIND_TRANSCEIVE) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
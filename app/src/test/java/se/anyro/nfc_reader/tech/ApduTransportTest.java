@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ApduTransportTest {
+
+    private static final int NDEF_FILE_SIZE = 4096;
+
+    @Test
+    public void encodesShortApdus() throws IOException {
+        CommandLog log = new CommandLog(new SimulatedType4Tag("large", false, NDEF_FILE_SIZE));
+        ApduTransport transport = new ApduTransport(log, false);
+
+        selectNdefFile(transport);
+        ApduTransport.Response response = transport.transmit(0x00, 0xb0, 0x00, 0x00, null, 15);
+        assertEquals(15, response.getData().length);
+        // Ne above 256 is cut to 256, sent as Le 00
+        response = transport.transmit(0x00, 0xb0, 0x00, 0x00, null, 1000);
+        assertEquals(256, response.getData().length);
+        assertTrue(response.isOk());
+
+        assertArrayEquals(bytes(0x00, 0xa4, 0x04, 0x00, 0x07, 0xd2, 0x76, 0x00, 0x00, 0x85,
+                0x01, 0x01, 0x00), log.mCommands.get(0));
+        assertArrayEquals(bytes(0x00, 0xa4, 0x00, 0x0c, 0x02, 0xe1, 0x04),
+                log.mCommands.get(1));
+        assertArrayEquals(bytes(0x00, 0xb0, 0x00, 0x00, 0x0f), log.mCommands.get(2));
+        assertArrayEquals(bytes(0x00, 0xb0, 0x00, 0x00, 0x00), log.mCommands.get(3));
+    }
+
+    @Test
+    public void encodesExtendedLengthOnlyWhenNeeded() throws IOException {
+        SimulatedType4Tag tag = new SimulatedType4Tag("large", true, NDEF_FILE_SIZE);
+        CommandLog log = new CommandLog(tag);
+        ApduTransport transport = new ApduTransport(log, true);
+        selectNdefFile(transport);
+        log.mCommands.clear();
+
+        transport.transmit(0x00, 0xb0, 0x00, 0x00, null, 15);
+        ApduTransport.Response response = transport.transmit(0x00, 0xb0, 0x00, 0x00, null,
+                1000);
+        assertEquals(1000, response.getData().length);
+        // Ne is cut to the transceive limit less the status word
+        response = transport.transmit(0x00, 0xb0, 0x00, 0x00, null,
+                ApduTransport.MAX_EXTENDED_NE);
+        assertEquals(NDEF_FILE_SIZE, response.getData().length);
+        byte[] data = pattern(300);
+        assertTrue(transport.transmit(0x00, 0xd6, 0x00, 0x02, data, 0).isOk());
+        transport.transmit(0x00, 0xd6, 0x00, 0x02, data, 1000);
+
+        assertArrayEquals(bytes(0x00, 0xb0, 0x00, 0x00, 0x0f), log.mCommands.get(0));
+        assertArrayEquals(bytes(0x00, 0xb0, 0x00, 0x00, 0x00, 0x03, 0xe8),
+                log.mCommands.get(1));
+        assertArrayEquals(bytes(0x00, 0xb0, 0x00, 0x00, 0x00, 0xfe, 0xfd),
+                log.mCommands.get(2));
+        byte[] update = log.mCommands.get(3);
+        assertEquals(4 + 3 + 300, update.length);
+        assertArrayEquals(bytes(0x00, 0xd6, 0x00, 0x02, 0x00, 0x01, 0x2c),
+                Arrays.copyOf(update, 7));
+        update = log.mCommands.get(4);
+        assertEquals(4 + 3 + 300 + 2, update.length);
+        assertArrayEquals(bytes(0x03, 0xe8), Arrays.copyOfRange(update, 307, 309));
+        assertArrayEquals(data, Arrays.copyOfRange(tag.ndefFile(), 2, 302));
+    }
+
+    @Test
+    public void chainsCommandDataAtMaxTransceiveLength() throws IOException {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, NDEF_FILE_SIZE);
+        CommandLog log = new CommandLog(tag);
+        ApduTransport transport = new ApduTransport(log, false);
+        selectNdefFile(transport);
+        log.mCommands.clear();
+        byte[] data = pattern(600);
+
+        assertTrue(transport.transmit(0x00, 0xd6, 0x00, 0x00, data, 0).isOk());
+
+        // 255 bytes per short APDU, all but the last with the chaining bit
+        assertEquals(3, log.mCommands.size());
+        assertEquals(2, tag.getChainedCommands());
+        assertEquals(0x10, log.mCommands.get(0)[0]);
+        assertEquals(4 + 1 + 255, log.mCommands.get(0).length);
+        assertEquals(0x00, log.mCommands.get(2)[0]);
+        assertEquals(4 + 1 + 90, log.mCommands.get(2).length);
+        assertArrayEquals(data, Arrays.copyOf(tag.ndefFile(), 600));
+    }
+
+    @Test
+    public void splitsChainAtSmallTransceiveLimit() throws IOException {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, NDEF_FILE_SIZE);
+        CommandLog log = new CommandLog(tag, 64);
+        ApduTransport transport = new ApduTransport(log, false);
+        selectNdefFile(transport);
+        log.mCommands.clear();
+        byte[] data = pattern(600);
+
+        assertTrue(transport.transmit(0x00, 0xd6, 0x00, 0x00, data, 0).isOk());
+
+        // 59 bytes of data after the header and Lc
+        assertEquals(11, log.mCommands.size());
+        assertEquals(10, tag.getChainedCommands());
+        for (byte[] command : log.mCommands) {
+            assertTrue(command.length <= 64);
+        }
+        assertArrayEquals(data, Arrays.copyOf(tag.ndefFile(), 600));
+    }
+
+    @Test
+    public void concatenatesGetResponses() throws IOException {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", true, NDEF_FILE_SIZE);
+        tag.writeNdef(pattern(2000));
+        CommandLog log = new CommandLog(tag);
+        ApduTransport transport = new ApduTransport(log, true);
+        selectNdefFile(transport);
+        log.mCommands.clear();
+
+        ApduTransport.Response response = transport.transmit(0x00, 0xb0, 0x00, 0x00, null,
+                1000);
+
+        // The frame buffer holds 64 bytes, the rest comes with 61xx
+        assertTrue(response.isOk());
+        assertArrayEquals(Arrays.copyOf(tag.ndefFile(), 1000), response.getData());
+        assertEquals(16, log.mCommands.size());
+        assertArrayEquals(bytes(0x00, 0xc0, 0x00, 0x00, 0x00), log.mCommands.get(1));
+        assertArrayEquals(bytes(0x00, 0xc0, 0x00, 0x00, 1000 - 15 * 64), log.mCommands.get(15));
+    }
+
+    @Test
+    public void resendsWithLeFromWrongLengthStatus() throws IOException {
+        SimulatedType4Tag tag = new SimulatedType4Tag("large", false, NDEF_FILE_SIZE);
+        CommandLog log = new CommandLog(tag);
+        ApduTransport transport = new ApduTransport(log, false);
+        selectNdefFile(transport);
+        log.mCommands.clear();
+
+        // 96 bytes left in the file
+        ApduTransport.Response response = transport.transmit(0x00, 0xb0, 0x0f, 0xa0, null,
+                200);
+
+        assertTrue(response.isOk());
+        assertEquals(96, response.getData().length);
+        assertEquals(2, log.mCommands.size());
+        assertArrayEquals(bytes(0x00, 0xb0, 0x0f, 0xa0, 0xc8), log.mCommands.get(0));
+        assertArrayEquals(bytes(0x00, 0xb0, 0x0f, 0xa0, 0x60), log.mCommands.get(1));
+    }
+
+    private static void selectNdefFile(ApduTransport transport) throws IOException {
+        assertTrue(transport.transmit(0x00, 0xa4, 0x04, 0x00, Type4NdefReader.NDEF_AID, 256)
+                .isOk());
+        assertTrue(transport.transmit(0x00, 0xa4, 0x00, 0x0c, bytes(0xe1, 0x04), 0).isOk());
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + 1);
+        }
+        return bytes;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /** Records every APDU, with an optional lower transceive limit. */
+    private static class CommandLog implements Transceiver {
+
+        private final Transceiver mTag;
+        private final int mMaxTransceiveLength;
+        final List<byte[]> mCommands = new ArrayList<byte[]>();
+
+        CommandLog(Transceiver tag) {
+            this(tag, tag.getMaxTransceiveLength());
+        }
+
+        CommandLog(Transceiver tag, int maxTransceiveLength) {
+            mTag = tag;
+            mMaxTransceiveLength = maxTransceiveLength;
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            if (command.length > mMaxTransceiveLength) {
+                throw new IOException("Command of " + command.length + " bytes is too long");
+            }
+            mCommands.add(command.clone());
+            return mTag.transceive(command);
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return mMaxTransceiveLength;
+        }
+
+        @Override
+        public void reconnect() throws IOException {
+            mTag.reconnect();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FelicaReaderTest {
+
+    private static final int[] TRANSIT = {
+        FelicaReader.SERVICE_TRANSIT_HISTORY, FelicaReader.SERVICE_TRANSIT_BALANCE
+    };
+    private static final int[] TRANSIT_BLOCKS = {20, 1};
+
+    @Test
+    public void packsKnownServicesIntoTwoReads() throws IOException {
+        SimulatedFelicaCard card = new SimulatedFelicaCard(15);
+        CommandLog log = new CommandLog(card);
+
+        FelicaReader reader = new FelicaReader(log, card.getIdm());
+        FelicaService[] services = reader.readServices(TRANSIT, TRANSIT_BLOCKS);
+
+        assertEquals(2, reader.getExchanges());
+        assertServices(card, services);
+        // Blocks 0 to 14 of the history, then 15 to 19 and the balance
+        assertEquals(15, elementCount(log.mCommands.get(0)));
+        assertEquals(6, elementCount(log.mCommands.get(1)));
+    }
+
+    @Test
+    public void writesTwoByteBlockListElements() throws IOException {
+        SimulatedFelicaCard card = new SimulatedFelicaCard(15);
+        CommandLog log = new CommandLog(card);
+
+        new FelicaReader(log, card.getIdm()).readServices(TRANSIT, TRANSIT_BLOCKS);
+
+        byte[] expected = {
+            28, FelicaReader.CMD_READ_WITHOUT_ENCRYPTION, 0, 0, 0, 0, 0, 0, 0, 0,
+            // Two service codes, little endian
+            2, 0x0f, 0x09, (byte) 0x8b, 0x00,
+            // Six elements: the two byte flag and the service index, then the block
+            6, (byte) 0x80, 15, (byte) 0x80, 16, (byte) 0x80, 17, (byte) 0x80, 18,
+            (byte) 0x80, 19, (byte) 0x81, 0,
+        };
+        System.arraycopy(card.getIdm(), 0, expected, 2, 8);
+        assertArrayEquals(expected, log.mCommands.get(1));
+    }
+
+    @Test
+    public void namesAtMostSixteenServicesPerRead() throws IOException {
+        // A reader that fits 31 blocks, so the service limit is what splits
+        SimulatedFelicaCard card = new SimulatedFelicaCard(31, 512);
+        int[] codes = new int[20];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = 0x2009 + (i << 6);
+            card.addService(codes[i], 1);
+        }
+        CommandLog log = new CommandLog(card);
+
+        FelicaReader reader = new FelicaReader(log, card.getIdm());
+        FelicaService[] services = reader.readServices(codes, filled(codes.length, 1));
+
+        assertEquals(2, reader.getExchanges());
+        assertServices(card, services);
+        assertEquals(16, serviceCount(log.mCommands.get(0)));
+        assertEquals(4, serviceCount(log.mCommands.get(1)));
+    }
+
+    @Test
+    public void halvesBlocksPerReadOnIllegalBlockCount() throws IOException {
+        // Like FeliCa Lite-S, which takes 4 blocks per command
+        SimulatedFelicaCard card = new SimulatedFelicaCard(4);
+        CommandLog log = new CommandLog(card);
+
+        FelicaReader reader = new FelicaReader(log, card.getIdm());
+        FelicaService[] services = reader.readServices(TRANSIT, TRANSIT_BLOCKS);
+
+        assertServices(card, services);
+        // 15 and 8 blocks are refused with 0xa2, then 5 reads of the
+        // history and one of the balance
+        assertEquals(2 + 6, reader.getExchanges());
+        assertEquals(15, elementCount(log.mCommands.get(0)));
+        assertEquals(8, elementCount(log.mCommands.get(1)));
+        for (int i = 2; i < log.mCommands.size(); i++) {
+            assertEquals(i < 7 ? 4 : 1, elementCount(log.mCommands.get(i)));
+        }
+    }
+
+    @Test
+    public void findsEndOfUnsizedService() throws IOException {
+        SimulatedFelicaCard card = new SimulatedFelicaCard(15);
+        CommandLog log = new CommandLog(card);
+
+        FelicaReader reader = new FelicaReader(log, card.getIdm());
+        FelicaService[] services = reader.readServices(TRANSIT, null);
+
+        assertEquals(20, services[0].getBlockCount());
+        assertEquals(1, services[1].getBlockCount());
+        assertServices(card, services);
+        // History: 0 to 14 read, 15 to 29 and 15 to 21 refused, 15 to 17
+        // and 18 to 19 read, 20 refused. Balance: 15, 7 and 3 blocks
+        // refused, block 0 read, block 1 refused.
+        int[] elements = {15, 15, 7, 3, 2, 1, 15, 7, 3, 1, 1};
+        assertEquals(elements.length, reader.getExchanges());
+        for (int i = 0; i < elements.length; i++) {
+            assertEquals("Read " + i, elements[i], elementCount(log.mCommands.get(i)));
+        }
+    }
+
+    @Test
+    public void findsEndAtMultipleOfBlocksPerRead() throws IOException {
+        SimulatedFelicaCard card = new SimulatedFelicaCard(4);
+        card.addService(0x2009, 8);
+
+        FelicaReader reader = new FelicaReader(card, card.getIdm());
+        // Learn the 4 block limit first
+        reader.readServices(new int[] {0x2009}, new int[] {1});
+        FelicaService[] services = reader.readServices(new int[] {0x2009}, null);
+
+        assertEquals(8, services[0].getBlockCount());
+        assertServices(card, services);
+    }
+
+    @Test
+    public void readsAllKeylessServices() throws IOException {
+        SimulatedFelicaCard card = new SimulatedFelicaCard(15);
+
+        FelicaService[] services = new FelicaReader(card, card.getIdm()).readAll();
+
+        assertEquals(5, services.length);
+        assertEquals(0x008b, services[0].getCode());
+        assertEquals(0x184b, services[4].getCode());
+        assertServices(card, services);
+    }
+
+    private static void assertServices(SimulatedFelicaCard card, FelicaService[] services) {
+        for (FelicaService service : services) {
+            int code = service.getCode();
+            assertEquals(String.format("Blocks of %04x", code), card.getBlockCount(code),
+                    service.getBlockCount());
+            byte[] data = service.getData();
+            for (int block = 0; block < service.getBlockCount(); block++) {
+                for (int i = 0; i < FelicaReader.BLOCK_SIZE; i++) {
+                    assertEquals(String.format("Block %d of %04x", block, code),
+                            SimulatedFelicaCard.blockByte(code, block, i),
+                            data[block * FelicaReader.BLOCK_SIZE + i]);
+                }
+            }
+        }
+    }
+
+    private static int serviceCount(byte[] read) {
+        return read[10] & 0xff;
+    }
+
+    private static int elementCount(byte[] read) {
+        return read[11 + 2 * serviceCount(read)] & 0xff;
+    }
+
+    private static int[] filled(int length, int value) {
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = value;
+        }
+        return array;
+    }
+
+    /** Keeps the Read Without Encryption commands sent to a card. */
+    private static class CommandLog implements Transceiver {
+
+        private final Transceiver mTag;
+        private final List<byte[]> mCommands = new ArrayList<byte[]>();
+
+        CommandLog(Transceiver tag) {
+            mTag = tag;
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            if (command[1] == FelicaReader.CMD_READ_WITHOUT_ENCRYPTION) {
+                mCommands.add(command.clone());
+            }
+            return mTag.transceive(command);
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return mTag.getMaxTransceiveLength();
+        }
+
+        @Override
+        public void reconnect() throws IOException {
+            mTag.reconnect();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MifareClassicDumperTest {
+
+    private static final byte[][] KEYS = MifareClassicDumper.DEFAULT_KEYS;
+    private static final byte[] UNKNOWN = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+    private static final byte[] UID = {0x12, 0x34, 0x56, 0x78};
+    private static final byte[] OTHER_UID = {0x12, 0x34, 0x56, 0x79};
+    private static final int SECTORS = 16;
+
+    private SimulatedMifareClassic mCard;
+    private MifareKeyCache mCache;
+    private MifareClassicDumper mDumper;
+
+    @Before
+    public void setUp() {
+        mCard = new SimulatedMifareClassic(SECTORS);
+        mCache = new MifareKeyCache(4);
+        mDumper = new MifareClassicDumper(KEYS, mCache);
+    }
+
+    @Test
+    public void dumpsTransportCardWithFirstKey() throws IOException {
+        MifareClassicDump dump = mDumper.dump(UID, mCard);
+
+        assertEquals(SECTORS, dump.getOpenedSectorCount());
+        assertEquals(SECTORS, dump.getAuthentications());
+        assertEquals(0, dump.getFailedAuthentications());
+        assertEquals(SECTORS * 4, dump.getReads());
+        assertEquals(0, dump.getFailedReads());
+        assertEquals(SECTORS * 4, dump.getReadBlockCount());
+        assertArrayEquals(KEYS[0], dump.getKey(5));
+        assertFalse(dump.isKeyB(5));
+        assertArrayEquals(mCard.getBlock(9), block(dump, 9));
+    }
+
+    @Test
+    public void triesKeyOfPreviousSectorFirst() throws IOException {
+        setAllSectors(KEYS[5], UNKNOWN, SimulatedMifareClassic.ACCESS_TRANSPORT);
+
+        MifareClassicDump dump = mDumper.dump(UID, mCard);
+
+        // Keys 0 to 4 fail on sector 0 only
+        assertEquals(SECTORS + 5, dump.getAuthentications());
+        assertEquals(5, dump.getFailedAuthentications());
+        assertEquals(SECTORS, dump.getOpenedSectorCount());
+    }
+
+    @Test
+    public void triesKeysABeforeKeysB() throws IOException {
+        mCard.setSector(0, UNKNOWN, KEYS[2], SimulatedMifareClassic.ACCESS_TRANSPORT);
+
+        MifareClassicDump dump = mDumper.dump(UID, mCard);
+
+        assertTrue(dump.isKeyB(0));
+        assertArrayEquals(KEYS[2], dump.getKey(0));
+        // Sector 0: every key A, then keys B 0 to 2. Sector 1: key B 2 from
+        // sector 0 first, then key A 0. Sectors 2 to 15: key A 0.
+        int sector0 = KEYS.length + 3;
+        assertEquals(sector0 + 2 + (SECTORS - 2), dump.getAuthentications());
+        // All but the last try on sector 0 and the first on sector 1 fail
+        assertEquals(sector0, dump.getFailedAuthentications());
+        assertFalse(dump.isKeyB(1));
+    }
+
+    @Test
+    public void triesKeysThatOpenedMostSectorsFirst() throws IOException {
+        setAllSectors(KEYS[5], UNKNOWN, SimulatedMifareClassic.ACCESS_TRANSPORT);
+        mDumper.dump(UID, mCard);
+
+        // Not in the cache, but key 5 opened every sector of the last card
+        MifareClassicDump dump = mDumper.dump(OTHER_UID, mCard);
+
+        assertEquals(SECTORS, dump.getAuthentications());
+        assertEquals(0, dump.getFailedAuthentications());
+    }
+
+    @Test
+    public void remembersKeysPerCard() throws IOException {
+        mCard.setSector(0, KEYS[1], UNKNOWN, SimulatedMifareClassic.ACCESS_TRANSPORT);
+        for (int sector = 1; sector < SECTORS; sector++) {
+            mCard.setSector(sector, KEYS[KEYS.length - 1], UNKNOWN,
+                    SimulatedMifareClassic.ACCESS_TRANSPORT);
+        }
+        MifareClassicDump cold = mDumper.dump(UID, mCard);
+        assertTrue(cold.getFailedAuthentications() > 0);
+
+        // A new dumper with the same cache, so only the cache helps
+        MifareClassicDump warm = new MifareClassicDumper(KEYS, mCache).dump(UID, mCard);
+
+        assertEquals(SECTORS, warm.getAuthentications());
+        assertEquals(0, warm.getFailedAuthentications());
+        assertArrayEquals(cold.getData(), warm.getData());
+        assertEquals(KEYS.length - 1 << 1, mCache.get(UID, 1));
+    }
+
+    @Test
+    public void skipsSectorsNoKeyOpened() throws IOException {
+        mCard.setSector(7, UNKNOWN, UNKNOWN, SimulatedMifareClassic.ACCESS_TRANSPORT);
+
+        MifareClassicDump cold = mDumper.dump(UID, mCard);
+        assertEquals(SECTORS - 1 + 2 * KEYS.length, cold.getAuthentications());
+        assertEquals(2 * KEYS.length, cold.getFailedAuthentications());
+        assertEquals(MifareKeyCache.NO_KEY, mCache.get(UID, 7));
+
+        int exchanges = mCard.getExchanges();
+        MifareClassicDump warm = mDumper.dump(UID, mCard);
+
+        assertEquals(SECTORS - 1, warm.getAuthentications());
+        assertEquals(0, warm.getFailedAuthentications());
+        assertNull(warm.getKey(7));
+        assertFalse(warm.isBlockRead(28));
+        assertEquals(SECTORS - 1 + (SECTORS - 1) * 4, mCard.getExchanges() - exchanges);
+    }
+
+    @Test
+    public void skipsReadsTheAccessBitsRefuse() throws IOException {
+        mCard.setSector(3, KEYS[0], UNKNOWN, SimulatedMifareClassic.ACCESS_BLOCK_2_LOCKED);
+
+        MifareClassicDump dump = mDumper.dump(UID, mCard);
+
+        // Block 2 of sector 3 is not tried, so no read fails and no
+        // authentication is repeated
+        assertFalse(dump.isBlockRead(14));
+        assertTrue(dump.isBlockRead(13));
+        assertTrue(dump.isBlockRead(15));
+        assertEquals(SECTORS * 4 - 1, dump.getReads());
+        assertEquals(0, dump.getFailedReads());
+        assertEquals(SECTORS, dump.getAuthentications());
+    }
+
+    @Test
+    public void decodesAccessBits() {
+        byte[] transport = trailer(SimulatedMifareClassic.ACCESS_TRANSPORT);
+        byte[] locked = trailer(SimulatedMifareClassic.ACCESS_BLOCK_2_LOCKED);
+        for (int block = 0; block < 3; block++) {
+            assertTrue(MifareClassicDumper.canRead(transport, 4, block, false));
+            // Key B can be read in the transport configuration, so it is no key
+            assertFalse(MifareClassicDumper.canRead(transport, 4, block, true));
+        }
+        assertTrue(MifareClassicDumper.canRead(locked, 4, 1, false));
+        assertTrue(MifareClassicDumper.canRead(locked, 4, 1, true));
+        assertFalse(MifareClassicDumper.canRead(locked, 4, 2, false));
+        assertFalse(MifareClassicDumper.canRead(locked, 4, 2, true));
+        // Sectors of 16 blocks share access bits per 5 blocks
+        assertTrue(MifareClassicDumper.canRead(locked, 16, 9, false));
+        assertFalse(MifareClassicDumper.canRead(locked, 16, 10, false));
+        assertFalse(MifareClassicDumper.canRead(locked, 16, 14, false));
+        // Access bits that do not match their inverted copy leave it to the card
+        byte[] corrupt = trailer(new byte[] {0x00, 0x00, 0x00});
+        assertTrue(MifareClassicDumper.canRead(corrupt, 4, 2, false));
+    }
+
+    private void setAllSectors(byte[] keyA, byte[] keyB, byte[] access) {
+        for (int sector = 0; sector < SECTORS; sector++) {
+            mCard.setSector(sector, keyA, keyB, access);
+        }
+    }
+
+    private static byte[] block(MifareClassicDump dump, int block) {
+        byte[] data = new byte[MifareClassicDump.BLOCK_SIZE];
+        System.arraycopy(dump.getData(), block * MifareClassicDump.BLOCK_SIZE, data, 0,
+                data.length);
+        return data;
+    }
+
+    private static byte[] trailer(byte[] access) {
+        byte[] trailer = new byte[16];
+        System.arraycopy(access, 0, trailer, 6, 3);
+        return trailer;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class NfcVReaderTest {
+
+    private static final int BLOCK_SIZE = 4;
+
+    @Test
+    public void readsSlixInOneCommand() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("slix", 253);
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        // GET SYSTEM INFORMATION, then all 28 blocks
+        assertEquals(1 + 1, memory.getExchanges());
+        assertEquals(memory.getExchanges(), tag.getExchanges());
+        assertEquals("NXP", memory.getManufacturer());
+        assertEquals(0x01, memory.getIcReference());
+        assertEquals(BLOCK_SIZE, memory.getBlockSize());
+        assertEquals(28, memory.getBlockCount());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void splitsReadsAtTransceiveLimit() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("slix2", 64);
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        // 15 blocks after the response flags, 80 blocks in 6 commands
+        assertEquals(1 + 6, memory.getExchanges());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void halvesBatchWhenRefused() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("st", 253);
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        // 63 blocks are refused, then 31, 31 and the last 2 are read
+        assertEquals(1 + 1 + 3, memory.getExchanges());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void dropsToReadSingleBlockWhenTagKeepsQuiet() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("tagit", 253);
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        // The READ MULTIPLE BLOCKS without an answer, then one block each
+        assertEquals(1 + 1 + 64, memory.getExchanges());
+        assertEquals(-1, memory.getIcReference());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void dropsToReadSingleBlockWhenNotSupported() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("tagit", 253);
+        tag.reportUnsupported();
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        // Not halved: error 01 goes straight to READ SINGLE BLOCK
+        assertEquals(1 + 1 + 64, memory.getExchanges());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void learnsBlockSizeWithoutSystemInfo() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("tagit", 253);
+        tag.disableSystemInfo();
+
+        NfcVReader reader = new NfcVReader(tag, tag.uid());
+        NfcVMemory memory = reader.readAll();
+
+        // GET SYSTEM INFORMATION, then every block and the one past the end
+        assertEquals(1 + 64 + 1, memory.getExchanges());
+        assertEquals(0, reader.getBlockCount());
+        assertEquals(BLOCK_SIZE, memory.getBlockSize());
+        assertEquals(64, memory.getBlockCount());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void readsUpTo256Blocks() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("m24lr", 253);
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        assertEquals(1 + NfcVReader.MAX_BLOCKS, memory.getExchanges());
+        assertEquals(NfcVReader.MAX_BLOCKS, memory.getBlockCount());
+        assertArrayEquals(Arrays.copyOf(tag.memory(), NfcVReader.MAX_BLOCKS * BLOCK_SIZE),
+                memory.getData());
+    }
+
+    @Test
+    public void stopsAtReadProtectedBlock() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag("slix2", 253);
+        tag.protectFrom(40);
+
+        NfcVMemory memory = new NfcVReader(tag, tag.uid()).readAll();
+
+        // Refused batches of 63, 31, 15, 7 and 3 blocks, read ones of 31 and
+        // 7, then blocks 38 and 39 on their own and the refused block 40
+        assertEquals(1 + 5 + 2 + 3, memory.getExchanges());
+        assertEquals(40, memory.getBlockCount());
+        assertArrayEquals(Arrays.copyOf(tag.memory(), 40 * BLOCK_SIZE), memory.getData());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A FeliCa card in memory laid out like a Suica, which counts the commands
+ * sent to it. It answers Request Service, Search Service Code and Read
+ * Without Encryption in the NfcF.transceive format, with the length byte.
+ * Shared by the tests and the benchmarks.
+ */
+public final class SimulatedFelicaCard implements Transceiver {
+
+    /**
+     * Search Service Code order: areas as {code, end code, -1}, services as
+     * {code, blocks, 0}.
+     */
+    private static final int[][] LAYOUT = {
+        {0x0000, 0xfffe, -1},
+        {0x0088, 1, 0}, {0x008b, 1, 0},
+        {0x0800, 0x0fff, -1},
+        {0x090c, 20, 0}, {0x090f, 20, 0},
+        {0x1000, 0x17ff, -1},
+        {0x108c, 3, 0}, {0x108f, 3, 0}, {0x10c8, 2, 0}, {0x10cb, 2, 0},
+        {0x1800, 0x1fff, -1},
+        {0x1808, 16, 0}, {0x184b, 16, 0},
+    };
+
+    private final byte[] mIdm = {
+        0x01, 0x01, 0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xbc
+    };
+    private final int mMaxBlocks;
+    private final int mMaxTransceiveLength;
+    private int[][] mLayout = LAYOUT;
+
+    private int mExchanges;
+    private int mResponseBytes;
+
+    /**
+     * @param maxBlocks the most blocks the card reads per command; more
+     *        are refused with status 0xa2
+     */
+    public SimulatedFelicaCard(int maxBlocks) {
+        this(maxBlocks, 255);
+    }
+
+    /**
+     * @param maxBlocks the most blocks the card reads per command; more
+     *        are refused with status 0xa2
+     * @param maxTransceiveLength the reader's limit, 255 on most phones
+     */
+    public SimulatedFelicaCard(int maxBlocks, int maxTransceiveLength) {
+        mMaxBlocks = maxBlocks;
+        mMaxTransceiveLength = maxTransceiveLength;
+    }
+
+    /** Adds a service after the last one, in the last area. */
+    public void addService(int code, int blocks) {
+        mLayout = Arrays.copyOf(mLayout, mLayout.length + 1);
+        mLayout[mLayout.length - 1] = new int[] {code, blocks, 0};
+    }
+
+    public byte[] getIdm() {
+        return mIdm.clone();
+    }
+
+    /** Returns the number of commands sent, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Returns the bytes of all responses. */
+    public int getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    /** Returns the block count of a service, or -1 if there is none. */
+    public int getBlockCount(int code) {
+        for (int[] entry : mLayout) {
+            if (entry[2] == 0 && entry[0] == code) {
+                return entry[1];
+            }
+        }
+        return -1;
+    }
+
+    /** The content of a block, different for every service and block. */
+    public static byte blockByte(int code, int block, int i) {
+        return (byte) (code * 31 + block * 7 + i);
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        mExchanges++;
+        if (command.length < 10 || (command[0] & 0xff) != command.length) {
+            throw new IOException("Malformed command");
+        }
+        for (int i = 0; i < mIdm.length; i++) {
+            if (command[2 + i] != mIdm[i]) {
+                throw new IOException("Tag was lost");
+            }
+        }
+        byte[] response;
+        switch (command[1]) {
+            case 0x02:
+                response = requestService(command);
+                break;
+            case 0x06:
+                response = read(command);
+                break;
+            case 0x0a:
+                response = searchServiceCode(command);
+                break;
+            default:
+                throw new IOException("Tag was lost");
+        }
+        response[0] = (byte) response.length;
+        response[1] = (byte) (command[1] + 1);
+        System.arraycopy(mIdm, 0, response, 2, mIdm.length);
+        mResponseBytes += response.length;
+        return response;
+    }
+
+    private byte[] requestService(byte[] command) {
+        int n = command[10] & 0xff;
+        byte[] response = new byte[11 + 2 * n];
+        response[10] = (byte) n;
+        for (int i = 0; i < n; i++) {
+            int code = (command[11 + 2 * i] & 0xff) | (command[12 + 2 * i] & 0xff) << 8;
+            int keyVersion = getBlockCount(code) >= 0 ? 0x0000 : 0xffff;
+            response[11 + 2 * i] = (byte) keyVersion;
+            response[12 + 2 * i] = (byte) (keyVersion >> 8);
+        }
+        return response;
+    }
+
+    private byte[] searchServiceCode(byte[] command) {
+        int index = (command[10] & 0xff) | (command[11] & 0xff) << 8;
+        if (index >= mLayout.length) {
+            return new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff};
+        }
+        int[] entry = mLayout[index];
+        byte[] response = new byte[entry[2] < 0 ? 14 : 12];
+        response[10] = (byte) entry[0];
+        response[11] = (byte) (entry[0] >> 8);
+        if (entry[2] < 0) {
+            response[12] = (byte) entry[1];
+            response[13] = (byte) (entry[1] >> 8);
+        }
+        return response;
+    }
+
+    private byte[] read(byte[] command) {
+        int services = command[10] & 0xff;
+        int[] codes = new int[services];
+        int pos = 11;
+        for (int i = 0; i < services; i++) {
+            codes[i] = (command[pos] & 0xff) | (command[pos + 1] & 0xff) << 8;
+            pos += 2;
+        }
+        int blocks = command[pos++] & 0xff;
+        if (services == 0 || services > 16) {
+            return status(0xa1);
+        }
+        if (blocks == 0 || blocks > mMaxBlocks) {
+            return status(0xa2);
+        }
+        byte[] response = new byte[13 + 16 * blocks];
+        response[12] = (byte) blocks;
+        for (int e = 0; e < blocks; e++) {
+            int element = command[pos++] & 0xff;
+            int order = element & 0x0f;
+            int block;
+            if ((element & 0x80) != 0) {
+                block = command[pos++] & 0xff;
+            } else {
+                block = (command[pos] & 0xff) | (command[pos + 1] & 0xff) << 8;
+                pos += 2;
+            }
+            if (order >= services) {
+                return status(0xa3);
+            }
+            int code = codes[order];
+            int count = getBlockCount(code);
+            if (count < 0 || (code & 0x01) == 0) {
+                return status(0xa6);
+            }
+            if (block >= count) {
+                return status(0xa8);
+            }
+            for (int i = 0; i < 16; i++) {
+                response[13 + 16 * e + i] = blockByte(code, block, i);
+            }
+        }
+        return response;
+    }
+
+    private static byte[] status(int status2) {
+        byte[] response = new byte[12];
+        response[10] = 0x01;
+        response[11] = (byte) status2;
+        return response;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mMaxTransceiveLength;
+    }
+
+    @Override
+    public void reconnect() {
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A MIFARE Classic 1K or 4K card in memory, which counts the exchanges a
+ * reader makes with it. Wrong keys and refused reads drop the
+ * authentication, as on a real card. Shared by the tests and the
+ * benchmarks.
+ */
+public final class SimulatedMifareClassic implements MifareClassicIo {
+
+    /** Transport configuration: every block readable with key A or B. */
+    public static final byte[] ACCESS_TRANSPORT = {(byte) 0xff, 0x07, (byte) 0x80};
+    /**
+     * Data blocks readable with key A or B, except block 2 which is never
+     * readable; key B is a key.
+     */
+    public static final byte[] ACCESS_BLOCK_2_LOCKED = {(byte) 0xb3, (byte) 0xcb, 0x44};
+
+    private final int mSectors;
+    private final byte[][] mKeysA;
+    private final byte[][] mKeysB;
+    private final byte[] mMemory;
+
+    private int mAuthenticated = -1;
+    private boolean mAuthenticatedWithB;
+    private int mExchanges;
+
+    /** @param sectors 16 for 1K, 40 for 4K */
+    public SimulatedMifareClassic(int sectors) {
+        mSectors = sectors;
+        mKeysA = new byte[sectors][];
+        mKeysB = new byte[sectors][];
+        mMemory = new byte[(sectorToBlock(sectors - 1) + getBlockCountInSector(sectors - 1))
+                * 16];
+        for (int i = 0; i < mMemory.length; i++) {
+            mMemory[i] = (byte) (i * 31);
+        }
+        for (int sector = 0; sector < sectors; sector++) {
+            setSector(sector, new byte[] {-1, -1, -1, -1, -1, -1},
+                    new byte[] {-1, -1, -1, -1, -1, -1}, ACCESS_TRANSPORT);
+        }
+    }
+
+    public void setSector(int sector, byte[] keyA, byte[] keyB, byte[] access) {
+        mKeysA[sector] = keyA;
+        mKeysB[sector] = keyB;
+        int trailer = (sectorToBlock(sector) + getBlockCountInSector(sector) - 1) * 16;
+        System.arraycopy(keyA, 0, mMemory, trailer, 6);
+        System.arraycopy(access, 0, mMemory, trailer + 6, 3);
+        System.arraycopy(keyB, 0, mMemory, trailer + 10, 6);
+    }
+
+    /** Returns the authentications and reads so far, failed ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Returns the 16 bytes of {@code block}, key A included. */
+    public byte[] getBlock(int block) {
+        return Arrays.copyOfRange(mMemory, block * 16, block * 16 + 16);
+    }
+
+    @Override
+    public int getSectorCount() {
+        return mSectors;
+    }
+
+    @Override
+    public int getBlockCountInSector(int sector) {
+        return sector < 32 ? 4 : 16;
+    }
+
+    @Override
+    public int sectorToBlock(int sector) {
+        return sector < 32 ? sector * 4 : 128 + (sector - 32) * 16;
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyA(int sector, byte[] key) {
+        return authenticate(sector, key, mKeysA[sector], false);
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyB(int sector, byte[] key) {
+        return authenticate(sector, key, mKeysB[sector], true);
+    }
+
+    @Override
+    public byte[] readBlock(int block) throws IOException {
+        mExchanges++;
+        int sector = block < 128 ? block / 4 : 32 + (block - 128) / 16;
+        if (sector != mAuthenticated || !readable(block, sector)) {
+            mAuthenticated = -1;
+            throw new IOException("Transceive failed");
+        }
+        byte[] data = Arrays.copyOfRange(mMemory, block * 16, block * 16 + 16);
+        int trailer = sectorToBlock(sector) + getBlockCountInSector(sector) - 1;
+        if (block == trailer) {
+            // Key A never reads back
+            Arrays.fill(data, 0, 6, (byte) 0);
+        }
+        return data;
+    }
+
+    private boolean authenticate(int sector, byte[] key, byte[] expected, boolean keyB) {
+        mExchanges++;
+        if (!Arrays.equals(key, expected)) {
+            mAuthenticated = -1;
+            return false;
+        }
+        mAuthenticated = sector;
+        mAuthenticatedWithB = keyB;
+        return true;
+    }
+
+    private boolean readable(int block, int sector) {
+        int first = sectorToBlock(sector);
+        int count = getBlockCountInSector(sector);
+        int index = block - first;
+        if (index == count - 1) {
+            return true;
+        }
+        int trailer = (first + count - 1) * 16;
+        int b7 = mMemory[trailer + 7] & 0xff;
+        int b8 = mMemory[trailer + 8] & 0xff;
+        int group = count == 4 ? index : index / 5;
+        int access = (b7 >> 4 + group & 1) << 2 | (b8 >> group & 1) << 1 | (b8 >> 4 + group & 1);
+        if (access == 7) {
+            return false;
+        }
+        return mAuthenticatedWithB || (access != 3 && access != 5);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An ISO 15693 tag in memory, which counts the commands sent to it and
+ * estimates their air time. It answers addressed commands with its UID
+ * only, and does not answer commands it does not know, which Android
+ * reports as a lost tag until {@link #reconnect()}. Shared by the tests and
+ * the benchmarks.
+ */
+public final class SimulatedNfcVTag implements Transceiver {
+
+    /** Response and request bits per microsecond at the high data rate. */
+    private static final double BITS_PER_MICRO = 0.02648;
+    /** The tag's response delay t1, in microseconds. */
+    private static final int TURNAROUND_MICROS = 320;
+    /** SOF, EOF and the 2 byte CRC Android adds and strips. */
+    private static final int FRAME_OVERHEAD_BYTES = 4;
+
+    private static final int ERROR_NOT_SUPPORTED = 0x01;
+    private static final int ERROR_UNKNOWN = 0x0f;
+    private static final int ERROR_BLOCK_NOT_AVAILABLE = 0x10;
+    private static final int ERROR_READ_PROTECTED = 0x15;
+
+    private final byte[] mUid;
+    private final byte[] mMemory;
+    private final int mBlockSize;
+    /** The most blocks per READ MULTIPLE BLOCKS, 0 if not supported. */
+    private final int mMaxBatch;
+    private final int mIcReference;
+    private final int mMaxTransceiveLength;
+    private boolean mSystemInfo;
+    private boolean mReportUnsupported;
+    private int mProtectedBlock;
+    private boolean mLost;
+
+    private int mExchanges;
+    private int mResponseBytes;
+    private long mAirMicros;
+
+    /**
+     * @param chip "slix" (NXP ICODE SLIX, 28 blocks), "slix2" (80 blocks),
+     *        "st" (64 blocks, at most 32 per READ MULTIPLE BLOCKS),
+     *        "tagit" (64 blocks, no READ MULTIPLE BLOCKS) or "m24lr" (2048
+     *        blocks, no GET SYSTEM INFORMATION without the protocol
+     *        extension flag)
+     * @param maxTransceiveLength the reader's limit, 253 on most phones
+     */
+    public SimulatedNfcVTag(String chip, int maxTransceiveLength) {
+        int manufacturer;
+        int blocks;
+        mSystemInfo = true;
+        if ("slix".equals(chip)) {
+            manufacturer = 0x04;
+            blocks = 28;
+            mMaxBatch = 28;
+            mIcReference = 0x01;
+        } else if ("slix2".equals(chip)) {
+            manufacturer = 0x04;
+            blocks = 80;
+            mMaxBatch = 80;
+            mIcReference = 0x01;
+        } else if ("st".equals(chip)) {
+            manufacturer = 0x02;
+            blocks = 64;
+            mMaxBatch = 32;
+            mIcReference = 0x20;
+        } else if ("tagit".equals(chip)) {
+            manufacturer = 0x07;
+            blocks = 64;
+            mMaxBatch = 0;
+            mIcReference = -1;
+        } else if ("m24lr".equals(chip)) {
+            manufacturer = 0x02;
+            blocks = 2048;
+            mMaxBatch = 32;
+            mIcReference = 0x2c;
+            mSystemInfo = false;
+        } else {
+            throw new IllegalArgumentException(chip);
+        }
+        mUid = new byte[] {
+            0x11, 0x22, 0x33, 0x44, 0x55, 0x01, (byte) manufacturer, (byte) 0xe0
+        };
+        mBlockSize = 4;
+        mMemory = new byte[blocks * mBlockSize];
+        for (int i = 0; i < mMemory.length; i++) {
+            mMemory[i] = (byte) (i * 7);
+        }
+        mMaxTransceiveLength = maxTransceiveLength;
+        mProtectedBlock = blocks;
+    }
+
+    /** Makes the tag keep quiet on GET SYSTEM INFORMATION. */
+    public void disableSystemInfo() {
+        mSystemInfo = false;
+    }
+
+    /**
+     * Makes the tag answer commands it does not know with error 01, not
+     * supported, instead of keeping quiet.
+     */
+    public void reportUnsupported() {
+        mReportUnsupported = true;
+    }
+
+    /** Refuses to read {@code block} and the blocks after it. */
+    public void protectFrom(int block) {
+        mProtectedBlock = block;
+    }
+
+    /** Returns the UID, least significant byte first as Tag.getId(). */
+    public byte[] uid() {
+        return mUid.clone();
+    }
+
+    /** Returns the user memory. */
+    public byte[] memory() {
+        return mMemory;
+    }
+
+    /** Returns the number of commands sent to the tag. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Returns the bytes of all responses. */
+    public int getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    /** Returns the estimated time on air of all commands and responses. */
+    public long getAirMicros() {
+        return mAirMicros;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        mExchanges++;
+        mAirMicros += TURNAROUND_MICROS
+                + (long) ((command.length + FRAME_OVERHEAD_BYTES) * 8 / BITS_PER_MICRO);
+        if (mLost) {
+            throw new IOException("Tag was lost");
+        }
+        byte[] response = respond(command);
+        if (response == null) {
+            mLost = true;
+            throw new IOException("Tag was lost");
+        }
+        if (response.length > mMaxTransceiveLength) {
+            throw new IOException("Response of " + response.length + " bytes is too long");
+        }
+        mResponseBytes += response.length;
+        mAirMicros += (long) ((response.length + FRAME_OVERHEAD_BYTES) * 8 / BITS_PER_MICRO);
+        return response;
+    }
+
+    /** Returns null for no answer. */
+    private byte[] respond(byte[] command) {
+        if (command.length < 2 + mUid.length || (command[0] & 0x20) == 0
+                || !Arrays.equals(Arrays.copyOfRange(command, 2, 2 + mUid.length), mUid)) {
+            // Only addressed commands are simulated
+            return null;
+        }
+        int blocks = mMemory.length / mBlockSize;
+        int pos = 2 + mUid.length;
+        switch (command[1]) {
+            case 0x2b: { // GET SYSTEM INFORMATION
+                if (!mSystemInfo) {
+                    return unsupported();
+                }
+                boolean icReference = mIcReference >= 0;
+                byte[] response = new byte[2 + mUid.length + 4 + (icReference ? 1 : 0)];
+                response[1] = (byte) (0x07 | (icReference ? 0x08 : 0));
+                System.arraycopy(mUid, 0, response, 2, mUid.length);
+                int info = 2 + mUid.length;
+                response[info++] = 0x00; // DSFID
+                response[info++] = 0x00; // AFI
+                response[info++] = (byte) (blocks - 1);
+                response[info++] = (byte) (mBlockSize - 1);
+                if (icReference) {
+                    response[info] = (byte) mIcReference;
+                }
+                return response;
+            }
+            case 0x20: { // READ SINGLE BLOCK
+                int block = command[pos] & 0xff;
+                if (block >= blocks) {
+                    return error(ERROR_BLOCK_NOT_AVAILABLE);
+                }
+                if (block >= mProtectedBlock) {
+                    return error(ERROR_READ_PROTECTED);
+                }
+                return read(block, 1);
+            }
+            case 0x23: { // READ MULTIPLE BLOCKS
+                if (mMaxBatch == 0) {
+                    return unsupported();
+                }
+                int block = command[pos] & 0xff;
+                int count = (command[pos + 1] & 0xff) + 1;
+                if (block + count > blocks) {
+                    return error(ERROR_BLOCK_NOT_AVAILABLE);
+                }
+                if (count > mMaxBatch) {
+                    return error(ERROR_UNKNOWN);
+                }
+                if (block + count > mProtectedBlock) {
+                    return error(ERROR_READ_PROTECTED);
+                }
+                return read(block, count);
+            }
+            default:
+                return unsupported();
+        }
+    }
+
+    private byte[] unsupported() {
+        return mReportUnsupported ? error(ERROR_NOT_SUPPORTED) : null;
+    }
+
+    private byte[] read(int block, int count) {
+        byte[] response = new byte[1 + count * mBlockSize];
+        System.arraycopy(mMemory, block * mBlockSize, response, 1, count * mBlockSize);
+        return response;
+    }
+
+    private static byte[] error(int code) {
+        return new byte[] {0x01, (byte) code};
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mMaxTransceiveLength;
+    }
+
+    @Override
+    public void reconnect() {
+        mLost = false;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A MIFARE Ultralight or NTAG in memory, which counts the commands sent to
+ * it. A NAK halts it until {@link #reconnect()}, as on a real tag. Shared
+ * by the tests and the benchmarks.
+ */
+public final class SimulatedType2Tag implements Transceiver {
+
+    private final byte[] mVersion;
+    private final byte[] mMemory;
+    private final int mMaxTransceiveLength;
+    private boolean mFastRead;
+    private int mProtectedPage;
+    private boolean mHalted;
+
+    private int mExchanges;
+    private int mResponseBytes;
+
+    /**
+     * @param chip "ultralight", "ntag213", "ntag215" or "ntag216"
+     * @param maxTransceiveLength the reader's limit, 253 on most phones
+     */
+    public SimulatedType2Tag(String chip, int maxTransceiveLength) {
+        int pages;
+        int dataSize;
+        if ("ultralight".equals(chip)) {
+            mVersion = null;
+            pages = 16;
+            dataSize = 48;
+        } else if ("ntag213".equals(chip)) {
+            mVersion = version(0x0f);
+            pages = 45;
+            dataSize = 144;
+        } else if ("ntag215".equals(chip)) {
+            mVersion = version(0x11);
+            pages = 135;
+            dataSize = 496;
+        } else if ("ntag216".equals(chip)) {
+            mVersion = version(0x13);
+            pages = 231;
+            dataSize = 872;
+        } else {
+            throw new IllegalArgumentException(chip);
+        }
+        mMaxTransceiveLength = maxTransceiveLength;
+        mFastRead = mVersion != null;
+        mProtectedPage = pages;
+        mMemory = new byte[pages * 4];
+        for (int i = 0; i < mMemory.length; i++) {
+            mMemory[i] = (byte) (i * 7);
+        }
+        mMemory[12] = (byte) 0xe1;
+        mMemory[13] = 0x10;
+        mMemory[14] = (byte) (dataSize / 8);
+        mMemory[15] = 0x00;
+    }
+
+    /**
+     * Writes {@code message} to the data area as an NDEF TLV, after a Lock
+     * Control TLV as on an NTAG21x, followed by a Terminator TLV.
+     */
+    public void writeNdef(byte[] message) {
+        int pos = 16;
+        byte[] lockControl = {0x01, 0x03, (byte) 0xa0, 0x0c, 0x44};
+        System.arraycopy(lockControl, 0, mMemory, pos, lockControl.length);
+        pos += lockControl.length;
+        mMemory[pos++] = 0x03;
+        if (message.length < 0xff) {
+            mMemory[pos++] = (byte) message.length;
+        } else {
+            mMemory[pos++] = (byte) 0xff;
+            mMemory[pos++] = (byte) (message.length >> 8);
+            mMemory[pos++] = (byte) message.length;
+        }
+        System.arraycopy(message, 0, mMemory, pos, message.length);
+        mMemory[pos + message.length] = (byte) 0xfe;
+    }
+
+    /**
+     * Makes the tag refuse FAST_READ while still answering GET_VERSION, like
+     * some clones do.
+     */
+    public void disableFastRead() {
+        mFastRead = false;
+    }
+
+    /**
+     * Makes the tag refuse to read {@code page} and the pages after it, as
+     * if they were password protected.
+     */
+    public void protectFrom(int page) {
+        mProtectedPage = page;
+    }
+
+    /** Returns the memory, 4 bytes per page, for writes and checks. */
+    public byte[] memory() {
+        return mMemory;
+    }
+
+    /** Returns the number of commands sent, refused ones included. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Returns the bytes of all responses, which take air time as well. */
+    public int getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        mExchanges++;
+        byte[] response = respond(command);
+        mResponseBytes += response.length;
+        return response;
+    }
+
+    private byte[] respond(byte[] command) throws IOException {
+        if (mHalted) {
+            throw new IOException("Tag halted");
+        }
+        int pages = mMemory.length / 4;
+        switch (command[0]) {
+            case 0x60: // GET_VERSION
+                if (mVersion != null) {
+                    return mVersion.clone();
+                }
+                break;
+            case 0x30: { // READ, rolls over at the end of the memory
+                int page = command[1] & 0xff;
+                if (page < pages && !readsProtected(page, pages)) {
+                    byte[] response = new byte[16];
+                    for (int i = 0; i < 16; i++) {
+                        response[i] = mMemory[(page * 4 + i) % mMemory.length];
+                    }
+                    return response;
+                }
+                break;
+            }
+            case 0x3a: { // FAST_READ
+                int start = command[1] & 0xff;
+                int end = command[2] & 0xff;
+                if (mFastRead && start <= end && end < mProtectedPage
+                        && (end - start + 1) * 4 <= mMaxTransceiveLength) {
+                    return Arrays.copyOfRange(mMemory, start * 4, (end + 1) * 4);
+                }
+                break;
+            }
+            case (byte) 0xa2: { // WRITE
+                int page = command[1] & 0xff;
+                if (page >= 2 && page < pages && command.length == 6) {
+                    System.arraycopy(command, 2, mMemory, page * 4, 4);
+                    return new byte[] {0x0a};
+                }
+                break;
+            }
+        }
+        mHalted = true;
+        throw new IOException("NAK");
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mMaxTransceiveLength;
+    }
+
+    @Override
+    public void reconnect() {
+        mHalted = false;
+    }
+
+    /** Whether the 4 pages a READ from {@code page} returns include a protected one. */
+    private boolean readsProtected(int page, int pages) {
+        for (int i = 0; i < 4; i++) {
+            if ((page + i) % pages >= mProtectedPage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] version(int storage) {
+        return new byte[] {0x00, 0x04, 0x04, 0x02, 0x01, 0x00, (byte) storage, 0x03};
+    }
+}
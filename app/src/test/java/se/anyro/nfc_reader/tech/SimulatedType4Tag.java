@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An NFC Forum Type 4 tag in memory with an NDEF Tag Application, a CC
+ * file and an NDEF file, which counts the APDUs sent to it.
+ *
+ * <p>It answers as much as fits its frame buffer and leaves the rest to
+ * GET RESPONSE with 61xx, and asks for the right Le with 6Cxx when Le runs
+ * past the end of a file. Offsets above 32767 are read with READ BINARY
+ * B1. Command data split with command chaining is joined before the last
+ * command of the chain runs. UPDATE BINARY writes the selected file.
+ * Shared by the tests and the benchmarks.
+ */
+public final class SimulatedType4Tag implements Transceiver {
+
+    private static final byte[] NDEF_AID = {
+        (byte) 0xd2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x01
+    };
+    private static final int CC_FILE = 0xe103;
+    private static final int NDEF_FILE = 0xe104;
+
+    private final int mMaxTransceiveLength;
+    private final boolean mExtendedLength;
+    private final int mFrameSize;
+    private final byte[] mCc;
+    private final byte[] mNdefFile;
+    private boolean mApplicationSelected;
+    private byte[] mSelected;
+    /** Response data left for GET RESPONSE. */
+    private byte[] mPending;
+    private int mPendingOffset;
+    /** Command data of a chain so far, or null outside a chain. */
+    private byte[] mChain;
+    private int mChainIns;
+
+    private int mExchanges;
+    private int mChainedCommands;
+    private int mResponseBytes;
+
+    /**
+     * @param card "desfire": MLe 59 and a 64 byte frame buffer, "large": MLe
+     *        65535 and a frame buffer as large as any response
+     * @param extendedLength whether the tag and the reader take extended
+     *        length APDUs; the reader's limit is 65279 with them, else 261
+     */
+    public SimulatedType4Tag(String card, boolean extendedLength, int maxNdefSize) {
+        int mle;
+        if ("desfire".equals(card)) {
+            mle = 0x3b;
+            mFrameSize = 64;
+        } else if ("large".equals(card)) {
+            mle = 0xffff;
+            mFrameSize = Integer.MAX_VALUE;
+        } else {
+            throw new IllegalArgumentException(card);
+        }
+        mExtendedLength = extendedLength;
+        mMaxTransceiveLength = extendedLength ? 65279 : 261;
+        mCc = new byte[] {
+            0x00, 0x0f, 0x20, (byte) (mle >> 8), (byte) mle, 0x00, 0x34,
+            0x04, 0x06, (byte) (NDEF_FILE >> 8), (byte) NDEF_FILE,
+            (byte) (maxNdefSize >> 8), (byte) maxNdefSize, 0x00, 0x00
+        };
+        mNdefFile = new byte[maxNdefSize];
+    }
+
+    /** Writes {@code message} to the NDEF file, after its length. */
+    public void writeNdef(byte[] message) {
+        if (message.length + 2 > mNdefFile.length) {
+            throw new IllegalArgumentException(message.length + " bytes do not fit");
+        }
+        mNdefFile[0] = (byte) (message.length >> 8);
+        mNdefFile[1] = (byte) message.length;
+        System.arraycopy(message, 0, mNdefFile, 2, message.length);
+    }
+
+    /** Returns the NDEF file, length first, as the tag holds it. */
+    public byte[] ndefFile() {
+        return mNdefFile;
+    }
+
+    /** Returns the number of APDUs sent to the tag. */
+    public int getExchanges() {
+        return mExchanges;
+    }
+
+    /** Returns the number of APDUs sent with the chaining bit set. */
+    public int getChainedCommands() {
+        return mChainedCommands;
+    }
+
+    /** Returns the bytes of all responses, which take air time as well. */
+    public int getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        if (command.length > mMaxTransceiveLength) {
+            throw new IOException("Command of " + command.length + " bytes is too long");
+        }
+        mExchanges++;
+        byte[] response = respond(command);
+        mResponseBytes += response.length;
+        return response;
+    }
+
+    private byte[] respond(byte[] apdu) {
+        if (apdu.length < 4) {
+            return sw(0x6700);
+        }
+        // Parse the body: Lc and data, then Le, short or extended
+        int nc = 0;
+        int dataOffset = 4;
+        int ne = 0;
+        int body = apdu.length - 4;
+        if (body == 1) {
+            ne = shortLe(apdu[4]);
+        } else if (body > 1 && apdu[4] != 0) {
+            nc = apdu[4] & 0xff;
+            dataOffset = 5;
+            if (body == 2 + nc) {
+                ne = shortLe(apdu[5 + nc]);
+            } else if (body != 1 + nc) {
+                return sw(0x6700);
+            }
+        } else if (body > 1) {
+            if (!mExtendedLength) {
+                return sw(0x6700);
+            }
+            if (body == 3) {
+                ne = extendedLe(apdu, 5);
+            } else {
+                nc = (apdu[5] & 0xff) << 8 | apdu[6] & 0xff;
+                dataOffset = 7;
+                if (body == 5 + nc) {
+                    ne = extendedLe(apdu, 7 + nc);
+                } else if (body != 3 + nc) {
+                    return sw(0x6700);
+                }
+            }
+        }
+        int cla = apdu[0] & 0xff;
+        int ins = apdu[1] & 0xff;
+        int p1 = apdu[2] & 0xff;
+        int p2 = apdu[3] & 0xff;
+        if (ins != 0xc0) {
+            mPending = null;
+        }
+        byte[] data = Arrays.copyOfRange(apdu, dataOffset, dataOffset + nc);
+        if (mChain != null) {
+            if (ins != mChainIns) {
+                mChain = null;
+                return sw(0x6883);
+            }
+            data = concat(mChain, data);
+        }
+        if ((cla & 0x10) != 0) {
+            if (ne != 0) {
+                mChain = null;
+                return sw(0x6700);
+            }
+            mChainedCommands++;
+            mChain = data;
+            mChainIns = ins;
+            return sw(0x9000);
+        }
+        mChain = null;
+        switch (ins) {
+            case 0xa4: // SELECT
+                return select(p1, data);
+            case 0xb0: // READ BINARY
+                if ((p1 & 0x80) != 0) {
+                    return sw(0x6981);
+                }
+                return readBinary(p1 << 8 | p2, ne, false);
+            case 0xb1: { // READ BINARY with an offset data object
+                if (nc != 5 || apdu[dataOffset] != 0x54 || apdu[dataOffset + 1] != 3) {
+                    return sw(0x6a80);
+                }
+                int offset = (apdu[dataOffset + 2] & 0xff) << 16
+                        | (apdu[dataOffset + 3] & 0xff) << 8 | apdu[dataOffset + 4] & 0xff;
+                return readBinary(offset, ne, true);
+            }
+            case 0xd6: // UPDATE BINARY
+                return updateBinary(p1 << 8 | p2, data);
+            case 0xc0: // GET RESPONSE
+                if (mPending == null) {
+                    return sw(0x6985);
+                }
+                return send(mPending, mPendingOffset, ne);
+            default:
+                return sw(0x6d00);
+        }
+    }
+
+    private byte[] select(int p1, byte[] data) {
+        if (p1 == 0x04) {
+            mApplicationSelected = Arrays.equals(data, NDEF_AID);
+            mSelected = null;
+            return sw(mApplicationSelected ? 0x9000 : 0x6a82);
+        }
+        int id = data.length == 2 ? (data[0] & 0xff) << 8 | data[1] & 0xff : -1;
+        if (!mApplicationSelected || id != CC_FILE && id != NDEF_FILE) {
+            return sw(0x6a82);
+        }
+        mSelected = id == CC_FILE ? mCc : mNdefFile;
+        return sw(0x9000);
+    }
+
+    private byte[] readBinary(int offset, int ne, boolean wrapped) {
+        if (mSelected == null) {
+            return sw(0x6986);
+        }
+        if (offset >= mSelected.length) {
+            return sw(0x6b00);
+        }
+        int length = Math.min(ne, mSelected.length - offset);
+        byte[] data;
+        if (wrapped) {
+            // The 53 data object takes up to 4 bytes of Ne
+            length = Math.min(length, ne - 4);
+            int header = length < 0x80 ? 2 : length < 0x100 ? 3 : 4;
+            data = new byte[header + length];
+            data[0] = 0x53;
+            if (header == 2) {
+                data[1] = (byte) length;
+            } else if (header == 3) {
+                data[1] = (byte) 0x81;
+                data[2] = (byte) length;
+            } else {
+                data[1] = (byte) 0x82;
+                data[2] = (byte) (length >> 8);
+                data[3] = (byte) length;
+            }
+            System.arraycopy(mSelected, offset, data, header, length);
+        } else {
+            if (ne > length && length <= 256) {
+                return sw(0x6c00 | length & 0xff);
+            }
+            data = Arrays.copyOfRange(mSelected, offset, offset + length);
+        }
+        return send(data, 0, data.length);
+    }
+
+    private byte[] updateBinary(int offset, byte[] data) {
+        if (mSelected == null) {
+            return sw(0x6986);
+        }
+        if (mSelected != mNdefFile) {
+            return sw(0x6982);
+        }
+        if (offset + data.length > mSelected.length) {
+            return sw(0x6b00);
+        }
+        System.arraycopy(data, 0, mSelected, offset, data.length);
+        return sw(0x9000);
+    }
+
+    /**
+     * Sends up to {@code ne} bytes of {@code data} from {@code offset}, as
+     * much as fits the frame buffer, and keeps the rest for GET RESPONSE.
+     */
+    private byte[] send(byte[] data, int offset, int ne) {
+        int length = Math.min(Math.min(ne, mFrameSize), data.length - offset);
+        int left = data.length - offset - length;
+        byte[] response = new byte[length + 2];
+        System.arraycopy(data, offset, response, 0, length);
+        if (left > 0) {
+            mPending = data;
+            mPendingOffset = offset + length;
+            response[length] = 0x61;
+            response[length + 1] = (byte) Math.min(left, 256);
+        } else {
+            mPending = null;
+            response[length] = (byte) 0x90;
+        }
+        return response;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return mMaxTransceiveLength;
+    }
+
+    @Override
+    public void reconnect() {
+        mApplicationSelected = false;
+        mSelected = null;
+        mPending = null;
+        mChain = null;
+    }
+
+    private static int shortLe(byte le) {
+        return le == 0 ? 256 : le & 0xff;
+    }
+
+    private static int extendedLe(byte[] apdu, int offset) {
+        int le = (apdu[offset] & 0xff) << 8 | apdu[offset + 1] & 0xff;
+        return le == 0 ? 65536 : le;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    private static byte[] sw(int sw) {
+        return new byte[] {(byte) (sw >> 8), (byte) sw};
+    }
+}
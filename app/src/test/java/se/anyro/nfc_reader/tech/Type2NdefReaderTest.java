@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+
+public class Type2NdefReaderTest {
+
+    /** The first byte of the data area, page 4. */
+    private static final int DATA = 16;
+
+    @Test
+    public void returnsNullForBlankTag() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        tag.memory()[DATA] = (byte) Type2NdefReader.TLV_TERMINATOR;
+
+        assertNull(new Type2NdefReader(new Type2Reader(tag)).read());
+        assertEquals(1, tag.getExchanges());
+    }
+
+    @Test
+    public void returnsNullForUnformattedTag() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag213", 253);
+        tag.memory()[12] = 0;
+
+        assertNull(new Type2NdefReader(new Type2Reader(tag)).read());
+    }
+
+    @Test
+    public void returnsEmptyBufferForEmptyNdefTlv() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        tag.writeNdef(new byte[0]);
+
+        ByteBuffer ndef = new Type2NdefReader(new Type2Reader(tag)).read();
+
+        assertEquals(0, ndef.remaining());
+        assertEquals(1, tag.getExchanges());
+    }
+
+    @Test
+    public void readsShortUrlOnNtag216WithTwoReads() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        // https://a.co/x as a URI record
+        byte[] message = {
+            (byte) 0xd1, 0x01, 0x07, 0x55, 0x04, 'a', '.', 'c', 'o', '/', 'x'
+        };
+        tag.writeNdef(message);
+
+        ByteBuffer ndef = new Type2NdefReader(new Type2Reader(tag)).read();
+
+        assertEquals(ByteBuffer.wrap(message), ndef);
+        assertEquals(2, tag.getExchanges());
+    }
+
+    @Test
+    public void skipsControlTlvsWithoutReadingThem() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        byte[] message = message(10);
+        byte[] memory = tag.memory();
+        int pos = DATA;
+        // Lock Control, Memory Control and a proprietary TLV of 32 bytes
+        pos = put(memory, pos, 0x01, 0x03, 0xa0, 0x0c, 0x44);
+        pos = put(memory, pos, 0x02, 0x03, 0x00, 0x00, 0x00);
+        pos = put(memory, pos, 0xfd, 0x20) + 0x20;
+        assertEquals(60, pos);
+        pos = put(memory, pos, 0x03, message.length);
+        System.arraycopy(message, 0, memory, pos, message.length);
+        ReadLog log = new ReadLog(tag);
+
+        ByteBuffer ndef = new Type2NdefReader(new Type2Reader(log)).read();
+
+        assertEquals(ByteBuffer.wrap(message), ndef);
+        // The proprietary value on pages 7 to 14 is never read
+        assertEquals(Arrays.asList(3, 15, 16), log.mPages);
+    }
+
+    @Test
+    public void readsThreeByteLength() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        byte[] message = message(300);
+        tag.writeNdef(message);
+
+        ByteBuffer ndef = new Type2NdefReader(new Type2Reader(tag)).read();
+
+        byte[] read = new byte[ndef.remaining()];
+        ndef.get(read);
+        assertArrayEquals(message, read);
+        assertEquals(0xff, tag.memory()[22] & 0xff);
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void rejectsNdefTlvPastDataArea() throws Exception {
+        // NTAG213 has 144 bytes of data area
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag213", 253);
+        tag.writeNdef(message(10));
+        tag.memory()[22] = (byte) 200;
+
+        new Type2NdefReader(new Type2Reader(tag)).read();
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void rejectsSkippedTlvPastDataArea() throws Exception {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag213", 253);
+        put(tag.memory(), DATA, 0xfd, 0xff, 0x01, 0x00);
+
+        new Type2NdefReader(new Type2Reader(tag)).read();
+    }
+
+    private static int put(byte[] memory, int pos, int... bytes) {
+        for (int b : bytes) {
+            memory[pos++] = (byte) b;
+        }
+        return pos;
+    }
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (i * 11 + 3);
+        }
+        return message;
+    }
+
+    /** Records the first page of every READ. */
+    private static class ReadLog implements Transceiver {
+
+        private final Transceiver mTag;
+        private final List<Integer> mPages = new ArrayList<Integer>();
+
+        ReadLog(Transceiver tag) {
+            mTag = tag;
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            if (command[0] == Type2Reader.CMD_READ) {
+                mPages.add(command[1] & 0xff);
+            }
+            return mTag.transceive(command);
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return mTag.getMaxTransceiveLength();
+        }
+
+        @Override
+        public void reconnect() throws IOException {
+            mTag.reconnect();
+        }
+    }
+}
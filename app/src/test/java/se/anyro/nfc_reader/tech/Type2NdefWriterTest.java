@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+
+public class Type2NdefWriterTest {
+
+    /** Where SimulatedType2Tag puts the NDEF TLV, after its Lock Control TLV. */
+    private static final int TLV_PAGE = 5;
+
+    @Test
+    public void writesNothingForSameMessage() throws IOException, NdefFormatException {
+        SimulatedType2Tag tag = tagWith(message(40, 1));
+
+        Type2NdefWriter writer = new Type2NdefWriter(tag);
+
+        assertEquals(0, writer.write(message(40, 1)));
+        assertEquals(0, writer.getWrites());
+    }
+
+    @Test
+    public void writesChangeWithinOnePageAtOnce() throws IOException, NdefFormatException {
+        SimulatedType2Tag tag = tagWith(message(40, 1));
+        byte[] message = message(40, 1);
+        message[message.length - 1]++;
+        WriteLog log = new WriteLog(tag, Integer.MAX_VALUE);
+
+        assertEquals(1, new Type2NdefWriter(log).write(message));
+
+        assertArrayEquals(message, read(tag));
+    }
+
+    @Test
+    public void writesLengthAsZeroFirstAndRealLengthLast()
+            throws IOException, NdefFormatException {
+        SimulatedType2Tag tag = tagWith(message(10, 1));
+        byte[] message = message(40, 2);
+        WriteLog log = new WriteLog(tag, Integer.MAX_VALUE);
+
+        int written = new Type2NdefWriter(log).write(message);
+
+        assertEquals(written, log.mWrites.size());
+        byte[] first = log.mWrites.get(0);
+        byte[] last = log.mWrites.get(log.mWrites.size() - 1);
+        // The length is byte 2 of page 5, after the NDEF TLV type
+        assertEquals(TLV_PAGE, first[1]);
+        assertEquals(0, first[2 + 2]);
+        assertEquals(TLV_PAGE, last[1]);
+        assertEquals(message.length, last[2 + 2]);
+        assertArrayEquals(message, read(tag));
+    }
+
+    @Test
+    public void leavesOldOrEmptyMessageWhenTorn() throws IOException, NdefFormatException {
+        assertOldOrEmptyWhenTorn("ntag213", message(10, 1), message(100, 2));
+        assertOldOrEmptyWhenTorn("ntag213", message(100, 1), message(10, 2));
+        // Three byte TLV lengths
+        assertOldOrEmptyWhenTorn("ntag216", message(300, 1), message(600, 2));
+    }
+
+    /** Tears the write of {@code next} over {@code old} after every number of WRITEs. */
+    private static void assertOldOrEmptyWhenTorn(String chip, byte[] old, byte[] next)
+            throws IOException, NdefFormatException {
+        SimulatedType2Tag whole = tagWith(chip, old);
+        int writes = new Type2NdefWriter(whole).write(next);
+        assertTrue(writes > 1);
+        for (int done = 0; done < writes; done++) {
+            SimulatedType2Tag tag = tagWith(chip, old);
+            try {
+                new Type2NdefWriter(new WriteLog(tag, done)).write(next);
+                fail("Write not torn");
+            } catch (IOException e) {
+                // The tag left the field
+            }
+            tag.reconnect();
+            byte[] read = read(tag);
+            assertTrue("Torn after " + done + " of " + writes + " writes",
+                    read.length == 0 || Arrays.equals(old, read));
+        }
+    }
+
+    private static SimulatedType2Tag tagWith(byte[] message) {
+        return tagWith("ntag213", message);
+    }
+
+    private static SimulatedType2Tag tagWith(String chip, byte[] message) {
+        SimulatedType2Tag tag = new SimulatedType2Tag(chip, 253);
+        tag.writeNdef(message);
+        return tag;
+    }
+
+    private static byte[] read(SimulatedType2Tag tag) throws IOException, NdefFormatException {
+        ByteBuffer ndef = new Type2NdefReader(new Type2Reader(tag)).read();
+        byte[] bytes = new byte[ndef.remaining()];
+        ndef.get(bytes);
+        return bytes;
+    }
+
+    /** A message of one record of type Unknown, {@code length} bytes long. */
+    private static byte[] message(int length, int seed) {
+        boolean shortRecord = length - 3 < 0x100;
+        int headerLength = shortRecord ? 3 : 6;
+        int payloadLength = length - headerLength;
+        byte[] message = new byte[length];
+        // MB, ME and TNF Unknown, no type
+        message[0] = (byte) (0xc5 | (shortRecord ? 0x10 : 0));
+        if (shortRecord) {
+            message[2] = (byte) payloadLength;
+        } else {
+            message[4] = (byte) (payloadLength >> 8);
+            message[5] = (byte) payloadLength;
+        }
+        for (int i = headerLength; i < length; i++) {
+            message[i] = (byte) (i * seed);
+        }
+        return message;
+    }
+
+    /** Keeps the WRITE commands sent, and loses the tag after {@code writes} of them. */
+    private static class WriteLog implements Transceiver {
+
+        private final Transceiver mTag;
+        private final List<byte[]> mWrites = new ArrayList<byte[]>();
+        private int mWritesLeft;
+
+        WriteLog(Transceiver tag, int writes) {
+            mTag = tag;
+            mWritesLeft = writes;
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            if (command[0] == Type2NdefWriter.CMD_WRITE) {
+                if (mWritesLeft-- == 0) {
+                    throw new IOException("Tag was lost");
+                }
+                mWrites.add(command.clone());
+            }
+            return mTag.transceive(command);
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return mTag.getMaxTransceiveLength();
+        }
+
+        @Override
+        public void reconnect() throws IOException {
+            mTag.reconnect();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class Type2ReaderTest {
+
+    private static final int NTAG216_PAGES = 231;
+
+    @Test
+    public void readsNtag216WithFourFastReads() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+
+        Type2Memory memory = new Type2Reader(tag).readAll();
+
+        // GET_VERSION, then 63 pages per FAST_READ
+        assertEquals(1 + 4, memory.getExchanges());
+        assertEquals(memory.getExchanges(), tag.getExchanges());
+        assertEquals("NTAG216", memory.getChip());
+        assertEquals(NTAG216_PAGES, memory.getPageCount());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void splitsFastReadsAtTransceiveLimit() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 64);
+
+        Type2Memory memory = new Type2Reader(tag).readAll();
+
+        // GET_VERSION, then 16 pages per FAST_READ
+        assertEquals(1 + 15, memory.getExchanges());
+        assertEquals(NTAG216_PAGES, memory.getPageCount());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void fallsBackToReadWhenFastReadIsRefused() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        tag.disableFastRead();
+
+        Type2Memory memory = new Type2Reader(tag).readAll();
+
+        // GET_VERSION, the refused FAST_READ, then 4 pages per READ
+        assertEquals(1 + 1 + 58, memory.getExchanges());
+        assertEquals(NTAG216_PAGES, memory.getPageCount());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void readsUltralightUpToCapabilityContainerSize() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ultralight", 253);
+
+        Type2Memory memory = new Type2Reader(tag).readAll();
+
+        // The refused GET_VERSION, the header, then 12 pages of data area
+        assertEquals(1 + 1 + 3, memory.getExchanges());
+        assertNull(memory.getVersion());
+        assertEquals(16, memory.getPageCount());
+        assertArrayEquals(tag.memory(), memory.getData());
+    }
+
+    @Test
+    public void stopsAtRefusedRead() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ultralight", 253);
+        tag.protectFrom(8);
+
+        Type2Memory memory = new Type2Reader(tag).readAll();
+
+        // The READ of pages 8 to 11 is refused and nothing is read after it
+        assertEquals(1 + 1 + 2, memory.getExchanges());
+        assertEquals(8, memory.getPageCount());
+        assertArrayEquals(Arrays.copyOf(tag.memory(), 8 * 4), memory.getData());
+    }
+
+    @Test
+    public void readsUpToProtectedPageAfterRefusedFastRead() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        tag.protectFrom(103);
+
+        Type2Memory memory = new Type2Reader(tag).readAll();
+
+        // Pages 0 to 62 with FAST_READ, the refused FAST_READ of 63 to 125,
+        // READs of 63 to 102 and the refused READ of 103
+        assertEquals(1 + 1 + 1 + 10 + 1, memory.getExchanges());
+        assertEquals(103, memory.getPageCount());
+        assertArrayEquals(Arrays.copyOf(tag.memory(), 103 * 4), memory.getData());
+    }
+
+    @Test
+    public void readsFewPagesWithoutGetVersion() throws IOException {
+        SimulatedType2Tag tag = new SimulatedType2Tag("ntag216", 253);
+        Type2Reader reader = new Type2Reader(tag);
+        byte[] data = new byte[8 * 4];
+
+        assertEquals(8, reader.readPages(4, 8, data, 0));
+
+        assertEquals(2, reader.getExchanges());
+        assertArrayEquals(Arrays.copyOfRange(tag.memory(), 4 * 4, 12 * 4), data);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.tech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+
+public class Type4NdefReaderTest {
+
+    private static final int MAX_NDEF_SIZE = 0xfffe;
+    /** SELECT of the application, SELECT CC, READ BINARY CC, SELECT NDEF file. */
+    private static final int SETUP_APDUS = 4;
+    /** The MLe of the simulated DESFire. */
+    private static final int DESFIRE_MLE = 59;
+
+    @Test
+    public void readsShortMessageWithLengthInOneReadBinary() throws Exception {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, MAX_NDEF_SIZE);
+        byte[] message = message(40);
+        tag.writeNdef(message);
+
+        ApduTransport transport = new ApduTransport(tag, false);
+        ByteBuffer ndef = new Type4NdefReader(transport).read();
+
+        assertEquals(ByteBuffer.wrap(message), ndef);
+        assertEquals(SETUP_APDUS + 1, transport.getExchanges());
+    }
+
+    @Test
+    public void readsInChunksOfMle() throws Exception {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, MAX_NDEF_SIZE);
+        byte[] message = message(4000);
+        tag.writeNdef(message);
+
+        ApduTransport transport = new ApduTransport(tag, false);
+        ByteBuffer ndef = new Type4NdefReader(transport).read();
+
+        assertEquals(ByteBuffer.wrap(message), ndef);
+        int fileLength = 2 + message.length;
+        int reads = (fileLength + DESFIRE_MLE - 1) / DESFIRE_MLE;
+        assertEquals(SETUP_APDUS + reads, transport.getExchanges());
+    }
+
+    @Test
+    public void readsRestOfLargeMessageInOneExtendedApdu() throws Exception {
+        SimulatedType4Tag tag = new SimulatedType4Tag("large", true, MAX_NDEF_SIZE);
+        byte[] message = message(30000);
+        tag.writeNdef(message);
+
+        ApduTransport transport = new ApduTransport(tag, true);
+        ByteBuffer ndef = new Type4NdefReader(transport).read();
+
+        // 256 bytes with the length, then the rest
+        assertEquals(ByteBuffer.wrap(message), ndef);
+        assertEquals(SETUP_APDUS + 2, transport.getExchanges());
+    }
+
+    @Test
+    public void readsPastOffset32767WithB1() throws Exception {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, MAX_NDEF_SIZE);
+        byte[] message = message(60000);
+        tag.writeNdef(message);
+        ReadLog log = new ReadLog(tag);
+
+        ApduTransport transport = new ApduTransport(log, false);
+        ByteBuffer ndef = new Type4NdefReader(transport).read();
+
+        assertEquals(ByteBuffer.wrap(message), ndef);
+        // B0 up to the chunk that starts at or below 32767, then B1 with
+        // room for the 53 data object around the data
+        int b0Reads = 0x7fff / DESFIRE_MLE + 1;
+        int b1Start = b0Reads * DESFIRE_MLE;
+        int b1Chunk = DESFIRE_MLE - 4;
+        int b1Reads = (2 + message.length - b1Start + b1Chunk - 1) / b1Chunk;
+        // One more B0 for the CC
+        assertEquals(1 + b0Reads, log.mB0Offsets.size());
+        assertEquals(b1Reads, log.mB1Offsets.size());
+        assertEquals(b1Start, (int) log.mB1Offsets.get(0));
+        for (int offset : log.mB0Offsets) {
+            assertTrue(offset <= 0x7fff);
+        }
+    }
+
+    @Test
+    public void readsEmptyNdefFile() throws Exception {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, MAX_NDEF_SIZE);
+
+        ByteBuffer ndef = new Type4NdefReader(new ApduTransport(tag, false)).read();
+
+        assertEquals(0, ndef.remaining());
+    }
+
+    @Test(expected = NdefFormatException.class)
+    public void rejectsLengthBeyondFile() throws Exception {
+        SimulatedType4Tag tag = new SimulatedType4Tag("desfire", false, 100);
+        tag.ndefFile()[0] = 0x01;
+
+        new Type4NdefReader(new ApduTransport(tag, false)).read();
+    }
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (i * 13 + 5);
+        }
+        return message;
+    }
+
+    /** Records the offsets of READ BINARY B0 and B1 commands. */
+    private static class ReadLog implements Transceiver {
+
+        private final Transceiver mTag;
+        private final List<Integer> mB0Offsets = new ArrayList<Integer>();
+        private final List<Integer> mB1Offsets = new ArrayList<Integer>();
+
+        ReadLog(Transceiver tag) {
+            mTag = tag;
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            int ins = command[1] & 0xff;
+            if (ins == 0xb0) {
+                mB0Offsets.add((command[2] & 0xff) << 8 | command[3] & 0xff);
+            } else if (ins == 0xb1) {
+                mB1Offsets.add((command[7] & 0xff) << 16 | (command[8] & 0xff) << 8
+                        | command[9] & 0xff);
+            }
+            return mTag.transceive(command);
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return mTag.getMaxTransceiveLength();
+        }
+
+        @Override
+        public void reconnect() throws IOException {
+            mTag.reconnect();
+        }
+    }
+}
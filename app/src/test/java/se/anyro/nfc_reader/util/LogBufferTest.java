@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+public class LogBufferTest {
+
+    @Test
+    public void formatsArgumentsWhenDumped() {
+        LogBuffer buffer = new LogBuffer(4);
+        buffer.add(0, LogBuffer.INFO, "TAG", "{} of {}: {} {}", 4, 3, 10L, true, "done", null);
+        buffer.add(0, LogBuffer.WARN, "TAG", "id {} and {}", 1, new byte[] {0x04, 0x7f}, null,
+                null, null, null);
+
+        String dump = buffer.toString();
+
+        assertTrue(dump, dump.contains(" I/TAG: 3 of 10: true done\n"));
+        assertTrue(dump, dump.contains(" W/TAG: id 7f 04 and {}\n"));
+    }
+
+    @Test
+    public void writesOverOldestEntries() {
+        LogBuffer buffer = new LogBuffer(2);
+        for (int i = 0; i < 3; i++) {
+            buffer.add(0, LogBuffer.DEBUG, "TAG", "entry {}", 1, i, null, null, null, null);
+        }
+
+        String dump = buffer.toString();
+
+        assertEquals(2, buffer.size());
+        assertEquals(3, buffer.getAdded());
+        assertFalse(dump, dump.contains("entry 0"));
+        assertTrue(dump, dump.contains("entry 1\n") && dump.contains("entry 2\n"));
+    }
+
+    @Test
+    public void copiesByteArrays() {
+        LogBuffer buffer = new LogBuffer(4);
+        byte[] uid = {0x04, 0x11};
+        buffer.add(0, LogBuffer.DEBUG, "TAG", "uid {}", 1, uid, null, null, null, null);
+
+        uid[1] = 0x22;
+
+        // Spaced hex, last byte first as UIDs are shown
+        assertTrue(buffer.toString().contains("uid 11 04\n"));
+    }
+
+    @Test
+    public void keepsNoReferenceToOtherArguments() throws InterruptedException {
+        LogBuffer buffer = new LogBuffer(4);
+        StringBuilder view = new StringBuilder("before");
+        buffer.add(0, LogBuffer.INFO, "TAG", "view {}", 1, view, null, null, null, null);
+        view.setLength(0);
+        view.append("after");
+        WeakReference<StringBuilder> ref = new WeakReference<StringBuilder>(view);
+        view = null;
+
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        // Formatted when added, and no longer reachable from the buffer
+        assertTrue(buffer.toString().contains("view before\n"));
+        assertNull(ref.get());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2011 Adam Nybäck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class UidCodecTest {
+
+    private static final byte[] UID = {0x04, (byte) 0xa2, 0x3b, (byte) 0xf0, 0x01, 0x00, 0x7f};
+
+    @Test
+    public void encodesHexLastByteFirst() {
+        assertEquals("7f0001f03ba204", UidCodec.toHex(UID, 0));
+        assertEquals("04a23bf001007f", UidCodec.toHex(UID, UidCodec.REVERSED));
+        assertEquals("7f 00 01 f0 3b a2 04", UidCodec.toHex(UID, UidCodec.SPACED));
+        assertEquals("", UidCodec.toHex(new byte[0], UidCodec.SPACED));
+        assertEquals(20, UidCodec.hexLength(7, UidCodec.SPACED));
+    }
+
+    @Test
+    public void encodesHexIntoBuffers() {
+        CharBuffer heap = CharBuffer.allocate(32);
+        heap.put('>');
+        UidCodec.encodeHex(UID, 1, 2, UidCodec.SPACED, heap);
+        heap.flip();
+        assertEquals(">3b a2", heap.toString());
+
+        // A direct buffer has no array, so takes the put() path
+        CharBuffer direct = ByteBuffer.allocateDirect(64).asCharBuffer();
+        UidCodec.encodeHex(UID, 0, UID.length, UidCodec.REVERSED, direct);
+        direct.flip();
+        assertEquals("04a23bf001007f", direct.toString());
+    }
+
+    @Test
+    public void encodesDecLikeBigInteger() {
+        Random random = new Random(42);
+        for (int length = 0; length <= 32; length++) {
+            for (int i = 0; i < 200; i++) {
+                byte[] uid = new byte[length];
+                random.nextBytes(uid);
+                if (i % 10 == 0 && length > 0) {
+                    // Leading zero bytes, and all 0xff
+                    uid[length - 1] = 0;
+                } else if (i % 10 == 1) {
+                    Arrays.fill(uid, (byte) 0xff);
+                }
+                assertEquals(toBigInteger(uid, false).toString(), UidCodec.toDec(uid, 0));
+                assertEquals(toBigInteger(uid, true).toString(),
+                        UidCodec.toDec(uid, UidCodec.REVERSED));
+                assertTrue(UidCodec.toDec(uid, 0).length() <= UidCodec.maxDecLength(length));
+            }
+        }
+    }
+
+    @Test
+    public void encodesDecAtOffset() {
+        char[] dst = new char[40];
+        dst[0] = '#';
+        byte[] src = new byte[12];
+        new Random(1).nextBytes(src);
+        int written = UidCodec.encodeDec(src, 1, 10, 0, dst, 1);
+        byte[] uid = new byte[10];
+        System.arraycopy(src, 1, uid, 0, 10);
+        assertEquals("#" + toBigInteger(uid, false), new String(dst, 0, 1 + written));
+    }
+
+    @Test
+    public void roundTripsDec() {
+        Random random = new Random(7);
+        for (int length = 1; length <= 24; length++) {
+            for (int i = 0; i < 100; i++) {
+                byte[] uid = new byte[length];
+                random.nextBytes(uid);
+                for (int flags = 0; flags <= UidCodec.REVERSED; flags++) {
+                    byte[] parsed = new byte[length];
+                    UidCodec.parseDec(UidCodec.toDec(uid, flags), flags, parsed, 0, length);
+                    assertArrayEquals(uid, parsed);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsHex() {
+        Random random = new Random(3);
+        for (int length = 0; length <= 16; length++) {
+            byte[] uid = new byte[length];
+            random.nextBytes(uid);
+            for (int flags = 0; flags <= (UidCodec.REVERSED | UidCodec.SPACED); flags++) {
+                byte[] parsed = new byte[length + 2];
+                int parsedLength = UidCodec.parseHex(UidCodec.toHex(uid, flags), flags,
+                        parsed, 2);
+                assertEquals(length, parsedLength);
+                byte[] bytes = new byte[length];
+                System.arraycopy(parsed, 2, bytes, 0, length);
+                assertArrayEquals(uid, bytes);
+            }
+        }
+    }
+
+    @Test
+    public void parsesHexWithSeparators() {
+        byte[] expected = {0x04, (byte) 0xa2, 0x3b};
+        String[] inputs = {"04a23b", "04 a2 3b", "04:A2:3B", "04-a2-3b", " 04:a2 -3B "};
+        for (String input : inputs) {
+            byte[] dst = new byte[3];
+            assertEquals(input, 3, UidCodec.parseHex(input, UidCodec.REVERSED, dst, 0));
+            assertArrayEquals(input, expected, dst);
+        }
+        assertEquals(0, UidCodec.parseHex("", 0, new byte[0], 0));
+    }
+
+    @Test
+    public void rejectsInvalidHex() {
+        assertInvalidHex("04a23", 3);
+        assertInvalidHex("04 a2 3", 3);
+        assertInvalidHex("04a23g", 3);
+        assertInvalidHex("04.a2", 3);
+        assertInvalidHex("0x04", 3);
+        // Does not fit
+        assertInvalidHex("04a23b", 2);
+    }
+
+    @Test
+    public void rejectsInvalidDec() {
+        assertInvalidDec("", 4);
+        assertInvalidDec("-1", 4);
+        assertInvalidDec("12a", 4);
+        assertInvalidDec("4294967296", 4);
+        byte[] dst = new byte[4];
+        UidCodec.parseDec("4294967295", 0, dst, 0, 4);
+        assertArrayEquals(new byte[] {-1, -1, -1, -1}, dst);
+    }
+
+    private static void assertInvalidHex(String hex, int capacity) {
+        try {
+            UidCodec.parseHex(hex, 0, new byte[capacity], 0);
+            fail("Expected NumberFormatException for \"" + hex + "\"");
+        } catch (NumberFormatException expected) {
+            // Expected
+        }
+    }
+
+    private static void assertInvalidDec(String dec, int length) {
+        try {
+            UidCodec.parseDec(dec, 0, new byte[length], 0, length);
+            fail("Expected NumberFormatException for \"" + dec + "\"");
+        } catch (NumberFormatException expected) {
+            // Expected
+        }
+    }
+
+    /** The value the app shows: the last byte most significant unless reversed. */
+    private static BigInteger toBigInteger(byte[] uid, boolean reversed) {
+        byte[] magnitude = new byte[uid.length];
+        for (int i = 0; i < uid.length; i++) {
+            magnitude[i] = uid[reversed ? i : uid.length - 1 - i];
+        }
+        return new BigInteger(1, magnitude);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.tech.FelicaReader;
+import se.anyro.nfc_reader.tech.FelicaService;
+import se.anyro.nfc_reader.tech.SimulatedFelicaCard;
+
+/**
+ * Reading the history and balance of a simulated transit card. One
+ * operation is one card. "singleBlocks" is the usual one Read Without
+ * Encryption per block, "known" FelicaReader with the block counts given,
+ * "probed" without them, and "discovered" finds the services with Search
+ * Service Code first and reads all without key. Each command costs a few
+ * milliseconds on a phone, so the counters are what matters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class FelicaReadBenchmark {
+
+    private static final int[] TRANSIT = {
+        FelicaReader.SERVICE_TRANSIT_HISTORY, FelicaReader.SERVICE_TRANSIT_BALANCE
+    };
+    private static final int[] TRANSIT_BLOCKS = {20, 1};
+
+    /** Blocks the card reads per command, 15 on most cards, 4 on FeliCa Lite-S. */
+    @Param({"4", "15"})
+    public int maxBlocks;
+
+    /** Commands sent, summed over all cards. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long responseBytes;
+        public long cards;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            responseBytes = 0;
+            cards = 0;
+        }
+    }
+
+    private SimulatedFelicaCard mCard;
+    private byte[] mIdm;
+
+    @Setup
+    public void setup() {
+        mCard = new SimulatedFelicaCard(maxBlocks);
+        mIdm = mCard.getIdm();
+    }
+
+    @Benchmark
+    public FelicaService[] known(Commands commands) throws IOException {
+        return count(commands, new FelicaReader(mCard, mIdm), TRANSIT_BLOCKS);
+    }
+
+    @Benchmark
+    public FelicaService[] probed(Commands commands) throws IOException {
+        return count(commands, new FelicaReader(mCard, mIdm), null);
+    }
+
+    @Benchmark
+    public FelicaService[] discovered(Commands commands) throws IOException {
+        int bytes = mCard.getResponseBytes();
+        FelicaReader reader = new FelicaReader(mCard, mIdm);
+        FelicaService[] services = reader.readAll();
+        commands.commands += reader.getExchanges();
+        commands.responseBytes += mCard.getResponseBytes() - bytes;
+        commands.cards++;
+        return services;
+    }
+
+    private FelicaService[] count(Commands commands, FelicaReader reader, int[] blockCounts)
+            throws IOException {
+        int bytes = mCard.getResponseBytes();
+        FelicaService[] services = reader.readServices(TRANSIT, blockCounts);
+        commands.commands += reader.getExchanges();
+        commands.responseBytes += mCard.getResponseBytes() - bytes;
+        commands.cards++;
+        return services;
+    }
+
+    @Benchmark
+    public byte[] singleBlocks(Commands commands) throws IOException {
+        int bytes = mCard.getResponseBytes();
+        byte[] data = new byte[21 * FelicaReader.BLOCK_SIZE];
+        int pos = 0;
+        for (int s = 0; s < TRANSIT.length; s++) {
+            for (int block = 0; block < TRANSIT_BLOCKS[s]; block++) {
+                byte[] command = {
+                    16, 0x06, 0, 0, 0, 0, 0, 0, 0, 0, 1, (byte) TRANSIT[s],
+                    (byte) (TRANSIT[s] >> 8), 1, (byte) 0x80, (byte) block
+                };
+                System.arraycopy(mIdm, 0, command, 2, mIdm.length);
+                byte[] response = mCard.transceive(command);
+                System.arraycopy(response, 13, data, pos, FelicaReader.BLOCK_SIZE);
+                pos += FelicaReader.BLOCK_SIZE;
+                commands.commands++;
+            }
+        }
+        commands.responseBytes += mCard.getResponseBytes() - bytes;
+        commands.cards++;
+        return data;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.util.LogBuffer;
+import se.anyro.nfc_reader.util.UidCodec;
+
+/**
+ * The cost of logging the NfcF line of a scan. "eager" builds the message
+ * the way the inspectors used to, "buffered" adds it to a
+ * {@link LogBuffer} unformatted, which only copies the two byte arrays,
+ * and "dump" formats a full buffer of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LogBufferBenchmark {
+
+    private static final String FORMAT =
+            "NfcF manufacturer: {}, systemCode: {}, timeout: {}, maxTransceiveLength: {}";
+
+    private final byte[] mManufacturer = {0x01, 0x20, 0x22, 0x04, 0x27, 0x67, 0x4e, (byte) 0xff};
+    private final byte[] mSystemCode = {(byte) 0x88, (byte) 0xb4};
+    private final Integer mTimeout = 100;
+    private final Integer mMaxTransceiveLength = 253;
+    private final LogBuffer mBuffer = new LogBuffer(512);
+    private final StringBuilder mOut = new StringBuilder();
+
+    public LogBufferBenchmark() {
+        for (int i = 0; i < 512; i++) {
+            buffered();
+        }
+    }
+
+    @Benchmark
+    public String eager() {
+        return "NfcF manufacturer: " + UidCodec.toHex(mManufacturer, UidCodec.SPACED)
+                + ", systemCode: " + UidCodec.toHex(mSystemCode, UidCodec.SPACED)
+                + ", timeout: " + mTimeout + ", maxTransceiveLength: " + mMaxTransceiveLength;
+    }
+
+    @Benchmark
+    public void buffered() {
+        mBuffer.add(System.currentTimeMillis(), LogBuffer.DEBUG, "ZYPP", FORMAT, 4,
+                mManufacturer, mSystemCode, mTimeout, mMaxTransceiveLength, null);
+    }
+
+    /** One operation formats all 512 entries. */
+    @Benchmark
+    public int dump() throws Exception {
+        mOut.setLength(0);
+        mBuffer.dump(mOut);
+        return mOut.length();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.tech.MifareClassicDump;
+import se.anyro.nfc_reader.tech.MifareClassicDumper;
+import se.anyro.nfc_reader.tech.MifareKeyCache;
+import se.anyro.nfc_reader.tech.SimulatedMifareClassic;
+
+/**
+ * Dumps of a simulated MIFARE Classic 1K card. One operation is one dump.
+ * On a phone each exchange takes a few milliseconds, so the exchange
+ * counters matter more than the time: "cold" is a card seen for the first
+ * time, "warm" one whose keys are in the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MifareClassicDumpBenchmark {
+
+    private static final byte[] UID = {0x12, 0x34, 0x56, 0x78};
+
+    /**
+     * transport: every sector has the default key. mixed: sector 0 has the
+     * MAD key, the others a key late in the dictionary, two sectors an
+     * unknown key and one sector a block no key may read.
+     */
+    @Param({"transport", "mixed"})
+    public String card;
+
+    @Param({"cold", "warm"})
+    public String cache;
+
+    /** Exchanges with the card, summed over all dumps. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Exchanges {
+
+        public long authentications;
+        public long failedAuthentications;
+        public long reads;
+        public long dumps;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            authentications = 0;
+            failedAuthentications = 0;
+            reads = 0;
+            dumps = 0;
+        }
+    }
+
+    private SimulatedMifareClassic mCard;
+    private MifareClassicDumper mDumper;
+
+    @Setup
+    public void setup() throws IOException {
+        mCard = new SimulatedMifareClassic(16);
+        if ("mixed".equals(card)) {
+            byte[] custom = MifareClassicDumper.DEFAULT_KEYS[
+                    MifareClassicDumper.DEFAULT_KEYS.length - 1];
+            byte[] unknown = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+            mCard.setSector(0, MifareClassicDumper.DEFAULT_KEYS[1], unknown,
+                    SimulatedMifareClassic.ACCESS_TRANSPORT);
+            for (int sector = 1; sector < 16; sector++) {
+                byte[] key = sector == 7 || sector == 11 ? unknown : custom;
+                byte[] access = sector == 3
+                        ? SimulatedMifareClassic.ACCESS_BLOCK_2_LOCKED
+                        : SimulatedMifareClassic.ACCESS_TRANSPORT;
+                mCard.setSector(sector, key, unknown, access);
+            }
+        }
+        mDumper = new MifareClassicDumper(MifareClassicDumper.DEFAULT_KEYS,
+                new MifareKeyCache(16));
+        if ("warm".equals(cache)) {
+            mDumper.dump(UID, mCard);
+        }
+    }
+
+    @Benchmark
+    public MifareClassicDump dump(Exchanges exchanges) throws IOException {
+        if ("cold".equals(cache)) {
+            mDumper = new MifareClassicDumper(MifareClassicDumper.DEFAULT_KEYS,
+                    new MifareKeyCache(16));
+        }
+        MifareClassicDump dump = mDumper.dump(UID, mCard);
+        exchanges.authentications += dump.getAuthentications();
+        exchanges.failedAuthentications += dump.getFailedAuthentications();
+        exchanges.reads += dump.getReads();
+        exchanges.dumps++;
+        return dump;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+
+/**
+ * Generates the NDEF messages the benchmarks run over, in wire format.
+ */
+final class NdefCorpus {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+
+    /** Highest URI Identifier Code, NFC Forum "URI Record Type Definition" 3.2.2 */
+    static final int LAST_URI_PREFIX_CODE = 0x23;
+
+    private NdefCorpus() {
+    }
+
+    /** The kinds of message in the corpus, used as a JMH parameter. */
+    static List<byte[]> messages(String kind) {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        if ("shortText".equals(kind)) {
+            messages.add(message(textRecord("en", "Hello, world", true)));
+        } else if ("longText".equals(kind)) {
+            messages.add(message(textRecord("en", text(4000), true)));
+        } else if ("utf16Text".equals(kind)) {
+            messages.add(message(textRecord("sv", text(1000), false)));
+        } else if ("uri".equals(kind)) {
+            for (int code = 0; code <= LAST_URI_PREFIX_CODE; code++) {
+                messages.add(message(uriRecord(code, "example.com/tag/" + code)));
+            }
+        } else if ("smartPoster".equals(kind)) {
+            messages.add(message(smartPoster("Example", 0x04, "example.com/poster")));
+        } else if ("nestedSmartPoster".equals(kind)) {
+            // A poster carried inside another poster's nested message
+            byte[] inner = smartPoster("Inner", 0x01, "example.com/inner");
+            messages.add(message(record(NdefRecordView.TNF_WELL_KNOWN,
+                    NdefRecordView.RTD_SMART_POSTER, message(
+                            textRecord("en", "Outer", true),
+                            uriRecord(0x03, "example.com/outer"),
+                            inner))));
+        } else if ("mime".equals(kind)) {
+            messages.add(message(record(NdefRecordView.TNF_MIME_MEDIA,
+                    "application/octet-stream".getBytes(US_ASCII), random(64 * 1024))));
+        } else if ("unknown".equals(kind)) {
+            messages.add(message(record(NdefRecordView.TNF_UNKNOWN, new byte[0],
+                    random(16 * 1024))));
+        } else if ("mixed".equals(kind)) {
+            messages.add(message(
+                    textRecord("en", "Room 4.12", true),
+                    uriRecord(0x04, "example.com/rooms/4.12"),
+                    smartPoster("Booking", 0x02, "example.com/book"),
+                    record(NdefRecordView.TNF_EXTERNAL_TYPE,
+                            "example.com:room".getBytes(US_ASCII), random(32))));
+        } else {
+            throw new IllegalArgumentException("Unknown corpus kind " + kind);
+        }
+        return messages;
+    }
+
+    static byte[] textRecord(String language, String text, boolean utf8) {
+        byte[] lang = language.getBytes(US_ASCII);
+        byte[] bytes = text.getBytes(utf8 ? UTF_8 : UTF_16);
+        byte[] payload = new byte[1 + lang.length + bytes.length];
+        payload[0] = (byte) ((utf8 ? 0 : 0x80) | lang.length);
+        System.arraycopy(lang, 0, payload, 1, lang.length);
+        System.arraycopy(bytes, 0, payload, 1 + lang.length, bytes.length);
+        return record(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_TEXT, payload);
+    }
+
+    static byte[] uriRecord(int prefixCode, String rest) {
+        byte[] bytes = rest.getBytes(UTF_8);
+        byte[] payload = new byte[1 + bytes.length];
+        payload[0] = (byte) prefixCode;
+        System.arraycopy(bytes, 0, payload, 1, bytes.length);
+        return record(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_URI, payload);
+    }
+
+    static byte[] smartPoster(String title, int prefixCode, String rest) {
+        return record(NdefRecordView.TNF_WELL_KNOWN, NdefRecordView.RTD_SMART_POSTER, message(
+                textRecord("en", title, true),
+                uriRecord(prefixCode, rest),
+                record(NdefRecordView.TNF_WELL_KNOWN, new byte[] {'a', 'c', 't'},
+                        new byte[] {0}),
+                record(NdefRecordView.TNF_WELL_KNOWN, new byte[] {'t'},
+                        "text/html".getBytes(US_ASCII))));
+    }
+
+    /**
+     * Encodes a single record without the MB and ME flags. Short records are
+     * used when the payload fits.
+     */
+    static byte[] record(short tnf, byte[] type, byte[] payload) {
+        boolean sr = payload.length < 256;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((sr ? NdefRecordView.FLAG_SR : 0) | tnf);
+        out.write(type.length);
+        if (sr) {
+            out.write(payload.length);
+        } else {
+            out.write(payload.length >>> 24);
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        out.write(type, 0, type.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Concatenates records from {@link #record} into a message, setting MB on
+     * the first and ME on the last.
+     */
+    static byte[] message(byte[]... records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < records.length; i++) {
+            byte[] record = records[i].clone();
+            if (i == 0) {
+                record[0] |= NdefRecordView.FLAG_MB;
+            }
+            if (i == records.length - 1) {
+                record[0] |= NdefRecordView.FLAG_ME;
+            }
+            out.write(record, 0, record.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static String text(int length) {
+        String words = "The quick brown fox jumps over the lazy dog åäö. ";
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(words);
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
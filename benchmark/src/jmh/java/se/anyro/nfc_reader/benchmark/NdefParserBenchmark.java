@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import se.anyro.nfc_reader.NdefMessageParser;
+import se.anyro.nfc_reader.ndef.NdefCodec;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.record.SmartPoster;
+import se.anyro.nfc_reader.record.TextRecord;
+import se.anyro.nfc_reader.record.UriRecord;
+
+/**
+ * Throughput of the NDEF parsing path. One operation is one pass over all
+ * messages of the selected corpus kind. Run with the GC profiler (the
+ * default in build.gradle) to get bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NdefParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Messages {
+
+        @Param({"shortText", "longText", "utf16Text", "uri", "smartPoster",
+                "nestedSmartPoster", "mime", "unknown", "mixed"})
+        public String kind;
+
+        byte[][] messages;
+
+        @Setup
+        public void setup() {
+            messages = NdefCorpus.messages(kind).toArray(new byte[0][]);
+        }
+    }
+
+    /** Already decoded records, to measure the record parsers on their own. */
+    @State(Scope.Benchmark)
+    public static class Records {
+
+        NdefRecordView shortText;
+        NdefRecordView longText;
+        NdefRecordView[] uris;
+        NdefRecordView smartPoster;
+
+        @Setup
+        public void setup() throws NdefFormatException {
+            shortText = first(NdefCorpus.messages("shortText"));
+            longText = first(NdefCorpus.messages("longText"));
+            smartPoster = first(NdefCorpus.messages("smartPoster"));
+            List<NdefRecordView> uriList = new ArrayList<NdefRecordView>();
+            for (byte[] message : NdefCorpus.messages("uri")) {
+                uriList.add(NdefCodec.decode(message).get(0));
+            }
+            uris = uriList.toArray(new NdefRecordView[0]);
+        }
+
+        private static NdefRecordView first(List<byte[]> messages) throws NdefFormatException {
+            return NdefCodec.decode(messages.get(0)).get(0);
+        }
+    }
+
+    @Benchmark
+    public void decode(Messages state, Blackhole bh) throws NdefFormatException {
+        for (byte[] message : state.messages) {
+            bh.consume(NdefCodec.decode(message));
+        }
+    }
+
+    @Benchmark
+    public void parse(Messages state, Blackhole bh) throws NdefFormatException {
+        for (byte[] message : state.messages) {
+            bh.consume(NdefMessageParser.parse(message));
+        }
+    }
+
+    /** Parse and decode every field, as when all records are shown. */
+    @Benchmark
+    public void parseAndDecode(Messages state, Blackhole bh) throws NdefFormatException {
+        for (byte[] message : state.messages) {
+            for (ParsedNdefRecord record : NdefMessageParser.parse(message)) {
+                bh.consume(record.getSummary());
+            }
+        }
+    }
+
+    @Benchmark
+    public void textRecordShort(Records state, Blackhole bh) {
+        TextRecord text = TextRecord.parse(state.shortText);
+        bh.consume(text.getLanguageCode());
+        bh.consume(text.getText());
+    }
+
+    @Benchmark
+    public void textRecordLong(Records state, Blackhole bh) {
+        TextRecord text = TextRecord.parse(state.longText);
+        bh.consume(text.getLanguageCode());
+        bh.consume(text.getText());
+    }
+
+    /** All URI Identifier Codes, one record each. */
+    @Benchmark
+    public void uriRecordAllPrefixes(Records state, Blackhole bh) {
+        for (NdefRecordView record : state.uris) {
+            bh.consume(UriRecord.parse(record).getUri());
+        }
+    }
+
+    @Benchmark
+    public void smartPoster(Records state, Blackhole bh) {
+        SmartPoster poster = SmartPoster.parse(state.smartPoster);
+        bh.consume(poster.getSummary());
+        bh.consume(poster.getType());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.tech.NfcVMemory;
+import se.anyro.nfc_reader.tech.NfcVReader;
+import se.anyro.nfc_reader.tech.SimulatedNfcVTag;
+
+/**
+ * Full memory reads of simulated ISO 15693 tags. One operation is one read
+ * of the whole tag. "readAll" uses NfcVReader, "readSingle" an addressed
+ * READ SINGLE BLOCK per block, knowing the size up front. The airMicros
+ * counter estimates the time on air at the high data rate, which is what
+ * a reader waits for; the measured time is only the CPU part.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class NfcVReadBenchmark {
+
+    @Param({"slix", "slix2", "st", "tagit"})
+    public String chip;
+
+    /** 253 on most phones. */
+    @Param({"64", "253"})
+    public int maxTransceiveLength;
+
+    /** Commands sent, bytes received and air time, summed over all reads. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long responseBytes;
+        public long airMicros;
+        public long reads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            responseBytes = 0;
+            airMicros = 0;
+            reads = 0;
+        }
+    }
+
+    private SimulatedNfcVTag mTag;
+    private byte[] mUid;
+
+    @Setup
+    public void setup() {
+        mTag = new SimulatedNfcVTag(chip, maxTransceiveLength);
+        mUid = mTag.uid();
+    }
+
+    @Benchmark
+    public NfcVMemory readAll(Commands commands) throws IOException {
+        int bytes = mTag.getResponseBytes();
+        long air = mTag.getAirMicros();
+        NfcVMemory memory = new NfcVReader(mTag, mUid).readAll();
+        commands.commands += memory.getExchanges();
+        commands.responseBytes += mTag.getResponseBytes() - bytes;
+        commands.airMicros += mTag.getAirMicros() - air;
+        commands.reads++;
+        return memory;
+    }
+
+    @Benchmark
+    public byte[] readSingle(Commands commands) throws IOException {
+        int bytes = mTag.getResponseBytes();
+        long air = mTag.getAirMicros();
+        byte[] data = new byte[mTag.memory().length];
+        byte[] command = new byte[11];
+        command[0] = 0x22;
+        command[1] = 0x20;
+        System.arraycopy(mUid, 0, command, 2, mUid.length);
+        for (int block = 0; block < data.length / 4; block++) {
+            command[10] = (byte) block;
+            byte[] response = mTag.transceive(command);
+            System.arraycopy(response, 1, data, block * 4, 4);
+            commands.commands++;
+        }
+        commands.responseBytes += mTag.getResponseBytes() - bytes;
+        commands.airMicros += mTag.getAirMicros() - air;
+        commands.reads++;
+        return data;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.provision.NdefTemplate;
+import se.anyro.nfc_reader.provision.ProvisioningBatch;
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.Type2NdefReader;
+import se.anyro.nfc_reader.tech.Type2NdefWriter;
+import se.anyro.nfc_reader.tech.Type2Reader;
+
+/**
+ * Encoding the message for the next tag of a provisioning run, and the
+ * whole of a tag on a simulated NTAG213. "encode" puts the message
+ * together from the template, "reserialize" builds the URI string and
+ * serializes the record from scratch as it would be without one, and
+ * "provision" also writes the message over the one of the previous tag
+ * and reads it back. The gc profiler gives the allocations per tag.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ProvisioningBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int ROWS = 5000;
+    private static final String URI = "https://example.com/p/";
+
+    /** A serial only, or a serial and two columns of a CSV file. */
+    @Param({"counter", "csv"})
+    public String source;
+
+    /** Commands sent and pages written, summed over all tags. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long writes;
+        public long tags;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            writes = 0;
+            tags = 0;
+        }
+    }
+
+    private String[][] mRows;
+    private ProvisioningBatch mBatch;
+    private byte[] mBuffer;
+    private long mSerial;
+    private SimulatedType2Tag mTag;
+
+    @Setup
+    public void setup() throws IOException {
+        mRows = new String[ROWS][];
+        StringBuilder csv = new StringBuilder("sku,name,lot\r\n");
+        for (int i = 0; i < ROWS; i++) {
+            String sku = String.format("SKU-%05d", i * 7);
+            String lot = "L" + (i / 100);
+            mRows[i] = new String[] {sku, lot};
+            csv.append(sku).append(",\"Widget, size ").append(i % 5).append("\",")
+                    .append(lot).append("\r\n");
+        }
+        if ("counter".equals(source)) {
+            mBatch = ProvisioningBatch.counter(NdefTemplate.parse(URI + "{n:8}", "en"), 1, ROWS);
+        } else {
+            mBatch = ProvisioningBatch.csv(NdefTemplate.parse(URI + "{n:8}?sku={sku}&lot={lot}",
+                    "en"), new StringReader(csv.toString()));
+        }
+        mBuffer = new byte[mBatch.getMaxLength()];
+        mTag = new SimulatedType2Tag("ntag213", 253);
+        mTag.writeNdef(mBatch.encode(1));
+        mSerial = 1;
+    }
+
+    @Benchmark
+    public int encode() {
+        return mBatch.encode(nextSerial(), mBuffer, 0);
+    }
+
+    @Benchmark
+    public byte[] reserialize() {
+        return reserialize(nextSerial());
+    }
+
+    /** Encodes, writes and reads back the message for the next tag. */
+    @Benchmark
+    public int provision(Commands commands) throws IOException, NdefFormatException {
+        byte[] message = mBatch.encode(nextSerial());
+        Type2NdefWriter writer = new Type2NdefWriter(mTag);
+        int pages = writer.write(message);
+        Type2Reader reader = new Type2Reader(mTag);
+        ByteBuffer read = new Type2NdefReader(reader).read();
+        if (!read.equals(ByteBuffer.wrap(message))) {
+            throw new IllegalStateException("Read back differs");
+        }
+        commands.commands += writer.getExchanges() + reader.getExchanges();
+        commands.writes += writer.getWrites();
+        commands.tags++;
+        return pages;
+    }
+
+    private long nextSerial() {
+        long serial = mSerial;
+        mSerial = serial == ROWS ? 1 : serial + 1;
+        return serial;
+    }
+
+    private String uri(long serial) {
+        String uri = URI + String.format("%08d", serial);
+        if (mBatch.isCsv()) {
+            String[] row = mRows[(int) serial - 1];
+            uri += "?sku=" + row[0] + "&lot=" + row[1];
+        }
+        return uri;
+    }
+
+    /** The message without a template: "https://" is abbreviated, the rest serialized. */
+    private byte[] reserialize(long serial) {
+        String rest = uri(serial).substring("https://".length());
+        return NdefCorpus.message(NdefCorpus.uriRecord(0x04, rest));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import se.anyro.nfc_reader.history.ScanJournal;
+
+/**
+ * Cost of persisting scans. One append operation is one scan of a 7 byte
+ * UID with a small NDEF message; one replay operation reads back a journal
+ * of 10000 such scans.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScanJournalBenchmark {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final byte[] NDEF = NdefCorpus.messages("mixed").get(0);
+    /** Same as the scan history of the app. */
+    private static final int REPLAY_RECORDS = 10000;
+
+    @State(Scope.Thread)
+    public static class Appending {
+
+        /** Scans per fsync, 1 being one file write and fsync per scan. */
+        @Param({"1", "50"})
+        public int syncRecords;
+
+        File file;
+        ScanJournal journal;
+
+        @Setup(Level.Iteration)
+        public void setup() throws IOException {
+            file = File.createTempFile("scans", ".journal");
+            journal = ScanJournal.open(file, syncRecords, Long.MAX_VALUE, REPLAY_RECORDS, null);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            journal.close();
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Replaying {
+
+        File file;
+
+        @Setup
+        public void setup() throws IOException {
+            file = File.createTempFile("scans", ".journal");
+            ScanJournal journal = ScanJournal.open(file, 1000, Long.MAX_VALUE, REPLAY_RECORDS,
+                    null);
+            for (int i = 0; i < 10000; i++) {
+                journal.append(i, UID, 0x81, NDEF);
+            }
+            journal.close();
+        }
+
+        @TearDown
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void append(Appending state) throws IOException {
+        state.journal.append(System.currentTimeMillis(), UID, 0x81, NDEF);
+    }
+
+    @Benchmark
+    public void replay(Replaying state, final Blackhole bh) throws IOException {
+        ScanJournal journal = ScanJournal.open(state.file, 1000, Long.MAX_VALUE, REPLAY_RECORDS,
+                new ScanJournal.Visitor() {
+                    @Override
+                    public void visit(long timestamp, byte[] uid, int uidLength, int techMask,
+                            ByteBuffer ndef) {
+                        bh.consume(timestamp);
+                        bh.consume(ndef);
+                    }
+                });
+        journal.close();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import se.anyro.nfc_reader.history.ScanJournal;
+import se.anyro.nfc_reader.record.ParsedNdefRecord;
+import se.anyro.nfc_reader.scan.ScanHistory;
+import se.anyro.nfc_reader.scan.ScanLatency;
+import se.anyro.nfc_reader.session.SessionReplayer;
+import se.anyro.nfc_reader.session.TagSession;
+import se.anyro.nfc_reader.tech.LatencyHistogram;
+
+/**
+ * Scan latency from discovery to a stored result, per tag type and number
+ * of scans already in the history and journal. One operation is one scan
+ * of a recorded session: the NDEF read, parse, inspector reads and store
+ * stages TagProcessor runs, with the tag replayed.
+ *
+ * <p>JMH samples the p50 and p99 of the whole scan, and the gc profiler
+ * gives the allocations per scan. The stages are timed with the
+ * {@link ScanLatency} the diagnostics screen shows on the device and
+ * printed at the end of each fork, at microsecond resolution. Building
+ * views needs a device, so the handoff, listener and bind stages are only
+ * measured there.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ScanPipelineBenchmark {
+
+    private static final int HISTORY_CAPACITY = 10000;
+
+    @Param({"type2", "type2Cached", "type4", "nfcv", "felica"})
+    public String tag;
+
+    /** Scans in the history and journal before the first one measured. */
+    @Param({"0", "10000"})
+    public int history;
+
+    private final ScanLatency mLatency = new ScanLatency();
+    private TagSession mSession;
+    private File mFile;
+    private ScanJournal mJournal;
+    private SessionReplayer mReplayer;
+    private long mMisses;
+    private long mFailures;
+
+    @Setup
+    public void setup() throws IOException {
+        mSession = SimulatedSessions.record(tag);
+    }
+
+    /** A new journal each iteration, so the file does not grow without bound. */
+    @Setup(Level.Iteration)
+    public void openJournal() throws IOException {
+        ScanHistory scans = new ScanHistory(HISTORY_CAPACITY);
+        mFile = File.createTempFile("scans", ".journal");
+        // The sync policy of TagProcessor
+        mJournal = ScanJournal.open(mFile, 50, 10000, HISTORY_CAPACITY, null);
+        for (int i = 0; i < history; i++) {
+            scans.add(i, mSession.getUid(), mSession.getTechMask());
+            mJournal.append(i, mSession.getUid(), mSession.getTechMask(), mSession.getNdef());
+        }
+        mReplayer = new SessionReplayer(scans, mJournal, mLatency);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeJournal() throws IOException {
+        mJournal.close();
+        mFile.delete();
+        mMisses += mReplayer.getMisses();
+        mFailures += mReplayer.getFailures();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mMisses != 0 || mFailures != 0) {
+            throw new IllegalStateException(mMisses + " misses, " + mFailures + " failures");
+        }
+        StringBuilder sb = new StringBuilder("\nStages, us:\n");
+        for (int stage = 0; stage < ScanLatency.STAGE_COUNT; stage++) {
+            LatencyHistogram histogram = mLatency.getStage(stage);
+            if (histogram.getCount() > 0) {
+                sb.append(String.format("  %-8s p50=%d p99=%d max=%d\n",
+                        ScanLatency.getStageName(stage), histogram.getPercentileMicros(50),
+                        histogram.getPercentileMicros(99), histogram.getMaxMicros()));
+            }
+        }
+        System.out.print(sb);
+    }
+
+    @Benchmark
+    public List<ParsedNdefRecord> scan() throws IOException {
+        return mReplayer.replay(mSession);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.session.SessionFile;
+import se.anyro.nfc_reader.session.SessionReplayer;
+import se.anyro.nfc_reader.session.TagSession;
+
+/**
+ * Replays a corpus of tag sessions through the scan pipeline. One
+ * operation replays every session once.
+ *
+ * <p>The "simulated" corpus is recorded from the simulated Type 2, Type 4,
+ * NfcV and FeliCa tags and round-tripped through the session file format.
+ * Any other corpus is the path of a session file recorded in the field,
+ * e.g. {@code -p corpus=/sdcard/.../sessions-20260101-120000.nfcs}. Setup
+ * fails if a session no longer replays cleanly, so a reader change that
+ * sends other commands than the recorded ones shows up as misses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SessionReplayBenchmark {
+
+    @Param({"simulated"})
+    public String corpus;
+
+    /** Replayed commands, summed over all replays. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long misses;
+        /** What the replayed commands took on the tag when recorded. */
+        public long recordedMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            misses = 0;
+            recordedMicros = 0;
+        }
+    }
+
+    private byte[] mFile;
+    private List<TagSession> mSessions;
+
+    @Setup
+    public void setup() throws IOException {
+        List<TagSession> sessions = "simulated".equals(corpus)
+                ? SimulatedSessions.all() : SessionFile.read(new File(corpus));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionFile.write(out, sessions);
+        mFile = out.toByteArray();
+        mSessions = SessionFile.read(new ByteArrayInputStream(mFile));
+        if (mSessions.size() != sessions.size()) {
+            throw new IllegalStateException(mSessions.size() + " of " + sessions.size()
+                    + " sessions read back");
+        }
+        SessionReplayer replayer = new SessionReplayer(null);
+        for (TagSession session : mSessions) {
+            replayer.replay(session);
+        }
+        if (replayer.getMisses() != 0) {
+            throw new IllegalStateException(replayer.getMisses() + " of "
+                    + replayer.getCommands() + " commands were not recorded");
+        }
+        System.out.println(mSessions.size() + " sessions, " + mFile.length + " bytes, "
+                + replayer.getRecords() + " records, " + replayer.getFailures() + " failures");
+    }
+
+    @Benchmark
+    public SessionReplayer replay(Commands commands) throws IOException {
+        SessionReplayer replayer = new SessionReplayer(null);
+        for (TagSession session : mSessions) {
+            replayer.replay(session);
+        }
+        commands.commands += replayer.getCommands();
+        commands.misses += replayer.getMisses();
+        commands.recordedMicros += replayer.getRecordedMicros();
+        return replayer;
+    }
+
+    /** Reading the whole corpus from its file format. */
+    @Benchmark
+    public List<TagSession> read() throws IOException {
+        return SessionFile.read(new ByteArrayInputStream(mFile));
+    }
+}
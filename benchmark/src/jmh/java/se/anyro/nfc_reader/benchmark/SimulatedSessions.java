@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.anyro.nfc_reader.inspect.ProbeProfile;
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.session.RecordingTransceiver;
+import se.anyro.nfc_reader.session.SessionRecorder;
+import se.anyro.nfc_reader.session.SessionReplayer;
+import se.anyro.nfc_reader.session.TagSession;
+import se.anyro.nfc_reader.tech.SimulatedFelicaCard;
+import se.anyro.nfc_reader.tech.SimulatedNfcVTag;
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.SimulatedType4Tag;
+import se.anyro.nfc_reader.tech.Transceiver;
+
+/**
+ * Tag sessions recorded from the simulated tags, as if scanned by the app.
+ * The NDEF tags hold the "mixed" message of the {@link NdefCorpus}. All are
+ * processed with the MEMORY profile, so replays run every tag memory reader.
+ */
+final class SimulatedSessions {
+
+    /** The kinds of session, used as a JMH parameter. */
+    static final String[] KINDS = {"type2", "type2Cached", "type4", "nfcv", "felica"};
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final ProbeProfile PROFILE = ProbeProfile.MEMORY;
+
+    private SimulatedSessions() {
+    }
+
+    /** Returns one session of every kind. */
+    static List<TagSession> all() throws IOException {
+        List<TagSession> sessions = new ArrayList<TagSession>();
+        for (String kind : KINDS) {
+            sessions.add(record(kind));
+        }
+        return sessions;
+    }
+
+    /**
+     * @param kind "type2": an NTAG216 Android did not check for NDEF, so it
+     *        is read by the app, "type2Cached": one Android read the NDEF
+     *        message of, "type4": a DESFire, "nfcv": a SLIX2, "felica": a
+     *        card of 15 blocks per read
+     */
+    static TagSession record(String kind) throws IOException {
+        byte[] message = NdefCorpus.messages("mixed").get(0);
+        SessionRecorder recorder;
+        if ("type2".equals(kind) || "type2Cached".equals(kind)) {
+            SimulatedType2Tag type2 = new SimulatedType2Tag("ntag216", 253);
+            type2.writeNdef(message);
+            boolean cached = "type2Cached".equals(kind);
+            recorder = new SessionRecorder(1000, UID, TechMask.NFC_A
+                    | TechMask.MIFARE_ULTRALIGHT | (cached ? TechMask.NDEF : 0), PROFILE);
+            recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_SAK, 0x00);
+            recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH, 253);
+            if (cached) {
+                recorder.setNdef(message);
+            }
+            return record(recorder, TechMask.NFC_A, type2);
+        } else if ("type4".equals(kind)) {
+            SimulatedType4Tag type4 = new SimulatedType4Tag("desfire", false, 4096);
+            type4.writeNdef(message);
+            recorder = new SessionRecorder(3000, UID, TechMask.NFC_A | TechMask.ISO_DEP,
+                    PROFILE);
+            recorder.putIntExtra(TechMask.NFC_A, TagSession.FIELD_SAK, 0x20);
+            recorder.putIntExtra(TechMask.ISO_DEP, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH, 261);
+            recorder.putFlagExtra(TechMask.ISO_DEP, TagSession.FIELD_EXTENDED_LENGTH, false);
+            return record(recorder, TechMask.ISO_DEP, type4);
+        } else if ("nfcv".equals(kind)) {
+            SimulatedNfcVTag nfcV = new SimulatedNfcVTag("slix2", 253);
+            recorder = new SessionRecorder(4000, nfcV.uid(), TechMask.NFC_V, PROFILE);
+            recorder.putIntExtra(TechMask.NFC_V, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH, 253);
+            return record(recorder, TechMask.NFC_V, nfcV);
+        } else if ("felica".equals(kind)) {
+            SimulatedFelicaCard felica = new SimulatedFelicaCard(15);
+            recorder = new SessionRecorder(5000, felica.getIdm(), TechMask.NFC_F, PROFILE);
+            recorder.putIntExtra(TechMask.NFC_F, TagSession.FIELD_MAX_TRANSCEIVE_LENGTH, 253);
+            return record(recorder, TechMask.NFC_F, felica);
+        }
+        throw new IllegalArgumentException("Unknown session kind " + kind);
+    }
+
+    /** Runs the pipeline against {@code tag}, recording its exchanges under {@code tech}. */
+    private static TagSession record(final SessionRecorder recorder, final int tech,
+            final Transceiver tag) throws IOException {
+        new SessionReplayer(null).process(recorder.toSession(), new SessionReplayer.Connector() {
+            @Override
+            public Transceiver open(TagSession session, int openTech) {
+                if (openTech != tech) {
+                    throw new IllegalStateException("No simulated tag for tech " + openTech);
+                }
+                return new RecordingTransceiver(tag, recorder, tech);
+            }
+        });
+        return recorder.toSession();
+    }
+}
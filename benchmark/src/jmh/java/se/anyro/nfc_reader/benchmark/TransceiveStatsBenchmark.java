@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import se.anyro.nfc_reader.scan.TechMask;
+import se.anyro.nfc_reader.tech.InstrumentedTransceiver;
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.TransceiveStats;
+import se.anyro.nfc_reader.tech.Type2Memory;
+import se.anyro.nfc_reader.tech.Type2Reader;
+
+/**
+ * The cost of recording tag I/O. "plain" and "instrumented" read a whole
+ * simulated NTAG216 without and with an {@link InstrumentedTransceiver},
+ * "record" and "recordContended" time the recording alone from one and
+ * four threads into the same stats.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class TransceiveStatsBenchmark {
+
+    private final TransceiveStats mStats = new TransceiveStats();
+    private SimulatedType2Tag mTag;
+    private InstrumentedTransceiver mInstrumented;
+
+    @Setup
+    public void setup() {
+        mTag = new SimulatedType2Tag("ntag216", 253);
+        mInstrumented = new InstrumentedTransceiver(mTag, mStats, TechMask.NFC_A, 0);
+    }
+
+    @Benchmark
+    public Type2Memory plain() throws IOException {
+        return new Type2Reader(mTag).readAll();
+    }
+
+    @Benchmark
+    public Type2Memory instrumented() throws IOException {
+        return new Type2Reader(mInstrumented).readAll();
+    }
+
+    @Benchmark
+    public void record() {
+        mStats.recordTransceive(TechMask.NFC_A, 0x3a, 4, 250, System.nanoTime() & 0xfffff);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        mStats.recordTransceive(TechMask.NFC_A, 0x3a, 4, 250, System.nanoTime() & 0xfffff);
+    }
+}
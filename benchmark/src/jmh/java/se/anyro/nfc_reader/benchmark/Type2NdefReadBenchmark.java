@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.ndef.NdefCodec;
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.Type2NdefReader;
+import se.anyro.nfc_reader.tech.Type2Reader;
+
+/**
+ * Reading and decoding the NDEF message of a simulated NTAG. One operation
+ * is one message. "tlv" reads the pages the NDEF TLV covers, "fullMemory"
+ * the whole tag before looking for the message. On a phone every command
+ * costs a few milliseconds and every 100 response bytes about 8 more at
+ * 106 kbit/s, so the counters are what matters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Type2NdefReadBenchmark {
+
+    @Param({"ntag215", "ntag216"})
+    public String chip;
+
+    /** A short URL, or a message of about 100 bytes. */
+    @Param({"uri", "mixed"})
+    public String message;
+
+    /** Commands sent and bytes received, summed over all reads. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long responseBytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            responseBytes = 0;
+            messages = 0;
+        }
+    }
+
+    private SimulatedType2Tag mTag;
+
+    @Setup
+    public void setup() {
+        mTag = new SimulatedType2Tag(chip, 253);
+        mTag.writeNdef(NdefCorpus.messages(message).get(0));
+    }
+
+    @Benchmark
+    public List<NdefRecordView> tlv(Commands commands) throws IOException,
+            NdefFormatException {
+        int bytes = mTag.getResponseBytes();
+        Type2Reader reader = new Type2Reader(mTag);
+        List<NdefRecordView> records = NdefCodec.decode(new Type2NdefReader(reader).read());
+        commands.commands += reader.getExchanges();
+        commands.responseBytes += mTag.getResponseBytes() - bytes;
+        commands.messages++;
+        return records;
+    }
+
+    /** Reads the whole memory, then finds the NDEF TLV in it. */
+    @Benchmark
+    public List<NdefRecordView> fullMemory(Commands commands) throws IOException,
+            NdefFormatException {
+        int bytes = mTag.getResponseBytes();
+        Type2Reader reader = new Type2Reader(mTag);
+        byte[] memory = reader.readAll().getData();
+        // Lock Control TLV, then the NDEF TLV as SimulatedType2Tag writes them
+        int pos = 21;
+        int length = memory[pos + 1] & 0xff;
+        int start = pos + 2;
+        if (length == 0xff) {
+            length = (memory[pos + 2] & 0xff) << 8 | memory[pos + 3] & 0xff;
+            start += 2;
+        }
+        List<NdefRecordView> records = NdefCodec.decode(ByteBuffer.wrap(memory, start, length));
+        commands.commands += reader.getExchanges();
+        commands.responseBytes += mTag.getResponseBytes() - bytes;
+        commands.messages++;
+        return records;
+    }
+}
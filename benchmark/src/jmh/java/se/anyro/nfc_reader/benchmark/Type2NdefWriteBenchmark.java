@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+import se.anyro.nfc_reader.tech.NdefTooLargeException;
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.Type2NdefReader;
+import se.anyro.nfc_reader.tech.Type2NdefWriter;
+import se.anyro.nfc_reader.tech.Type2Reader;
+
+/**
+ * Writing an NDEF message over the one on a simulated NTAG. One operation
+ * writes the other of two messages, which differ as {@link #change} says.
+ * Each WRITE costs a few milliseconds on a phone, so the counters are what
+ * matters: the pages written against the pages the NDEF TLV covers, which
+ * is what writing the whole message takes.
+ *
+ * <p>The setup checks that a written message reads back, that one too
+ * large is refused before anything is written and that a locked tag can
+ * no longer be written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Type2NdefWriteBenchmark {
+
+    /** Where SimulatedType2Tag puts the NDEF TLV. */
+    private static final int TLV_START = 21;
+
+    @Param({"ntag213", "ntag216"})
+    public String chip;
+
+    /**
+     * "none" writes the same message again, "url" changes the last
+     * character of a URL, "length" adds one to it and "all" changes every
+     * byte of a 100 byte payload.
+     */
+    @Param({"none", "url", "length", "all"})
+    public String change;
+
+    /** Commands sent and pages written, summed over all writes. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long writes;
+        public long tlvPages;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            writes = 0;
+            tlvPages = 0;
+            messages = 0;
+        }
+    }
+
+    private SimulatedType2Tag mTag;
+    private byte[][] mMessages;
+    private int mNext;
+
+    @Setup
+    public void setup() throws IOException, NdefFormatException {
+        mMessages = messages(change);
+        mTag = new SimulatedType2Tag(chip, 253);
+        mTag.writeNdef(mMessages[0]);
+        for (byte[] message : mMessages) {
+            new Type2NdefWriter(mTag).write(message);
+            checkRead(mTag, message);
+        }
+        checkTooLarge();
+        checkLock();
+    }
+
+    @Benchmark
+    public int write(Commands commands) throws IOException, NdefFormatException {
+        byte[] message = mMessages[mNext];
+        mNext ^= 1;
+        Type2NdefWriter writer = new Type2NdefWriter(mTag);
+        int pages = writer.write(message);
+        commands.commands += writer.getExchanges();
+        commands.writes += writer.getWrites();
+        // The NDEF TLV follows the Lock Control TLV, and a Terminator TLV follows it
+        commands.tlvPages += (TLV_START + 2 + message.length) / Type2Reader.PAGE_SIZE
+                - TLV_START / Type2Reader.PAGE_SIZE + 1;
+        commands.messages++;
+        return pages;
+    }
+
+    private static byte[][] messages(String change) {
+        String url = "example.com/products/item?id=1234";
+        if ("none".equals(change)) {
+            byte[] message = NdefCorpus.message(NdefCorpus.uriRecord(0x04, url + "5"));
+            return new byte[][] {message, message};
+        } else if ("url".equals(change)) {
+            return new byte[][] {
+                NdefCorpus.message(NdefCorpus.uriRecord(0x04, url + "5")),
+                NdefCorpus.message(NdefCorpus.uriRecord(0x04, url + "6"))
+            };
+        } else if ("length".equals(change)) {
+            return new byte[][] {
+                NdefCorpus.message(NdefCorpus.uriRecord(0x04, url + "5")),
+                NdefCorpus.message(NdefCorpus.uriRecord(0x04, url + "56"))
+            };
+        } else if ("all".equals(change)) {
+            byte[] payload = NdefCorpus.random(100);
+            byte[] inverted = new byte[payload.length];
+            for (int i = 0; i < payload.length; i++) {
+                inverted[i] = (byte) ~payload[i];
+            }
+            byte[] type = "application/octet-stream".getBytes();
+            return new byte[][] {
+                NdefCorpus.message(NdefCorpus.record(NdefRecordView.TNF_MIME_MEDIA, type,
+                        payload)),
+                NdefCorpus.message(NdefCorpus.record(NdefRecordView.TNF_MIME_MEDIA, type,
+                        inverted))
+            };
+        }
+        throw new IllegalArgumentException(change);
+    }
+
+    private static void checkRead(SimulatedType2Tag tag, byte[] message)
+            throws IOException, NdefFormatException {
+        ByteBuffer read = new Type2NdefReader(new Type2Reader(tag)).read();
+        byte[] bytes = new byte[read.remaining()];
+        read.get(bytes);
+        if (!Arrays.equals(bytes, message)) {
+            throw new IllegalStateException("Read back " + bytes.length + " bytes, wrote "
+                    + message.length);
+        }
+    }
+
+    private void checkTooLarge() throws IOException, NdefFormatException {
+        SimulatedType2Tag tag = new SimulatedType2Tag(chip, 253);
+        tag.writeNdef(mMessages[0]);
+        Type2NdefWriter writer = new Type2NdefWriter(tag);
+        byte[] message = NdefCorpus.message(NdefCorpus.record(NdefRecordView.TNF_UNKNOWN,
+                new byte[0], NdefCorpus.random(writer.getMaxSize())));
+        try {
+            writer.write(message);
+            throw new IllegalStateException(message.length + " bytes written");
+        } catch (NdefTooLargeException e) {
+            if (writer.getWrites() != 0) {
+                throw new IllegalStateException(writer.getWrites() + " pages written");
+            }
+        }
+        checkRead(tag, mMessages[0]);
+    }
+
+    private void checkLock() throws IOException, NdefFormatException {
+        SimulatedType2Tag tag = new SimulatedType2Tag(chip, 253);
+        tag.writeNdef(mMessages[0]);
+        new Type2NdefWriter(tag).lock();
+        byte[] memory = tag.memory();
+        if (memory[10] != (byte) 0xff || memory[11] != (byte) 0xff
+                || (memory[15] & 0x0f) != 0x0f) {
+            throw new IllegalStateException("Static lock bytes or CC not set");
+        }
+        Type2NdefWriter writer = new Type2NdefWriter(tag);
+        if (writer.isWritable()) {
+            throw new IllegalStateException("Locked tag is writable");
+        }
+        try {
+            writer.write(mMessages[1]);
+            throw new IllegalStateException("Locked tag was written");
+        } catch (NdefTooLargeException e) {
+            throw e;
+        } catch (IOException e) {
+            // Read-only, as expected
+        }
+        checkRead(tag, mMessages[0]);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.tech.SimulatedType2Tag;
+import se.anyro.nfc_reader.tech.Type2Memory;
+import se.anyro.nfc_reader.tech.Type2Reader;
+
+/**
+ * Full memory reads of simulated Type 2 tags. One operation is one read
+ * of the whole tag. Each command costs a few milliseconds on a phone, so
+ * the command counters are the result that matters: "readAll" uses
+ * FAST_READ where the tag has it, "readLegacy" only READ.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Type2ReadBenchmark {
+
+    @Param({"ultralight", "ntag213", "ntag216"})
+    public String chip;
+
+    /** 253 on most phones. */
+    @Param({"64", "253"})
+    public int maxTransceiveLength;
+
+    /** Commands sent, summed over all reads. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+
+        public long commands;
+        public long reads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+            reads = 0;
+        }
+    }
+
+    private SimulatedType2Tag mTag;
+    private int mPages;
+
+    @Setup
+    public void setup() throws IOException {
+        mTag = new SimulatedType2Tag(chip, maxTransceiveLength);
+        mPages = mTag.memory().length / Type2Reader.PAGE_SIZE;
+        Type2Memory memory = new Type2Reader(mTag).readAll();
+        if (memory.getPageCount() != mPages) {
+            throw new IllegalStateException(memory.getPageCount() + " of " + mPages + " read");
+        }
+    }
+
+    @Benchmark
+    public Type2Memory readAll(Commands commands) throws IOException {
+        Type2Memory memory = new Type2Reader(mTag).readAll();
+        commands.commands += memory.getExchanges();
+        commands.reads++;
+        return memory;
+    }
+
+    /** READ of 4 pages at a time, knowing the size up front. */
+    @Benchmark
+    public byte[] readLegacy(Commands commands) throws IOException {
+        byte[] data = new byte[mPages * Type2Reader.PAGE_SIZE];
+        for (int page = 0; page < mPages; page += 4) {
+            byte[] response = mTag.transceive(new byte[] {0x30, (byte) page});
+            System.arraycopy(response, 0, data, page * 4, Math.min(16, data.length - page * 4));
+            commands.commands++;
+        }
+        commands.reads++;
+        return data;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.ndef.NdefFormatException;
+import se.anyro.nfc_reader.ndef.NdefRecordView;
+import se.anyro.nfc_reader.tech.ApduTransport;
+import se.anyro.nfc_reader.tech.SimulatedType4Tag;
+import se.anyro.nfc_reader.tech.Type4NdefReader;
+
+/**
+ * Reading the NDEF file of a simulated Type 4 tag. One operation is one
+ * message. "reader" is Type4NdefReader, "fixedChunks" the usual way of
+ * reading the length with a READ BINARY of its own and then the message in
+ * short APDUs of at most MLe bytes. Every APDU costs a few milliseconds on a
+ * phone, so the counters are what matters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Type4NdefReadBenchmark {
+
+    private static final int MAX_NDEF_SIZE = 0xfffe;
+
+    /** A DESFire with MLe 59, or a tag taking any Le. */
+    @Param({"desfire", "large"})
+    public String card;
+
+    @Param({"false", "true"})
+    public boolean extendedLength;
+
+    /** Payload bytes of the single MIME record. */
+    @Param({"200", "4000", "30000"})
+    public int size;
+
+    /** APDUs sent and bytes received, summed over all reads. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Apdus {
+
+        public long apdus;
+        public long responseBytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            apdus = 0;
+            responseBytes = 0;
+            messages = 0;
+        }
+    }
+
+    private SimulatedType4Tag mTag;
+
+    @Setup
+    public void setup() {
+        mTag = new SimulatedType4Tag(card, extendedLength, MAX_NDEF_SIZE);
+        mTag.writeNdef(NdefCorpus.message(NdefCorpus.record(NdefRecordView.TNF_MIME_MEDIA,
+                "application/octet-stream".getBytes(), NdefCorpus.random(size))));
+    }
+
+    @Benchmark
+    public ByteBuffer reader(Apdus apdus) throws IOException, NdefFormatException {
+        int bytes = mTag.getResponseBytes();
+        ApduTransport transport = new ApduTransport(mTag, extendedLength);
+        ByteBuffer ndef = new Type4NdefReader(transport).read();
+        apdus.apdus += transport.getExchanges();
+        apdus.responseBytes += mTag.getResponseBytes() - bytes;
+        apdus.messages++;
+        return ndef;
+    }
+
+    /** NLEN on its own, then short READ BINARYs of MLe bytes, up to 255. */
+    @Benchmark
+    public ByteBuffer fixedChunks(Apdus apdus) throws IOException {
+        int bytes = mTag.getResponseBytes();
+        ApduTransport transport = new ApduTransport(mTag, false);
+        transport.transmit(0x00, 0xa4, 0x04, 0x00, new byte[] {
+            (byte) 0xd2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x01
+        }, 256);
+        transport.transmit(0x00, 0xa4, 0x00, 0x0c, new byte[] {(byte) 0xe1, 0x03}, 0);
+        byte[] cc = transport.transmit(0x00, 0xb0, 0x00, 0x00, null, 15).getData();
+        int mle = (cc[3] & 0xff) << 8 | cc[4] & 0xff;
+        transport.transmit(0x00, 0xa4, 0x00, 0x0c, new byte[] {cc[9], cc[10]}, 0);
+        byte[] nlen = transport.transmit(0x00, 0xb0, 0x00, 0x00, null, 2).getData();
+        int length = (nlen[0] & 0xff) << 8 | nlen[1] & 0xff;
+        byte[] message = new byte[length];
+        int chunk = Math.min(mle, 255);
+        for (int pos = 0; pos < length; ) {
+            int offset = pos + 2;
+            byte[] data = transport.transmit(0x00, 0xb0, offset >> 8, offset, null,
+                    Math.min(chunk, length - pos)).getData();
+            System.arraycopy(data, 0, message, pos, data.length);
+            pos += data.length;
+        }
+        apdus.apdus += transport.getExchanges();
+        apdus.responseBytes += mTag.getResponseBytes() - bytes;
+        apdus.messages++;
+        return ByteBuffer.wrap(message);
+    }
+}
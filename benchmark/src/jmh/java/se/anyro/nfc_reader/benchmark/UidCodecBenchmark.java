@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.anyro.nfc_reader.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.anyro.nfc_reader.util.UidCodec;
+
+/**
+ * UidCodec against the StringBuilder based methods TagViewer used before,
+ * which are copied here as the baseline. One operation encodes one UID.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class UidCodecBenchmark {
+
+    /** MIFARE Classic, NTAG and ISO 15693 / 10 byte ISO 14443 UIDs. */
+    @Param({"4", "7", "10"})
+    public int length;
+
+    private byte[] mUid;
+    private String mHex;
+    private final char[] mChars = new char[64];
+    private final byte[] mParsed = new byte[16];
+
+    @Setup
+    public void setup() {
+        mUid = new byte[length];
+        new Random(length).nextBytes(mUid);
+        mHex = UidCodec.toHex(mUid, 0);
+    }
+
+    @Benchmark
+    public String hexLegacy() {
+        return legacyToHex(mUid).replace(" ", "");
+    }
+
+    @Benchmark
+    public int hexCodec() {
+        return UidCodec.encodeHex(mUid, 0, mUid.length, 0, mChars, 0);
+    }
+
+    /** Only correct up to 8 bytes. */
+    @Benchmark
+    public String decLegacy() {
+        return Long.toString(legacyToDec(mUid));
+    }
+
+    @Benchmark
+    public int decCodec() {
+        return UidCodec.encodeDec(mUid, 0, mUid.length, 0, mChars, 0);
+    }
+
+    @Benchmark
+    public int parseHex() {
+        return UidCodec.parseHex(mHex, 0, mParsed, 0);
+    }
+
+    private static String legacyToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = bytes.length - 1; i >= 0; --i) {
+            int b = bytes[i] & 0xff;
+            if (b < 0x10)
+                sb.append('0');
+            sb.append(Integer.toHexString(b));
+            if (i > 0) {
+                sb.append(" ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long legacyToDec(byte[] bytes) {
+        long result = 0;
+        long factor = 1;
+        for (int i = 0; i < bytes.length; ++i) {
+            long value = bytes[i] & 0xffl;
+            result += value * factor;
+            factor *= 256l;
+        }
+        return result;
+    }
+}